@@ -0,0 +1,257 @@
+package com.emergencymesh.app.utils;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.storage.LogMessageStore;
+import com.emergencymesh.core.storage.MessageRepository;
+import com.emergencymesh.core.storage.RetentionEngine;
+import com.emergencymesh.core.storage.StorageUsage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * The SQLite engine against the log engine on the same messages: the
+ * retention queries, keyset paging, and moving messages between the two
+ * when the engine setting changes. Runs on a device; the migration cases
+ * use the app's real message files, so they start and end by deleting them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SqliteMessageStoreTest {
+    private static final String TEST_DATABASE = "test_messages.db";
+    private static final long HOUR = 3600 * 1000L;
+    private static final long NOW = 1700000000000L;
+    private static final String[] TYPES = {"text", "text", "text", "location", "alert"};
+
+    private Context context;
+    private File logFile;
+    private File appLogFile;
+    private LogMessageStore log;
+    private SqliteMessageStore sqlite;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        logFile = new File(context.getCacheDir(), "test_messages.log");
+        appLogFile = new File(context.getFilesDir(), MessageStorage.MESSAGE_LOG_FILE);
+        cleanUp();
+        log = new LogMessageStore(logFile, newSeenFilter());
+        sqlite = new SqliteMessageStore(context, TEST_DATABASE, newSeenFilter());
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+        sqlite.close();
+        cleanUp();
+    }
+
+    private void cleanUp() {
+        logFile.delete();
+        appLogFile.delete();
+        context.deleteDatabase(TEST_DATABASE);
+        context.deleteDatabase(SqliteMessageStore.DATABASE_NAME);
+    }
+
+    private static SeenMessageFilter newSeenFilter() {
+        return new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+    }
+
+    /**
+     * The same mix in every store: each type, our own messages ACKed and
+     * not, and timestamps on a coarse grid so many of them tie.
+     */
+    private static void fill(int count, long seed, MessageRepository... stores) {
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            String type = TYPES[random.nextInt(TYPES.length)];
+            Message message = new Message(new UUID(seed, i).toString(), "Sender " + (i % 20),
+                    "+9100000" + (i % 20), "BROADCAST", "Message body number " + i, type);
+            message.setTimestamp(NOW - random.nextInt(72) * HOUR);
+            if ("alert".equals(type)) message.setAlertId("alert-" + i);
+            boolean outgoing = random.nextInt(4) == 0;
+            boolean delivered = random.nextBoolean();
+            for (MessageRepository store : stores) {
+                Message copy = message.copy();
+                if (outgoing) {
+                    store.storeOutgoingMessage(copy);
+                    if (delivered) store.markMessageAsDelivered(copy.getId());
+                } else {
+                    assertTrue(store.storeIncomingMessage(copy));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void retentionQueries_matchTheLogEngine() {
+        fill(2000, 1, log, sqlite);
+        long cutoff = NOW - 48 * HOUR;
+
+        StorageUsage expected = log.getStorageUsage(cutoff);
+        StorageUsage actual = sqlite.getStorageUsage(cutoff);
+        assertEquals(expected.count, actual.count);
+        assertEquals(expected.bytes, actual.bytes);
+        assertEquals(expected.protectedCount, actual.protectedCount);
+        assertEquals(expected.expired, actual.expired);
+        assertTrue(actual.protectedCount > 0);
+        assertTrue(actual.expired > 0);
+
+        // Every expired message, then a run into the live tiers
+        int limit = expected.expired + 100;
+        List<Message> candidates = sqlite.getEvictionCandidates(cutoff, limit);
+        assertEquals(ids(log.getEvictionCandidates(cutoff, limit)), ids(candidates));
+        for (Message candidate : candidates) {
+            assertFalse(isProtected(sqlite, candidate));
+        }
+
+        List<String> doomed = ids(candidates).subList(0, 300);
+        assertEquals(300, log.deleteMessages(doomed));
+        assertEquals(300, sqlite.deleteMessages(doomed));
+        assertEquals(0, sqlite.deleteMessages(doomed));
+        assertEquals(log.getTotalMessageCount(), sqlite.getTotalMessageCount());
+        assertEquals(ids(log.getEvictionCandidates(cutoff, 200)), ids(sqlite.getEvictionCandidates(cutoff, 200)));
+    }
+
+    private static boolean isProtected(SqliteMessageStore store, Message message) {
+        for (Message outgoing : store.getOutgoingMessages()) {
+            if (outgoing.getId().equals(message.getId())) return !outgoing.isDelivered();
+        }
+        return false;
+    }
+
+    @Test
+    public void retentionEngine_keepsSqliteWithinCaps() {
+        fill(3000, 2, sqlite);
+        int undelivered = sqlite.getStorageUsage(Long.MIN_VALUE).protectedCount;
+        int alerts = sqlite.getMessagesByType("alert").size();
+        RetentionEngine.Policy policy = new RetentionEngine.Policy();
+        policy.maxMessages = 1500;
+        policy.maxAgeMs = 48 * HOUR;
+        policy.maxBytes = 0;
+        policy.maxEvictionsPerRun = 250;
+        RetentionEngine retention = new RetentionEngine(sqlite, policy);
+
+        int passes = 0;
+        while (retention.runOnce(NOW) > 0) passes++;
+
+        assertTrue(passes > 1);
+        assertTrue(sqlite.getTotalMessageCount() <= 1500);
+        assertEquals(0, sqlite.getStorageUsage(NOW - policy.maxAgeMs).expired);
+        assertEquals(undelivered, sqlite.getStorageUsage(NOW).protectedCount);
+        // Chatter and location reports go before any alert
+        assertEquals(alerts, sqlite.getMessagesByType("alert").size());
+    }
+
+    @Test
+    public void keysetPaging_walksEveryMessageOnceInLogOrder() {
+        fill(1500, 3, log, sqlite);
+
+        List<String> walked = walk(sqlite, 37);
+        assertEquals(walk(log, 37), walked);
+        assertEquals(1500, walked.size());
+        assertEquals(1500, new HashSet<>(walked).size());
+
+        // A page can start from any message, including one among equal timestamps
+        Message middle = sqlite.getMessageById(walked.get(700));
+        assertEquals(walked.subList(701, 751), ids(sqlite.getOlderMessages(middle, 50)));
+        assertEquals(walked.subList(0, 50), ids(sqlite.getRecentMessages(50)));
+    }
+
+    private static List<String> walk(MessageRepository store, int pageSize) {
+        List<String> walked = new ArrayList<>();
+        Message last = null;
+        long previous = Long.MAX_VALUE;
+        while (true) {
+            List<Message> page = store.getOlderMessages(last, pageSize);
+            if (page.isEmpty()) return walked;
+            for (Message message : page) {
+                assertTrue(message.getTimestamp() <= previous);
+                previous = message.getTimestamp();
+                walked.add(message.getId());
+            }
+            last = page.get(page.size() - 1);
+        }
+    }
+
+    @Test
+    public void openSqlite_movesTheMessageLogAcross() {
+        LogMessageStore previous = new LogMessageStore(appLogFile, newSeenFilter());
+        fill(500, 4, previous);
+        List<String> outgoing = ids(previous.getOutgoingMessages());
+        List<String> incoming = ids(previous.getIncomingMessages());
+        Set<String> delivered = deliveredIds(previous);
+        previous.close();
+
+        SqliteMessageStore moved = (SqliteMessageStore) MessageStorage.openSqlite(context);
+        try {
+            assertEquals(outgoing, ids(moved.getOutgoingMessages()));
+            assertEquals(incoming, ids(moved.getIncomingMessages()));
+            assertEquals(delivered, deliveredIds(moved));
+            assertFalse("log left behind after the move", appLogFile.exists());
+        } finally {
+            moved.close();
+        }
+
+        // Already on SQLite: a second open moves nothing
+        SqliteMessageStore reopened = (SqliteMessageStore) MessageStorage.openSqlite(context);
+        try {
+            assertEquals(500, reopened.getTotalMessageCount());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void openLog_movesSqliteAcross() {
+        SqliteMessageStore previous = new SqliteMessageStore(context, newSeenFilter());
+        fill(500, 5, previous);
+        List<String> outgoing = ids(previous.getOutgoingMessages());
+        List<String> incoming = ids(previous.getIncomingMessages());
+        Set<String> delivered = deliveredIds(previous);
+        previous.close();
+
+        LogMessageStore moved = (LogMessageStore) MessageStorage.openLog(context);
+        try {
+            assertEquals(outgoing, ids(moved.getOutgoingMessages()));
+            assertEquals(incoming, ids(moved.getIncomingMessages()));
+            assertEquals(delivered, deliveredIds(moved));
+            assertFalse("database left behind after the move",
+                    context.getDatabasePath(SqliteMessageStore.DATABASE_NAME).exists());
+        } finally {
+            moved.close();
+        }
+    }
+
+    private static Set<String> deliveredIds(MessageRepository store) {
+        Set<String> delivered = new HashSet<>();
+        for (Message message : store.getOutgoingMessages()) {
+            if (message.isDelivered()) delivered.add(message.getId());
+        }
+        return delivered;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) ids.add(message.getId());
+        return ids;
+    }
+}
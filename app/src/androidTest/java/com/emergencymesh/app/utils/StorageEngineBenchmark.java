@@ -0,0 +1,166 @@
+package com.emergencymesh.app.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.storage.LogMessageStore;
+import com.emergencymesh.core.storage.MessageRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Times the log and SQLite engines on the same collection-point inbox, on
+ * a real device, and checks they page through it identically. Results go
+ * to logcat under the StorageEngineBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StorageEngineBenchmark {
+    private static final String TAG = "StorageEngineBenchmark";
+
+    private static final int INBOX_SIZE = 20000;
+    private static final int PAGE_SIZE = 50;
+    private static final int REPEATS = 200;
+    private static final String[] TYPES = {"text", "text", "text", "location", "alert"};
+    private static final String BENCH_DATABASE = "bench_messages.db";
+
+    private Context context;
+    private File sourceFile;
+    private File logFile;
+    private LogMessageStore source;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        sourceFile = new File(context.getCacheDir(), "bench_source.log");
+        logFile = new File(context.getCacheDir(), "bench_messages.log");
+        cleanUp();
+
+        source = new LogMessageStore(sourceFile, newSeenFilter());
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < INBOX_SIZE; i++) {
+            Message message = new Message(new UUID(random.nextLong(), i).toString(), "Sender " + (i % 200),
+                    "+9100000" + (i % 200), "BROADCAST", "Message body number " + i, TYPES[i % TYPES.length]);
+            message.setTimestamp(now - random.nextInt(7 * 24 * 3600) * 1000L);
+            source.storeIncomingMessage(message);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        cleanUp();
+    }
+
+    private void cleanUp() {
+        sourceFile.delete();
+        logFile.delete();
+        context.deleteDatabase(BENCH_DATABASE);
+    }
+
+    private static SeenMessageFilter newSeenFilter() {
+        return new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+    }
+
+    @Test
+    public void logAndSqlite_sameResultsAndTimings() {
+        long started = System.nanoTime();
+        LogMessageStore log = new LogMessageStore(logFile, newSeenFilter());
+        log.importFrom(source);
+        report("log", "batch insert", System.nanoTime() - started);
+
+        started = System.nanoTime();
+        SqliteMessageStore sqlite = new SqliteMessageStore(context, BENCH_DATABASE, newSeenFilter());
+        sqlite.importFrom(source);
+        report("sqlite", "batch insert", System.nanoTime() - started);
+
+        assertEquals(INBOX_SIZE, log.getTotalMessageCount());
+        assertEquals(INBOX_SIZE, sqlite.getTotalMessageCount());
+
+        // Both engines must walk the inbox in the same order
+        Message middle = source.getAllMessages().get(INBOX_SIZE / 2);
+        assertEquals(ids(log.getRecentMessages(PAGE_SIZE)), ids(sqlite.getRecentMessages(PAGE_SIZE)));
+        assertEquals(ids(log.getOlderMessages(middle, PAGE_SIZE)), ids(sqlite.getOlderMessages(middle, PAGE_SIZE)));
+
+        for (MessageRepository store : Arrays.asList(log, sqlite)) {
+            String engine = store == log ? "log" : "sqlite";
+            measureReads(engine, store, middle);
+            measureStore(engine, store);
+        }
+
+        log.close();
+        started = System.nanoTime();
+        LogMessageStore reopenedLog = new LogMessageStore(logFile, newSeenFilter());
+        reopenedLog.getRecentMessages(PAGE_SIZE);
+        report("log", "open + first page", System.nanoTime() - started);
+        reopenedLog.close();
+
+        sqlite.close();
+        started = System.nanoTime();
+        SqliteMessageStore reopenedSqlite = new SqliteMessageStore(context, BENCH_DATABASE, newSeenFilter());
+        reopenedSqlite.getRecentMessages(PAGE_SIZE);
+        report("sqlite", "open + first page", System.nanoTime() - started);
+        reopenedSqlite.close();
+    }
+
+    private void measureReads(String engine, MessageRepository store, Message middle) {
+        long started = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) assertNotNull(store.getMessageById(middle.getId()));
+        report(engine, "getMessageById", (System.nanoTime() - started) / REPEATS);
+
+        started = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) store.getRecentMessages(PAGE_SIZE);
+        report(engine, "first page", (System.nanoTime() - started) / REPEATS);
+
+        started = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) store.getOlderMessages(middle, PAGE_SIZE);
+        report(engine, "page at middle", (System.nanoTime() - started) / REPEATS);
+
+        started = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) store.getUnreadMessageCount();
+        report(engine, "unread count", (System.nanoTime() - started) / REPEATS);
+
+        started = System.nanoTime();
+        store.getMessagesByType("alert");
+        report(engine, "alerts by type", System.nanoTime() - started);
+    }
+
+    private void measureStore(String engine, MessageRepository store) {
+        long started = System.nanoTime();
+        for (int i = 0; i < REPEATS; i++) {
+            Message message = new Message(new UUID(0x5EEDL, i).toString(), "Bench", "+910000000000",
+                    "BROADCAST", "Fresh message " + i, "text");
+            assertTrue(store.storeIncomingMessage(message));
+        }
+        report(engine, "storeIncomingMessage", (System.nanoTime() - started) / REPEATS);
+    }
+
+    private static void report(String engine, String operation, long nanos) {
+        Log.i(TAG, String.format(Locale.US, "%-7s %-22s %10.1f us (%d messages)",
+                engine, operation, nanos / 1000.0, INBOX_SIZE));
+    }
+
+    private static String ids(List<Message> messages) {
+        StringBuilder ids = new StringBuilder();
+        for (Message message : messages) ids.append(message.getId()).append(',');
+        return ids.toString();
+    }
+}
@@ -16,7 +16,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
-import com.emergencymesh.app.models.Message;
+import com.emergencymesh.core.model.Message;
 import com.emergencymesh.app.services.BluetoothMeshService;
 import com.emergencymesh.app.services.GlobalMeshService;
 import com.emergencymesh.app.utils.SharedPrefsHelper;
@@ -9,19 +9,23 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.emergencymesh.app.adapters.MessageAdapter;
-import com.emergencymesh.app.models.Message;
+import com.emergencymesh.core.model.Message;
 import com.emergencymesh.app.utils.MessageStorage;
+import java.util.ArrayList;
 import java.util.List;
 
 public class MessageInboxActivity extends AppCompatActivity {
 
     private static final String TAG = "MessageInboxActivity";
+    // Messages read per page; the next page loads as the list nears its end
+    private static final int PAGE_SIZE = 50;
 
     private RecyclerView rvMessages;
     private TextView tvEmptyState, tvMessageCount;
     private MessageAdapter adapter;
     private MessageStorage messageStorage;
     private List<Message> messageList;
+    private boolean reachedEnd = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -56,12 +60,28 @@ public class MessageInboxActivity extends AppCompatActivity {
 
     private void setupRecyclerView() {
         try {
-            messageList = messageStorage.getAllMessages();
+            messageList = new ArrayList<>();
             adapter = new MessageAdapter(messageList);
 
             if (rvMessages != null) {
-                rvMessages.setLayoutManager(new LinearLayoutManager(this));
+                final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+                rvMessages.setLayoutManager(layoutManager);
                 rvMessages.setAdapter(adapter);
+                rvMessages.addOnScrollListener(new RecyclerView.OnScrollListener() {
+                    @Override
+                    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                        if (dy <= 0 || reachedEnd) return;
+                        if (layoutManager.findLastVisibleItemPosition() >= messageList.size() - PAGE_SIZE / 2) {
+                            // Not from inside the scroll callback
+                            recyclerView.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    loadNextPage();
+                                }
+                            });
+                        }
+                    }
+                });
             }
 
         } catch (Exception e) {
@@ -73,7 +93,8 @@ public class MessageInboxActivity extends AppCompatActivity {
         try {
             if (messageList != null && messageStorage != null) {
                 messageList.clear();
-                messageList.addAll(messageStorage.getAllMessages());
+                reachedEnd = false;
+                messageList.addAll(nextPage());
 
                 if (adapter != null) {
                     adapter.notifyDataSetChanged();
@@ -87,9 +108,31 @@ public class MessageInboxActivity extends AppCompatActivity {
         }
     }
 
+    private void loadNextPage() {
+        try {
+            if (reachedEnd || messageList == null || messageStorage == null) return;
+            int start = messageList.size();
+            List<Message> page = nextPage();
+            if (page.isEmpty()) return;
+            messageList.addAll(page);
+            if (adapter != null) {
+                adapter.notifyItemRangeInserted(start, page.size());
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error loading more messages", e);
+        }
+    }
+
+    private List<Message> nextPage() {
+        Message last = messageList.isEmpty() ? null : messageList.get(messageList.size() - 1);
+        List<Message> page = messageStorage.getOlderMessages(last, PAGE_SIZE);
+        if (page.size() < PAGE_SIZE) reachedEnd = true;
+        return page;
+    }
+
     private void updateUI() {
         try {
-            int totalMessages = messageList != null ? messageList.size() : 0;
+            int totalMessages = messageStorage != null ? messageStorage.getTotalMessageCount() : 0;
 
             if (tvMessageCount != null) {
                 tvMessageCount.setText("Messages: " + totalMessages);
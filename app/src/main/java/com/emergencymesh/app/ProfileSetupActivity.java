@@ -4,16 +4,19 @@ import android.os.Bundle;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import com.emergencymesh.app.utils.MessageStorage;
 import com.emergencymesh.app.utils.SharedPrefsHelper;
 
 public class ProfileSetupActivity extends AppCompatActivity {
 
     private EditText etName, etPhone, etEmergencyContact;
     private Spinner spinnerBloodGroup, spinnerRole;
+    private CheckBox cbCollectionPoint;
     private Button btnSaveProfile;
     private SharedPrefsHelper prefsHelper;
 
@@ -36,6 +39,7 @@ public class ProfileSetupActivity extends AppCompatActivity {
         etEmergencyContact = findViewById(R.id.etEmergencyContact);
         spinnerBloodGroup = findViewById(R.id.spinnerBloodGroup);
         spinnerRole = findViewById(R.id.spinnerRole);
+        cbCollectionPoint = findViewById(R.id.cbCollectionPoint);
         btnSaveProfile = findViewById(R.id.btnSaveProfile);
     }
 
@@ -72,6 +76,8 @@ public class ProfileSetupActivity extends AppCompatActivity {
         } else {
             spinnerRole.setSelection(0); // Default to emergency
         }
+
+        cbCollectionPoint.setChecked(MessageStorage.ENGINE_SQLITE.equals(prefsHelper.getStorageEngine()));
     }
 
     private void setupSaveButton() {
@@ -104,6 +110,7 @@ public class ProfileSetupActivity extends AppCompatActivity {
         // Save profile with role
         prefsHelper.saveProfile(name, phone, emergencyContact, bloodGroup);
         prefsHelper.setUserRole(role);
+        prefsHelper.setStorageEngine(cbCollectionPoint.isChecked() ? MessageStorage.ENGINE_SQLITE : MessageStorage.ENGINE_LOG);
 
         String roleText = "emergency".equals(role) ? "Emergency (will auto-send alert when connected)" : "Saviour (ready to help)";
         Toast.makeText(this, "Profile saved! Role: " + roleText, Toast.LENGTH_LONG).show();
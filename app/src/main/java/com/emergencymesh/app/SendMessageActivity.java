@@ -17,7 +17,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
-import com.emergencymesh.app.models.Message;
+import com.emergencymesh.core.model.Message;
 import com.emergencymesh.app.services.BluetoothMeshService;
 import com.emergencymesh.app.services.GlobalMeshService;
 import com.emergencymesh.app.utils.SharedPrefsHelper;
@@ -212,8 +212,9 @@ public class SendMessageActivity extends AppCompatActivity {
                         "SENT successfully!";
                 Toast.makeText(this, msg, Toast.LENGTH_LONG).show();
             } else {
-                // NOT CONNECTED - JUST STORED
-                Toast.makeText(this, "Message saved. Go to Mesh Network to connect and send.", Toast.LENGTH_LONG).show();
+                // NOT CONNECTED - QUEUED UNTIL A PEER CONNECTS
+                meshService.queueForDelivery(message);
+                Toast.makeText(this, "Message queued. It will be sent when a device connects.", Toast.LENGTH_LONG).show();
             }
         } else {
             Toast.makeText(this, "Service error. Message saved locally.", Toast.LENGTH_SHORT).show();
@@ -240,7 +241,7 @@ public class SendMessageActivity extends AppCompatActivity {
             tvConnectionStatus.setText("✓ Connected to " + connections.size() + " device(s)");
             tvConnectionStatus.setTextColor(getColor(android.R.color.holo_green_dark));
         } else {
-            tvConnectionStatus.setText("Not connected - Messages will be saved");
+            tvConnectionStatus.setText("Not connected - Messages will be queued");
             tvConnectionStatus.setTextColor(getColor(android.R.color.holo_orange_dark));
         }
     }
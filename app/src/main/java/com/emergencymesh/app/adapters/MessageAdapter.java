@@ -7,7 +7,7 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 import androidx.recyclerview.widget.RecyclerView;
 import com.emergencymesh.app.R;
-import com.emergencymesh.app.models.Message;
+import com.emergencymesh.core.model.Message;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -3,47 +3,68 @@ package com.emergencymesh.app.services;
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothServerSocket;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.location.Location;
+import android.location.LocationListener;
 import android.location.LocationManager;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 import androidx.core.app.ActivityCompat;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.google.gson.Gson;
-import com.emergencymesh.app.models.Message;
+import com.emergencymesh.app.utils.AndroidLogSink;
 import com.emergencymesh.app.utils.MessageStorage;
+import com.emergencymesh.app.utils.PreferencesStore;
 import com.emergencymesh.app.utils.SharedPrefsHelper;
-
-import java.io.BufferedReader;
+import com.emergencymesh.core.mesh.AlertBeacon;
+import com.emergencymesh.core.mesh.BroadcastResult;
+import com.emergencymesh.core.mesh.Heartbeat;
+import com.emergencymesh.core.mesh.MeshExecutors;
+import com.emergencymesh.core.mesh.MeshNode;
+import com.emergencymesh.core.mesh.OutboundQueue;
+import com.emergencymesh.core.mesh.RateLimiter;
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+import com.emergencymesh.core.storage.SerialMessageStore;
+import com.emergencymesh.core.util.MeshLog;
+
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * Emergency Mesh Service with:
  * - Bidirectional messaging
  * - Emergency role support
- * - Auto-send features
+ * - Alert beaconing and live-location tracking while in the emergency role
  * - Delivery status tracking
+ * - Mesh protocol, relaying and routing from MeshNode in the core module,
+ *   running over Bluetooth RFCOMM links (see BluetoothTransport)
  */
-public class BluetoothMeshService {
+public class BluetoothMeshService implements MeshNode.Listener {
     private static final String TAG = "EmergencyMesh";
 
-    private static final UUID MESH_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-    private static final String SERVICE_NAME = "EmergencyMesh";
+    // How long a peer's writer has to put a broadcast on the socket
+    public static final long PEER_SEND_DEADLINE_MS = MeshNode.PEER_SEND_DEADLINE_MS;
+
+    // End-to-end retries of our own messages survive restarts in this file
+    private static final String RETRANSMISSION_FILE = "retransmissions.json";
+    // The active alert session survives restarts in these preferences
+    private static final String ALERT_PREFS = "AlertSession";
+    private static final String ALERT_RESOLVED = "✅ EMERGENCY RESOLVED\n\nI no longer need help.";
+
+    // How often the location provider reports while tracking; MeshNode decides what is sent
+    private static final long TRACKING_INTERVAL_MS = 5000;
 
     // Broadcast actions for UI updates
     public static final String ACTION_MESSAGE_RECEIVED = "com.emergencymesh.MESSAGE_RECEIVED";
@@ -52,17 +73,18 @@ public class BluetoothMeshService {
     public static final String ACTION_DEVICE_CONNECTED = "com.emergencymesh.DEVICE_CONNECTED";
     public static final String ACTION_DEVICE_DISCONNECTED = "com.emergencymesh.DEVICE_DISCONNECTED";
     public static final String ACTION_DISCOVERY_DEVICE = "com.emergencymesh.DISCOVERY_DEVICE";
+    public static final String ACTION_POSITION_UPDATED = "com.emergencymesh.POSITION_UPDATED";
 
     public static final String EXTRA_MESSAGE = "message";
     public static final String EXTRA_DEVICE_ADDRESS = "device_address";
     public static final String EXTRA_DEVICE_NAME = "device_name";
     public static final String EXTRA_MESSAGE_ID = "message_id";
     public static final String EXTRA_ERROR = "error";
+    public static final String EXTRA_POSITION = "position";
 
     private Context context;
     private BluetoothAdapter bluetoothAdapter;
-    private AcceptThread serverThread;
-    private ConcurrentHashMap<String, SimpleConnection> activeConnections;
+    private BluetoothTransport transport;
     private List<BluetoothDevice> discoveredDevices;
     private boolean isRunning = false;
 
@@ -71,252 +93,31 @@ public class BluetoothMeshService {
     private Handler mainHandler;
     private Gson gson;
     private LocalBroadcastManager broadcastManager;
-
-    private class SimpleConnection {
-        private final BluetoothSocket socket;
-        private final String deviceAddress;
-        private final String deviceName;
-        private final PrintWriter writer;
-        private final BufferedReader reader;
-        private final Thread readerThread;
-        private volatile boolean isActive = true;
-
-        public SimpleConnection(BluetoothSocket socket) throws IOException {
-            this.socket = socket;
-            this.deviceAddress = socket.getRemoteDevice().getAddress();
-            // FIXED: Call the outer class method explicitly
-            this.deviceName = BluetoothMeshService.this.getDeviceName(socket.getRemoteDevice());
-
-            this.writer = new PrintWriter(socket.getOutputStream(), true);
-            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            this.readerThread = new Thread(this::readMessages);
-            this.readerThread.start();
-
-            Log.d(TAG, "Connection established with " + deviceName);
-            broadcastDeviceConnected(deviceAddress, deviceName);
-
-            // AUTO-SEND EMERGENCY ALERT IF IN EMERGENCY ROLE
-            autoSendEmergencyAlert();
-        }
-
-        private void autoSendEmergencyAlert() {
-            String role = prefsHelper.getUserRole();
-            if ("emergency".equals(role)) {
-                // Auto-send emergency alert
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    Message alertMsg = new Message(
-                            UUID.randomUUID().toString(),
-                            prefsHelper.getName(),
-                            prefsHelper.getPhone(),
-                            "AUTO",
-                            "🚨 AUTOMATIC EMERGENCY ALERT\n\nI need help! This is an automatic distress signal.\n\nFrom: " +
-                                    prefsHelper.getName() + "\nPhone: " + prefsHelper.getPhone(),
-                            "alert"
-                    );
-                    sendMessage(alertMsg);
-
-                    // Auto-send location after 2 seconds
-                    new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                        sendAutoLocation();
-                    }, 2000);
-                }, 1000);
-            }
-        }
-
-        private void sendAutoLocation() {
-            try {
-                if (ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
-                        != PackageManager.PERMISSION_GRANTED) {
-                    return;
-                }
-
-                LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
-                if (locationManager == null) return;
-
-                Location location = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
-                if (location == null) {
-                    location = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
-                }
-
-                if (location != null) {
-                    String locationMsg = String.format(
-                            "📍 AUTOMATIC LOCATION SHARE\n\n" +
-                                    "From: %s\nPhone: %s\n\n" +
-                                    "Coordinates: %.6f, %.6f\n" +
-                                    "Accuracy: %.0fm\n\n" +
-                                    "https://maps.google.com/?q=%.6f,%.6f",
-                            prefsHelper.getName(),
-                            prefsHelper.getPhone(),
-                            location.getLatitude(),
-                            location.getLongitude(),
-                            location.getAccuracy(),
-                            location.getLatitude(),
-                            location.getLongitude()
-                    );
-
-                    Message locMsg = new Message(
-                            UUID.randomUUID().toString(),
-                            prefsHelper.getName(),
-                            prefsHelper.getPhone(),
-                            "AUTO",
-                            locationMsg,
-                            "location"
-                    );
-                    sendMessage(locMsg);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error sending auto location", e);
-            }
-        }
-
-        private void readMessages() {
-            try {
-                String line;
-                while (isActive && (line = reader.readLine()) != null) {
-                    if (!line.trim().isEmpty()) {
-                        handleReceivedMessage(line.trim());
-                    }
-                }
-            } catch (IOException e) {
-                Log.d(TAG, "Connection ended with " + deviceAddress);
-            } finally {
-                disconnect();
-            }
-        }
-
-        private void handleReceivedMessage(String jsonMessage) {
-            try {
-                if ("PING".equals(jsonMessage)) return;
-
-                Message message = gson.fromJson(jsonMessage, Message.class);
-                if (message != null && !"ack".equals(message.getMessageType())) {
-                    // Store incoming message
-                    messageStorage.storeIncomingMessage(message);
-
-                    // Broadcast to UI
-                    broadcastMessageReceived(message, deviceAddress);
-
-                    // Send acknowledgment back
-                    sendAck(message.getId());
-
-                    Log.d(TAG, "Message received: " + message.getMessageType() + " from " + deviceAddress);
-                } else if (message != null && "ack".equals(message.getMessageType())) {
-                    // Mark original message as delivered
-                    String originalMsgId = message.getContent().replace("ACK:", "");
-                    messageStorage.markMessageAsDelivered(originalMsgId);
-                    broadcastMessageSent(originalMsgId, deviceAddress);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing message", e);
-            }
-        }
-
-        private void sendAck(String originalMessageId) {
-            try {
-                Message ack = new Message(
-                        UUID.randomUUID().toString(),
-                        prefsHelper.getName(),
-                        prefsHelper.getPhone(),
-                        "",
-                        "ACK:" + originalMessageId,
-                        "ack"
-                );
-                String json = gson.toJson(ack);
-                writer.println(json);
-            } catch (Exception e) {
-                Log.e(TAG, "Error sending ACK", e);
-            }
-        }
-
-        public boolean sendMessage(Message message) {
-            if (!isActive || writer == null) return false;
-
-            try {
-                String jsonMessage = gson.toJson(message);
-                writer.println(jsonMessage);
-
-                if (writer.checkError()) {
-                    Log.e(TAG, "Error sending to " + deviceAddress);
-                    return false;
-                }
-
-                Log.d(TAG, "Message sent to " + deviceAddress);
-                return true;
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to send to " + deviceAddress, e);
-                return false;
-            }
-        }
-
-        public void disconnect() {
-            isActive = false;
-            try {
-                if (socket != null) socket.close();
-                if (writer != null) writer.close();
-                if (reader != null) reader.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing connection", e);
-            }
-
-            activeConnections.remove(deviceAddress);
-            broadcastDeviceDisconnected(deviceAddress);
-        }
-
-        public boolean isConnected() {
-            return isActive && socket != null && socket.isConnected();
-        }
-
-        public String getDeviceAddress() {
-            return deviceAddress;
-        }
-
-        public String getDeviceName() {
-            return deviceName;
-        }
-    }
-
-    private class AcceptThread extends Thread {
-        private final BluetoothServerSocket serverSocket;
-
-        public AcceptThread() {
-            BluetoothServerSocket tmp = null;
-            try {
-                if (hasBluetoothPermission()) {
-                    tmp = bluetoothAdapter.listenUsingRfcommWithServiceRecord(SERVICE_NAME, MESH_UUID);
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Error creating server", e);
-            }
-            serverSocket = tmp;
+    private SeenMessageFilter seenFilter;
+    private MeshNode node;
+    private AlertBeacon alertBeacon;
+    private UserRoleController roleController;
+    private LocationManager locationManager;
+    private boolean isTracking = false;
+
+    private final LocationListener trackingListener = new LocationListener() {
+        @Override
+        public void onLocationChanged(Location location) {
+            node.publishPosition(location.getLatitude(), location.getLongitude(),
+                    location.getAccuracy(), location.getTime());
         }
+    };
 
-        public void run() {
-            Log.d(TAG, "Emergency server started");
-
-            while (isRunning && serverSocket != null) {
-                try {
-                    BluetoothSocket socket = serverSocket.accept();
-                    if (socket != null) {
-                        handleNewConnection(socket);
-                    }
-                } catch (IOException e) {
-                    if (isRunning) {
-                        Log.e(TAG, "Accept error", e);
+    // Held here because SharedPreferences keeps its listeners only weakly
+    private final SharedPreferences.OnSharedPreferenceChangeListener roleListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences preferences, String key) {
+                    if (SharedPrefsHelper.KEY_USER_ROLE.equals(key)) {
+                        roleController.onRoleChanged(prefsHelper.getUserRole());
                     }
-                    break;
                 }
-            }
-        }
-
-        public void cancel() {
-            try {
-                if (serverSocket != null) serverSocket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing server", e);
-            }
-        }
-    }
+            };
 
     private final BroadcastReceiver bluetoothReceiver = new BroadcastReceiver() {
         @Override
@@ -333,16 +134,64 @@ public class BluetoothMeshService {
     };
 
     public BluetoothMeshService(Context context) {
+        MeshLog.setSink(new AndroidLogSink());
+
         this.context = context.getApplicationContext();
         this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        this.activeConnections = new ConcurrentHashMap<>();
+        this.transport = new BluetoothTransport(this.context, bluetoothAdapter);
         this.discoveredDevices = new ArrayList<>();
         this.messageStorage = new MessageStorage(context);
+        this.seenFilter = MessageStorage.getSeenFilter(context);
         this.prefsHelper = new SharedPrefsHelper(context);
         this.mainHandler = new Handler(Looper.getMainLooper());
         this.gson = new Gson();
         this.broadcastManager = LocalBroadcastManager.getInstance(context);
 
+        MeshNode.Identity identity = new MeshNode.Identity() {
+            @Override
+            public String getName() {
+                return prefsHelper.getName();
+            }
+
+            @Override
+            public String getPhone() {
+                return prefsHelper.getPhone();
+            }
+        };
+        this.node = new MeshNode(new MeshNode.Config(), identity, messageStorage, seenFilter,
+                new File(this.context.getFilesDir(), RETRANSMISSION_FILE), this);
+        this.alertBeacon = new AlertBeacon(node, messageStorage,
+                new PreferencesStore(this.context.getSharedPreferences(ALERT_PREFS, Context.MODE_PRIVATE)),
+                identity, this::composeAlert);
+        this.roleController = new UserRoleController(new UserRoleController.Actions() {
+            @Override
+            public void startAlert() {
+                alertBeacon.start();
+            }
+
+            @Override
+            public boolean isAlertActive() {
+                return alertBeacon.isActive();
+            }
+
+            @Override
+            public void resolveAlert() {
+                alertBeacon.stop(ALERT_RESOLVED);
+            }
+
+            @Override
+            public void startLocationTracking() {
+                BluetoothMeshService.this.startLocationTracking();
+            }
+
+            @Override
+            public void stopLocationTracking() {
+                BluetoothMeshService.this.stopLocationTracking();
+            }
+        }, prefsHelper.getUserRole());
+        // Role changes on the profile screen reach the running service straight away
+        prefsHelper.registerChangeListener(roleListener);
+
         IntentFilter filter = new IntentFilter(BluetoothDevice.ACTION_FOUND);
         context.registerReceiver(bluetoothReceiver, filter);
     }
@@ -359,20 +208,79 @@ public class BluetoothMeshService {
     public void startServer() {
         if (isRunning || !isBluetoothEnabled()) return;
 
-        isRunning = true;
-        serverThread = new AcceptThread();
-        serverThread.start();
-        Log.d(TAG, "Server started");
+        try {
+            node.listen(transport);
+            isRunning = true;
+            Log.d(TAG, "Server started");
+            roleController.onStarted();
+        } catch (IOException e) {
+            Log.e(TAG, "Error creating server", e);
+        }
     }
 
-    public void stopServer() {
-        isRunning = false;
-        if (serverThread != null) serverThread.cancel();
+    /**
+     * Beacons one alert session and streams live location while the user is
+     * in the emergency role; publishes the alert's resolution once they leave it.
+     * Role changes are picked up on their own; this re-reads the saved role.
+     */
+    public void applyUserRole() {
+        roleController.onRoleChanged(prefsHelper.getUserRole());
+    }
+
+    /**
+     * Streams our position to connected peers as the location provider
+     * reports it. Small movements are filtered out by the node.
+     */
+    public void startLocationTracking() {
+        if (isTracking) return;
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            Log.w(TAG, "No location permission, live location not started");
+            return;
+        }
+
+        locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        if (locationManager == null) return;
 
-        for (SimpleConnection conn : activeConnections.values()) {
-            conn.disconnect();
+        try {
+            String provider = locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)
+                    ? LocationManager.GPS_PROVIDER : LocationManager.NETWORK_PROVIDER;
+            locationManager.requestLocationUpdates(provider, TRACKING_INTERVAL_MS, 0, trackingListener,
+                    Looper.getMainLooper());
+            isTracking = true;
+            Log.d(TAG, "Live location started (" + provider + ")");
+        } catch (SecurityException | IllegalArgumentException e) {
+            Log.e(TAG, "Error starting live location", e);
         }
-        activeConnections.clear();
+    }
+
+    public void stopLocationTracking() {
+        if (!isTracking) return;
+        isTracking = false;
+        locationManager.removeUpdates(trackingListener);
+        Log.d(TAG, "Live location stopped");
+    }
+
+    public boolean isLocationTracking() {
+        return isTracking;
+    }
+
+    /**
+     * Latest live-location fix per sender phone, ours included.
+     */
+    public List<PositionFix> getLatestPositions() {
+        return node.getPositions().getAll();
+    }
+
+    public String getActiveAlertId() {
+        return alertBeacon.getAlertId();
+    }
+
+    public void stopServer() {
+        isRunning = false;
+        roleController.onStopped();
+        transport.stopListening();
+        node.disconnectAll();
     }
 
     public void startDiscovery() {
@@ -400,73 +308,176 @@ public class BluetoothMeshService {
     }
 
     public void connectToDevice(BluetoothDevice device) {
-        if (device == null || activeConnections.containsKey(device.getAddress())) return;
+        if (device == null) return;
+        node.connect(transport, device.getAddress());
+    }
 
-        new Thread(() -> {
-            try {
-                if (!hasBluetoothPermission()) return;
+    /**
+     * Keeps a stored outgoing message until a peer ACKs it, forwarding it to
+     * every peer that connects in the meantime.
+     */
+    public void queueForDelivery(Message message) {
+        node.queueForDelivery(message);
+    }
 
-                BluetoothSocket socket = device.createRfcommSocketToServiceRecord(MESH_UUID);
-                stopDiscovery();
-                socket.connect();
+    public int getPendingOutgoingCount() {
+        return node.getPendingOutgoingCount();
+    }
 
-                handleNewConnection(socket);
+    public BroadcastResult broadcastMessage(Message message) {
+        return node.broadcastMessage(message);
+    }
 
-            } catch (IOException e) {
-                Log.e(TAG, "Connection failed", e);
-            }
-        }).start();
+    /**
+     * Hands the message to every connected peer's writer at once and returns
+     * without waiting. The result lists the peers that put it on the wire
+     * within the deadline; ACTION_MESSAGE_FAILED fires only if none did.
+     * A message addressed to a phone with a known route goes to the next hop only.
+     */
+    public BroadcastResult broadcastMessage(Message message, long deadlineMs) {
+        return node.broadcastMessage(message, deadlineMs);
     }
 
-    private void handleNewConnection(BluetoothSocket socket) {
-        try {
-            String deviceAddress = socket.getRemoteDevice().getAddress();
+    /**
+     * Thread and queue counts for the connection, dial and timer pools.
+     */
+    public MeshExecutors.Stats getExecutorStats() {
+        return node.getExecutorStats();
+    }
 
-            if (activeConnections.containsKey(deviceAddress)) {
-                socket.close();
-                return;
-            }
+    /**
+     * Queue depth, batching and throughput of the message storage writer.
+     */
+    public SerialMessageStore.Stats getStorageStats() {
+        return messageStorage.getWriterStats();
+    }
 
-            SimpleConnection connection = new SimpleConnection(socket);
-            activeConnections.put(deviceAddress, connection);
+    /**
+     * Smoothed RTT, jitter and heartbeat state per connected device address.
+     */
+    public Map<String, Heartbeat.Stats> getLinkHealth() {
+        return node.getLinkHealth();
+    }
 
-        } catch (IOException e) {
-            Log.e(TAG, "Error handling connection", e);
-        }
+    public int getInFlightCount() {
+        return node.getInFlightCount();
     }
 
-    public void broadcastMessage(Message message) {
-        if (activeConnections.isEmpty()) {
-            broadcastMessageFailed(message.getId(), "No connections");
-            return;
-        }
+    public int getRouteCount() {
+        return node.getRouteCount();
+    }
 
-        boolean sentToAny = false;
-        for (SimpleConnection connection : activeConnections.values()) {
-            if (connection.isConnected() && connection.sendMessage(message)) {
-                sentToAny = true;
-            }
-        }
+    public List<String> getConnectedDevices() {
+        return node.getConnectedPeers();
+    }
 
-        if (!sentToAny) {
-            broadcastMessageFailed(message.getId(), "Failed to send");
-        }
+    /**
+     * Outbound queue depth and drop counters per connected device address.
+     */
+    public Map<String, OutboundQueue.Stats> getOutboundQueueStats() {
+        return node.getOutboundQueueStats();
     }
 
-    public List<String> getConnectedDevices() {
-        List<String> connected = new ArrayList<>();
-        for (SimpleConnection conn : activeConnections.values()) {
-            if (conn.isConnected()) {
-                connected.add(conn.getDeviceAddress());
-            }
-        }
-        return connected;
+    /**
+     * Frames admitted and shed per lane by each connected device's inbound limiter.
+     */
+    public Map<String, RateLimiter.Stats> getInboundRateStats() {
+        return node.getInboundRateStats();
+    }
+
+    public Map<String, RateLimiter.Stats> getOutboundRateStats() {
+        return node.getOutboundRateStats();
+    }
+
+    /**
+     * Frames shed by rate limiting since the service started, in and out.
+     */
+    public long getInboundShedCount() {
+        return node.getInboundShedCount();
+    }
+
+    public long getOutboundShedCount() {
+        return node.getOutboundShedCount();
     }
 
     public List<BluetoothDevice> getDiscoveredDevices() {
         return new ArrayList<>(discoveredDevices);
     }
 
+    // MeshNode callbacks
+
+    @Override
+    public void onPeerConnected(String address, String name) {
+        broadcastDeviceConnected(address, name);
+    }
+
+    @Override
+    public void onPeerDisconnected(String address) {
+        broadcastDeviceDisconnected(address);
+    }
+
+    @Override
+    public void onMessageReceived(Message message, String fromAddress) {
+        broadcastMessageReceived(message, fromAddress);
+    }
+
+    @Override
+    public void onMessageDelivered(String messageId, String peerAddress) {
+        broadcastMessageSent(messageId, peerAddress);
+    }
+
+    @Override
+    public void onMessageFailed(String messageId, String error) {
+        broadcastMessageFailed(messageId, error);
+    }
+
+    @Override
+    public void onPositionUpdated(PositionFix fix, String fromAddress) {
+        Intent intent = new Intent(ACTION_POSITION_UPDATED);
+        intent.putExtra(EXTRA_POSITION, gson.toJson(fix));
+        intent.putExtra(EXTRA_DEVICE_ADDRESS, fromAddress);
+        broadcastManager.sendBroadcast(intent);
+    }
+
+    /**
+     * The alert text beaconed while in the emergency role. Coordinates are
+     * rounded to about 10 m so GPS jitter does not publish a new revision.
+     */
+    private String composeAlert() {
+        StringBuilder alert = new StringBuilder("🚨 EMERGENCY ALERT\n\nI need help! This is an automatic distress signal.\n\nFrom: ")
+                .append(prefsHelper.getName()).append("\nPhone: ").append(prefsHelper.getPhone());
+
+        Location location = getLastKnownLocation();
+        if (location != null) {
+            alert.append(String.format(Locale.US,
+                    "\n\n📍 %.4f, %.4f\nhttps://maps.google.com/?q=%.4f,%.4f",
+                    location.getLatitude(), location.getLongitude(),
+                    location.getLatitude(), location.getLongitude()));
+        }
+        return alert.toString();
+    }
+
+    private Location getLastKnownLocation() {
+        try {
+            if (ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
+                    != PackageManager.PERMISSION_GRANTED) {
+                return null;
+            }
+
+            LocationManager locationManager = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+            if (locationManager == null) return null;
+
+            Location location = locationManager.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+            if (location == null) {
+                location = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
+            }
+            return location;
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading location", e);
+            return null;
+        }
+    }
+
     // Broadcast methods for UI updates
     private void broadcastMessageReceived(Message message, String senderAddress) {
         Intent intent = new Intent(ACTION_MESSAGE_RECEIVED);
@@ -509,34 +520,13 @@ public class BluetoothMeshService {
     }
 
     // Permission helpers
-    private boolean hasBluetoothPermission() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            return ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED;
-        }
-        return true;
-    }
-
     private boolean hasLocationPermission() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            return ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED;
-        }
-        return ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
-    }
-
-    private String getDeviceName(BluetoothDevice device) {
-        try {
-            if (hasBluetoothPermission()) {
-                String name = device.getName();
-                return (name != null && !name.isEmpty()) ? name : "Emergency Device";
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting name", e);
-        }
-        return "Emergency Device";
+        return BluetoothTransport.hasScanPermission(context);
     }
 
     public void cleanup() {
         isRunning = false;
+        prefsHelper.unregisterChangeListener(roleListener);
         try {
             context.unregisterReceiver(bluetoothReceiver);
         } catch (Exception e) {
@@ -544,5 +534,8 @@ public class BluetoothMeshService {
         }
         stopServer();
         stopDiscovery();
+        alertBeacon.pause();
+        stopLocationTracking();
+        node.shutdown();
     }
-}
\ No newline at end of file
+}
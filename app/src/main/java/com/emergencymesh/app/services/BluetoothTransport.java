@@ -0,0 +1,191 @@
+package com.emergencymesh.app.services;
+
+import android.Manifest;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothServerSocket;
+import android.bluetooth.BluetoothSocket;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+import androidx.core.app.ActivityCompat;
+import com.emergencymesh.core.transport.MeshLink;
+import com.emergencymesh.core.transport.MeshTransport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Bluetooth classic RFCOMM links, addressed by device MAC address.
+ */
+class BluetoothTransport implements MeshTransport {
+    private static final String TAG = "EmergencyMesh";
+
+    private static final UUID MESH_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    private static final String SERVICE_NAME = "EmergencyMesh";
+
+    private final Context context;
+    private final BluetoothAdapter bluetoothAdapter;
+    private AcceptThread serverThread;
+
+    BluetoothTransport(Context context, BluetoothAdapter bluetoothAdapter) {
+        this.context = context;
+        this.bluetoothAdapter = bluetoothAdapter;
+    }
+
+    private class AcceptThread extends Thread {
+        private final BluetoothServerSocket serverSocket;
+        private final LinkHandler handler;
+        private volatile boolean running = true;
+
+        AcceptThread(BluetoothServerSocket serverSocket, LinkHandler handler) {
+            super("mesh-accept");
+            this.serverSocket = serverSocket;
+            this.handler = handler;
+        }
+
+        public void run() {
+            Log.d(TAG, "Emergency server started");
+
+            while (running) {
+                try {
+                    BluetoothSocket socket = serverSocket.accept();
+                    if (socket != null) {
+                        handler.onLinkOpened(new BluetoothLink(socket));
+                    }
+                } catch (IOException e) {
+                    if (running) {
+                        Log.e(TAG, "Accept error", e);
+                    }
+                    break;
+                }
+            }
+        }
+
+        void cancel() {
+            running = false;
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing server", e);
+            }
+        }
+    }
+
+    private class BluetoothLink implements MeshLink {
+        private final BluetoothSocket socket;
+        private final String address;
+        private final String name;
+
+        BluetoothLink(BluetoothSocket socket) {
+            this.socket = socket;
+            this.address = socket.getRemoteDevice().getAddress();
+            this.name = getDeviceName(socket.getRemoteDevice());
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return socket.isConnected();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Override
+    public synchronized void listen(LinkHandler handler) throws IOException {
+        if (serverThread != null) return;
+        if (!hasBluetoothPermission(context)) throw new IOException("Bluetooth permission not granted");
+
+        BluetoothServerSocket serverSocket =
+                bluetoothAdapter.listenUsingRfcommWithServiceRecord(SERVICE_NAME, MESH_UUID);
+        serverThread = new AcceptThread(serverSocket, handler);
+        serverThread.start();
+    }
+
+    @Override
+    public synchronized void stopListening() {
+        if (serverThread != null) serverThread.cancel();
+        serverThread = null;
+    }
+
+    @Override
+    public synchronized boolean isListening() {
+        return serverThread != null;
+    }
+
+    @Override
+    public MeshLink connect(String address) throws IOException {
+        if (!hasBluetoothPermission(context)) throw new IOException("Bluetooth permission not granted");
+
+        BluetoothDevice device = bluetoothAdapter.getRemoteDevice(address);
+        BluetoothSocket socket = device.createRfcommSocketToServiceRecord(MESH_UUID);
+        // An ongoing scan slows the connect down considerably
+        if (hasScanPermission(context)) {
+            try {
+                bluetoothAdapter.cancelDiscovery();
+            } catch (SecurityException e) {
+                Log.e(TAG, "Stop discovery error", e);
+            }
+        }
+        try {
+            socket.connect();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new BluetoothLink(socket);
+    }
+
+    private String getDeviceName(BluetoothDevice device) {
+        try {
+            if (hasBluetoothPermission(context)) {
+                String name = device.getName();
+                return (name != null && !name.isEmpty()) ? name : "Emergency Device";
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting name", e);
+        }
+        return "Emergency Device";
+    }
+
+    // Permission helpers
+    static boolean hasBluetoothPermission(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED;
+        }
+        return true;
+    }
+
+    static boolean hasScanPermission(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_SCAN) == PackageManager.PERMISSION_GRANTED;
+        }
+        return ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
+}
@@ -0,0 +1,61 @@
+package com.emergencymesh.app.services;
+
+/**
+ * Keeps what the running service does in step with the user's role.
+ *
+ * The role can change on the profile screen at any time. While the server
+ * runs, a change is applied at once: becoming an emergency starts the
+ * alert beacon and live location, becoming a saviour stops live location
+ * and publishes the alert's resolution. While it is stopped the role is
+ * only remembered and applied on the next start, and live location is off:
+ * our position should never be streamed by a service that is not running.
+ */
+class UserRoleController {
+    static final String ROLE_EMERGENCY = "emergency";
+
+    interface Actions {
+        void startAlert();
+        boolean isAlertActive();
+        void resolveAlert();
+        void startLocationTracking();
+        void stopLocationTracking();
+    }
+
+    private final Actions actions;
+    private boolean running = false;
+    private String role;
+
+    UserRoleController(Actions actions, String role) {
+        this.actions = actions;
+        this.role = role;
+    }
+
+    synchronized void onStarted() {
+        running = true;
+        apply();
+    }
+
+    synchronized void onStopped() {
+        running = false;
+        actions.stopLocationTracking();
+    }
+
+    synchronized void onRoleChanged(String newRole) {
+        role = newRole;
+        if (running) apply();
+    }
+
+    synchronized boolean isEmergency() {
+        return ROLE_EMERGENCY.equals(role);
+    }
+
+    private void apply() {
+        if (isEmergency()) {
+            actions.startAlert();
+            actions.startLocationTracking();
+        } else {
+            actions.stopLocationTracking();
+            if (actions.isAlertActive()) actions.resolveAlert();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.emergencymesh.app.utils;
+
+import android.util.Log;
+import com.emergencymesh.core.util.MeshLog;
+
+/**
+ * Sends log output from the core mesh module to logcat.
+ */
+public class AndroidLogSink implements MeshLog.Sink {
+    @Override
+    public void log(int priority, String tag, String message, Throwable error) {
+        Log.println(priority, tag, error == null ? message : message + "\n" + Log.getStackTraceString(error));
+    }
+}
@@ -3,311 +3,275 @@ package com.emergencymesh.app.utils;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-import com.emergencymesh.app.models.Message;
-import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.storage.JsonMessageStore;
+import com.emergencymesh.core.storage.LogMessageStore;
+import com.emergencymesh.core.storage.MessageRepository;
+import com.emergencymesh.core.storage.RetentionEngine;
+import com.emergencymesh.core.storage.SerialMessageStore;
+import com.emergencymesh.core.storage.StorageUsage;
+import com.emergencymesh.core.util.MeshLog;
+import java.io.File;
+import java.util.Collection;
 import java.util.List;
-
-public class MessageStorage {
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The app's message store. Two engines sit behind the same contract:
+ *
+ * - "log" (default): messages held in memory and appended to a log in the
+ *   files directory, see {@link LogMessageStore}.
+ * - "sqlite": messages in an indexed SQLite table and read a page at a
+ *   time, see {@link SqliteMessageStore}; for collection points that hold
+ *   tens of thousands of messages.
+ *
+ * The engine is picked from {@link SharedPrefsHelper#getStorageEngine()}
+ * when the process first opens storage; a switch takes effect on the next
+ * start and moves the messages across.
+ *
+ * Every MessageStorage in the process shares one underlying store, however
+ * many screens and connection threads create their own, and all writes go
+ * through its single writer thread (see {@link SerialMessageStore}). With
+ * the log engine reads come from immutable snapshots and never block; with
+ * SQLite they go to the database, which lets readers run beside the writer.
+ *
+ * A {@link RetentionEngine} keeps the store within its caps in the
+ * background; a collection point's caps are larger.
+ */
+public class MessageStorage implements MessageRepository {
     private static final String TAG = "MessageStorage";
     private static final String PREF_NAME = "MessageStorage";
-    private static final String KEY_OUTGOING_MESSAGES = "outgoing_messages";
-    private static final String KEY_INCOMING_MESSAGES = "incoming_messages";
+    private static final String SEEN_FILTER_FILE = "seen_messages.bin";
+    static final String MESSAGE_LOG_FILE = "messages.log";
+
+    public static final String ENGINE_LOG = "log";
+    public static final String ENGINE_SQLITE = "sqlite";
+
+    private static SeenMessageFilter sharedSeenFilter;
+    private static SerialMessageStore sharedRepository;
+    private static RetentionEngine sharedRetention;
 
-    private SharedPreferences sharedPrefs;
-    private SharedPreferences.Editor editor;
-    private Gson gson;
+    private final MessageRepository repository;
 
     public MessageStorage(Context context) {
-        try {
-            sharedPrefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
-            editor = sharedPrefs.edit();
-            gson = new Gson();
-        } catch (Exception e) {
-            Log.e(TAG, "Error initializing MessageStorage", e);
+        MeshLog.setSink(new AndroidLogSink());
+        this.repository = getRepository(context);
+    }
+
+    /**
+     * The process-wide seen-ID filter, shared with the mesh node for relay deduplication.
+     */
+    public static synchronized SeenMessageFilter getSeenFilter(Context context) {
+        if (sharedSeenFilter == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), SEEN_FILTER_FILE);
+            sharedSeenFilter = new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                    SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, file);
         }
+        return sharedSeenFilter;
     }
 
-    public void storeOutgoingMessage(Message message) {
-        if (message == null) {
-            Log.w(TAG, "Attempted to store null outgoing message");
-            return;
+    private static synchronized MessageRepository getRepository(Context context) {
+        if (sharedRepository == null) {
+            Context appContext = context.getApplicationContext();
+            RetentionEngine.Policy retention = new RetentionEngine.Policy();
+            if (ENGINE_SQLITE.equals(new SharedPrefsHelper(appContext).getStorageEngine())) {
+                sharedRepository = new SerialMessageStore(openSqlite(appContext), false);
+                retention.maxMessages = 100000;
+                retention.maxBytes = 64L * 1024 * 1024;
+                retention.maxAgeMs = TimeUnit.DAYS.toMillis(14);
+                retention.maxEvictionsPerRun = 1000;
+            } else {
+                sharedRepository = new SerialMessageStore(openLog(appContext), true);
+            }
+            sharedRetention = new RetentionEngine(sharedRepository, retention);
+            sharedRetention.start();
         }
+        return sharedRepository;
+    }
 
-        try {
-            List<Message> messages = getOutgoingMessages();
-            messages.add(message);
+    /**
+     * Messages deleted by retention since the process started.
+     */
+    public long getEvictedCount() {
+        return sharedRetention.getEvictedCount();
+    }
 
-            String json = gson.toJson(messages);
-            editor.putString(KEY_OUTGOING_MESSAGES, json);
-            editor.apply();
+    /**
+     * Queue depth, batching and throughput of the storage writer.
+     */
+    public SerialMessageStore.Stats getWriterStats() {
+        return sharedRepository.getStats();
+    }
 
-            Log.d(TAG, "Stored outgoing message: " + message.getMessageType());
-        } catch (Exception e) {
-            Log.e(TAG, "Error storing outgoing message", e);
+    // Package-private, like openSqlite, for the instrumented migration tests
+    static MessageRepository openLog(Context context) {
+        File logFile = new File(context.getFilesDir(), MESSAGE_LOG_FILE);
+        boolean firstStart = !logFile.exists();
+        LogMessageStore store = new LogMessageStore(logFile, getSeenFilter(context));
+        if (!firstStart) return store;
+
+        if (context.getDatabasePath(SqliteMessageStore.DATABASE_NAME).exists()) {
+            Log.d(TAG, "Moving messages from SQLite to the message log");
+            SqliteMessageStore previous = new SqliteMessageStore(context, getSeenFilter(context));
+            store.importFrom(previous);
+            previous.close();
+            context.deleteDatabase(SqliteMessageStore.DATABASE_NAME);
+        } else {
+            JsonMessageStore legacy = openPreferences(context);
+            if (legacy != null) {
+                store.importFrom(legacy);
+                clearPreferences(context);
+            }
         }
+        return store;
     }
 
-    public void storeIncomingMessage(Message message) {
-        if (message == null) {
-            Log.w(TAG, "Attempted to store null incoming message");
-            return;
+    static MessageRepository openSqlite(Context context) {
+        boolean firstStart = !context.getDatabasePath(SqliteMessageStore.DATABASE_NAME).exists();
+        SqliteMessageStore store = new SqliteMessageStore(context, getSeenFilter(context));
+        if (!firstStart) return store;
+
+        File logFile = new File(context.getFilesDir(), MESSAGE_LOG_FILE);
+        if (logFile.exists()) {
+            Log.d(TAG, "Moving messages from the message log to SQLite");
+            LogMessageStore previous = new LogMessageStore(logFile, getSeenFilter(context));
+            store.importFrom(previous);
+            previous.close();
+            if (!logFile.delete()) Log.w(TAG, "Could not delete " + logFile);
+        } else {
+            JsonMessageStore legacy = openPreferences(context);
+            if (legacy != null) {
+                store.importFrom(legacy);
+                clearPreferences(context);
+            }
         }
+        return store;
+    }
 
-        try {
-            List<Message> messages = getIncomingMessages();
-
-            // Check for duplicates (based on message ID)
-            for (Message existingMessage : messages) {
-                if (existingMessage.getId() != null && existingMessage.getId().equals(message.getId())) {
-                    Log.d(TAG, "Duplicate message ignored: " + message.getId());
-                    return;
-                }
-            }
+    /**
+     * Messages kept as JSON in SharedPreferences by older versions, or null if there are none.
+     */
+    private static JsonMessageStore openPreferences(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        if (!prefs.contains(JsonMessageStore.KEY_OUTGOING_MESSAGES)
+                && !prefs.contains(JsonMessageStore.KEY_INCOMING_MESSAGES)) {
+            return null;
+        }
+        return new JsonMessageStore(new PreferencesStore(prefs), getSeenFilter(context));
+    }
 
-            messages.add(message);
+    private static void clearPreferences(Context context) {
+        context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE).edit().clear().apply();
+    }
 
-            String json = gson.toJson(messages);
-            editor.putString(KEY_INCOMING_MESSAGES, json);
-            editor.apply();
+    @Override
+    public void storeOutgoingMessage(Message message) {
+        repository.storeOutgoingMessage(message);
+    }
 
-            Log.d(TAG, "Stored incoming message from: " + message.getSenderName());
-        } catch (Exception e) {
-            Log.e(TAG, "Error storing incoming message", e);
-        }
+    @Override
+    public boolean storeIncomingMessage(Message message) {
+        return repository.storeIncomingMessage(message);
     }
 
+    @Override
     public List<Message> getOutgoingMessages() {
-        try {
-            String json = sharedPrefs.getString(KEY_OUTGOING_MESSAGES, "");
-            if (json.isEmpty()) {
-                return new ArrayList<>();
-            }
-
-            Type type = new TypeToken<List<Message>>(){}.getType();
-            List<Message> messages = gson.fromJson(json, type);
-            return messages != null ? messages : new ArrayList<>();
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting outgoing messages", e);
-            return new ArrayList<>();
-        }
+        return repository.getOutgoingMessages();
     }
 
+    @Override
     public List<Message> getIncomingMessages() {
-        try {
-            String json = sharedPrefs.getString(KEY_INCOMING_MESSAGES, "");
-            if (json.isEmpty()) {
-                return new ArrayList<>();
-            }
-
-            Type type = new TypeToken<List<Message>>(){}.getType();
-            List<Message> messages = gson.fromJson(json, type);
-            return messages != null ? messages : new ArrayList<>();
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting incoming messages", e);
-            return new ArrayList<>();
-        }
+        return repository.getIncomingMessages();
     }
 
+    @Override
     public List<Message> getAllMessages() {
-        try {
-            List<Message> allMessages = new ArrayList<>();
-            allMessages.addAll(getOutgoingMessages());
-            allMessages.addAll(getIncomingMessages());
-
-            // Sort by timestamp (newest first)
-            Collections.sort(allMessages, new Comparator<Message>() {
-                @Override
-                public int compare(Message m1, Message m2) {
-                    return Long.compare(m2.getTimestamp(), m1.getTimestamp());
-                }
-            });
-
-            return allMessages;
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting all messages", e);
-            return new ArrayList<>();
-        }
+        return repository.getAllMessages();
     }
 
+    @Override
     public List<Message> getMessagesByType(String messageType) {
-        try {
-            List<Message> allMessages = getAllMessages();
-            List<Message> filteredMessages = new ArrayList<>();
-
-            for (Message message : allMessages) {
-                if (messageType.equals(message.getMessageType())) {
-                    filteredMessages.add(message);
-                }
-            }
+        return repository.getMessagesByType(messageType);
+    }
 
-            return filteredMessages;
-        } catch (Exception e) {
-            Log.e(TAG, "Error filtering messages by type", e);
-            return new ArrayList<>();
-        }
+    @Override
+    public List<Message> getMessagesBySender(String senderPhone) {
+        return repository.getMessagesBySender(senderPhone);
     }
 
+    @Override
     public List<Message> getRecentMessages(int count) {
-        try {
-            List<Message> allMessages = getAllMessages();
-            if (allMessages.size() <= count) {
-                return allMessages;
-            }
-            return allMessages.subList(0, count);
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting recent messages", e);
-            return new ArrayList<>();
-        }
+        return repository.getRecentMessages(count);
     }
 
-    public void markMessageAsDelivered(String messageId) {
-        if (messageId == null) {
-            Log.w(TAG, "Attempted to mark null message ID as delivered");
-            return;
-        }
-
-        try {
-            List<Message> messages = getOutgoingMessages();
-            boolean updated = false;
+    @Override
+    public List<Message> getOlderMessages(Message last, int count) {
+        return repository.getOlderMessages(last, count);
+    }
 
-            for (Message message : messages) {
-                if (messageId.equals(message.getId())) {
-                    message.setDelivered(true);
-                    updated = true;
-                    break;
-                }
-            }
+    @Override
+    public void markMessageAsDelivered(String messageId) {
+        repository.markMessageAsDelivered(messageId);
+    }
 
-            if (updated) {
-                String json = gson.toJson(messages);
-                editor.putString(KEY_OUTGOING_MESSAGES, json);
-                editor.apply();
-                Log.d(TAG, "Marked message as delivered: " + messageId);
-            } else {
-                Log.w(TAG, "Message not found for delivery confirmation: " + messageId);
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error marking message as delivered", e);
-        }
+    @Override
+    public int markMessagesAsDelivered(Collection<String> messageIds) {
+        return repository.markMessagesAsDelivered(messageIds);
     }
 
+    @Override
     public int getUnreadMessageCount() {
-        try {
-            // For simplicity, we'll consider all incoming messages as "unread"
-            // You could add a separate "read" flag to the Message model if needed
-            return getIncomingMessages().size();
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting unread message count", e);
-            return 0;
-        }
+        return repository.getUnreadMessageCount();
     }
 
+    @Override
     public int getTotalMessageCount() {
-        try {
-            return getAllMessages().size();
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting total message count", e);
-            return 0;
-        }
+        return repository.getTotalMessageCount();
     }
 
-    public void clearAllMessages() {
-        try {
-            editor.putString(KEY_OUTGOING_MESSAGES, "");
-            editor.putString(KEY_INCOMING_MESSAGES, "");
-            editor.apply();
-            Log.d(TAG, "All messages cleared");
-        } catch (Exception e) {
-            Log.e(TAG, "Error clearing messages", e);
-        }
+    @Override
+    public boolean hasMessages() {
+        return repository.hasMessages();
     }
 
-    public void clearOutgoingMessages() {
-        try {
-            editor.putString(KEY_OUTGOING_MESSAGES, "");
-            editor.apply();
-            Log.d(TAG, "Outgoing messages cleared");
-        } catch (Exception e) {
-            Log.e(TAG, "Error clearing outgoing messages", e);
-        }
+    @Override
+    public Message getMessageById(String messageId) {
+        return repository.getMessageById(messageId);
     }
 
-    public void clearIncomingMessages() {
-        try {
-            editor.putString(KEY_INCOMING_MESSAGES, "");
-            editor.apply();
-            Log.d(TAG, "Incoming messages cleared");
-        } catch (Exception e) {
-            Log.e(TAG, "Error clearing incoming messages", e);
-        }
+    @Override
+    public void deleteMessage(String messageId) {
+        repository.deleteMessage(messageId);
     }
 
-    public boolean hasMessages() {
-        try {
-            return getTotalMessageCount() > 0;
-        } catch (Exception e) {
-            Log.e(TAG, "Error checking if has messages", e);
-            return false;
-        }
+    @Override
+    public int deleteMessages(Collection<String> messageIds) {
+        return repository.deleteMessages(messageIds);
     }
 
-    public Message getMessageById(String messageId) {
-        if (messageId == null) {
-            return null;
-        }
-
-        try {
-            List<Message> allMessages = getAllMessages();
-            for (Message message : allMessages) {
-                if (messageId.equals(message.getId())) {
-                    return message;
-                }
-            }
-            return null;
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting message by ID", e);
-            return null;
-        }
+    @Override
+    public void clearAllMessages() {
+        repository.clearAllMessages();
     }
 
-    public void deleteMessage(String messageId) {
-        if (messageId == null) {
-            Log.w(TAG, "Attempted to delete null message ID");
-            return;
-        }
+    @Override
+    public void clearOutgoingMessages() {
+        repository.clearOutgoingMessages();
+    }
 
-        try {
-            // Check and remove from outgoing messages
-            List<Message> outgoingMessages = getOutgoingMessages();
-            boolean removedFromOutgoing = outgoingMessages.removeIf(msg -> messageId.equals(msg.getId()));
-
-            if (removedFromOutgoing) {
-                String json = gson.toJson(outgoingMessages);
-                editor.putString(KEY_OUTGOING_MESSAGES, json);
-                editor.apply();
-                Log.d(TAG, "Deleted outgoing message: " + messageId);
-                return;
-            }
+    @Override
+    public void clearIncomingMessages() {
+        repository.clearIncomingMessages();
+    }
 
-            // Check and remove from incoming messages
-            List<Message> incomingMessages = getIncomingMessages();
-            boolean removedFromIncoming = incomingMessages.removeIf(msg -> messageId.equals(msg.getId()));
+    @Override
+    public StorageUsage getStorageUsage(long expiredBefore) {
+        return repository.getStorageUsage(expiredBefore);
+    }
 
-            if (removedFromIncoming) {
-                String json = gson.toJson(incomingMessages);
-                editor.putString(KEY_INCOMING_MESSAGES, json);
-                editor.apply();
-                Log.d(TAG, "Deleted incoming message: " + messageId);
-            } else {
-                Log.w(TAG, "Message not found for deletion: " + messageId);
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error deleting message", e);
-        }
+    @Override
+    public List<Message> getEvictionCandidates(long expiredBefore, int limit) {
+        return repository.getEvictionCandidates(expiredBefore, limit);
     }
-}
\ No newline at end of file
+}
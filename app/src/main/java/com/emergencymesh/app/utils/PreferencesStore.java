@@ -0,0 +1,28 @@
+package com.emergencymesh.app.utils;
+
+import android.content.SharedPreferences;
+import com.emergencymesh.core.storage.KeyValueStore;
+
+/**
+ * {@link KeyValueStore} over a SharedPreferences file.
+ */
+public class PreferencesStore implements KeyValueStore {
+    private final SharedPreferences sharedPrefs;
+    private final SharedPreferences.Editor editor;
+
+    public PreferencesStore(SharedPreferences sharedPrefs) {
+        this.sharedPrefs = sharedPrefs;
+        this.editor = sharedPrefs.edit();
+    }
+
+    @Override
+    public String getString(String key, String defaultValue) {
+        return sharedPrefs.getString(key, defaultValue);
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        editor.putString(key, value);
+        editor.apply();
+    }
+}
@@ -13,7 +13,8 @@ public class SharedPrefsHelper {
 
     private SharedPreferences sharedPrefs;
     private SharedPreferences.Editor editor;
-    private static final String KEY_USER_ROLE = "user_role"; // "emergency" or "saviour"
+    public static final String KEY_USER_ROLE = "user_role"; // "emergency" or "saviour"
+    private static final String KEY_STORAGE_ENGINE = "storage_engine"; // "log" or "sqlite"
 
 
     public void setUserRole(String role) {
@@ -25,11 +26,29 @@ public class SharedPrefsHelper {
         return sharedPrefs.getString(KEY_USER_ROLE, "emergency"); // Default to emergency
     }
 
+    public void setStorageEngine(String engine) {
+        editor.putString(KEY_STORAGE_ENGINE, engine);
+        editor.apply();
+    }
+
+    public String getStorageEngine() {
+        return sharedPrefs.getString(KEY_STORAGE_ENGINE, "log");
+    }
+
     public SharedPrefsHelper(Context context) {
         sharedPrefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
         editor = sharedPrefs.edit();
     }
 
+    // SharedPreferences only holds listeners weakly; callers must keep a reference
+    public void registerChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        sharedPrefs.registerOnSharedPreferenceChangeListener(listener);
+    }
+
+    public void unregisterChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        sharedPrefs.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+
 
     public void saveProfile(String name, String phone, String emergencyContact, String bloodGroup) {
         editor.putString(KEY_NAME, name);
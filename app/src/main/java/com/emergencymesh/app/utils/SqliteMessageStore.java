@@ -0,0 +1,534 @@
+package com.emergencymesh.app.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.storage.MessageRepository;
+import com.emergencymesh.core.storage.RetentionEngine;
+import com.emergencymesh.core.storage.StorageUsage;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Messages in a table of the app's SQLite database, for phones acting as a
+ * collection point with more messages than comfortably fit in memory.
+ *
+ * The table is indexed on ID, timestamp, type, sender and delivery state,
+ * so lookups, counts and pages read only the rows they return. Recent
+ * messages and the inbox are read a page at a time by key (see
+ * {@link #getOlderMessages}), and batches are written in one transaction.
+ */
+public class SqliteMessageStore implements MessageRepository {
+    private static final String TAG = "SqliteMessageStore";
+
+    public static final String DATABASE_NAME = "messages.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE = "messages";
+    private static final String COL_ID = "id";
+    private static final String COL_OUTGOING = "outgoing";
+    private static final String COL_TIMESTAMP = "timestamp";
+    private static final String COL_TYPE = "type";
+    private static final String COL_SENDER_NAME = "sender_name";
+    private static final String COL_SENDER_PHONE = "sender_phone";
+    private static final String COL_RECIPIENT_PHONE = "recipient_phone";
+    private static final String COL_CONTENT = "content";
+    private static final String COL_DELIVERED = "delivered";
+    private static final String COL_TTL = "ttl";
+    private static final String COL_HOP_COUNT = "hop_count";
+    private static final String COL_ALERT_ID = "alert_id";
+    private static final String COL_REVISION = "revision";
+
+    private static final String[] COLUMNS = {COL_ID, COL_TIMESTAMP, COL_TYPE, COL_SENDER_NAME, COL_SENDER_PHONE,
+            COL_RECIPIENT_PHONE, COL_CONTENT, COL_DELIVERED, COL_TTL, COL_HOP_COUNT, COL_ALERT_ID, COL_REVISION};
+
+    // Matches the timestamp index, so pages are read straight off it
+    private static final String NEWEST_FIRST = COL_TIMESTAMP + " DESC, " + COL_ID + " ASC";
+
+    // Retention in SQL, as RetentionEngine does it in memory: our undelivered
+    // messages are never evicted, and chatter goes before location and alerts
+    private static final String PROTECTED = COL_OUTGOING + " = 1 AND " + COL_DELIVERED + " = 0";
+    private static final String TIER = "CASE " + COL_TYPE + " WHEN 'alert' THEN 2 WHEN 'location' THEN 1 ELSE 0 END";
+    private static final String ESTIMATED_BYTES = RetentionEngine.MESSAGE_OVERHEAD_BYTES + " + "
+            + lengthOf(COL_ID) + " + " + lengthOf(COL_SENDER_NAME) + " + " + lengthOf(COL_SENDER_PHONE) + " + "
+            + lengthOf(COL_RECIPIENT_PHONE) + " + " + lengthOf(COL_CONTENT) + " + " + lengthOf(COL_TYPE) + " + "
+            + lengthOf(COL_ALERT_ID);
+
+    private static final String INSERT = "INSERT OR IGNORE INTO " + TABLE + " (" + COL_ID + ", " + COL_OUTGOING + ", "
+            + COL_TIMESTAMP + ", " + COL_TYPE + ", " + COL_SENDER_NAME + ", " + COL_SENDER_PHONE + ", "
+            + COL_RECIPIENT_PHONE + ", " + COL_CONTENT + ", " + COL_DELIVERED + ", " + COL_TTL + ", "
+            + COL_HOP_COUNT + ", " + COL_ALERT_ID + ", " + COL_REVISION + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final OpenHelper helper;
+    private final SeenMessageFilter seenFilter;
+
+    public SqliteMessageStore(Context context, SeenMessageFilter seenFilter) {
+        this(context, DATABASE_NAME, seenFilter);
+    }
+
+    /**
+     * A store in database {@code name}, e.g. a scratch database for benchmarks.
+     */
+    public SqliteMessageStore(Context context, String name, SeenMessageFilter seenFilter) {
+        this.helper = new OpenHelper(context.getApplicationContext(), name);
+        this.seenFilter = seenFilter;
+    }
+
+    private static class OpenHelper extends SQLiteOpenHelper {
+        OpenHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            // Readers (the inbox) do not wait behind the writer (the mesh)
+            db.enableWriteAheadLogging();
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + COL_ID + " TEXT PRIMARY KEY NOT NULL, "
+                    + COL_OUTGOING + " INTEGER NOT NULL, "
+                    + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                    + COL_TYPE + " TEXT, "
+                    + COL_SENDER_NAME + " TEXT, "
+                    + COL_SENDER_PHONE + " TEXT, "
+                    + COL_RECIPIENT_PHONE + " TEXT, "
+                    + COL_CONTENT + " TEXT, "
+                    + COL_DELIVERED + " INTEGER NOT NULL DEFAULT 0, "
+                    + COL_TTL + " INTEGER NOT NULL DEFAULT 0, "
+                    + COL_HOP_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                    + COL_ALERT_ID + " TEXT, "
+                    + COL_REVISION + " INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("CREATE INDEX idx_messages_timestamp ON " + TABLE + " (" + COL_TIMESTAMP + " DESC, " + COL_ID + ")");
+            db.execSQL("CREATE INDEX idx_messages_type ON " + TABLE + " (" + COL_TYPE + ", " + COL_TIMESTAMP + " DESC)");
+            db.execSQL("CREATE INDEX idx_messages_sender ON " + TABLE + " (" + COL_SENDER_PHONE + ", " + COL_TIMESTAMP + " DESC)");
+            db.execSQL("CREATE INDEX idx_messages_delivered ON " + TABLE + " (" + COL_OUTGOING + ", " + COL_DELIVERED + ")");
+            db.execSQL("CREATE INDEX idx_messages_alert ON " + TABLE + " (" + COL_ALERT_ID + ")");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Only one version so far
+        }
+    }
+
+    /**
+     * Copies every message from {@code source} in one transaction, skipping
+     * IDs already stored. Used to move messages between storage engines.
+     */
+    public int importFrom(MessageRepository source) {
+        List<Message> outgoing = source.getOutgoingMessages();
+        List<Message> incoming = source.getIncomingMessages();
+        SQLiteDatabase db = helper.getWritableDatabase();
+        int imported = 0;
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(INSERT);
+            try {
+                imported += insertAll(insert, outgoing, true);
+                imported += insertAll(insert, incoming, false);
+            } finally {
+                insert.close();
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error importing messages", e);
+            imported = 0;
+        } finally {
+            db.endTransaction();
+        }
+        Log.d(TAG, "Imported " + imported + " messages");
+        return imported;
+    }
+
+    private int insertAll(SQLiteStatement insert, List<Message> messages, boolean isOutgoing) {
+        int inserted = 0;
+        for (Message message : messages) {
+            if (message.getId() == null) continue;
+            bind(insert, message, isOutgoing);
+            if (insert.executeInsert() != -1) inserted++;
+            insert.clearBindings();
+        }
+        return inserted;
+    }
+
+    @Override
+    public void storeOutgoingMessage(Message message) {
+        if (message == null) {
+            Log.w(TAG, "Attempted to store null outgoing message");
+            return;
+        }
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // A new revision of our alert replaces the previous one
+            if (message.getAlertId() != null) {
+                db.delete(TABLE, COL_ALERT_ID + " = ? AND " + COL_REVISION + " < ?",
+                        new String[]{message.getAlertId(), String.valueOf(message.getRevision())});
+            }
+            db.insertWithOnConflict(TABLE, null, values(message, true), SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
+
+            // Our own message may be flooded back to us by a neighbour
+            seenFilter.add(message.getId());
+            Log.d(TAG, "Stored outgoing message: " + message.getMessageType());
+        } catch (Exception e) {
+            Log.e(TAG, "Error storing outgoing message", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public boolean storeIncomingMessage(Message message) {
+        if (message == null) {
+            Log.w(TAG, "Attempted to store null incoming message");
+            return false;
+        }
+        if (seenFilter.check(message.getId()) == SeenMessageFilter.Verdict.DUPLICATE) {
+            Log.d(TAG, "Duplicate message ignored: " + message.getId());
+            return false;
+        }
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (DatabaseUtils.queryNumEntries(db, TABLE, COL_ID + " = ?", new String[]{message.getId()}) > 0) {
+                Log.d(TAG, "Duplicate message ignored: " + message.getId());
+                return false;
+            }
+
+            // Only the latest revision of each alert is kept
+            if (message.getAlertId() != null) {
+                String[] alert = {message.getAlertId(), String.valueOf(message.getRevision())};
+                if (DatabaseUtils.queryNumEntries(db, TABLE, COL_ALERT_ID + " = ? AND " + COL_REVISION + " >= ?", alert) > 0) {
+                    seenFilter.add(message.getId());
+                    Log.d(TAG, "Stale alert revision ignored: " + message.getId());
+                    return false;
+                }
+                db.delete(TABLE, COL_ALERT_ID + " = ? AND " + COL_REVISION + " < ?", alert);
+            }
+
+            db.insertWithOnConflict(TABLE, null, values(message, false), SQLiteDatabase.CONFLICT_IGNORE);
+            db.setTransactionSuccessful();
+            seenFilter.add(message.getId());
+            Log.d(TAG, "Stored incoming message from: " + message.getSenderName());
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Error storing incoming message", e);
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public List<Message> getOutgoingMessages() {
+        return query(COL_OUTGOING + " = 1", null, "rowid", null);
+    }
+
+    @Override
+    public List<Message> getIncomingMessages() {
+        return query(COL_OUTGOING + " = 0", null, "rowid", null);
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return query(null, null, NEWEST_FIRST, null);
+    }
+
+    @Override
+    public List<Message> getMessagesByType(String messageType) {
+        return query(COL_TYPE + " = ?", new String[]{messageType}, NEWEST_FIRST, null);
+    }
+
+    @Override
+    public List<Message> getMessagesBySender(String senderPhone) {
+        return query(COL_SENDER_PHONE + " = ?", new String[]{senderPhone}, NEWEST_FIRST, null);
+    }
+
+    @Override
+    public List<Message> getRecentMessages(int count) {
+        return getOlderMessages(null, count);
+    }
+
+    @Override
+    public List<Message> getOlderMessages(Message last, int count) {
+        if (count <= 0) return new ArrayList<>();
+        String limit = String.valueOf(count);
+        if (last == null) return query(null, null, NEWEST_FIRST, limit);
+
+        // Written as a range on timestamp so SQLite seeks the index instead of scanning
+        String timestamp = String.valueOf(last.getTimestamp());
+        return query(COL_TIMESTAMP + " <= ? AND (" + COL_TIMESTAMP + " < ? OR " + COL_ID + " > ?)",
+                new String[]{timestamp, timestamp, last.getId()}, NEWEST_FIRST, limit);
+    }
+
+    @Override
+    public void markMessageAsDelivered(String messageId) {
+        if (messageId == null) {
+            Log.w(TAG, "Attempted to mark null message ID as delivered");
+            return;
+        }
+        markMessagesAsDelivered(Collections.singletonList(messageId));
+    }
+
+    @Override
+    public int markMessagesAsDelivered(Collection<String> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) return 0;
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        int updated = 0;
+        db.beginTransaction();
+        try {
+            // Relayed messages are ACKed too but are not outgoing rows
+            SQLiteStatement update = db.compileStatement("UPDATE " + TABLE + " SET " + COL_DELIVERED + " = 1 WHERE "
+                    + COL_ID + " = ? AND " + COL_OUTGOING + " = 1 AND " + COL_DELIVERED + " = 0");
+            try {
+                for (String messageId : messageIds) {
+                    if (messageId == null) continue;
+                    update.bindString(1, messageId);
+                    updated += update.executeUpdateDelete();
+                }
+            } finally {
+                update.close();
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error marking messages as delivered", e);
+            updated = 0;
+        } finally {
+            db.endTransaction();
+        }
+        if (updated > 0) Log.d(TAG, "Marked " + updated + " message(s) as delivered");
+        return updated;
+    }
+
+    @Override
+    public int getUnreadMessageCount() {
+        // As before, every incoming message counts as unread
+        return count(COL_OUTGOING + " = 0");
+    }
+
+    @Override
+    public int getTotalMessageCount() {
+        return count(null);
+    }
+
+    @Override
+    public boolean hasMessages() {
+        return !query(null, null, null, "1").isEmpty();
+    }
+
+    @Override
+    public Message getMessageById(String messageId) {
+        if (messageId == null) return null;
+        List<Message> messages = query(COL_ID + " = ?", new String[]{messageId}, null, null);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    @Override
+    public void deleteMessage(String messageId) {
+        if (messageId == null) {
+            Log.w(TAG, "Attempted to delete null message ID");
+            return;
+        }
+        if (delete(COL_ID + " = ?", new String[]{messageId}) == 0) {
+            Log.w(TAG, "Message not found for deletion: " + messageId);
+        } else {
+            Log.d(TAG, "Deleted message: " + messageId);
+        }
+    }
+
+    @Override
+    public int deleteMessages(Collection<String> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) return 0;
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        int deleted = 0;
+        db.beginTransaction();
+        try {
+            SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE + " WHERE " + COL_ID + " = ?");
+            try {
+                for (String messageId : messageIds) {
+                    if (messageId == null) continue;
+                    delete.bindString(1, messageId);
+                    deleted += delete.executeUpdateDelete();
+                }
+            } finally {
+                delete.close();
+            }
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error deleting messages", e);
+            deleted = 0;
+        } finally {
+            db.endTransaction();
+        }
+        if (deleted > 0) Log.d(TAG, "Deleted " + deleted + " message(s)");
+        return deleted;
+    }
+
+    @Override
+    public void clearAllMessages() {
+        delete(null, null);
+        Log.d(TAG, "All messages cleared");
+    }
+
+    @Override
+    public void clearOutgoingMessages() {
+        delete(COL_OUTGOING + " = 1", null);
+        Log.d(TAG, "Outgoing messages cleared");
+    }
+
+    @Override
+    public void clearIncomingMessages() {
+        delete(COL_OUTGOING + " = 0", null);
+        Log.d(TAG, "Incoming messages cleared");
+    }
+
+    /**
+     * Counted and summed in one pass over the table; no row is loaded.
+     */
+    @Override
+    public StorageUsage getStorageUsage(long expiredBefore) {
+        Cursor cursor = null;
+        try {
+            cursor = helper.getReadableDatabase().rawQuery("SELECT COUNT(*), TOTAL(" + ESTIMATED_BYTES + "), TOTAL("
+                    + PROTECTED + "), TOTAL(" + COL_TIMESTAMP + " < ? AND " + TIER + " < 2 AND NOT (" + PROTECTED
+                    + ")) FROM " + TABLE,
+                    new String[]{String.valueOf(expiredBefore)});
+            if (cursor.moveToNext()) {
+                return new StorageUsage(cursor.getInt(0), cursor.getLong(1), cursor.getInt(2), cursor.getInt(3));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error measuring messages", e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return new StorageUsage(0, 0, 0, 0);
+    }
+
+    /**
+     * Sorted by SQLite with the limit applied, so only {@code limit} rows
+     * are ever held or read back.
+     */
+    @Override
+    public List<Message> getEvictionCandidates(long expiredBefore, int limit) {
+        if (limit <= 0) return new ArrayList<>();
+        // Alerts never count as expired, as in RetentionEngine.isExpired
+        String order = "(" + COL_TIMESTAMP + " < " + expiredBefore + " AND " + TIER + " < 2) DESC, " + TIER + ", "
+                + COL_TIMESTAMP + " ASC, " + COL_ID + " ASC";
+        return query("NOT (" + PROTECTED + ")", null, order, String.valueOf(limit));
+    }
+
+    public void close() {
+        helper.close();
+    }
+
+    private List<Message> query(String selection, String[] args, String orderBy, String limit) {
+        List<Message> messages = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = helper.getReadableDatabase().query(TABLE, COLUMNS, selection, args, null, null, orderBy, limit);
+            while (cursor.moveToNext()) {
+                messages.add(read(cursor));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading messages", e);
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return messages;
+    }
+
+    private int count(String selection) {
+        try {
+            return (int) DatabaseUtils.queryNumEntries(helper.getReadableDatabase(), TABLE, selection, null);
+        } catch (Exception e) {
+            Log.e(TAG, "Error counting messages", e);
+            return 0;
+        }
+    }
+
+    private int delete(String selection, String[] args) {
+        try {
+            return helper.getWritableDatabase().delete(TABLE, selection != null ? selection : "1", args);
+        } catch (Exception e) {
+            Log.e(TAG, "Error deleting messages", e);
+            return 0;
+        }
+    }
+
+    // Column order of COLUMNS
+    private static Message read(Cursor cursor) {
+        Message message = new Message(cursor.getString(0), cursor.getString(3), cursor.getString(4),
+                cursor.getString(5), cursor.getString(6), cursor.getString(2));
+        message.setTimestamp(cursor.getLong(1));
+        message.setDelivered(cursor.getInt(7) != 0);
+        message.setTtl(cursor.getInt(8));
+        message.setHopCount(cursor.getInt(9));
+        if (!cursor.isNull(10)) message.setAlertId(cursor.getString(10));
+        message.setRevision(cursor.getInt(11));
+        return message;
+    }
+
+    private static ContentValues values(Message message, boolean isOutgoing) {
+        ContentValues values = new ContentValues();
+        values.put(COL_ID, message.getId());
+        values.put(COL_OUTGOING, isOutgoing ? 1 : 0);
+        values.put(COL_TIMESTAMP, message.getTimestamp());
+        values.put(COL_TYPE, message.getMessageType());
+        values.put(COL_SENDER_NAME, message.getSenderName());
+        values.put(COL_SENDER_PHONE, message.getSenderPhone());
+        values.put(COL_RECIPIENT_PHONE, message.getRecipientPhone());
+        values.put(COL_CONTENT, message.getContent());
+        values.put(COL_DELIVERED, message.isDelivered() ? 1 : 0);
+        values.put(COL_TTL, message.getTtl());
+        values.put(COL_HOP_COUNT, message.getHopCount());
+        values.put(COL_ALERT_ID, message.getAlertId());
+        values.put(COL_REVISION, message.getRevision());
+        return values;
+    }
+
+    // Parameter order of INSERT
+    private static void bind(SQLiteStatement insert, Message message, boolean isOutgoing) {
+        insert.bindString(1, message.getId());
+        insert.bindLong(2, isOutgoing ? 1 : 0);
+        insert.bindLong(3, message.getTimestamp());
+        bindNullable(insert, 4, message.getMessageType());
+        bindNullable(insert, 5, message.getSenderName());
+        bindNullable(insert, 6, message.getSenderPhone());
+        bindNullable(insert, 7, message.getRecipientPhone());
+        bindNullable(insert, 8, message.getContent());
+        insert.bindLong(9, message.isDelivered() ? 1 : 0);
+        insert.bindLong(10, message.getTtl());
+        insert.bindLong(11, message.getHopCount());
+        bindNullable(insert, 12, message.getAlertId());
+        insert.bindLong(13, message.getRevision());
+    }
+
+    private static String lengthOf(String column) {
+        return "IFNULL(LENGTH(" + column + "), 0)";
+    }
+
+    private static void bindNullable(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
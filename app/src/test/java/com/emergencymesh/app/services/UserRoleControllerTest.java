@@ -0,0 +1,115 @@
+package com.emergencymesh.app.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UserRoleControllerTest {
+
+    private static class Recorder implements UserRoleController.Actions {
+        final List<String> calls = new ArrayList<>();
+        boolean alertActive = false;
+
+        @Override
+        public void startAlert() {
+            calls.add("startAlert");
+            alertActive = true;
+        }
+
+        @Override
+        public boolean isAlertActive() {
+            return alertActive;
+        }
+
+        @Override
+        public void resolveAlert() {
+            calls.add("resolveAlert");
+            alertActive = false;
+        }
+
+        @Override
+        public void startLocationTracking() {
+            calls.add("startLocation");
+        }
+
+        @Override
+        public void stopLocationTracking() {
+            calls.add("stopLocation");
+        }
+    }
+
+    @Test
+    public void roleToggledWhileRunning_startsAndResolvesTheAlert() {
+        Recorder actions = new Recorder();
+        UserRoleController controller = new UserRoleController(actions, "saviour");
+        controller.onStarted();
+        assertFalse(actions.calls.contains("startAlert"));
+
+        controller.onRoleChanged("emergency");
+        assertTrue(actions.alertActive);
+        assertTrue(actions.calls.contains("startAlert"));
+
+        actions.calls.clear();
+        controller.onRoleChanged("saviour");
+        assertFalse(actions.alertActive);
+        assertEquals(Arrays.asList("stopLocation", "resolveAlert"), actions.calls);
+    }
+
+    @Test
+    public void roleChangedWhileStopped_waitsForTheNextStart() {
+        Recorder actions = new Recorder();
+        UserRoleController controller = new UserRoleController(actions, "saviour");
+
+        controller.onRoleChanged("emergency");
+        assertTrue(actions.calls.isEmpty());
+
+        controller.onStarted();
+        assertTrue(actions.alertActive);
+    }
+
+    @Test
+    public void saviourWithoutAnAlert_resolvesNothing() {
+        Recorder actions = new Recorder();
+        UserRoleController controller = new UserRoleController(actions, "saviour");
+        controller.onStarted();
+        controller.onRoleChanged("saviour");
+
+        assertFalse(actions.calls.contains("resolveAlert"));
+    }
+
+    @Test
+    public void liveLocation_followsTheRoleWhileRunning() {
+        Recorder actions = new Recorder();
+        UserRoleController controller = new UserRoleController(actions, "emergency");
+        controller.onStarted();
+        assertEquals(Arrays.asList("startAlert", "startLocation"), actions.calls);
+
+        // Becoming a saviour stops streaming our position before anything else
+        actions.calls.clear();
+        controller.onRoleChanged("saviour");
+        assertEquals("stopLocation", actions.calls.get(0));
+
+        actions.calls.clear();
+        controller.onRoleChanged("emergency");
+        assertTrue(actions.calls.contains("startLocation"));
+    }
+
+    @Test
+    public void stoppingTheServer_stopsLiveLocation() {
+        Recorder actions = new Recorder();
+        UserRoleController controller = new UserRoleController(actions, "emergency");
+        controller.onStarted();
+
+        actions.calls.clear();
+        controller.onStopped();
+        assertEquals(Arrays.asList("stopLocation"), actions.calls);
+
+        actions.calls.clear();
+        controller.onStarted();
+        assertTrue(actions.calls.contains("startLocation"));
+    }
+}
@@ -0,0 +1,29 @@
+// JVM-only JMH suites for the core hot paths.
+//
+//   ./gradlew :benchmarks:jmh
+//
+// Results, including the gc profiler's allocation rates, are written as JSON
+// to build/results/jmh/results.json. A subset can be run with e.g.
+//   ./gradlew :benchmarks:jmh -Pjmh.includes=MessageStoreBenchmark
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    jmh(project(":core"))
+    jmh("com.google.code.gson:gson:2.10.1")
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("results/jmh/results.json"))
+    (project.findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+}
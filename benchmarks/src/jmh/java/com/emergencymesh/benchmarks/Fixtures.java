@@ -0,0 +1,45 @@
+package com.emergencymesh.benchmarks;
+
+import com.emergencymesh.core.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Realistic-looking messages: UUID IDs, phone numbers and short texts with
+ * timestamps spread over a day, in no particular order.
+ */
+final class Fixtures {
+    private static final String[] TEXTS = {
+            "Need water and first aid at the north gate, two injured.",
+            "Road to the hospital is blocked by debris, use the east bridge.",
+            "Shelter at the school has room for forty more people.",
+            "I'm safe, staying with the group near the stadium until morning.",
+            "Looking for my brother, red jacket, last seen at the market square."
+    };
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private Fixtures() {}
+
+    static Message message(Random random) {
+        int sender = random.nextInt(500);
+        Message message = new Message(new UUID(random.nextLong(), random.nextLong()).toString(),
+                "Responder " + sender, "+91 " + (9876500000L + sender),
+                random.nextBoolean() ? "BROADCAST" : "+91 " + (9876500000L + random.nextInt(500)),
+                TEXTS[random.nextInt(TEXTS.length)], random.nextInt(10) == 0 ? "alert" : "text");
+        message.setTimestamp(1700000000000L + (long) (random.nextDouble() * DAY_MS));
+        message.setHopCount(random.nextInt(4));
+        message.setTtl(Message.DEFAULT_TTL - message.getHopCount());
+        return message;
+    }
+
+    static List<Message> messages(int count, Random random) {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(message(random));
+        }
+        return messages;
+    }
+}
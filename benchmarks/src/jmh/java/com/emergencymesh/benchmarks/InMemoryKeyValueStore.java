@@ -0,0 +1,35 @@
+package com.emergencymesh.benchmarks;
+
+import com.emergencymesh.core.storage.KeyValueStore;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SharedPreferences without the disk: reads and writes hit the in-memory
+ * map, which is also what the app pays for on the calling thread, since
+ * apply() writes to disk in the background.
+ */
+class InMemoryKeyValueStore implements KeyValueStore {
+    private final Map<String, String> values = new HashMap<>();
+
+    @Override
+    public String getString(String key, String defaultValue) {
+        String value = values.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        values.put(key, value);
+    }
+
+    Map<String, String> snapshot() {
+        return new HashMap<>(values);
+    }
+
+    void restore(Map<String, String> snapshot) {
+        values.clear();
+        values.putAll(snapshot);
+    }
+}
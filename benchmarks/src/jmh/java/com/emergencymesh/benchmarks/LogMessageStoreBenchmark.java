@@ -0,0 +1,125 @@
+package com.emergencymesh.benchmarks;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.storage.JsonMessageStore;
+import com.emergencymesh.core.storage.LogMessageStore;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same operations as {@link MessageStoreBenchmark} against the log
+ * store, plus indexed reads and reopening: a store is one appended record
+ * however big the inbox, lookups and recent messages should stay flat too,
+ * and replay on open is the cost paid instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LogMessageStoreBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int inboxSize;
+
+    private File file;
+    private LogMessageStore store;
+    private Message duplicate;
+    private Message fresh;
+    private long nextId = 0;
+
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        Random random = new Random(inboxSize);
+        List<Message> incoming = Fixtures.messages(inboxSize, random);
+        List<Message> outgoing = Fixtures.messages(Math.max(1, inboxSize / 10), random);
+
+        Gson gson = new Gson();
+        InMemoryKeyValueStore preferences = new InMemoryKeyValueStore();
+        preferences.putString(JsonMessageStore.KEY_INCOMING_MESSAGES, gson.toJson(incoming));
+        preferences.putString(JsonMessageStore.KEY_OUTGOING_MESSAGES, gson.toJson(outgoing));
+
+        file = File.createTempFile("bench", ".log");
+        file.delete();
+        store = new LogMessageStore(file, newSeenFilter());
+        store.importFrom(new JsonMessageStore(preferences, newSeenFilter()));
+        duplicate = incoming.get(incoming.size() - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        store.close();
+        file.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void nextMessage() {
+        fresh = Fixtures.message(new Random(nextId));
+        fresh.setId(new UUID(0x5EEDL, nextId++).toString());
+    }
+
+    private static SeenMessageFilter newSeenFilter() {
+        return new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+    }
+
+    @Benchmark
+    public boolean storeIncomingMessage() {
+        return store.storeIncomingMessage(fresh);
+    }
+
+    @Benchmark
+    public boolean storeDuplicateMessage() {
+        return store.storeIncomingMessage(duplicate);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return store.getAllMessages();
+    }
+
+    @Benchmark
+    public List<Message> getRecentMessages() {
+        return store.getRecentMessages(20);
+    }
+
+    @Benchmark
+    public Message getMessageById() {
+        return store.getMessageById(duplicate.getId());
+    }
+
+    /**
+     * Opening a second store on the same file replays every record.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 10)
+    public int replay() {
+        LogMessageStore reopened = new LogMessageStore(file, newSeenFilter());
+        int count = reopened.getTotalMessageCount();
+        reopened.close();
+        return count;
+    }
+}
@@ -0,0 +1,94 @@
+package com.emergencymesh.benchmarks;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.protocol.FrameCodec;
+import com.emergencymesh.core.protocol.PayloadCompressor;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One message through Gson, as MessageStorage and the legacy JSON wire
+ * format do it, next to the binary frame codec, plain and with the preset
+ * DEFLATE dictionary.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageJsonBenchmark {
+
+    private final Gson gson = new Gson();
+    private Message message;
+    private String json;
+    private byte[] frame;
+    private PayloadCompressor compressor;
+    private byte[] compressedFrame;
+
+    @Setup
+    public void setUp() {
+        message = Fixtures.message(new Random(42));
+        json = gson.toJson(message);
+        frame = FrameCodec.encodeMessage(message);
+        compressor = new PayloadCompressor();
+        compressedFrame = frameEncodeCompressed();
+    }
+
+    @TearDown
+    public void tearDown() {
+        compressor.release();
+    }
+
+    @Benchmark
+    public String gsonToJson() {
+        return gson.toJson(message);
+    }
+
+    @Benchmark
+    public Message gsonFromJson() {
+        return gson.fromJson(json, Message.class);
+    }
+
+    @Benchmark
+    public byte[] frameEncode() {
+        return FrameCodec.encodeMessage(message);
+    }
+
+    @Benchmark
+    public Message frameDecode() throws IOException {
+        return FrameCodec.decodeMessage(FrameCodec.readFrame(new ByteArrayInputStream(frame)));
+    }
+
+    @Benchmark
+    public byte[] frameEncodeCompressed() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            FrameCodec.writeMessage(out, message, compressor);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Message frameDecodeCompressed() throws IOException {
+        return FrameCodec.decodeMessage(FrameCodec.readFrame(new ByteArrayInputStream(compressedFrame)), compressor);
+    }
+}
@@ -0,0 +1,96 @@
+package com.emergencymesh.benchmarks;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.storage.JsonMessageStore;
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The message store as the inbox grows: storing a new message rewrites the
+ * whole incoming list, a duplicate should be turned away by the seen filter
+ * alone, and getAllMessages parses and sorts both lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MessageStoreBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int inboxSize;
+
+    private InMemoryKeyValueStore preferences;
+    private JsonMessageStore store;
+    private Map<String, String> filled;
+    private Message duplicate;
+    private Message fresh;
+    private long nextId = 0;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        Random random = new Random(inboxSize);
+        List<Message> incoming = Fixtures.messages(inboxSize, random);
+        List<Message> outgoing = Fixtures.messages(Math.max(1, inboxSize / 10), random);
+
+        // Storing one at a time would take quadratic time to set up
+        Gson gson = new Gson();
+        preferences = new InMemoryKeyValueStore();
+        preferences.putString(JsonMessageStore.KEY_INCOMING_MESSAGES, gson.toJson(incoming));
+        preferences.putString(JsonMessageStore.KEY_OUTGOING_MESSAGES, gson.toJson(outgoing));
+        filled = preferences.snapshot();
+
+        SeenMessageFilter seenFilter = new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+        for (Message message : incoming) {
+            seenFilter.add(message.getId());
+        }
+        store = new JsonMessageStore(preferences, seenFilter);
+        duplicate = incoming.get(incoming.size() - 1);
+    }
+
+    /**
+     * Puts the inbox back to its starting size so every store measures the
+     * same list length. Swapping the map entries is cheap next to the store.
+     */
+    @Setup(Level.Invocation)
+    public void reset() {
+        preferences.restore(filled);
+        fresh = Fixtures.message(new Random(nextId));
+        fresh.setId(new UUID(0x5EEDL, nextId++).toString());
+    }
+
+    @Benchmark
+    public boolean storeIncomingMessage() {
+        return store.storeIncomingMessage(fresh);
+    }
+
+    @Benchmark
+    public boolean storeDuplicateMessage() {
+        return store.storeIncomingMessage(duplicate);
+    }
+
+    @Benchmark
+    public List<Message> getAllMessages() {
+        return store.getAllMessages();
+    }
+}
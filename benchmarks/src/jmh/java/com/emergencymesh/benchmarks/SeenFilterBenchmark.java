@@ -0,0 +1,62 @@
+package com.emergencymesh.benchmarks;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Relay deduplication: the seen filter answers for every frame a node
+ * receives, most of them duplicates in a dense mesh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeenFilterBenchmark {
+
+    private static final int KNOWN = 1024;
+
+    private SeenMessageFilter filter;
+    private String[] seen;
+    private String[] unseen;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        filter = new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+        // Fill most of a generation so lookups go past the exact cache too
+        for (int i = 0; i < SeenMessageFilter.DEFAULT_GENERATION_CAPACITY - KNOWN; i++) {
+            filter.add(new UUID(1, i).toString());
+        }
+        seen = new String[KNOWN];
+        unseen = new String[KNOWN];
+        for (int i = 0; i < KNOWN; i++) {
+            seen[i] = new UUID(1, i * 7L).toString();
+            unseen[i] = new UUID(2, i).toString();
+        }
+    }
+
+    @Benchmark
+    public SeenMessageFilter.Verdict checkSeen() {
+        return filter.check(seen[next++ & (KNOWN - 1)]);
+    }
+
+    @Benchmark
+    public SeenMessageFilter.Verdict checkUnseen() {
+        return filter.check(unseen[next++ & (KNOWN - 1)]);
+    }
+}
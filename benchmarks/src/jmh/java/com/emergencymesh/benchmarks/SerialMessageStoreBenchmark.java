@@ -0,0 +1,94 @@
+package com.emergencymesh.benchmarks;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.storage.LogMessageStore;
+import com.emergencymesh.core.storage.SerialMessageStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One synchronous write through the storage writer with snapshot reads on,
+ * at and around the retention engine's default cap. Each invocation stores
+ * a new message and deletes the previous one, so the store stays at its
+ * starting size and the cost is the write plus publishing its snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SerialMessageStoreBenchmark {
+
+    // 5000 is RetentionEngine.Policy's default maxMessages
+    @Param({"1000", "5000", "20000"})
+    public int inboxSize;
+
+    private File file;
+    private LogMessageStore log;
+    private SerialMessageStore store;
+    private Message fresh;
+    private String previousId;
+    private long nextId = 0;
+
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        List<Message> incoming = Fixtures.messages(inboxSize, new Random(inboxSize));
+        file = File.createTempFile("bench", ".log");
+        file.delete();
+        log = new LogMessageStore(file, newSeenFilter());
+        for (Message message : incoming) {
+            log.storeIncomingMessage(message);
+        }
+        store = new SerialMessageStore(log, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        store.close();
+        log.close();
+        file.delete();
+    }
+
+    @Setup(Level.Invocation)
+    public void nextMessage() {
+        fresh = Fixtures.message(new Random(nextId));
+        fresh.setId(new UUID(0x5EEDL, nextId++).toString());
+    }
+
+    private static SeenMessageFilter newSeenFilter() {
+        return new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+    }
+
+    @Benchmark
+    public boolean storeIncomingMessage() {
+        if (previousId != null) store.deleteMessage(previousId);
+        previousId = fresh.getId();
+        return store.storeIncomingMessage(fresh);
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByType() {
+        return store.getMessagesByType("alert");
+    }
+}
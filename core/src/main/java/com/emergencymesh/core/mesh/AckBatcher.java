@@ -0,0 +1,59 @@
+package com.emergencymesh.core.mesh;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects message IDs to acknowledge on one link and hands them to the
+ * sink as a single batch, either once {@code maxBatch} IDs are pending or
+ * when the owner's flush timer fires.
+ */
+class AckBatcher {
+
+    interface Sink {
+        void sendBatch(List<String> messageIds);
+    }
+
+    private final int maxBatch;
+    private final Sink sink;
+    private List<String> pending = new ArrayList<>();
+
+    AckBatcher(int maxBatch, Sink sink) {
+        this.maxBatch = maxBatch;
+        this.sink = sink;
+    }
+
+    /**
+     * Adds an ID to the batch. Returns true if this started a new batch, in
+     * which case the caller should schedule a {@link #flush()}.
+     */
+    boolean add(String messageId) {
+        List<String> full = null;
+        boolean started;
+        synchronized (this) {
+            started = pending.isEmpty();
+            pending.add(messageId);
+            if (pending.size() >= maxBatch) {
+                full = pending;
+                pending = new ArrayList<>();
+                started = false;
+            }
+        }
+        if (full != null) sink.sendBatch(full);
+        return started;
+    }
+
+    void flush() {
+        List<String> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        sink.sendBatch(batch);
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,225 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.storage.KeyValueStore;
+import com.emergencymesh.core.util.MeshLog;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * The user's active distress state as one alert session: a stable alert ID
+ * and a revision that grows each time the alert's content changes.
+ *
+ * Each revision goes out once through store-and-forward. After that the
+ * current revision is re-announced to the connected peers on a beacon that
+ * backs off from {@link #DEFAULT_MIN_INTERVAL_MS} to {@link #DEFAULT_MAX_INTERVAL_MS};
+ * a content change publishes a new revision and resets the back-off.
+ * Revision message IDs are derived from the alert ID and revision, so
+ * re-announcements dedup everywhere and relays and stores keep only the
+ * latest revision of each alert.
+ *
+ * The session survives restarts in {@code state}, so a phone that reboots
+ * mid-emergency carries on with the same alert.
+ */
+public class AlertBeacon {
+    private static final String TAG = "AlertBeacon";
+
+    public static final long DEFAULT_MIN_INTERVAL_MS = 15000;
+    public static final long DEFAULT_MAX_INTERVAL_MS = 300000;
+
+    static final String KEY_ALERT_ID = "alert_session_id";
+    static final String KEY_REVISION = "alert_session_revision";
+    static final String KEY_CONTENT = "alert_session_content";
+
+    private static final String RECIPIENT = "AUTO";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * What the alert currently says; polled on every beacon tick.
+     */
+    public interface ContentSource {
+        String getContent();
+    }
+
+    private final MeshNode node;
+    private final MessageStore messageStorage;
+    private final KeyValueStore state;
+    private final MeshNode.Identity identity;
+    private final ContentSource contentSource;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+
+    private String alertId;
+    private int revision;
+    private String content;
+    private Message current;
+    private long intervalMs;
+    private ScheduledFuture<?> timer;
+
+    public AlertBeacon(MeshNode node, MessageStore messageStorage, KeyValueStore state,
+                       MeshNode.Identity identity, ContentSource contentSource) {
+        this(node, messageStorage, state, identity, contentSource, DEFAULT_MIN_INTERVAL_MS, DEFAULT_MAX_INTERVAL_MS);
+    }
+
+    public AlertBeacon(MeshNode node, MessageStore messageStorage, KeyValueStore state,
+                       MeshNode.Identity identity, ContentSource contentSource,
+                       long minIntervalMs, long maxIntervalMs) {
+        this.node = node;
+        this.messageStorage = messageStorage;
+        this.state = state;
+        this.identity = identity;
+        this.contentSource = contentSource;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = Math.max(minIntervalMs, maxIntervalMs);
+        restore();
+    }
+
+    /**
+     * Starts beaconing, resuming a persisted session or opening a new one.
+     * Does nothing if already running.
+     */
+    public synchronized void start() {
+        if (timer != null) return;
+
+        String latest = currentContent();
+        if (alertId == null) {
+            alertId = UUID.randomUUID().toString();
+            revision = 0;
+            MeshLog.d(TAG, "Alert session opened: " + alertId);
+            publish(latest);
+        } else if (!latest.equals(content)) {
+            publish(latest);
+        } else {
+            current = findOrBuild(revision, content);
+            MeshLog.d(TAG, "Alert session resumed: " + alertId + " r" + revision);
+        }
+
+        intervalMs = minIntervalMs;
+        scheduleTick();
+    }
+
+    /**
+     * Stops the beacon timer but keeps the session, e.g. while the service is down.
+     */
+    public synchronized void pause() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    /**
+     * Ends the session: publishes {@code finalContent} as its last revision
+     * so peers replace the alert, then forgets it.
+     */
+    public synchronized void stop(String finalContent) {
+        pause();
+        if (alertId == null) return;
+
+        publish(finalContent);
+        MeshLog.d(TAG, "Alert session closed: " + alertId + " r" + revision);
+        alertId = null;
+        revision = 0;
+        content = null;
+        current = null;
+        state.putString(KEY_ALERT_ID, "");
+        state.putString(KEY_REVISION, "");
+        state.putString(KEY_CONTENT, "");
+    }
+
+    public synchronized boolean isActive() {
+        return alertId != null;
+    }
+
+    public synchronized String getAlertId() {
+        return alertId;
+    }
+
+    public synchronized int getRevision() {
+        return revision;
+    }
+
+    synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * ID of one revision's message, the same on every phone and every run.
+     */
+    public static String revisionId(String alertId, int revision) {
+        return UUID.nameUUIDFromBytes((alertId + "#" + revision).getBytes(UTF_8)).toString();
+    }
+
+    private void restore() {
+        String savedId = state.getString(KEY_ALERT_ID, "");
+        if (savedId.isEmpty()) return;
+        try {
+            revision = Integer.parseInt(state.getString(KEY_REVISION, "0"));
+        } catch (NumberFormatException e) {
+            MeshLog.w(TAG, "Corrupt alert revision, starting over");
+            return;
+        }
+        alertId = savedId;
+        content = state.getString(KEY_CONTENT, "");
+    }
+
+    private String currentContent() {
+        String latest = contentSource.getContent();
+        return latest != null ? latest : "";
+    }
+
+    private void publish(String newContent) {
+        revision++;
+        content = newContent;
+        current = build(revision, newContent);
+        state.putString(KEY_ALERT_ID, alertId);
+        state.putString(KEY_REVISION, String.valueOf(revision));
+        state.putString(KEY_CONTENT, newContent);
+
+        // Replaces the previous revision in storage and in the outbox
+        messageStorage.storeOutgoingMessage(current);
+        if (node.getConnectedPeers().isEmpty()) {
+            node.queueForDelivery(current);
+        } else {
+            node.broadcastMessage(current);
+        }
+        MeshLog.d(TAG, "Alert " + alertId + " revision " + revision + " published");
+    }
+
+    private Message findOrBuild(int rev, String text) {
+        Message stored = messageStorage.getMessageById(revisionId(alertId, rev));
+        return stored != null ? stored : build(rev, text);
+    }
+
+    private Message build(int rev, String text) {
+        Message message = new Message(revisionId(alertId, rev), identity.getName(), identity.getPhone(),
+                RECIPIENT, text, "alert");
+        message.setAlertId(alertId);
+        message.setRevision(rev);
+        return message;
+    }
+
+    private void scheduleTick() {
+        timer = node.schedule(this::onTick, intervalMs);
+    }
+
+    private synchronized void onTick() {
+        if (timer == null || alertId == null) return;
+
+        String latest = currentContent();
+        if (!latest.equals(content)) {
+            publish(latest);
+            intervalMs = minIntervalMs;
+        } else {
+            int sent = 0;
+            for (String address : node.getConnectedPeers()) {
+                if (node.sendToPeer(address, current)) sent++;
+            }
+            if (sent > 0) MeshLog.d(TAG, "Alert " + alertId + " r" + revision + " re-announced to " + sent + " peer(s)");
+            intervalMs = Math.min(maxIntervalMs, intervalMs * 2);
+        }
+        scheduleTick();
+    }
+}
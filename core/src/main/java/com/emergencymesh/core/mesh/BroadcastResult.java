@@ -0,0 +1,149 @@
+package com.emergencymesh.core.mesh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Future-style outcome of handing one message to every connected peer.
+ *
+ * Each peer either accepts the message (its writer put it on the socket),
+ * fails, or is still pending when the deadline expires, in which case it is
+ * counted as timed out. The result completes once no peer is pending.
+ */
+public class BroadcastResult {
+
+    public interface Listener {
+        void onComplete(BroadcastResult result);
+    }
+
+    public static final String REASON_TIMEOUT = "Timed out";
+    public static final String REASON_RATE_LIMITED = "Rate limited";
+
+    private final String messageId;
+    private final Set<String> pending = new LinkedHashSet<>();
+    private final Set<String> accepted = new LinkedHashSet<>();
+    private final Map<String, String> failed = new LinkedHashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private boolean sealed = false;
+    private boolean complete = false;
+
+    public BroadcastResult(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    synchronized void addPeer(String address) {
+        if (!sealed) pending.add(address);
+    }
+
+    /**
+     * Called once every peer has been added; completes immediately if none were.
+     */
+    void seal() {
+        List<Listener> toNotify;
+        synchronized (this) {
+            sealed = true;
+            toNotify = completeIfDone();
+        }
+        notifyListeners(toNotify);
+    }
+
+    void peerAccepted(String address) {
+        List<Listener> toNotify;
+        synchronized (this) {
+            if (complete || !pending.remove(address)) return;
+            accepted.add(address);
+            toNotify = completeIfDone();
+        }
+        notifyListeners(toNotify);
+    }
+
+    void peerFailed(String address, String reason) {
+        List<Listener> toNotify;
+        synchronized (this) {
+            if (complete || !pending.remove(address)) return;
+            failed.put(address, reason);
+            toNotify = completeIfDone();
+        }
+        notifyListeners(toNotify);
+    }
+
+    /**
+     * Deadline reached: every peer still pending is marked as timed out.
+     */
+    void expire() {
+        List<Listener> toNotify;
+        synchronized (this) {
+            if (complete) return;
+            for (String address : pending) {
+                failed.put(address, REASON_TIMEOUT);
+            }
+            pending.clear();
+            sealed = true;
+            toNotify = completeIfDone();
+        }
+        notifyListeners(toNotify);
+    }
+
+    // Must hold the monitor
+    private List<Listener> completeIfDone() {
+        if (complete || !sealed || !pending.isEmpty()) return null;
+        complete = true;
+        done.countDown();
+        return new ArrayList<>(listeners);
+    }
+
+    private void notifyListeners(List<Listener> toNotify) {
+        if (toNotify == null) return;
+        for (Listener listener : toNotify) {
+            listener.onComplete(this);
+        }
+    }
+
+    /**
+     * Registers a listener; runs it right away if the result is already complete.
+     */
+    public void addListener(Listener listener) {
+        synchronized (this) {
+            if (!complete) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.onComplete(this);
+    }
+
+    public synchronized boolean isDone() {
+        return complete;
+    }
+
+    /**
+     * Waits for the result to complete. Returns false if the wait timed out.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    public synchronized List<String> getAcceptedPeers() {
+        return new ArrayList<>(accepted);
+    }
+
+    public synchronized Map<String, String> getFailedPeers() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(failed));
+    }
+
+    public synchronized boolean isAcceptedByAny() {
+        return !accepted.isEmpty();
+    }
+}
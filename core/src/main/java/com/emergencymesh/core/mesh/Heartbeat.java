@@ -0,0 +1,132 @@
+package com.emergencymesh.core.mesh;
+
+/**
+ * Liveness and round-trip bookkeeping for one link.
+ *
+ * The node calls {@link #onTimer} every {@link #getIntervalMs()} and
+ * sends a ping when told to. Any inbound data proves the peer is alive;
+ * a ping interval that passes with nothing received counts as a miss, and
+ * {@code maxMisses} in a row means the link is dead (typically a half-open
+ * RFCOMM socket that would otherwise only fail on the next write).
+ *
+ * The interval starts at the minimum and doubles, up to the maximum, for
+ * every interval without user traffic, so an idle link wakes the radio
+ * rarely. Traffic or a miss drops it back to the minimum.
+ *
+ * RTT smoothing follows TCP (RFC 6298): srtt += (r - srtt) / 8,
+ * rttvar += (|r - srtt| - rttvar) / 4.
+ */
+public class Heartbeat {
+
+    enum Action {
+        PING,
+        EVICT
+    }
+
+    public static class Stats {
+        public final double srttMs;
+        public final double jitterMs;
+        public final long intervalMs;
+        public final int missed;
+        public final long pings;
+        public final long pongs;
+
+        Stats(double srttMs, double jitterMs, long intervalMs, int missed, long pings, long pongs) {
+            this.srttMs = srttMs;
+            this.jitterMs = jitterMs;
+            this.intervalMs = intervalMs;
+            this.missed = missed;
+            this.pings = pings;
+            this.pongs = pongs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("srtt=%.1fms jitter=%.1fms interval=%dms missed=%d pings=%d pongs=%d",
+                    srttMs, jitterMs, intervalMs, missed, pings, pongs);
+        }
+    }
+
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final int maxMisses;
+
+    private long intervalMs;
+    private int sequence = 0;
+    private int missed = 0;
+    private boolean heardSinceLastTimer = true;
+    private boolean trafficSinceLastTimer = false;
+    private double srttMs = -1;
+    private double rttVarMs = 0;
+    private long pings = 0;
+    private long pongs = 0;
+
+    Heartbeat(long minIntervalMs, long maxIntervalMs, int maxMisses) {
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.maxMisses = maxMisses;
+        this.intervalMs = minIntervalMs;
+    }
+
+    /**
+     * Called when the current interval has elapsed.
+     */
+    synchronized Action onTimer() {
+        if (heardSinceLastTimer) {
+            missed = 0;
+        } else if (++missed >= maxMisses) {
+            return Action.EVICT;
+        }
+
+        if (missed > 0 || trafficSinceLastTimer) {
+            intervalMs = minIntervalMs;
+        } else {
+            intervalMs = Math.min(maxIntervalMs, intervalMs * 2);
+        }
+        heardSinceLastTimer = false;
+        trafficSinceLastTimer = false;
+        pings++;
+        return Action.PING;
+    }
+
+    synchronized int nextSequence() {
+        return ++sequence;
+    }
+
+    /**
+     * Anything arrived from the peer.
+     */
+    synchronized void onReceived() {
+        heardSinceLastTimer = true;
+    }
+
+    /**
+     * A user message was sent or received; keep probing at the fast rate.
+     */
+    synchronized void onTraffic() {
+        trafficSinceLastTimer = true;
+        if (intervalMs > minIntervalMs) intervalMs = minIntervalMs;
+    }
+
+    synchronized void onPong(long sentMicros, long nowMicros) {
+        heardSinceLastTimer = true;
+        pongs++;
+        double rtt = (nowMicros - sentMicros) / 1000.0;
+        if (rtt < 0) return;
+        if (srttMs < 0) {
+            srttMs = rtt;
+            rttVarMs = rtt / 2;
+        } else {
+            rttVarMs += (Math.abs(rtt - srttMs) - rttVarMs) / 4;
+            srttMs += (rtt - srttMs) / 8;
+        }
+    }
+
+    synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+
+    synchronized Stats getStats() {
+        return new Stats(Math.max(0, srttMs), rttVarMs, intervalMs, missed, pings, pongs);
+    }
+}
@@ -0,0 +1,78 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Heap-only {@link MessageStore} for nodes run inside tests and simulations.
+ */
+public class InMemoryMessageStore implements MessageStore {
+    private final List<Message> outgoing = new ArrayList<>();
+    private final List<Message> incoming = new ArrayList<>();
+    private final Map<String, Message> byId = new HashMap<>();
+    private final Set<String> outgoingIds = new HashSet<>();
+
+    @Override
+    public synchronized void storeOutgoingMessage(Message message) {
+        if (message.getAlertId() != null) replaceOlderRevision(outgoing, message);
+        outgoing.add(message);
+        outgoingIds.add(message.getId());
+        byId.put(message.getId(), message);
+    }
+
+    @Override
+    public synchronized boolean storeIncomingMessage(Message message) {
+        if (message == null || byId.containsKey(message.getId())) return false;
+        if (message.getAlertId() != null && !replaceOlderRevision(incoming, message)) return false;
+        incoming.add(message);
+        byId.put(message.getId(), message);
+        return true;
+    }
+
+    private boolean replaceOlderRevision(List<Message> messages, Message message) {
+        for (int i = 0; i < messages.size(); i++) {
+            Message stored = messages.get(i);
+            if (!message.getAlertId().equals(stored.getAlertId())) continue;
+            if (!message.supersedes(stored)) return false;
+            messages.remove(i);
+            byId.remove(stored.getId());
+            return true;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized int markMessagesAsDelivered(Collection<String> messageIds) {
+        int updated = 0;
+        for (String messageId : messageIds) {
+            Message message = byId.get(messageId);
+            if (outgoingIds.contains(messageId) && !message.isDelivered()) {
+                message.setDelivered(true);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public synchronized List<Message> getOutgoingMessages() {
+        return new ArrayList<>(outgoing);
+    }
+
+    @Override
+    public synchronized List<Message> getIncomingMessages() {
+        return new ArrayList<>(incoming);
+    }
+
+    @Override
+    public synchronized Message getMessageById(String messageId) {
+        return byId.get(messageId);
+    }
+}
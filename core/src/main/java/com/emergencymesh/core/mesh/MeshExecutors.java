@@ -0,0 +1,177 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.util.MeshLog;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The threads a mesh node runs on, in three named pools:
+ *
+ * - io: one reader and one writer loop per connection, capped so a burst
+ *   of incoming links cannot spawn unbounded threads
+ * - dial: outgoing connection attempts, a few at a time with a short queue
+ * - scheduler: a single thread for timers (ACK flushes, retries,
+ *   store-and-forward pacing), keeping storage work off the UI thread
+ *
+ * {@link #shutdown()} stops all three; the node calls it from shutdown().
+ */
+public class MeshExecutors {
+    private static final String TAG = "MeshExecutors";
+
+    private static final long IDLE_KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor io;
+    private final ThreadPoolExecutor dial;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final AtomicLong dialRejected = new AtomicLong();
+    private final AtomicLong ioRejected = new AtomicLong();
+
+    /**
+     * @param maxIoThreads    reader + writer threads across all connections
+     * @param maxDials        concurrent outgoing connection attempts
+     * @param dialQueueLength attempts allowed to wait for a free dial slot
+     */
+    public MeshExecutors(int maxIoThreads, int maxDials, int dialQueueLength) {
+        io = new ThreadPoolExecutor(0, maxIoThreads, IDLE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new NamedThreadFactory("mesh-io"));
+        dial = new ThreadPoolExecutor(maxDials, maxDials, IDLE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(dialQueueLength), new NamedThreadFactory("mesh-dial"));
+        dial.allowCoreThreadTimeOut(true);
+        scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("mesh-timer"));
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Starts a long-running connection loop. Throws if the io pool is full.
+     */
+    public Future<?> runIo(Runnable loop) throws RejectedExecutionException {
+        try {
+            return io.submit(loop);
+        } catch (RejectedExecutionException e) {
+            ioRejected.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Queues a connection attempt. Returns false if too many are already waiting.
+     */
+    public boolean dial(Runnable attempt) {
+        try {
+            dial.execute(attempt);
+            return true;
+        } catch (RejectedExecutionException e) {
+            dialRejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Runs a timer task on the scheduler thread. Returns null once shut down.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        try {
+            return scheduler.schedule(guarded(task), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    public void execute(Runnable task) {
+        schedule(task, 0);
+    }
+
+    // An exception must not silently cancel later timer work
+    private static Runnable guarded(final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    MeshLog.e(TAG, "Timer task failed", e);
+                }
+            }
+        };
+    }
+
+    public void shutdown() {
+        dial.shutdownNow();
+        scheduler.shutdownNow();
+        // Connection loops exit once their sockets are closed; interrupt any stragglers
+        io.shutdownNow();
+        MeshLog.d(TAG, "Executors shut down: " + getStats());
+    }
+
+    public boolean isShutdown() {
+        return scheduler.isShutdown();
+    }
+
+    public Stats getStats() {
+        return new Stats(io.getPoolSize(), io.getActiveCount(), io.getLargestPoolSize(), io.getMaximumPoolSize(),
+                ioRejected.get(), dial.getActiveCount(), dial.getQueue().size(), dialRejected.get(),
+                scheduler.getQueue().size(), scheduler.getCompletedTaskCount());
+    }
+
+    public static class Stats {
+        public final int ioThreads;
+        public final int ioActive;
+        public final int ioLargest;
+        public final int ioMax;
+        public final long ioRejected;
+        public final int dialsActive;
+        public final int dialsQueued;
+        public final long dialsRejected;
+        public final int timersPending;
+        public final long timersCompleted;
+
+        Stats(int ioThreads, int ioActive, int ioLargest, int ioMax, long ioRejected,
+              int dialsActive, int dialsQueued, long dialsRejected, int timersPending, long timersCompleted) {
+            this.ioThreads = ioThreads;
+            this.ioActive = ioActive;
+            this.ioLargest = ioLargest;
+            this.ioMax = ioMax;
+            this.ioRejected = ioRejected;
+            this.dialsActive = dialsActive;
+            this.dialsQueued = dialsQueued;
+            this.dialsRejected = dialsRejected;
+            this.timersPending = timersPending;
+            this.timersCompleted = timersCompleted;
+        }
+
+        @Override
+        public String toString() {
+            return "io=" + ioActive + "/" + ioThreads + " (max " + ioLargest + "/" + ioMax
+                    + ", rejected " + ioRejected + ") dial=" + dialsActive + "+" + dialsQueued
+                    + " (rejected " + dialsRejected + ") timers=" + timersPending
+                    + " (done " + timersCompleted + ")";
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
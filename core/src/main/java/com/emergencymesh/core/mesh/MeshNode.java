@@ -0,0 +1,1268 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+import com.emergencymesh.core.protocol.FrameCodec;
+import com.emergencymesh.core.protocol.PayloadCompressor;
+import com.emergencymesh.core.transport.MeshLink;
+import com.emergencymesh.core.transport.MeshTransport;
+import com.emergencymesh.core.util.MeshLog;
+import com.google.gson.Gson;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One mesh participant, independent of how its links are made:
+ * - Binary framing negotiated per link (legacy peers stay on JSON lines)
+ * - Multi-hop flood relay bounded by TTL and a persistent seen-ID filter
+ * - Set-reconciliation sync of stored messages when a link comes up
+ * - Batched ACK frames for binary peers
+ * - Dictionary DEFLATE of message payloads when both ends support it
+ * - Per-link priority lanes: alerts first, then weighted location/text/control
+ * - Store-and-forward of unACKed outgoing messages to each newly connected peer
+ * - ACK timeouts with jittered exponential backoff retries, persisted across restarts
+ * - Named, bounded thread pools for connection I/O, dialing and timers (see MeshExecutors)
+ * - Adaptive PING/PONG heartbeat with smoothed RTT/jitter and dead-link eviction
+ * - Distance-vector routes to phone numbers; addressed messages use the next hop
+ * - Per-peer token buckets by lane, both directions; low priority is shed first
+ * - Live location: delta-encoded position frames per link, latest fix kept per sender
+ *
+ * Links come from a {@link MeshTransport}, so the same node runs over
+ * Bluetooth on a phone and over in-memory pipes or loopback TCP in tests.
+ */
+public class MeshNode {
+    private static final String TAG = "MeshNode";
+
+    // How long a peer's writer has to put a broadcast on the link
+    public static final long PEER_SEND_DEADLINE_MS = 5000;
+
+    // ACKs to binary peers are batched: flushed after a short delay or when full
+    private static final long ACK_FLUSH_DELAY_MS = 100;
+    private static final int ACK_BATCH_MAX = 32;
+
+    // Store-and-forward drain to a newly connected peer: a few messages per tick
+    private static final int OUTBOX_DRAIN_BATCH = 4;
+    private static final long OUTBOX_DRAIN_INTERVAL_MS = 250;
+
+    private static final long TRIGGERED_ADVERT_DELAY_MS = 1000;
+
+    // How soon a rate-limited sync backlog tries again
+    private static final long RATE_LIMIT_RETRY_MS = 100;
+
+    /**
+     * Tunables; the defaults suit Bluetooth classic on a phone.
+     */
+    public static class Config {
+        // Bluetooth classic allows 7 active links; each uses a reader and a writer thread
+        public int maxConnections = 7;
+        public int maxConcurrentDials = 2;
+        public int dialQueueLength = 8;
+
+        // Per-connection outbound queue
+        public int outboundQueueCapacity = 64;
+        public OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.DROP_OLDEST;
+
+        // Heartbeat: probe every 5 s on busy links, backing off to 60 s when idle;
+        // three silent intervals in a row and the link is dropped
+        public long heartbeatMinIntervalMs = 5000;
+        public long heartbeatMaxIntervalMs = 60000;
+        public int heartbeatMaxMisses = 3;
+
+        // Distance-vector routing for addressed messages
+        public long routeAdvertIntervalMs = 30000;
+
+        // End-to-end retries of our own messages until a peer ACKs them
+        public long ackTimeoutMs = 4000;
+        public long retryMaxBackoffMs = 60000;
+        public int retryMaxAttempts = 6;
+
+        // Per-peer token buckets (see RateLimiter). We send below what we accept,
+        // so two nodes with the same settings never shed each other's traffic
+        public RateLimiter.Limits inboundLimits = new RateLimiter.Limits();
+        public RateLimiter.Limits outboundLimits = new RateLimiter.Limits().scaled(0.8);
+
+        // Live location: a new fix of our own goes out only once it has moved or its
+        // accuracy has changed this much, or nothing has gone out for a while
+        public double positionMinDistanceMeters = 15;
+        public double positionMinAccuracyChangeMeters = 20;
+        public long positionMaxSilenceMs = 60000;
+        // Fixes from further away are still kept but not relayed again
+        public int positionMaxHops = Message.DEFAULT_TTL;
+    }
+
+    /**
+     * Who this node is; read on every use so profile edits take effect.
+     */
+    public interface Identity {
+        String getName();
+
+        String getPhone();
+    }
+
+    /**
+     * Called from I/O and timer threads.
+     */
+    public interface Listener {
+        void onPeerConnected(String address, String name);
+
+        void onPeerDisconnected(String address);
+
+        void onMessageReceived(Message message, String fromAddress);
+
+        void onMessageDelivered(String messageId, String peerAddress);
+
+        void onMessageFailed(String messageId, String error);
+
+        void onPositionUpdated(PositionFix fix, String fromAddress);
+    }
+
+    private final Config config;
+    private final Identity identity;
+    private final MessageStore messageStorage;
+    private final SeenMessageFilter seenFilter;
+    private final Listener listener;
+    private final Gson gson = new Gson();
+    private final ConcurrentHashMap<String, Connection> activeConnections = new ConcurrentHashMap<>();
+    private final StoreAndForward outbox;
+    private final RetransmissionManager retransmissions;
+    private ScheduledFuture<?> retransmissionTimer;
+    private final MeshExecutors executors;
+    private final RoutingTable routing;
+    private final MessageHandler messageHandler;
+    private final AtomicBoolean triggeredAdvertPending = new AtomicBoolean();
+    private final Set<String> dialing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong inboundShed = new AtomicLong();
+    private final AtomicLong outboundShed = new AtomicLong();
+    private final PositionTracker positions = new PositionTracker();
+    private PositionFix lastOwnPosition;
+
+    /**
+     * @param retransmissionFile where in-flight retries are persisted, or null to keep them in memory only
+     */
+    public MeshNode(Config config, Identity identity, MessageStore messageStorage,
+                    SeenMessageFilter seenFilter, File retransmissionFile, Listener listener) {
+        this.config = config;
+        this.identity = identity;
+        this.messageStorage = messageStorage;
+        this.seenFilter = seenFilter;
+        this.listener = listener;
+        // Two loops per connection, and as many again for connections that have
+        // left activeConnections but whose loops are still winding down
+        this.executors = new MeshExecutors(config.maxConnections * 4,
+                config.maxConcurrentDials, config.dialQueueLength);
+        this.outbox = new StoreAndForward();
+        outbox.load(messageStorage.getOutgoingMessages());
+        this.retransmissions = new RetransmissionManager(retransmissionFile,
+                config.ackTimeoutMs, config.retryMaxBackoffMs, config.retryMaxAttempts, new Random());
+        this.routing = new RoutingTable(identity.getPhone(), config.routeAdvertIntervalMs * 3);
+        this.messageHandler = new MessageHandler(messageStorage, routing);
+        scheduleRetransmissionCheck();
+        executors.schedule(this::periodicRouteAdvert, config.routeAdvertIntervalMs);
+    }
+
+    private class Connection {
+        private final MeshLink link;
+        private final String deviceAddress;
+        private final String deviceName;
+        private final InputStream input;
+        private final OutputStream output;
+        private final OutboundQueue outboundQueue;
+        private volatile Future<?> reader;
+        private volatile Future<?> writer;
+        private volatile boolean isActive = true;
+        private boolean closed = false;
+        // Set once the peer's HELLO arrives; until then we only speak JSON lines
+        private volatile boolean binaryPeer = false;
+        // The lower of the two HELLO versions; every frame we write carries it
+        private volatile int frameVersion = FrameCodec.VERSION;
+        private SetReconciler reconciler;
+        private final ArrayDeque<Message> syncBacklog = new ArrayDeque<>();
+        private final AckBatcher ackBatcher = new AckBatcher(ACK_BATCH_MAX, this::sendAckBatch);
+        private final PayloadCompressor compressor = new PayloadCompressor();
+        // Only compress outgoing frames once the peer has advertised the same dictionary
+        private volatile boolean compressToPeer = false;
+        private final Heartbeat heartbeat = new Heartbeat(
+                config.heartbeatMinIntervalMs, config.heartbeatMaxIntervalMs, config.heartbeatMaxMisses);
+        private volatile ScheduledFuture<?> heartbeatTimer;
+        private final RateLimiter inboundLimiter = new RateLimiter(config.inboundLimits);
+        private final RateLimiter outboundLimiter = new RateLimiter(config.outboundLimits);
+        private final AtomicBoolean syncPumpScheduled = new AtomicBoolean();
+        private final PositionStream positionStream = new PositionStream();
+
+        Connection(MeshLink link) throws IOException {
+            this.link = link;
+            this.deviceAddress = link.getAddress();
+            this.deviceName = link.getName();
+
+            this.input = new BufferedInputStream(link.getInputStream());
+            this.output = new BufferedOutputStream(link.getOutputStream());
+            this.outboundQueue = new OutboundQueue(config.outboundQueueCapacity, config.overflowPolicy);
+
+            // Announce binary framing; legacy peers fail to parse the line and ignore it
+            writeLine(FrameCodec.buildHello(PayloadCompressor.CAPABILITY));
+        }
+
+        void start() throws IOException {
+            try {
+                reader = executors.runIo(this::readMessages);
+                writer = executors.runIo(this::writeMessages);
+            } catch (RejectedExecutionException e) {
+                isActive = false;
+                if (reader != null) reader.cancel(true);
+                outboundQueue.close();
+                compressor.release();
+                throw new IOException("No I/O threads available for " + deviceAddress, e);
+            }
+
+            MeshLog.d(TAG, "Connection established with " + deviceName);
+            listener.onPeerConnected(deviceAddress, deviceName);
+            startOutboxDrain();
+            resumeRetransmissions();
+            scheduleHeartbeat();
+        }
+
+        private void readMessages() {
+            try {
+                while (isActive) {
+                    // A binary peer may still have JSON lines in flight from before
+                    // it saw our HELLO, so sniff each unit's first byte
+                    if (binaryPeer) {
+                        input.mark(1);
+                        int first = input.read();
+                        if (first < 0) break;
+                        input.reset();
+
+                        if (first == FrameCodec.MAGIC) {
+                            FrameCodec.Frame frame = FrameCodec.readFrame(input);
+                            if (frame == null) break;
+                            handleFrame(frame);
+                            continue;
+                        }
+                    }
+
+                    String line = readLine();
+                    if (line == null) break;
+                    if (!line.trim().isEmpty()) {
+                        handleLine(line.trim());
+                    }
+                }
+            } catch (IOException e) {
+                MeshLog.d(TAG, "Connection ended with " + deviceAddress);
+            } finally {
+                disconnect();
+            }
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            int b;
+            while ((b = input.read()) >= 0) {
+                if (b == '\n') break;
+                line.write(b);
+            }
+            if (b < 0 && line.size() == 0) return null;
+            return new String(line.toByteArray(), FrameCodec.UTF_8);
+        }
+
+        private void handleLine(String line) {
+            heartbeat.onReceived();
+            // Legacy heartbeat; there is no reply in the line format
+            if ("PING".equals(line)) return;
+
+            int peerVersion = FrameCodec.parseHello(line);
+            if (peerVersion >= 1) {
+                if (!binaryPeer) {
+                    compressToPeer = FrameCodec.parseCapabilities(line).contains(PayloadCompressor.CAPABILITY);
+                    frameVersion = Math.min(peerVersion, FrameCodec.VERSION);
+                    binaryPeer = true;
+                    MeshLog.d(TAG, "Binary framing v" + frameVersion + " with " + deviceAddress
+                            + (compressToPeer ? ", compressed" : ""));
+                    startSync();
+                    sendRouteAdvert();
+                    sendKnownPositions();
+                }
+                return;
+            }
+
+            try {
+                Message message = gson.fromJson(line, Message.class);
+                if (message != null && admitInbound(OutboundFrame.laneFor(message.getMessageType()))) {
+                    handleReceivedMessage(message);
+                }
+            } catch (Exception e) {
+                MeshLog.e(TAG, "Error parsing message", e);
+            }
+        }
+
+        private void handleFrame(FrameCodec.Frame frame) {
+            heartbeat.onReceived();
+            try {
+                if (frame.type == FrameCodec.TYPE_MESSAGE) {
+                    Message message = FrameCodec.decodeMessage(frame, compressor);
+                    if (admitInbound(OutboundFrame.laneFor(message.getMessageType()))) {
+                        handleReceivedMessage(message);
+                    }
+                    return;
+                }
+                if (frame.type == FrameCodec.TYPE_POSITION) {
+                    if (admitInbound(OutboundFrame.Lane.LOCATION)) {
+                        handlePosition(FrameCodec.decodePosition(frame));
+                    }
+                    return;
+                }
+                if (!admitInbound(OutboundFrame.Lane.CONTROL)) return;
+
+                if (frame.type == FrameCodec.TYPE_PING) {
+                    send(OutboundFrame.control(FrameCodec.TYPE_PONG, frame.payload));
+                } else if (frame.type == FrameCodec.TYPE_PONG) {
+                    heartbeat.onPong(FrameCodec.decodePing(frame).timestampMicros, nowMicros());
+                } else if (frame.type == FrameCodec.TYPE_ACK_BATCH) {
+                    handleAcks(FrameCodec.decodeAckBatch(frame));
+                } else if (frame.type == FrameCodec.TYPE_ROUTE_ADVERT) {
+                    if (routing.onAdvert(deviceAddress, FrameCodec.decodeRouteAdvert(frame),
+                            System.currentTimeMillis())) {
+                        scheduleTriggeredAdvert();
+                    }
+                } else if (frame.type == FrameCodec.TYPE_SYNC_SUMMARY) {
+                    handleSyncSummary(FrameCodec.decodeSyncSummary(frame));
+                } else if (frame.type == FrameCodec.TYPE_POSITION_ACK) {
+                    FrameCodec.PositionAck ack = FrameCodec.decodePositionAck(frame);
+                    positionStream.onAcked(ack.senderPhone, ack.sequence);
+                } else {
+                    MeshLog.w(TAG, "Unknown frame type " + frame.type + " from " + deviceAddress);
+                }
+            } catch (IOException e) {
+                MeshLog.e(TAG, "Error decoding frame", e);
+            }
+        }
+
+        /**
+         * Shed frames are dropped unACKed: the sender's retries back off,
+         * and relayed copies usually reach us over another link.
+         */
+        private boolean admitInbound(OutboundFrame.Lane lane) {
+            if (inboundLimiter.tryAcquire(lane)) return true;
+            long shed = inboundShed.incrementAndGet();
+            // Powers of two only, or a flood would flood the log as well
+            if (Long.bitCount(shed) == 1) {
+                MeshLog.w(TAG, "Shedding inbound " + lane.name().toLowerCase(Locale.US) + " from " + deviceAddress
+                        + " (" + shed + " shed in total)");
+            }
+            return false;
+        }
+
+        private void handleReceivedMessage(Message message) {
+            try {
+                if (message != null && !"ack".equals(message.getMessageType())) {
+                    heartbeat.onTraffic();
+
+                    MessageHandler.Decision decision = messageHandler.onMessage(message, System.currentTimeMillis());
+                    if (!decision.isNew) {
+                        // Already handled via another path; still ACK so the sender stops waiting
+                        sendAck(message.getId());
+                        MeshLog.d(TAG, "Duplicate message dropped: " + message.getId());
+                        return;
+                    }
+
+                    listener.onMessageReceived(message, deviceAddress);
+
+                    // Send acknowledgment back
+                    sendAck(message.getId());
+
+                    if (decision.forward != null) {
+                        relayMessage(decision, deviceAddress);
+                    }
+
+                    MeshLog.d(TAG, "Message received: " + message.getMessageType() + " from " + deviceAddress
+                            + " (hops=" + message.getHopCount() + ", ttl=" + message.getTtl() + ")");
+                } else if (message != null && "ack".equals(message.getMessageType())) {
+                    // Mark original message as delivered
+                    String originalMsgId = message.getContent().replace("ACK:", "");
+                    handleAcks(Collections.singletonList(originalMsgId));
+                }
+            } catch (Exception e) {
+                MeshLog.e(TAG, "Error processing message", e);
+            }
+        }
+
+        private void handleAcks(List<String> messageIds) {
+            outbox.remove(messageIds);
+            retransmissions.onAcked(messageIds);
+            messageStorage.markMessagesAsDelivered(messageIds);
+            for (String messageId : messageIds) {
+                listener.onMessageDelivered(messageId, deviceAddress);
+            }
+        }
+
+        // Set reconciliation
+
+        private void startSync() {
+            List<Message> local = new ArrayList<>(messageStorage.getOutgoingMessages());
+            local.addAll(messageStorage.getIncomingMessages());
+            reconciler = new SetReconciler(local);
+            send(OutboundFrame.control(FrameCodec.TYPE_SYNC_SUMMARY,
+                    reconciler.buildSummary(SetReconciler.INITIAL_CELLS)));
+            MeshLog.d(TAG, "Sync started with " + deviceAddress + " (" + reconciler.getLocalSetSize() + " messages)");
+        }
+
+        private void handleSyncSummary(FrameCodec.SyncSummary summary) {
+            if (reconciler == null) return;
+
+            SetReconciler.Outcome outcome = reconciler.onSummary(summary);
+            if (outcome.retryCells > 0) {
+                send(OutboundFrame.control(FrameCodec.TYPE_SYNC_SUMMARY,
+                        reconciler.buildSummary(outcome.retryCells)));
+            } else if (outcome.gaveUp) {
+                MeshLog.w(TAG, "Sync with " + deviceAddress + " gave up: difference too large");
+            } else if (!outcome.toPush.isEmpty() || outcome.localMissing > 0) {
+                MeshLog.d(TAG, "Sync with " + deviceAddress + ": pushing " + outcome.peerMissing
+                        + ", expecting " + outcome.localMissing);
+            }
+
+            if (!outcome.toPush.isEmpty()) {
+                synchronized (syncBacklog) {
+                    for (Message message : outcome.toPush) {
+                        Message copy = message.forwardCopy();
+                        // A stored message always travels at least one more hop
+                        if (copy.getTtl() < 1) copy.setTtl(1);
+                        syncBacklog.addLast(copy);
+                    }
+                }
+                pumpSyncBacklog();
+            }
+        }
+
+        /**
+         * Feeds sync pushes into the outbound queue a few at a time, so a large
+         * backlog never crowds out (or overflows past) live traffic.
+         */
+        private void pumpSyncBacklog() {
+            synchronized (syncBacklog) {
+                // Sync pushes only top up the queue to a quarter so live traffic keeps flowing
+                while (!syncBacklog.isEmpty() && isActive
+                        && outboundQueue.size() < config.outboundQueueCapacity / 4) {
+                    OutboundFrame frame = new OutboundFrame(syncBacklog.peekFirst());
+                    if (!outboundLimiter.tryAcquireDeferrable(frame.getLane())) {
+                        scheduleSyncPump();
+                        return;
+                    }
+                    syncBacklog.pollFirst();
+                    enqueue(frame);
+                }
+            }
+        }
+
+        private void scheduleSyncPump() {
+            if (!syncPumpScheduled.compareAndSet(false, true)) return;
+            executors.schedule(() -> {
+                syncPumpScheduled.set(false);
+                pumpSyncBacklog();
+            }, RATE_LIMIT_RETRY_MS);
+        }
+
+        // Live location
+
+        private void handlePosition(FrameCodec.PositionUpdate update) {
+            if (update.senderPhone == null) return;
+            PositionFix base = null;
+            if (update.isDelta()) {
+                base = positionStream.findReceived(update.senderPhone, update.baseSequence);
+                if (base == null) {
+                    // Lost the base (e.g. a shed frame); ask for a keyframe
+                    send(OutboundFrame.control(FrameCodec.TYPE_POSITION_ACK,
+                            FrameCodec.encodePositionAck(update.senderPhone, 0)));
+                    return;
+                }
+            }
+            PositionFix fix = update.resolve(base);
+            positionStream.onReceived(fix);
+            send(OutboundFrame.control(FrameCodec.TYPE_POSITION_ACK,
+                    FrameCodec.encodePositionAck(fix.getSenderPhone(), fix.getSequence())));
+
+            if (positions.update(fix)) {
+                listener.onPositionUpdated(fix, deviceAddress);
+                if (fix.getHopCount() + 1 < config.positionMaxHops) {
+                    streamPosition(fix.relayed(), deviceAddress);
+                }
+            }
+        }
+
+        /**
+         * Sends {@code fix} unless the peer already has it or something newer,
+         * as a delta against the last fix the peer ACKed for that sender.
+         */
+        void sendPosition(PositionFix fix) {
+            if (!binaryPeer || !positionStream.shouldSend(fix)) return;
+            PositionFix base = positionStream.baseFor(fix.getSenderPhone());
+            OutboundFrame frame = OutboundFrame.control(FrameCodec.TYPE_POSITION,
+                    FrameCodec.encodePosition(fix, base), OutboundFrame.Lane.LOCATION);
+            if (send(frame)) positionStream.onSent(fix);
+        }
+
+        private void sendKnownPositions() {
+            String self = identity.getPhone();
+            for (PositionFix fix : positions.getAll()) {
+                if (fix.getSenderPhone().equals(self)) {
+                    sendPosition(fix);
+                } else if (fix.getHopCount() + 1 < config.positionMaxHops) {
+                    sendPosition(fix.relayed());
+                }
+            }
+        }
+
+        // Store-and-forward
+
+        private void startOutboxDrain() {
+            final List<Message> backlog = outbox.snapshot();
+            if (backlog.isEmpty()) return;
+            MeshLog.d(TAG, "Forwarding " + backlog.size() + " pending message(s) to " + deviceAddress);
+
+            executors.execute(new Runnable() {
+                private int next = 0;
+
+                @Override
+                public void run() {
+                    if (!isActive) return;
+                    int sent = 0;
+                    // Only while the link's queue is shallow
+                    while (next < backlog.size() && sent < OUTBOX_DRAIN_BATCH
+                            && outboundQueue.size() < config.outboundQueueCapacity / 8) {
+                        Message message = backlog.get(next++);
+                        // ACKed via another peer since the snapshot was taken
+                        if (!outbox.isPending(message.getId())) continue;
+                        OutboundFrame frame = new OutboundFrame(message, 0, retransmitTracker);
+                        if (!outboundLimiter.tryAcquireDeferrable(frame.getLane())) {
+                            next--;
+                            break;
+                        }
+                        if (enqueue(frame)) sent++;
+                    }
+                    if (next < backlog.size()) {
+                        executors.schedule(this, OUTBOX_DRAIN_INTERVAL_MS);
+                    }
+                }
+            });
+        }
+
+        // Heartbeat
+
+        private void scheduleHeartbeat() {
+            if (!isActive) return;
+            heartbeatTimer = executors.schedule(this::onHeartbeatTimer, heartbeat.getIntervalMs());
+        }
+
+        private void onHeartbeatTimer() {
+            if (!isActive) return;
+            // Legacy peers never answer; for them only a failed write reveals a dead link
+            if (!binaryPeer) heartbeat.onReceived();
+            if (heartbeat.onTimer() == Heartbeat.Action.EVICT) {
+                MeshLog.w(TAG, "No response from " + deviceAddress + " after " + config.heartbeatMaxMisses
+                        + " heartbeats, disconnecting (" + heartbeat.getStats() + ")");
+                disconnect();
+                return;
+            }
+            send(OutboundFrame.control(FrameCodec.TYPE_PING,
+                    FrameCodec.encodePing(heartbeat.nextSequence(), nowMicros())));
+            scheduleHeartbeat();
+        }
+
+        private long nowMicros() {
+            return System.nanoTime() / 1000;
+        }
+
+        Heartbeat.Stats getHeartbeatStats() {
+            return heartbeat.getStats();
+        }
+
+        private void sendAck(String originalMessageId) {
+            if (binaryPeer) {
+                if (ackBatcher.add(originalMessageId)) {
+                    executors.schedule(ackBatcher::flush, ACK_FLUSH_DELAY_MS);
+                }
+                return;
+            }
+
+            // Legacy peers only understand one JSON ACK message per ID
+            try {
+                Message ack = new Message(
+                        UUID.randomUUID().toString(),
+                        identity.getName(),
+                        identity.getPhone(),
+                        "",
+                        "ACK:" + originalMessageId,
+                        "ack"
+                );
+                sendMessage(ack);
+            } catch (Exception e) {
+                MeshLog.e(TAG, "Error sending ACK", e);
+            }
+        }
+
+        private void sendAckBatch(List<String> messageIds) {
+            send(OutboundFrame.control(FrameCodec.TYPE_ACK_BATCH, FrameCodec.encodeAckBatch(messageIds)));
+        }
+
+        /**
+         * Queues a message for the writer thread and returns immediately.
+         * Returns false if the message was not accepted.
+         */
+        boolean sendMessage(Message message) {
+            return send(new OutboundFrame(message));
+        }
+
+        /**
+         * Like {@link #enqueue}, but subject to this peer's outbound budget.
+         */
+        boolean send(OutboundFrame frame) {
+            if (isActive && !outboundLimiter.tryAcquire(frame.getLane())) {
+                long shed = outboundShed.incrementAndGet();
+                if (Long.bitCount(shed) == 1) {
+                    MeshLog.w(TAG, "Shedding outbound " + frame.getLane().name().toLowerCase(Locale.US)
+                            + " to " + deviceAddress + " (" + shed + " shed in total)");
+                }
+                frame.notifyFailed(BroadcastResult.REASON_RATE_LIMITED);
+                return false;
+            }
+            return enqueue(frame);
+        }
+
+        private boolean enqueue(OutboundFrame frame) {
+            if (!isActive) {
+                frame.notifyFailed("Not connected");
+                return false;
+            }
+
+            if (!frame.isControl()) heartbeat.onTraffic();
+            OutboundQueue.OfferResult result = outboundQueue.offer(frame);
+            switch (result) {
+                case QUEUED:
+                    return true;
+                case QUEUED_DROPPED_OLDEST:
+                    MeshLog.w(TAG, "Outbound queue full for " + deviceAddress + ", dropped oldest message");
+                    return true;
+                case OVERFLOW:
+                    MeshLog.w(TAG, "Outbound queue overflow for " + deviceAddress + ", disconnecting");
+                    frame.notifyFailed("Outbound queue overflow");
+                    disconnect();
+                    return false;
+                case REJECTED:
+                default:
+                    MeshLog.w(TAG, "Outbound queue rejected message for " + deviceAddress);
+                    frame.notifyFailed("Outbound queue full");
+                    return false;
+            }
+        }
+
+        private void writeMessages() {
+            OutboundFrame frame = null;
+            try {
+                while (isActive && (frame = outboundQueue.take()) != null) {
+                    if (frame.isExpired(System.currentTimeMillis())) {
+                        frame.notifyFailed(BroadcastResult.REASON_TIMEOUT);
+                        continue;
+                    }
+                    try {
+                        if (frame.isControl()) {
+                            if (binaryPeer) {
+                                FrameCodec.writeFrame(output, frameVersion, frame.getControlType(), 0,
+                                        frame.getControlPayload());
+                                output.flush();
+                            } else if (frame.getControlType() == FrameCodec.TYPE_PING) {
+                                // Legacy peers ignore it, but the write still exposes a dead link
+                                writeLine("PING");
+                            }
+                        } else {
+                            writeMessage(frame.getMessage());
+                            MeshLog.d(TAG, "Message sent to " + deviceAddress);
+                        }
+                    } catch (FrameCodec.FrameTooLargeException e) {
+                        // Nothing reached the link, so it stays up for the next frame
+                        MeshLog.w(TAG, "Dropped a frame for " + deviceAddress + ": " + e.getMessage());
+                        frame.notifyFailed("Too large");
+                        continue;
+                    }
+                    frame.notifyWritten();
+                    pumpSyncBacklog();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                MeshLog.e(TAG, "Failed to write to " + deviceAddress, e);
+                if (frame != null) frame.notifyFailed("Write failed");
+            } finally {
+                disconnect();
+            }
+        }
+
+        // Only called from the writer thread (or the constructor, before it starts)
+        private void writeMessage(Message message) throws IOException {
+            if (binaryPeer) {
+                FrameCodec.writeMessage(output, message, compressToPeer ? compressor : null, frameVersion);
+            } else {
+                output.write((gson.toJson(message) + "\n").getBytes(FrameCodec.UTF_8));
+            }
+            output.flush();
+        }
+
+        private void writeLine(String line) throws IOException {
+            output.write((line + "\n").getBytes(FrameCodec.UTF_8));
+            output.flush();
+        }
+
+        /**
+         * Releases a connection that lost the race to be registered; it was
+         * never started, so nobody has been told about it.
+         */
+        void abandon() {
+            isActive = false;
+            outboundQueue.close();
+            compressor.release();
+            closeLink(link);
+        }
+
+        void disconnect() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            isActive = false;
+            outboundQueue.close();
+            synchronized (syncBacklog) {
+                syncBacklog.clear();
+            }
+            if (compressToPeer) {
+                MeshLog.d(TAG, String.format("Compression to %s: %.0f%% of original size",
+                        deviceAddress, compressor.getCompressionRatio() * 100));
+            }
+            compressor.release();
+            try {
+                link.close();
+                output.close();
+                input.close();
+            } catch (IOException e) {
+                MeshLog.e(TAG, "Error closing connection", e);
+            }
+
+            // Both loops exit on their own once the link is closed; this only
+            // interrupts one that is stuck elsewhere
+            if (reader != null) reader.cancel(true);
+            if (writer != null) writer.cancel(true);
+            ScheduledFuture<?> timer = heartbeatTimer;
+            if (timer != null) timer.cancel(false);
+
+            activeConnections.remove(deviceAddress, this);
+            if (routing.onLinkDown(deviceAddress)) scheduleTriggeredAdvert();
+            listener.onPeerDisconnected(deviceAddress);
+        }
+
+        boolean isConnected() {
+            return isActive && link.isConnected();
+        }
+
+        String getDeviceAddress() {
+            return deviceAddress;
+        }
+
+        void sendRouteAdvert() {
+            if (!binaryPeer) return;
+            send(OutboundFrame.control(FrameCodec.TYPE_ROUTE_ADVERT,
+                    FrameCodec.encodeRouteAdvert(routing.buildAdvert(deviceAddress))));
+        }
+
+        boolean isBinaryPeer() {
+            return binaryPeer;
+        }
+
+        OutboundQueue.Stats getQueueStats() {
+            return outboundQueue.getStats();
+        }
+
+        RateLimiter.Stats getInboundRateStats() {
+            return inboundLimiter.getStats();
+        }
+
+        RateLimiter.Stats getOutboundRateStats() {
+            return outboundLimiter.getStats();
+        }
+    }
+
+    // Links
+
+    /**
+     * Starts accepting inbound links from {@code transport}.
+     */
+    public void listen(MeshTransport transport) throws IOException {
+        transport.listen(this::accept);
+    }
+
+    /**
+     * Dials {@code address} on the dial pool. Returns false if already
+     * connected or dialing it, or if too many dials are queued.
+     */
+    public boolean connect(final MeshTransport transport, final String address) {
+        if (address == null || activeConnections.containsKey(address)) return false;
+        // One attempt per address at a time, however often the user taps it
+        if (!dialing.add(address)) return false;
+
+        boolean queued = executors.dial(() -> {
+            try {
+                accept(transport.connect(address));
+            } catch (IOException e) {
+                MeshLog.e(TAG, "Connection failed", e);
+            } finally {
+                dialing.remove(address);
+            }
+        });
+        if (!queued) {
+            dialing.remove(address);
+            MeshLog.w(TAG, "Too many pending connection attempts, skipping " + address);
+        }
+        return queued;
+    }
+
+    /**
+     * Takes over an open link, inbound or outbound. The link is closed if
+     * it duplicates an existing connection or the limit is reached.
+     */
+    public boolean accept(MeshLink link) {
+        String deviceAddress = link.getAddress();
+        try {
+            if (activeConnections.containsKey(deviceAddress)) {
+                link.close();
+                return false;
+            }
+            if (activeConnections.size() >= config.maxConnections) {
+                MeshLog.w(TAG, "Connection limit reached, refusing " + deviceAddress);
+                link.close();
+                return false;
+            }
+
+            Connection connection = new Connection(link);
+            if (activeConnections.putIfAbsent(deviceAddress, connection) != null) {
+                connection.abandon();
+                return false;
+            }
+            try {
+                connection.start();
+            } catch (IOException e) {
+                activeConnections.remove(deviceAddress, connection);
+                throw e;
+            }
+            return true;
+
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error handling connection", e);
+            closeLink(link);
+            return false;
+        }
+    }
+
+    private static void closeLink(MeshLink link) {
+        try {
+            link.close();
+        } catch (IOException closeError) {
+            MeshLog.e(TAG, "Error closing link", closeError);
+        }
+    }
+
+    public boolean isConnected(String address) {
+        Connection connection = activeConnections.get(address);
+        return connection != null && connection.isConnected();
+    }
+
+    public void disconnectAll() {
+        for (Connection conn : activeConnections.values()) {
+            conn.disconnect();
+        }
+        activeConnections.clear();
+    }
+
+    // Sending
+
+    /**
+     * Keeps a stored outgoing message until a peer ACKs it, forwarding it to
+     * every peer that connects in the meantime.
+     */
+    public void queueForDelivery(Message message) {
+        markSeen(message.getId());
+        // An older revision of the same alert no longer needs delivering
+        List<String> superseded = outbox.removeSuperseded(message);
+        if (!superseded.isEmpty()) retransmissions.onAcked(superseded);
+        if (outbox.add(message)) {
+            MeshLog.d(TAG, "Queued for delivery: " + message.getId() + " (" + outbox.size() + " pending)");
+        }
+    }
+
+    public int getPendingOutgoingCount() {
+        return outbox.size();
+    }
+
+    /**
+     * Sends one message to a single connected peer only, without store-and-forward.
+     * Returns false if that peer is not connected or its queue refused the message.
+     */
+    public boolean sendToPeer(String address, Message message) {
+        markSeen(message.getId());
+        Connection connection = activeConnections.get(address);
+        return connection != null && connection.sendMessage(message);
+    }
+
+    public BroadcastResult broadcastMessage(Message message) {
+        return broadcastMessage(message, PEER_SEND_DEADLINE_MS);
+    }
+
+    /**
+     * Hands the message to every connected peer's writer at once and returns
+     * without waiting. The result lists the peers that put it on the wire
+     * within the deadline; onMessageFailed fires only if none did.
+     * A message addressed to a phone with a known route goes to the next hop only.
+     */
+    public BroadcastResult broadcastMessage(Message message, long deadlineMs) {
+        // Our own message must not be re-handled when a neighbour floods it back,
+        // and stays queued until ACKed in case no peer accepts it now
+        queueForDelivery(message);
+
+        final BroadcastResult result = new BroadcastResult(message.getId());
+
+        List<Connection> targets = targetsFor(message, null);
+        for (Connection connection : targets) {
+            result.addPeer(connection.getDeviceAddress());
+        }
+
+        if (targets.isEmpty()) {
+            result.seal();
+            listener.onMessageFailed(message.getId(), "No connections");
+            return result;
+        }
+
+        result.addListener(r -> {
+            if (!r.isAcceptedByAny()) {
+                boolean allTimedOut = true;
+                for (String reason : r.getFailedPeers().values()) {
+                    if (!BroadcastResult.REASON_TIMEOUT.equals(reason)) allTimedOut = false;
+                }
+                listener.onMessageFailed(r.getMessageId(), allTimedOut ? "Timed out" : "Failed to send");
+            }
+        });
+
+        long deadline = System.currentTimeMillis() + deadlineMs;
+        for (final Connection connection : targets) {
+            final String address = connection.getDeviceAddress();
+            connection.send(new OutboundFrame(message, deadline, new OutboundFrame.Callback() {
+                @Override
+                public void onWritten(OutboundFrame frame) {
+                    result.peerAccepted(address);
+                    retransmitTracker.onWritten(frame);
+                }
+
+                @Override
+                public void onFailed(OutboundFrame frame, String reason) {
+                    result.peerFailed(address, reason);
+                }
+            }));
+        }
+        result.seal();
+        executors.schedule(result::expire, deadlineMs);
+
+        return result;
+    }
+
+    // Live location
+
+    /**
+     * Offers a new fix of our own to the live-location stream. It goes out to
+     * every binary peer only if it moved or its accuracy changed past the
+     * configured thresholds, or the last one went out too long ago.
+     * Returns true if it was sent.
+     */
+    public synchronized boolean publishPosition(double latitude, double longitude, float accuracyMeters,
+                                                long timestamp) {
+        PositionFix previous = lastOwnPosition;
+        PositionFix fix = PositionFix.of(identity.getPhone(), identity.getName(),
+                previous != null ? previous.getSequence() + 1 : 1, timestamp, latitude, longitude, accuracyMeters);
+        if (previous != null
+                && fix.distanceMetersTo(previous) < config.positionMinDistanceMeters
+                && Math.abs(fix.getAccuracyMeters() - previous.getAccuracyMeters()) < config.positionMinAccuracyChangeMeters
+                && timestamp - previous.getTimestamp() < config.positionMaxSilenceMs) {
+            return false;
+        }
+        lastOwnPosition = fix;
+        positions.update(fix);
+        streamPosition(fix, null);
+        return true;
+    }
+
+    private void streamPosition(PositionFix fix, String excludeAddress) {
+        for (Connection connection : activeConnections.values()) {
+            if (!connection.getDeviceAddress().equals(excludeAddress)) {
+                connection.sendPosition(fix);
+            }
+        }
+    }
+
+    /**
+     * Latest position per sender phone, from the live-location streams we have seen.
+     */
+    public PositionTracker getPositions() {
+        return positions;
+    }
+
+    /**
+     * Runs {@code task} on the node's timer thread.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return executors.schedule(task, delayMs);
+    }
+
+    // Retransmission
+
+    // Starts the ACK timer for our own messages once they reach a link
+    private final OutboundFrame.Callback retransmitTracker = new OutboundFrame.Callback() {
+        @Override
+        public void onWritten(OutboundFrame frame) {
+            retransmissions.onSent(frame.getMessage().getId(), System.currentTimeMillis());
+            scheduleRetransmissionCheck();
+        }
+
+        @Override
+        public void onFailed(OutboundFrame frame, String reason) {
+            // Not on the wire, so no ACK to wait for; the outbox still holds it
+        }
+    };
+
+    private void scheduleRetransmissionCheck() {
+        long next = retransmissions.nextDeadline();
+        if (next < 0) return;
+        scheduleRetransmissionCheck(Math.max(0, next - System.currentTimeMillis()));
+    }
+
+    /**
+     * Re-arms the retry timer once a peer is back. Waits at least one ACK
+     * timeout, so the outbox drain's fresh copies restart the timers first.
+     */
+    private synchronized void resumeRetransmissions() {
+        if (retransmissionTimer != null && !retransmissionTimer.isDone()) return;
+        long next = retransmissions.nextDeadline();
+        if (next < 0) return;
+        scheduleRetransmissionCheck(Math.max(config.ackTimeoutMs, next - System.currentTimeMillis()));
+    }
+
+    private synchronized void scheduleRetransmissionCheck(long delayMs) {
+        if (retransmissionTimer != null) retransmissionTimer.cancel(false);
+        retransmissionTimer = executors.schedule(this::checkRetransmissions, delayMs);
+    }
+
+    private void checkRetransmissions() {
+        List<Connection> targets = new ArrayList<>();
+        for (Connection connection : activeConnections.values()) {
+            if (connection.isConnected()) targets.add(connection);
+        }
+        if (targets.isEmpty()) {
+            // Nobody to retry through: let the timer lapse. Store-and-forward
+            // resends these on the next connect, which re-arms it
+            return;
+        }
+
+        RetransmissionManager.Due due = retransmissions.poll(System.currentTimeMillis());
+        for (String messageId : due.retry) {
+            Message message = messageStorage.getMessageById(messageId);
+            if (message == null || message.isDelivered()) {
+                retransmissions.onAcked(Collections.singletonList(messageId));
+                continue;
+            }
+            List<Connection> retryTargets = targetsFor(message, null);
+            MeshLog.d(TAG, "Retrying " + messageId + " via " + retryTargets.size() + " peer(s)");
+            for (Connection connection : retryTargets) {
+                connection.send(new OutboundFrame(message, 0, retransmitTracker));
+            }
+        }
+        if (!due.gaveUp.isEmpty()) {
+            // Stop forwarding as well; the message stays stored as undelivered
+            outbox.remove(due.gaveUp);
+            for (String messageId : due.gaveUp) {
+                MeshLog.w(TAG, "Giving up on " + messageId + " after " + config.retryMaxAttempts + " attempts");
+                listener.onMessageFailed(messageId, "No acknowledgement");
+            }
+        }
+        scheduleRetransmissionCheck();
+    }
+
+    private void markSeen(String messageId) {
+        seenFilter.add(messageId);
+    }
+
+    private void relayMessage(MessageHandler.Decision decision, String fromAddress) {
+        Message forward = decision.forward;
+        int relayed = 0;
+        for (Connection connection : targetsFor(decision.nextHop, fromAddress)) {
+            if (connection.sendMessage(forward)) relayed++;
+        }
+
+        if (relayed > 0) {
+            MeshLog.d(TAG, "Relayed " + forward.getId() + " to " + relayed + " peer(s), ttl=" + forward.getTtl());
+        }
+    }
+
+    private List<Connection> targetsFor(Message message, String excludeAddress) {
+        return targetsFor(routing.nextHop(message.getRecipientPhone(), System.currentTimeMillis()), excludeAddress);
+    }
+
+    /**
+     * Connected peers a message should go to: the next hop if it is addressed
+     * to a phone we have a route for, otherwise everyone (flooding).
+     */
+    private List<Connection> targetsFor(String nextHop, String excludeAddress) {
+        if (nextHop != null && !nextHop.equals(excludeAddress)) {
+            Connection connection = activeConnections.get(nextHop);
+            if (connection != null && connection.isConnected()) {
+                return Collections.singletonList(connection);
+            }
+        }
+
+        List<Connection> targets = new ArrayList<>();
+        for (Connection connection : activeConnections.values()) {
+            if (connection.getDeviceAddress().equals(excludeAddress) || !connection.isConnected()) continue;
+            targets.add(connection);
+        }
+        return targets;
+    }
+
+    // Routing adverts
+
+    private void periodicRouteAdvert() {
+        routing.expire(System.currentTimeMillis());
+        routing.nextRound();
+        advertiseRoutes();
+        executors.schedule(this::periodicRouteAdvert, config.routeAdvertIntervalMs);
+    }
+
+    // Coalesces bursts of route changes into one update per neighbour
+    private void scheduleTriggeredAdvert() {
+        if (!triggeredAdvertPending.compareAndSet(false, true)) return;
+        executors.schedule(() -> {
+            triggeredAdvertPending.set(false);
+            advertiseRoutes();
+        }, TRIGGERED_ADVERT_DELAY_MS);
+    }
+
+    private void advertiseRoutes() {
+        for (Connection connection : activeConnections.values()) {
+            if (connection.isConnected() && connection.isBinaryPeer()) {
+                connection.sendRouteAdvert();
+            }
+        }
+    }
+
+    // Stats
+
+    /**
+     * Thread and queue counts for the connection, dial and timer pools.
+     */
+    public MeshExecutors.Stats getExecutorStats() {
+        return executors.getStats();
+    }
+
+    /**
+     * Smoothed RTT, jitter and heartbeat state per connected address.
+     */
+    public Map<String, Heartbeat.Stats> getLinkHealth() {
+        Map<String, Heartbeat.Stats> stats = new HashMap<>();
+        for (Connection conn : activeConnections.values()) {
+            stats.put(conn.getDeviceAddress(), conn.getHeartbeatStats());
+        }
+        return stats;
+    }
+
+    public int getInFlightCount() {
+        return retransmissions.size();
+    }
+
+    public int getRouteCount() {
+        return routing.size();
+    }
+
+    public List<String> getConnectedPeers() {
+        List<String> connected = new ArrayList<>();
+        for (Connection conn : activeConnections.values()) {
+            if (conn.isConnected()) {
+                connected.add(conn.getDeviceAddress());
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * Outbound queue depth and drop counters per connected address.
+     */
+    public Map<String, OutboundQueue.Stats> getOutboundQueueStats() {
+        Map<String, OutboundQueue.Stats> stats = new HashMap<>();
+        for (Connection conn : activeConnections.values()) {
+            stats.put(conn.getDeviceAddress(), conn.getQueueStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Frames admitted and shed per lane by each connected peer's inbound limiter.
+     */
+    public Map<String, RateLimiter.Stats> getInboundRateStats() {
+        Map<String, RateLimiter.Stats> stats = new HashMap<>();
+        for (Connection conn : activeConnections.values()) {
+            stats.put(conn.getDeviceAddress(), conn.getInboundRateStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Frames admitted, shed and deferred per lane by each connected peer's outbound limiter.
+     */
+    public Map<String, RateLimiter.Stats> getOutboundRateStats() {
+        Map<String, RateLimiter.Stats> stats = new HashMap<>();
+        for (Connection conn : activeConnections.values()) {
+            stats.put(conn.getDeviceAddress(), conn.getOutboundRateStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Inbound frames shed since the node started, including from peers that have since gone.
+     */
+    public long getInboundShedCount() {
+        return inboundShed.get();
+    }
+
+    public long getOutboundShedCount() {
+        return outboundShed.get();
+    }
+
+    /**
+     * Drops every link and stops the node's threads. The node cannot be restarted.
+     */
+    public void shutdown() {
+        disconnectAll();
+        seenFilter.flush();
+        executors.shutdown();
+    }
+}
@@ -0,0 +1,78 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What a node decides when a message arrives: store it or drop it as a
+ * duplicate, and whether and where to relay it.
+ *
+ * Free of threads and links, so {@link MeshNode} and the simulator run
+ * exactly the same logic; the caller does the ACKing and the sending.
+ */
+public class MessageHandler {
+
+    public static class Decision {
+        public final boolean isNew;
+        // Copy to relay, or null if the message stops here
+        public final Message forward;
+        // Relay only to this neighbour address, or null to flood
+        public final String nextHop;
+
+        Decision(boolean isNew, Message forward, String nextHop) {
+            this.isNew = isNew;
+            this.forward = forward;
+            this.nextHop = nextHop;
+        }
+    }
+
+    private static final Decision DUPLICATE = new Decision(false, null, null);
+    private static final Decision DELIVERED = new Decision(true, null, null);
+
+    // Alert sessions whose latest revision we remember, so stale ones are not relayed
+    static final int MAX_ALERT_SESSIONS = 256;
+
+    private final MessageStore messageStorage;
+    private final RoutingTable routing;
+    private final Map<String, Integer> alertRevisions =
+            new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > MAX_ALERT_SESSIONS;
+                }
+            };
+
+    public MessageHandler(MessageStore messageStorage, RoutingTable routing) {
+        this.messageStorage = messageStorage;
+        this.routing = routing;
+    }
+
+    public Decision onMessage(Message message, long now) {
+        // Peers that predate relaying don't send a TTL
+        if (message.getTtl() <= 0) message.setTtl(Message.DEFAULT_TTL);
+
+        // An alert revision no newer than one already handled is spent
+        String alertId = message.getAlertId();
+        if (alertId != null && !isLatestRevision(alertId, message.getRevision())) return DUPLICATE;
+
+        // Store incoming message; the seen-ID check happens here
+        if (!messageStorage.storeIncomingMessage(message)) return DUPLICATE;
+        if (alertId != null) recordRevision(alertId, message.getRevision());
+
+        // Pass it on unless it was addressed to us or has no hops left
+        if (routing.isSelf(message.getRecipientPhone()) || message.getTtl() <= 1) return DELIVERED;
+        return new Decision(true, message.forwardCopy(), routing.nextHop(message.getRecipientPhone(), now));
+    }
+
+    private synchronized boolean isLatestRevision(String alertId, int revision) {
+        Integer latest = alertRevisions.get(alertId);
+        return latest == null || revision > latest;
+    }
+
+    private synchronized void recordRevision(String alertId, int revision) {
+        Integer latest = alertRevisions.get(alertId);
+        if (latest == null || revision > latest) alertRevisions.put(alertId, revision);
+    }
+}
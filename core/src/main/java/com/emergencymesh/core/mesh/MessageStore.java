@@ -0,0 +1,37 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The parts of message storage a {@link MeshNode} needs: deduplicated
+ * inbound writes, delivery marks, and reads for sync and retries.
+ */
+public interface MessageStore {
+
+    /**
+     * Stores a message this node originated. A newer revision of one of
+     * our alerts replaces the older one.
+     */
+    void storeOutgoingMessage(Message message);
+
+    /**
+     * Stores a received message unless it has been seen before or is an
+     * older revision of an alert already stored.
+     * Returns true if the message was new and stored.
+     */
+    boolean storeIncomingMessage(Message message);
+
+    /**
+     * Returns the number of outgoing messages that changed state.
+     */
+    int markMessagesAsDelivered(Collection<String> messageIds);
+
+    List<Message> getOutgoingMessages();
+
+    List<Message> getIncomingMessages();
+
+    Message getMessageById(String messageId);
+}
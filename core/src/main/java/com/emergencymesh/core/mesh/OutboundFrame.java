@@ -0,0 +1,114 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+
+/**
+ * A message (or a raw protocol control frame) waiting in a connection's
+ * outbound queue, with an optional write deadline and a callback reporting
+ * whether it reached the socket.
+ */
+public class OutboundFrame {
+
+    /**
+     * Scheduling class, highest priority first. See {@link OutboundQueue}.
+     */
+    public enum Lane {
+        ALERT,
+        LOCATION,
+        TEXT,
+        CONTROL  // ACKs and protocol frames
+    }
+
+    public interface Callback {
+        void onWritten(OutboundFrame frame);
+        void onFailed(OutboundFrame frame, String reason);
+    }
+
+    private final Message message;
+    private final int controlType;
+    private final byte[] controlPayload;
+    private final long deadlineMillis;
+    private final Callback callback;
+    private final Lane lane;
+    // Set by OutboundQueue when the frame is accepted; used for aging
+    long enqueuedAtNanos;
+
+    public OutboundFrame(Message message) {
+        this(message, 0, null);
+    }
+
+    /**
+     * @param deadlineMillis absolute {@link System#currentTimeMillis()} after which
+     *                       the frame is discarded unwritten, or 0 for no deadline
+     */
+    public OutboundFrame(Message message, long deadlineMillis, Callback callback) {
+        this.message = message;
+        this.controlType = 0;
+        this.controlPayload = null;
+        this.deadlineMillis = deadlineMillis;
+        this.callback = callback;
+        this.lane = laneFor(message.getMessageType());
+    }
+
+    private OutboundFrame(int controlType, byte[] controlPayload, Lane lane) {
+        this.message = null;
+        this.controlType = controlType;
+        this.controlPayload = controlPayload;
+        this.deadlineMillis = 0;
+        this.callback = null;
+        this.lane = lane;
+    }
+
+    /**
+     * A binary-only protocol frame (see FrameCodec TYPE_*), written as-is.
+     */
+    public static OutboundFrame control(int type, byte[] payload) {
+        return new OutboundFrame(type, payload, Lane.CONTROL);
+    }
+
+    /**
+     * A binary-only frame scheduled in {@code lane}, e.g. live-location updates.
+     */
+    public static OutboundFrame control(int type, byte[] payload, Lane lane) {
+        return new OutboundFrame(type, payload, lane);
+    }
+
+    static Lane laneFor(String messageType) {
+        if ("alert".equals(messageType)) return Lane.ALERT;
+        if ("location".equals(messageType)) return Lane.LOCATION;
+        if ("ack".equals(messageType)) return Lane.CONTROL;
+        return Lane.TEXT;
+    }
+
+    public Lane getLane() {
+        return lane;
+    }
+
+    public boolean isControl() {
+        return message == null;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public int getControlType() {
+        return controlType;
+    }
+
+    public byte[] getControlPayload() {
+        return controlPayload;
+    }
+
+    public boolean isExpired(long now) {
+        return deadlineMillis > 0 && now > deadlineMillis;
+    }
+
+    void notifyWritten() {
+        if (callback != null) callback.onWritten(this);
+    }
+
+    void notifyFailed(String reason) {
+        if (callback != null) callback.onFailed(this, reason);
+    }
+}
@@ -0,0 +1,293 @@
+package com.emergencymesh.core.mesh;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, multi-lane outbound queue drained by a connection's writer thread.
+ *
+ * Frames are sorted into {@link OutboundFrame.Lane}s. Alerts are strict
+ * priority: a queued alert is always written next. The other lanes share the
+ * link by weight (location 4, text 2, control 1), and any frame that has
+ * waited longer than the aging limit is written ahead of the weighting, so
+ * chat and ACKs keep moving even under a steady stream of location updates.
+ *
+ * Producers never block: when the queue is full the configured
+ * {@link OverflowPolicy} decides what happens. DROP_OLDEST only evicts from
+ * the new frame's lane or a lower one, so chat can never push out an alert.
+ * Frames that are dropped or discarded on close are reported through their
+ * callbacks, outside the lock.
+ */
+public class OutboundQueue {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,   // evict the oldest queued message of equal or lower priority
+        REJECT,        // refuse the new message
+        DISCONNECT     // treat the peer as stuck and tear the link down
+    }
+
+    public enum OfferResult {
+        QUEUED,
+        QUEUED_DROPPED_OLDEST,
+        REJECTED,
+        OVERFLOW
+    }
+
+    private static final OutboundFrame.Lane[] LANES = OutboundFrame.Lane.values();
+    // Indexed by lane ordinal; ALERT is strict priority and has no weight
+    private static final int[] LANE_WEIGHTS = {0, 4, 2, 1};
+    public static final long DEFAULT_MAX_WAIT_MS = 2000;
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long maxWaitNanos;
+    private final List<ArrayDeque<OutboundFrame>> lanes;
+    private final int[] credits = new int[LANES.length];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private int size = 0;
+    private boolean closed = false;
+
+    // Metrics
+    private long enqueuedCount = 0;
+    private long droppedCount = 0;
+    private long rejectedCount = 0;
+    private long agedCount = 0;
+    private int highWatermark = 0;
+    private final int[] laneHighWatermarks = new int[LANES.length];
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, DEFAULT_MAX_WAIT_MS);
+    }
+
+    /**
+     * @param maxWaitMillis how long a non-alert frame may wait before it is
+     *                      written regardless of lane weights
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy, long maxWaitMillis) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.policy = policy;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.lanes = new ArrayList<>(LANES.length);
+        for (int i = 0; i < LANES.length; i++) {
+            lanes.add(new ArrayDeque<OutboundFrame>());
+        }
+    }
+
+    public OfferResult offer(OutboundFrame frame) {
+        OutboundFrame dropped = null;
+        OfferResult result = OfferResult.QUEUED;
+        lock.lock();
+        try {
+            if (closed) {
+                rejectedCount++;
+                return OfferResult.REJECTED;
+            }
+
+            if (size >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        dropped = evictFor(frame.getLane());
+                        if (dropped == null) {
+                            // Everything queued outranks the new frame
+                            rejectedCount++;
+                            return OfferResult.REJECTED;
+                        }
+                        droppedCount++;
+                        result = OfferResult.QUEUED_DROPPED_OLDEST;
+                        break;
+                    case REJECT:
+                        rejectedCount++;
+                        return OfferResult.REJECTED;
+                    case DISCONNECT:
+                    default:
+                        rejectedCount++;
+                        return OfferResult.OVERFLOW;
+                }
+            }
+
+            ArrayDeque<OutboundFrame> lane = lanes.get(frame.getLane().ordinal());
+            frame.enqueuedAtNanos = System.nanoTime();
+            lane.addLast(frame);
+            size++;
+            enqueuedCount++;
+            highWatermark = Math.max(highWatermark, size);
+            int ordinal = frame.getLane().ordinal();
+            laneHighWatermarks[ordinal] = Math.max(laneHighWatermarks[ordinal], lane.size());
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (dropped != null) dropped.notifyFailed("Dropped: outbound queue full");
+        return result;
+    }
+
+    /**
+     * Blocks until a message is available or the queue is closed.
+     * Returns null once the queue has been closed.
+     */
+    public OutboundFrame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (size == 0 && !closed) {
+                notEmpty.await();
+            }
+            if (closed) return null;
+            OutboundFrame frame = pollNext(System.nanoTime());
+            size--;
+            return frame;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held and at least one frame queued
+    private OutboundFrame pollNext(long now) {
+        ArrayDeque<OutboundFrame> alerts = lanes.get(OutboundFrame.Lane.ALERT.ordinal());
+        if (!alerts.isEmpty()) return alerts.pollFirst();
+
+        // Anti-starvation: the longest-waiting frame past the limit goes first
+        ArrayDeque<OutboundFrame> aged = null;
+        for (int i = 1; i < LANES.length; i++) {
+            OutboundFrame head = lanes.get(i).peekFirst();
+            if (head != null && now - head.enqueuedAtNanos >= maxWaitNanos
+                    && (aged == null || head.enqueuedAtNanos < aged.peekFirst().enqueuedAtNanos)) {
+                aged = lanes.get(i);
+            }
+        }
+        if (aged != null) {
+            agedCount++;
+            return aged.pollFirst();
+        }
+
+        // Smooth weighted round robin over the non-empty lanes
+        int best = -1;
+        int totalWeight = 0;
+        for (int i = 1; i < LANES.length; i++) {
+            if (lanes.get(i).isEmpty()) {
+                credits[i] = 0;
+                continue;
+            }
+            credits[i] += LANE_WEIGHTS[i];
+            totalWeight += LANE_WEIGHTS[i];
+            if (best < 0 || credits[i] > credits[best]) best = i;
+        }
+        credits[best] -= totalWeight;
+        return lanes.get(best).pollFirst();
+    }
+
+    // Called with the lock held; removes the oldest frame at or below the given lane
+    private OutboundFrame evictFor(OutboundFrame.Lane incoming) {
+        for (int i = LANES.length - 1; i >= incoming.ordinal(); i--) {
+            OutboundFrame victim = lanes.get(i).pollFirst();
+            if (victim != null) {
+                size--;
+                return victim;
+            }
+        }
+        return null;
+    }
+
+    public void close() {
+        List<OutboundFrame> discarded = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            for (ArrayDeque<OutboundFrame> lane : lanes) {
+                discarded.addAll(lane);
+                lane.clear();
+            }
+            size = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (OutboundFrame frame : discarded) {
+            frame.notifyFailed("Disconnected");
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            int[] laneDepths = new int[LANES.length];
+            for (int i = 0; i < LANES.length; i++) {
+                laneDepths[i] = lanes.get(i).size();
+            }
+            return new Stats(size, capacity, highWatermark, enqueuedCount, droppedCount, rejectedCount,
+                    agedCount, laneDepths, laneHighWatermarks.clone());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static class Stats {
+        public final int depth;
+        public final int capacity;
+        public final int highWatermark;
+        public final long enqueued;
+        public final long dropped;
+        public final long rejected;
+        public final long aged;
+        private final int[] laneDepths;
+        private final int[] laneHighWatermarks;
+
+        Stats(int depth, int capacity, int highWatermark, long enqueued, long dropped, long rejected,
+              long aged, int[] laneDepths, int[] laneHighWatermarks) {
+            this.depth = depth;
+            this.capacity = capacity;
+            this.highWatermark = highWatermark;
+            this.enqueued = enqueued;
+            this.dropped = dropped;
+            this.rejected = rejected;
+            this.aged = aged;
+            this.laneDepths = laneDepths;
+            this.laneHighWatermarks = laneHighWatermarks;
+        }
+
+        public int getLaneDepth(OutboundFrame.Lane lane) {
+            return laneDepths[lane.ordinal()];
+        }
+
+        public int getLaneHighWatermark(OutboundFrame.Lane lane) {
+            return laneHighWatermarks[lane.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder lanes = new StringBuilder();
+            for (OutboundFrame.Lane lane : LANES) {
+                lanes.append(' ').append(lane.name().toLowerCase(Locale.US)).append('=')
+                        .append(getLaneDepth(lane)).append('/').append(getLaneHighWatermark(lane));
+            }
+            return "depth=" + depth + "/" + capacity + " max=" + highWatermark
+                    + " enqueued=" + enqueued + " dropped=" + dropped + " rejected=" + rejected
+                    + " aged=" + aged + lanes;
+        }
+    }
+}
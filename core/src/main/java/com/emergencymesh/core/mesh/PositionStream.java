@@ -0,0 +1,96 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.PositionFix;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Live-location state for one link.
+ *
+ * Outbound, fixes sent per sender are remembered until the peer ACKs one;
+ * that fix becomes the base the next update for the sender is delta-encoded
+ * against. Inbound, the last few fixes per sender are kept so a delta can be
+ * resolved against whichever base the peer chose, even with ACKs in flight.
+ */
+class PositionStream {
+
+    // Fixes remembered per sender and direction
+    static final int HISTORY = 8;
+
+    private final Map<String, PositionFix> acked = new HashMap<>();
+    private final Map<String, ArrayDeque<PositionFix>> sent = new HashMap<>();
+    private final Map<String, ArrayDeque<PositionFix>> received = new HashMap<>();
+
+    /**
+     * True if {@code fix} is newer than anything sent to this peer for its sender.
+     */
+    synchronized boolean shouldSend(PositionFix fix) {
+        ArrayDeque<PositionFix> history = sent.get(fix.getSenderPhone());
+        return history == null || history.isEmpty() || fix.isNewerThan(history.peekLast());
+    }
+
+    /**
+     * The fix to delta-encode against, or null to send a keyframe.
+     */
+    synchronized PositionFix baseFor(String senderPhone) {
+        return acked.get(senderPhone);
+    }
+
+    synchronized void onSent(PositionFix fix) {
+        remember(sent, fix);
+    }
+
+    /**
+     * Sequence 0 means the peer lost our base and wants a keyframe.
+     */
+    synchronized void onAcked(String senderPhone, int sequence) {
+        if (sequence == 0) {
+            acked.remove(senderPhone);
+            return;
+        }
+        ArrayDeque<PositionFix> history = sent.get(senderPhone);
+        if (history == null) return;
+        PositionFix match = find(history, sequence);
+        if (match == null) return;
+        PositionFix current = acked.get(senderPhone);
+        if (match.isNewerThan(current)) acked.put(senderPhone, match);
+        // Older fixes can no longer become the base
+        Iterator<PositionFix> it = history.iterator();
+        while (it.hasNext()) {
+            if (it.next() == match) break;
+            it.remove();
+        }
+    }
+
+    synchronized void onReceived(PositionFix fix) {
+        remember(received, fix);
+    }
+
+    synchronized PositionFix findReceived(String senderPhone, int sequence) {
+        ArrayDeque<PositionFix> history = received.get(senderPhone);
+        return history != null ? find(history, sequence) : null;
+    }
+
+    private static void remember(Map<String, ArrayDeque<PositionFix>> fixes, PositionFix fix) {
+        ArrayDeque<PositionFix> history = fixes.get(fix.getSenderPhone());
+        if (history == null) {
+            history = new ArrayDeque<>(HISTORY);
+            fixes.put(fix.getSenderPhone(), history);
+        }
+        if (history.size() >= HISTORY) history.pollFirst();
+        history.addLast(fix);
+    }
+
+    // Newest first, in case a restarted sender reused a sequence number
+    private static PositionFix find(ArrayDeque<PositionFix> history, int sequence) {
+        Iterator<PositionFix> it = history.descendingIterator();
+        while (it.hasNext()) {
+            PositionFix fix = it.next();
+            if (fix.getSequence() == sequence) return fix;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,41 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.PositionFix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest known position per sender, our own included. Memory only: a
+ * position is stale long before a restart would need it back.
+ */
+public class PositionTracker {
+
+    private final ConcurrentHashMap<String, PositionFix> latest = new ConcurrentHashMap<>();
+
+    /**
+     * Keeps {@code fix} if it is newer than what we have for its sender.
+     * Returns true if it was kept.
+     */
+    public boolean update(PositionFix fix) {
+        while (true) {
+            PositionFix current = latest.putIfAbsent(fix.getSenderPhone(), fix);
+            if (current == null) return true;
+            if (!fix.isNewerThan(current)) return false;
+            if (latest.replace(fix.getSenderPhone(), current, fix)) return true;
+        }
+    }
+
+    public PositionFix get(String senderPhone) {
+        return senderPhone != null ? latest.get(senderPhone) : null;
+    }
+
+    public List<PositionFix> getAll() {
+        return new ArrayList<>(latest.values());
+    }
+
+    public int size() {
+        return latest.size();
+    }
+}
@@ -0,0 +1,198 @@
+package com.emergencymesh.core.mesh;
+
+import java.util.Locale;
+
+/**
+ * Token buckets for one peer and one direction: a bucket per
+ * {@link OutboundFrame.Lane} plus a shared bucket for the peer as a whole.
+ *
+ * A frame needs a token from its lane's bucket and from the shared one. As
+ * the shared bucket runs low, lower-priority lanes are turned away first:
+ * text stops at half full, location at a quarter, control at a tenth, and
+ * alerts may drain it completely. An alert is only ever refused by its own
+ * lane's budget, so a peer flooding chat cannot starve emergency traffic.
+ *
+ * Refused frames are counted per lane. Callers that can wait (sync and
+ * store-and-forward backlogs) use {@link #tryAcquireDeferrable} instead,
+ * which is counted as deferred rather than shed.
+ */
+public class RateLimiter {
+
+    private static final OutboundFrame.Lane[] LANES = OutboundFrame.Lane.values();
+    // Share of the shared bucket each lane must leave untouched, by lane ordinal
+    private static final double[] RESERVE = {0, 0.25, 0.5, 0.1};
+
+    /**
+     * Sustained rate and burst size of one bucket, in frames.
+     */
+    public static class Budget {
+        public final double perSecond;
+        public final int burst;
+
+        public Budget(double perSecond, int burst) {
+            if (perSecond <= 0 || burst < 1) throw new IllegalArgumentException("budget must be positive");
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+
+        Budget scaled(double factor) {
+            return new Budget(perSecond * factor, Math.max(1, (int) (burst * factor)));
+        }
+    }
+
+    /**
+     * Budgets for one direction of one peer. The defaults are far above what
+     * people type or phones report, but well below what a looping peer can
+     * push over RFCOMM.
+     */
+    public static class Limits {
+        public Budget total = new Budget(60, 240);
+        public Budget alert = new Budget(20, 60);
+        public Budget location = new Budget(10, 40);
+        public Budget text = new Budget(30, 120);
+        public Budget control = new Budget(40, 160);
+
+        /**
+         * The same limits with every rate and burst multiplied by {@code factor}.
+         */
+        public Limits scaled(double factor) {
+            Limits limits = new Limits();
+            limits.total = total.scaled(factor);
+            limits.alert = alert.scaled(factor);
+            limits.location = location.scaled(factor);
+            limits.text = text.scaled(factor);
+            limits.control = control.scaled(factor);
+            return limits;
+        }
+
+        Budget forLane(OutboundFrame.Lane lane) {
+            switch (lane) {
+                case ALERT: return alert;
+                case LOCATION: return location;
+                case TEXT: return text;
+                case CONTROL:
+                default: return control;
+            }
+        }
+    }
+
+    private static class Bucket {
+        final double capacity;
+        final double perNano;
+        double tokens;
+        long refilledAt;
+
+        Bucket(Budget budget, long now) {
+            this.capacity = budget.burst;
+            this.perNano = budget.perSecond / 1e9;
+            this.tokens = capacity;
+            this.refilledAt = now;
+        }
+
+        void refill(long now) {
+            long elapsed = now - refilledAt;
+            if (elapsed <= 0) return;
+            tokens = Math.min(capacity, tokens + elapsed * perNano);
+            refilledAt = now;
+        }
+    }
+
+    private final Bucket total;
+    private final Bucket[] lanes = new Bucket[LANES.length];
+    private final long[] admitted = new long[LANES.length];
+    private final long[] shed = new long[LANES.length];
+    private long deferred = 0;
+
+    public RateLimiter(Limits limits) {
+        this(limits, System.nanoTime());
+    }
+
+    RateLimiter(Limits limits, long now) {
+        this.total = new Bucket(limits.total, now);
+        for (OutboundFrame.Lane lane : LANES) {
+            lanes[lane.ordinal()] = new Bucket(limits.forLane(lane), now);
+        }
+    }
+
+    /**
+     * Takes a token for a frame in {@code lane}, or counts it as shed.
+     */
+    public boolean tryAcquire(OutboundFrame.Lane lane) {
+        return tryAcquire(lane, System.nanoTime());
+    }
+
+    synchronized boolean tryAcquire(OutboundFrame.Lane lane, long now) {
+        if (take(lane, now)) return true;
+        shed[lane.ordinal()]++;
+        return false;
+    }
+
+    /**
+     * Like {@link #tryAcquire} for a frame that will be offered again later,
+     * so a refusal is not counted as shed.
+     */
+    public boolean tryAcquireDeferrable(OutboundFrame.Lane lane) {
+        return tryAcquireDeferrable(lane, System.nanoTime());
+    }
+
+    synchronized boolean tryAcquireDeferrable(OutboundFrame.Lane lane, long now) {
+        if (take(lane, now)) return true;
+        deferred++;
+        return false;
+    }
+
+    private boolean take(OutboundFrame.Lane lane, long now) {
+        int index = lane.ordinal();
+        Bucket bucket = lanes[index];
+        bucket.refill(now);
+        total.refill(now);
+        if (bucket.tokens < 1) return false;
+        // Alerts still draw from the shared bucket but never wait for it
+        if (lane != OutboundFrame.Lane.ALERT && total.tokens - 1 < RESERVE[index] * total.capacity) return false;
+
+        bucket.tokens -= 1;
+        total.tokens = Math.max(0, total.tokens - 1);
+        admitted[index]++;
+        return true;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(admitted.clone(), shed.clone(), deferred);
+    }
+
+    public static class Stats {
+        private final long[] admitted;
+        private final long[] shed;
+        public final long deferred;
+
+        Stats(long[] admitted, long[] shed, long deferred) {
+            this.admitted = admitted;
+            this.shed = shed;
+            this.deferred = deferred;
+        }
+
+        public long getAdmitted(OutboundFrame.Lane lane) {
+            return admitted[lane.ordinal()];
+        }
+
+        public long getShed(OutboundFrame.Lane lane) {
+            return shed[lane.ordinal()];
+        }
+
+        public long getTotalShed() {
+            long sum = 0;
+            for (long count : shed) sum += count;
+            return sum;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder lanes = new StringBuilder();
+            for (OutboundFrame.Lane lane : LANES) {
+                lanes.append(' ').append(lane.name().toLowerCase(Locale.US)).append('=')
+                        .append(getAdmitted(lane)).append('/').append(getShed(lane));
+            }
+            return "admitted/shed" + lanes + " deferred=" + deferred;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.util.MeshLog;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tracks our own messages that have been written to a peer but not yet
+ * ACKed, and decides when to send them again.
+ *
+ * Each write starts (or restarts) an ACK timer. When it expires the message
+ * is due for another attempt, and the next timer doubles, up to a cap, with
+ * "equal jitter" (half fixed, half random) so nodes that lost the same link
+ * don't all retry in lockstep. After {@code maxAttempts} unanswered writes
+ * the message is given up on.
+ *
+ * The node owns the actual sending and scheduling; this class only keeps
+ * the bookkeeping, which is written to a JSON file on every change so
+ * retries carry on after a process restart.
+ */
+class RetransmissionManager {
+    private static final String TAG = "Retransmission";
+
+    static class Due {
+        final List<String> retry = new ArrayList<>();
+        final List<String> gaveUp = new ArrayList<>();
+    }
+
+    private static class Entry {
+        String messageId;
+        int attempts;
+        long deadline;
+    }
+
+    private final File stateFile;
+    private final long ackTimeoutMs;
+    private final long maxBackoffMs;
+    private final int maxAttempts;
+    private final Random random;
+    private final Gson gson = new Gson();
+    private final Map<String, Entry> inFlight = new HashMap<>();
+
+    /**
+     * @param stateFile    where in-flight state is persisted, or null to keep it in memory only
+     * @param ackTimeoutMs wait for an ACK after the first write
+     * @param maxBackoffMs cap on the wait after later writes
+     * @param maxAttempts  writes without an ACK before giving up
+     */
+    RetransmissionManager(File stateFile, long ackTimeoutMs, long maxBackoffMs, int maxAttempts, Random random) {
+        if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be positive");
+        this.stateFile = stateFile;
+        this.ackTimeoutMs = ackTimeoutMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+        load();
+    }
+
+    /**
+     * Records that a copy of the message reached a peer's socket.
+     */
+    synchronized void onSent(String messageId, long now) {
+        Entry entry = inFlight.get(messageId);
+        if (entry == null) {
+            entry = new Entry();
+            entry.messageId = messageId;
+            entry.attempts = 1;
+            entry.deadline = now + backoff(1);
+            inFlight.put(messageId, entry);
+            save();
+        } else {
+            // A fresh copy went out (e.g. store-and-forward to a new peer): give it a full timeout
+            entry.deadline = Math.max(entry.deadline, now + backoff(entry.attempts));
+        }
+    }
+
+    synchronized void onAcked(Collection<String> messageIds) {
+        boolean changed = false;
+        for (String messageId : messageIds) {
+            if (inFlight.remove(messageId) != null) changed = true;
+        }
+        if (changed) save();
+    }
+
+    /**
+     * Collects the messages whose ACK timer has expired. Those still within
+     * budget are rescheduled and returned for resending; the rest are dropped.
+     */
+    synchronized Due poll(long now) {
+        Due due = new Due();
+        List<String> expired = new ArrayList<>();
+        for (Entry entry : inFlight.values()) {
+            if (entry.deadline > now) continue;
+            if (entry.attempts >= maxAttempts) {
+                expired.add(entry.messageId);
+                due.gaveUp.add(entry.messageId);
+            } else {
+                entry.attempts++;
+                entry.deadline = now + backoff(entry.attempts);
+                due.retry.add(entry.messageId);
+            }
+        }
+        for (String messageId : expired) {
+            inFlight.remove(messageId);
+        }
+        if (!due.retry.isEmpty() || !due.gaveUp.isEmpty()) save();
+        return due;
+    }
+
+    /**
+     * Earliest ACK deadline, or -1 if nothing is in flight.
+     */
+    synchronized long nextDeadline() {
+        long next = -1;
+        for (Entry entry : inFlight.values()) {
+            if (next < 0 || entry.deadline < next) next = entry.deadline;
+        }
+        return next;
+    }
+
+    synchronized int size() {
+        return inFlight.size();
+    }
+
+    long backoff(int attempt) {
+        long delay = ackTimeoutMs << Math.min(attempt - 1, 20);
+        if (delay <= 0 || delay > maxBackoffMs) delay = maxBackoffMs;
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * (delay - half));
+    }
+
+    // Persistence
+
+    private void save() {
+        if (stateFile == null) return;
+
+        File temp = new File(stateFile.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8")) {
+            gson.toJson(new ArrayList<>(inFlight.values()), out);
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error saving retransmission state", e);
+            return;
+        }
+
+        if (!temp.renameTo(stateFile)) {
+            MeshLog.e(TAG, "Error replacing retransmission state file");
+        }
+    }
+
+    private void load() {
+        if (stateFile == null || !stateFile.exists()) return;
+
+        try (Reader in = new InputStreamReader(new FileInputStream(stateFile), "UTF-8")) {
+            Type type = new TypeToken<List<Entry>>(){}.getType();
+            List<Entry> entries = gson.fromJson(in, type);
+            if (entries == null) return;
+            for (Entry entry : entries) {
+                if (entry.messageId != null) inFlight.put(entry.messageId, entry);
+            }
+            MeshLog.d(TAG, "Loaded " + inFlight.size() + " in-flight message(s)");
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error loading retransmission state", e);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.protocol.FrameCodec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distance-vector routes to phone numbers, learned from neighbours' adverts.
+ *
+ * Each node advertises its own phone at metric 0 plus every route it knows.
+ * Loops are kept in check the DSDV way: every destination stamps its own
+ * entry with an even sequence number that grows with each periodic advert,
+ * and a node that loses a route bumps it to the next odd number with metric
+ * {@link #INFINITY}. A newer sequence wins unless it comes over a longer
+ * path than a live route; for equal sequences the shorter path wins. Adverts also use split horizon with poisoned reverse,
+ * and routes that stop being refreshed expire.
+ */
+public class RoutingTable {
+    public static final int INFINITY = 16;
+
+    private static class Route {
+        String nextHop;   // device address of the neighbour
+        int metric;
+        int sequence;
+        long updatedAt;
+    }
+
+    private final String selfPhone;
+    private final long routeTimeoutMs;
+    private final Map<String, Route> routes = new HashMap<>();
+    private int selfSequence = 0;
+
+    /**
+     * @param selfPhone      this node's phone number, or empty to stay anonymous
+     * @param routeTimeoutMs how long a route lives without being re-advertised
+     */
+    public RoutingTable(String selfPhone, long routeTimeoutMs) {
+        this.selfPhone = normalize(selfPhone);
+        this.routeTimeoutMs = routeTimeoutMs;
+    }
+
+    /**
+     * Phone numbers are compared by digits only, so "+91 98765-43210" and
+     * "+919876543210" name the same node.
+     */
+    public static String normalize(String phone) {
+        if (phone == null) return "";
+        // Adverts carry already-normalized numbers, so skip the copy for those
+        boolean digitsOnly = true;
+        for (int i = 0; i < phone.length() && digitsOnly; i++) {
+            char c = phone.charAt(i);
+            digitsOnly = c >= '0' && c <= '9';
+        }
+        if (digitsOnly) return phone;
+        StringBuilder digits = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') digits.append(c);
+        }
+        return digits.toString();
+    }
+
+    /**
+     * Merges a neighbour's advert. Returns true if any route appeared or
+     * changed metric, in which case a triggered update should go out. A newer
+     * sequence or an equally short next hop is left for the next periodic
+     * advert, otherwise every round would ripple through the whole mesh as
+     * triggered updates.
+     */
+    public synchronized boolean onAdvert(String fromAddress, List<FrameCodec.RouteEntry> entries, long now) {
+        boolean changed = false;
+        for (FrameCodec.RouteEntry entry : entries) {
+            String destination = normalize(entry.destination);
+            if (destination.isEmpty() || destination.equals(selfPhone)) continue;
+
+            int metric = Math.min(INFINITY, entry.metric + 1);
+            Route route = routes.get(destination);
+            if (route == null) {
+                if (metric >= INFINITY) continue;
+                route = new Route();
+                routes.put(destination, route);
+            } else {
+                boolean newer = entry.sequence - route.sequence > 0;
+                // A fresh round usually arrives over a longer path first; the
+                // current next hop will bring the same sequence shortly, so
+                // switching now would only flap the route back and forth
+                if (newer && route.metric < INFINITY && metric > route.metric
+                        && !fromAddress.equals(route.nextHop)) continue;
+                boolean sameButShorter = entry.sequence == route.sequence && metric < route.metric;
+                boolean fromNextHop = fromAddress.equals(route.nextHop) && entry.sequence == route.sequence;
+                if (!newer && !sameButShorter && !fromNextHop) continue;
+                if (fromNextHop && !newer && metric == route.metric) {
+                    route.updatedAt = now;
+                    continue;
+                }
+            }
+            if (route.nextHop == null || metric != route.metric) changed = true;
+            route.nextHop = fromAddress;
+            route.metric = metric;
+            route.sequence = entry.sequence;
+            route.updatedAt = now;
+        }
+        return changed;
+    }
+
+    /**
+     * Invalidates every route through a neighbour that went away.
+     */
+    public synchronized boolean onLinkDown(String address) {
+        boolean changed = false;
+        for (Route route : routes.values()) {
+            if (address.equals(route.nextHop) && route.metric < INFINITY) {
+                invalidate(route);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Invalidates routes that have not been refreshed in time and forgets
+     * invalid ones that have been advertised long enough.
+     */
+    public synchronized boolean expire(long now) {
+        boolean changed = false;
+        List<String> forgotten = new ArrayList<>();
+        for (Map.Entry<String, Route> entry : routes.entrySet()) {
+            Route route = entry.getValue();
+            if (now - route.updatedAt < routeTimeoutMs) continue;
+            if (route.metric < INFINITY) {
+                invalidate(route);
+                route.updatedAt = now;
+                changed = true;
+            } else {
+                forgotten.add(entry.getKey());
+            }
+        }
+        for (String destination : forgotten) {
+            routes.remove(destination);
+        }
+        return changed;
+    }
+
+    private void invalidate(Route route) {
+        route.metric = INFINITY;
+        // Odd: issued by someone other than the destination
+        if ((route.sequence & 1) == 0) route.sequence++;
+    }
+
+    /**
+     * Starts a new periodic round: our own entry gets a fresh sequence number.
+     */
+    public synchronized void nextRound() {
+        selfSequence += 2;
+    }
+
+    /**
+     * The advert for one neighbour; routes learned from it are poisoned.
+     */
+    public synchronized List<FrameCodec.RouteEntry> buildAdvert(String toAddress) {
+        List<FrameCodec.RouteEntry> entries = new ArrayList<>(routes.size() + 1);
+        if (!selfPhone.isEmpty()) {
+            entries.add(new FrameCodec.RouteEntry(selfPhone, 0, selfSequence));
+        }
+        for (Map.Entry<String, Route> entry : routes.entrySet()) {
+            Route route = entry.getValue();
+            int metric = toAddress.equals(route.nextHop) ? INFINITY : route.metric;
+            entries.add(new FrameCodec.RouteEntry(entry.getKey(), metric, route.sequence));
+        }
+        return entries;
+    }
+
+    /**
+     * Device address of the best next hop towards a phone, or null if no
+     * live route is known.
+     */
+    public synchronized String nextHop(String phone, long now) {
+        Route route = routes.get(normalize(phone));
+        if (route == null || route.metric >= INFINITY || now - route.updatedAt >= routeTimeoutMs) {
+            return null;
+        }
+        return route.nextHop;
+    }
+
+    public synchronized boolean isSelf(String phone) {
+        return !selfPhone.isEmpty() && selfPhone.equals(normalize(phone));
+    }
+
+    public synchronized int size() {
+        int live = 0;
+        for (Route route : routes.values()) {
+            if (route.metric < INFINITY) live++;
+        }
+        return live;
+    }
+}
@@ -0,0 +1,326 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.util.MeshLog;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-memory "have I seen this message ID?" check for relay and storage
+ * deduplication.
+ *
+ * Two Bloom filter generations age out old IDs: inserts go to the current
+ * generation, and once it holds {@code generationCapacity} IDs it becomes
+ * the previous one and a fresh generation starts. A small exact LRU of the
+ * most recent IDs answers the common case (flood echoes arriving seconds
+ * apart) with certainty. Lookups and inserts are O(k) regardless of how
+ * many messages are stored.
+ *
+ * State is written to a file so it survives restarts. Inserts never touch
+ * the disk: the first unsaved insert schedules a write on a background
+ * thread a couple of seconds later, which covers every insert made in the
+ * meantime. {@link #flush()} writes synchronously, for shutdown.
+ */
+public class SeenMessageFilter {
+    private static final String TAG = "SeenMessageFilter";
+    private static final int FILE_MAGIC = 0x53454546; // "SEEF"
+    private static final int FILE_VERSION = 1;
+
+    // Defaults: ~40 KB of filter bits, 0.1% false positives, 10k-20k IDs remembered
+    public static final int DEFAULT_GENERATION_CAPACITY = 10000;
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+    public static final int DEFAULT_EXACT_CACHE_SIZE = 1024;
+    // How long unsaved inserts may wait for the background write
+    static final long SAVE_DELAY_MS = 2000;
+
+    // One daemon thread writes the state of every filter in the process
+    private static ScheduledThreadPoolExecutor saver;
+
+    public enum Verdict {
+        NEW,        // definitely not seen
+        DUPLICATE,  // definitely seen (exact cache hit)
+        MAYBE       // Bloom hit only; confirm against storage before dropping
+    }
+
+    private final int generationCapacity;
+    private final double falsePositiveRate;
+    private final int numBits;
+    private final int numHashes;
+    private final File stateFile;
+
+    private long[] current;
+    private long[] previous;
+    private int currentCount = 0;
+    private final LinkedHashMap<String, Boolean> recent;
+    private boolean dirty = false;
+    private boolean saveScheduled = false;
+    // Held across snapshot and write so files are written in snapshot order
+    private final Object fileLock = new Object();
+
+    /**
+     * @param generationCapacity IDs per Bloom generation before it rotates
+     * @param falsePositiveRate  target false-positive rate across both generations
+     * @param exactCacheSize     number of most recent IDs kept exactly
+     * @param stateFile          where state is persisted, or null to keep it in memory only
+     */
+    public SeenMessageFilter(int generationCapacity, double falsePositiveRate,
+                             int exactCacheSize, File stateFile) {
+        if (generationCapacity <= 0) throw new IllegalArgumentException("generationCapacity must be positive");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be in (0, 1)");
+        }
+        this.generationCapacity = generationCapacity;
+        this.falsePositiveRate = falsePositiveRate;
+        this.stateFile = stateFile;
+
+        // A lookup probes both generations, so each gets half the error budget
+        double perGeneration = falsePositiveRate / 2;
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-generationCapacity * Math.log(perGeneration) / (ln2 * ln2));
+        this.numBits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, bits));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / generationCapacity * ln2));
+
+        this.current = new long[(numBits + 63) / 64];
+        this.previous = new long[current.length];
+
+        final int cacheSize = exactCacheSize;
+        this.recent = new LinkedHashMap<String, Boolean>(cacheSize * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > cacheSize;
+            }
+        };
+
+        load();
+    }
+
+    public synchronized Verdict check(String messageId) {
+        if (messageId == null) return Verdict.NEW;
+        if (recent.containsKey(messageId)) return Verdict.DUPLICATE;
+
+        long hash = hash64(messageId);
+        if (contains(current, hash) || contains(previous, hash)) return Verdict.MAYBE;
+        return Verdict.NEW;
+    }
+
+    public synchronized void add(String messageId) {
+        if (messageId == null) return;
+        recent.put(messageId, Boolean.TRUE);
+
+        long hash = hash64(messageId);
+        if (contains(current, hash)) return;
+
+        if (currentCount >= generationCapacity) {
+            rotate();
+        }
+        set(current, hash);
+        currentCount++;
+        markDirty();
+    }
+
+    /**
+     * Writes any unsaved state to disk on the calling thread.
+     */
+    public void flush() {
+        save();
+    }
+
+    public synchronized void clear() {
+        current = new long[current.length];
+        previous = new long[previous.length];
+        currentCount = 0;
+        recent.clear();
+        markDirty();
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public int getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashes() {
+        return numHashes;
+    }
+
+    /**
+     * Approximate resident size of the filter bits, in bytes.
+     */
+    public int getMemoryBytes() {
+        return current.length * 8 * 2;
+    }
+
+    private void rotate() {
+        long[] recycled = previous;
+        previous = current;
+        Arrays.fill(recycled, 0L);
+        current = recycled;
+        currentCount = 0;
+        MeshLog.d(TAG, "Rotated seen-message generation");
+    }
+
+    // Kirsch–Mitzenmacher double hashing: probe i is h1 + i * h2
+    private boolean contains(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            if ((bits[index >>> 6] & (1L << index)) == 0) return false;
+        }
+        return true;
+    }
+
+    private void set(long[] bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int index = ((h1 + i * h2) & Integer.MAX_VALUE) % numBits;
+            bits[index >>> 6] |= 1L << index;
+        }
+    }
+
+    /**
+     * FNV-1a over the UTF-16 code units, finished with a 64-bit mixer so the
+     * high and low halves are independent enough for double hashing.
+     */
+    static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Persistence
+
+    // Called with the lock held
+    private void markDirty() {
+        if (stateFile == null) return;
+        dirty = true;
+        if (saveScheduled) return;
+        saveScheduled = true;
+        saver().schedule(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        }, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor saver() {
+        if (saver == null) {
+            saver = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "seen-filter-saver");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return saver;
+    }
+
+    /**
+     * Copies the state under the lock, then writes it without holding it,
+     * so inserts only ever wait for the in-memory copy.
+     */
+    private void save() {
+        if (stateFile == null) return;
+        synchronized (fileLock) {
+            byte[] state;
+            synchronized (this) {
+                saveScheduled = false;
+                if (!dirty) return;
+                dirty = false;
+                state = serialize();
+            }
+            if (state == null) return;
+
+            File temp = new File(stateFile.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(state);
+            } catch (IOException e) {
+                MeshLog.e(TAG, "Error saving seen-message filter", e);
+                return;
+            }
+            if (!temp.renameTo(stateFile)) {
+                MeshLog.e(TAG, "Error replacing seen-message filter file");
+            }
+        }
+    }
+
+    // Called with the lock held
+    private byte[] serialize() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(current.length * 16 + recent.size() * 40 + 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(numBits);
+            out.writeInt(numHashes);
+            out.writeInt(currentCount);
+            for (long word : current) out.writeLong(word);
+            for (long word : previous) out.writeLong(word);
+
+            // Oldest first, so reloading restores the LRU order
+            out.writeInt(recent.size());
+            Iterator<String> ids = recent.keySet().iterator();
+            while (ids.hasNext()) out.writeUTF(ids.next());
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error serializing seen-message filter", e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    private void load() {
+        if (stateFile == null || !stateFile.exists()) return;
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION
+                    || in.readInt() != numBits || in.readInt() != numHashes) {
+                // Sizing changed; start over rather than misread the bits
+                MeshLog.w(TAG, "Seen-message filter parameters changed, resetting");
+                return;
+            }
+            int count = in.readInt();
+            long[] loadedCurrent = new long[current.length];
+            long[] loadedPrevious = new long[previous.length];
+            for (int i = 0; i < loadedCurrent.length; i++) loadedCurrent[i] = in.readLong();
+            for (int i = 0; i < loadedPrevious.length; i++) loadedPrevious[i] = in.readLong();
+
+            int recentCount = in.readInt();
+            for (int i = 0; i < recentCount; i++) recent.put(in.readUTF(), Boolean.TRUE);
+
+            current = loadedCurrent;
+            previous = loadedPrevious;
+            currentCount = count;
+            MeshLog.d(TAG, "Loaded seen-message filter (" + count + " in current generation)");
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error loading seen-message filter", e);
+            recent.clear();
+        }
+    }
+}
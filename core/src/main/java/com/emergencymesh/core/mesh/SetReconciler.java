@@ -0,0 +1,109 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.protocol.FrameCodec;
+import com.emergencymesh.core.protocol.InvertibleBloomLookupTable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Anti-entropy handshake for one link.
+ *
+ * Both sides send an IBLT summary of the message IDs they hold when the link
+ * comes up. Whoever receives a summary subtracts it from a table of the same
+ * size built over its own store and peels the difference: the keys only we
+ * hold are pushed to the peer, and the peer does the same in the other
+ * direction. If the table was too small to peel, both sides (seeing the same
+ * failure) retry with a larger size, up to {@link #MAX_CELLS}.
+ */
+class SetReconciler {
+    static final int INITIAL_CELLS = 24;
+    static final int MAX_CELLS = INITIAL_CELLS << 7; // 3072 cells, ~40 KB, ~2000 differences
+
+    static class Outcome {
+        final List<Message> toPush;
+        final int retryCells;   // > 0: send a summary of this size
+        final boolean gaveUp;
+        final int peerMissing;
+        final int localMissing;
+
+        Outcome(List<Message> toPush, int retryCells, boolean gaveUp, int peerMissing, int localMissing) {
+            this.toPush = toPush;
+            this.retryCells = retryCells;
+            this.gaveUp = gaveUp;
+            this.peerMissing = peerMissing;
+            this.localMissing = localMissing;
+        }
+    }
+
+    private final Map<Long, Message> localByKey = new HashMap<>();
+    private final Set<Integer> sentSizes = new HashSet<>();
+    private final Set<Integer> decodedSizes = new HashSet<>();
+
+    SetReconciler(Collection<Message> localMessages) {
+        for (Message message : localMessages) {
+            if (message.getId() == null || "ack".equals(message.getMessageType())) continue;
+            localByKey.put(InvertibleBloomLookupTable.keyOf(message.getId()), message);
+        }
+    }
+
+    int getLocalSetSize() {
+        return localByKey.size();
+    }
+
+    synchronized byte[] buildSummary(int cells) {
+        sentSizes.add(cells);
+        return FrameCodec.encodeSyncSummary(localByKey.size(), buildTable(cells));
+    }
+
+    synchronized Outcome onSummary(FrameCodec.SyncSummary summary) {
+        int cells = summary.table.getCellCount();
+        if (!decodedSizes.add(cells)) {
+            return new Outcome(Collections.<Message>emptyList(), 0, false, 0, 0);
+        }
+
+        InvertibleBloomLookupTable.Difference diff = buildTable(cells).subtract(summary.table).decode();
+        if (diff.complete) {
+            List<Message> toPush = new ArrayList<>(diff.localOnly.size());
+            for (Long key : diff.localOnly) {
+                Message message = localByKey.get(key);
+                if (message != null) toPush.add(message);
+            }
+            return new Outcome(toPush, 0, false, diff.localOnly.size(), diff.remoteOnly.size());
+        }
+
+        // The peer sees the same failure on our summary and picks the same size
+        int next = nextSize(cells, Math.abs(localByKey.size() - summary.setSize));
+        if (next > MAX_CELLS) {
+            return new Outcome(Collections.<Message>emptyList(), 0, true, 0, 0);
+        }
+        return new Outcome(Collections.<Message>emptyList(), sentSizes.contains(next) ? 0 : next, false, 0, 0);
+    }
+
+    private InvertibleBloomLookupTable buildTable(int cells) {
+        InvertibleBloomLookupTable table = new InvertibleBloomLookupTable(cells);
+        for (Long key : localByKey.keySet()) {
+            table.insert(key);
+        }
+        return table;
+    }
+
+    /**
+     * Next table size: at least double the failed one, and at least ~1.5 cells
+     * per difference implied by the set sizes alone.
+     */
+    static int nextSize(int failedCells, int sizeDifference) {
+        int next = failedCells * 2;
+        while (next < sizeDifference * 3 / 2 + InvertibleBloomLookupTable.HASH_COUNT && next <= MAX_CELLS) {
+            next *= 2;
+        }
+        return next;
+    }
+}
@@ -0,0 +1,101 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Index of our own outgoing messages that no peer has ACKed yet.
+ *
+ * Messages stay here from the moment they are stored until the first ACK
+ * arrives, whether or not a live send was attempted. When a peer connects,
+ * the node drains a snapshot of the index to it in priority order
+ * (alerts, then location, then text), oldest first within a priority.
+ */
+class StoreAndForward {
+
+    private static final Comparator<Message> DRAIN_ORDER = new Comparator<Message>() {
+        @Override
+        public int compare(Message a, Message b) {
+            int byLane = OutboundFrame.laneFor(a.getMessageType()).compareTo(
+                    OutboundFrame.laneFor(b.getMessageType()));
+            if (byLane != 0) return byLane;
+            int byAge = Long.compare(a.getTimestamp(), b.getTimestamp());
+            if (byAge != 0) return byAge;
+            return a.getId().compareTo(b.getId());
+        }
+    };
+
+    private final TreeSet<Message> pending = new TreeSet<>(DRAIN_ORDER);
+    private final Map<String, Message> byId = new HashMap<>();
+
+    synchronized void load(Collection<Message> outgoing) {
+        for (Message message : outgoing) {
+            add(message);
+        }
+    }
+
+    /**
+     * Returns true if the message was added (it is undelivered and not already tracked).
+     */
+    synchronized boolean add(Message message) {
+        if (message == null || message.getId() == null || message.isDelivered()
+                || "ack".equals(message.getMessageType()) || byId.containsKey(message.getId())) {
+            return false;
+        }
+        byId.put(message.getId(), message);
+        pending.add(message);
+        return true;
+    }
+
+    synchronized int remove(Collection<String> messageIds) {
+        int removed = 0;
+        for (String messageId : messageIds) {
+            Message message = byId.remove(messageId);
+            if (message != null) {
+                pending.remove(message);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Drops pending revisions of the same alert that {@code message} replaces.
+     * Returns their IDs.
+     */
+    synchronized List<String> removeSuperseded(Message message) {
+        List<String> removed = new ArrayList<>();
+        if (message.getAlertId() == null) return removed;
+        for (Message queued : new ArrayList<>(byId.values())) {
+            if (message.supersedes(queued)) {
+                byId.remove(queued.getId());
+                pending.remove(queued);
+                removed.add(queued.getId());
+            }
+        }
+        return removed;
+    }
+
+    synchronized boolean isPending(String messageId) {
+        return byId.containsKey(messageId);
+    }
+
+    /**
+     * Pending messages in drain order, copied so the caller can walk them
+     * slowly while ACKs keep arriving.
+     */
+    synchronized List<Message> snapshot() {
+        return new ArrayList<>(pending);
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,119 @@
+package com.emergencymesh.core.model;
+
+public class Message {
+    // Hops a message may still travel when it leaves its sender
+    public static final int DEFAULT_TTL = 8;
+
+    private String id;
+    private String senderName;
+    private String senderPhone;
+    private String recipientPhone;
+    private String content;
+    private long timestamp;
+    private boolean isDelivered;
+    private String messageType; // "text", "location", "alert"
+    private int ttl;      // remaining hops; 0 means the sender predates relaying
+    private int hopCount; // hops travelled so far
+    private String alertId; // alert session this is a revision of, or null
+    private int revision;   // grows with every update of the alert session
+
+    public Message() {}
+
+    public Message(String id, String senderName, String senderPhone,
+                   String recipientPhone, String content, String messageType) {
+        this.id = id;
+        this.senderName = senderName;
+        this.senderPhone = senderPhone;
+        this.recipientPhone = recipientPhone;
+        this.content = content;
+        this.messageType = messageType;
+        this.timestamp = System.currentTimeMillis();
+        this.isDelivered = false;
+        this.ttl = DEFAULT_TTL;
+        this.hopCount = 0;
+    }
+
+    /**
+     * Copy used when relaying: one hop further along, one hop less to go.
+     */
+    public Message forwardCopy() {
+        Message copy = new Message();
+        copy.id = id;
+        copy.senderName = senderName;
+        copy.senderPhone = senderPhone;
+        copy.recipientPhone = recipientPhone;
+        copy.content = content;
+        copy.timestamp = timestamp;
+        copy.messageType = messageType;
+        copy.isDelivered = false;
+        copy.ttl = ttl - 1;
+        copy.hopCount = hopCount + 1;
+        copy.alertId = alertId;
+        copy.revision = revision;
+        return copy;
+    }
+
+    /**
+     * Field-for-field copy, for stores that must not share instances with callers.
+     */
+    public Message copy() {
+        Message copy = new Message();
+        copy.id = id;
+        copy.senderName = senderName;
+        copy.senderPhone = senderPhone;
+        copy.recipientPhone = recipientPhone;
+        copy.content = content;
+        copy.timestamp = timestamp;
+        copy.messageType = messageType;
+        copy.isDelivered = isDelivered;
+        copy.ttl = ttl;
+        copy.hopCount = hopCount;
+        copy.alertId = alertId;
+        copy.revision = revision;
+        return copy;
+    }
+
+    // Getters and Setters
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+
+    public String getSenderName() { return senderName; }
+    public void setSenderName(String senderName) { this.senderName = senderName; }
+
+    public String getSenderPhone() { return senderPhone; }
+    public void setSenderPhone(String senderPhone) { this.senderPhone = senderPhone; }
+
+    public String getRecipientPhone() { return recipientPhone; }
+    public void setRecipientPhone(String recipientPhone) { this.recipientPhone = recipientPhone; }
+
+    public String getContent() { return content; }
+    public void setContent(String content) { this.content = content; }
+
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
+
+    public boolean isDelivered() { return isDelivered; }
+    public void setDelivered(boolean delivered) { isDelivered = delivered; }
+
+    public String getMessageType() { return messageType; }
+    public void setMessageType(String messageType) { this.messageType = messageType; }
+
+    public int getTtl() { return ttl; }
+    public void setTtl(int ttl) { this.ttl = ttl; }
+
+    public int getHopCount() { return hopCount; }
+    public void setHopCount(int hopCount) { this.hopCount = hopCount; }
+
+    public String getAlertId() { return alertId; }
+    public void setAlertId(String alertId) { this.alertId = alertId; }
+
+    public int getRevision() { return revision; }
+    public void setRevision(int revision) { this.revision = revision; }
+
+    /**
+     * True if both are revisions of the same alert session and this one is newer.
+     */
+    public boolean supersedes(Message other) {
+        return alertId != null && other != null && alertId.equals(other.alertId) && revision > other.revision;
+    }
+}
\ No newline at end of file
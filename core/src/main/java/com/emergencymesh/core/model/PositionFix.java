@@ -0,0 +1,91 @@
+package com.emergencymesh.core.model;
+
+import java.util.Locale;
+
+/**
+ * One report from a sender's live-location stream.
+ *
+ * Coordinates are fixed-point degrees times 1e7 (about 1 cm) and accuracy
+ * is whole decimetres, so fixes compare exactly and consecutive ones
+ * delta-encode into a few bytes.
+ */
+public class PositionFix {
+    private static final double E7 = 1e7;
+    private static final double EARTH_RADIUS_M = 6371000;
+
+    private final String senderPhone;
+    private final String senderName;
+    private final int sequence;  // per sender, starts at 1 and grows with every fix sent
+    private final long timestamp;
+    private final int latitudeE7;
+    private final int longitudeE7;
+    private final int accuracyDm;
+    private final int hopCount;
+
+    public PositionFix(String senderPhone, String senderName, int sequence, long timestamp,
+                       int latitudeE7, int longitudeE7, int accuracyDm, int hopCount) {
+        this.senderPhone = senderPhone;
+        this.senderName = senderName;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.latitudeE7 = latitudeE7;
+        this.longitudeE7 = longitudeE7;
+        this.accuracyDm = accuracyDm;
+        this.hopCount = hopCount;
+    }
+
+    public static PositionFix of(String senderPhone, String senderName, int sequence, long timestamp,
+                                 double latitude, double longitude, float accuracyMeters) {
+        return new PositionFix(senderPhone, senderName, sequence, timestamp,
+                (int) Math.round(latitude * E7), (int) Math.round(longitude * E7),
+                Math.max(0, Math.round(accuracyMeters * 10)), 0);
+    }
+
+    /**
+     * The same fix one hop further from its sender.
+     */
+    public PositionFix relayed() {
+        return new PositionFix(senderPhone, senderName, sequence, timestamp,
+                latitudeE7, longitudeE7, accuracyDm, hopCount + 1);
+    }
+
+    /**
+     * True if this fix was taken after {@code other}; sequence breaks ties.
+     */
+    public boolean isNewerThan(PositionFix other) {
+        if (other == null) return true;
+        if (timestamp != other.timestamp) return timestamp > other.timestamp;
+        return sequence > other.sequence;
+    }
+
+    /**
+     * Equirectangular approximation, plenty for the tens of metres a
+     * tracking threshold cares about.
+     */
+    public double distanceMetersTo(PositionFix other) {
+        double lat1 = Math.toRadians(latitudeE7 / E7);
+        double lat2 = Math.toRadians(other.latitudeE7 / E7);
+        double x = Math.toRadians((other.longitudeE7 - longitudeE7) / E7) * Math.cos((lat1 + lat2) / 2);
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_M;
+    }
+
+    public String getSenderPhone() { return senderPhone; }
+    public String getSenderName() { return senderName; }
+    public int getSequence() { return sequence; }
+    public long getTimestamp() { return timestamp; }
+    public int getLatitudeE7() { return latitudeE7; }
+    public int getLongitudeE7() { return longitudeE7; }
+    public int getAccuracyDm() { return accuracyDm; }
+    public int getHopCount() { return hopCount; }
+
+    public double getLatitude() { return latitudeE7 / E7; }
+    public double getLongitude() { return longitudeE7 / E7; }
+    public float getAccuracyMeters() { return accuracyDm / 10f; }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s #%d %.6f,%.6f ±%.0fm", senderPhone, sequence,
+                getLatitude(), getLongitude(), getAccuracyMeters());
+    }
+}
@@ -0,0 +1,803 @@
+package com.emergencymesh.core.protocol;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Binary wire format for mesh links.
+ *
+ * Every frame is laid out as:
+ *   magic (1) | version (1) | type (1) | flags (1) | payload length (varint) | payload
+ *
+ * Message payload:
+ *   id (16 raw bytes or string) | timestamp (varint) | kind (1) | ttl (1) | hops (1) |
+ *   sender name | sender phone | recipient phone | content
+ *
+ * Message payloads use varint-prefixed UTF-8 strings and send UUID ids as
+ * 16 raw bytes, which keeps a typical alert at roughly half of its JSON size.
+ * Peers announce support with a HELLO line at connect time; links that never
+ * see one keep using the legacy newline-delimited JSON format. The HELLO
+ * line also lists optional capabilities, e.g. "EMESH/1 deflate-d1".
+ */
+public final class FrameCodec {
+    public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int MAGIC = 0xE7;
+    public static final int VERSION = 1;
+
+    // Sent as a plain text line so legacy JSON peers simply drop it
+    public static final String HELLO_PREFIX = "EMESH/";
+
+    // Frame types
+    public static final int TYPE_MESSAGE = 0x01;
+    public static final int TYPE_SYNC_SUMMARY = 0x02;
+    public static final int TYPE_ACK_BATCH = 0x03;
+    public static final int TYPE_PING = 0x04;
+    public static final int TYPE_PONG = 0x05;
+    public static final int TYPE_ROUTE_ADVERT = 0x06;
+    public static final int TYPE_POSITION = 0x07;
+    public static final int TYPE_POSITION_ACK = 0x08;
+
+    // Frame flags
+    public static final int FLAG_UUID_ID = 0x01;
+    public static final int FLAG_DELIVERED = 0x02;
+    public static final int FLAG_COMPRESSED = 0x04;
+    // Alert session ID and revision follow the content; older decoders ignore them
+    public static final int FLAG_ALERT_SESSION = 0x08;
+
+    // Compact codes for the well-known message types
+    private static final int KIND_CUSTOM = 0;
+    private static final int KIND_TEXT = 1;
+    private static final int KIND_LOCATION = 2;
+    private static final int KIND_ALERT = 3;
+    private static final int KIND_ACK = 4;
+
+    // First byte of a position payload
+    private static final int POSITION_KEY = 0;
+    private static final int POSITION_DELTA = 1;
+
+    public static final int MAX_PAYLOAD = 256 * 1024;
+
+    private FrameCodec() {}
+
+    /**
+     * Thrown before anything is written when a payload is over
+     * {@link #MAX_PAYLOAD}, which no reader would accept. The stream is
+     * left as it was and can carry the next frame.
+     */
+    public static class FrameTooLargeException extends IOException {
+        private final int length;
+
+        FrameTooLargeException(int length) {
+            super("Frame payload of " + length + " bytes exceeds " + MAX_PAYLOAD);
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+    public static class Frame {
+        public final int version;
+        public final int type;
+        public final int flags;
+        public final byte[] payload;
+
+        public Frame(int version, int type, int flags, byte[] payload) {
+            this.version = version;
+            this.type = type;
+            this.flags = flags;
+            this.payload = payload;
+        }
+    }
+
+    // Handshake
+
+    public static String buildHello(String... capabilities) {
+        StringBuilder hello = new StringBuilder(HELLO_PREFIX).append(VERSION);
+        for (String capability : capabilities) {
+            hello.append(' ').append(capability);
+        }
+        return hello.toString();
+    }
+
+    /**
+     * Returns the capabilities listed after the version in a HELLO line.
+     */
+    public static Set<String> parseCapabilities(String line) {
+        Set<String> capabilities = new HashSet<>();
+        if (parseHello(line) < 0) return capabilities;
+        String[] parts = line.trim().split("\\s+");
+        for (int i = 1; i < parts.length; i++) {
+            capabilities.add(parts[i]);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Returns the protocol version announced by a HELLO line, or -1 if the
+     * line is not a HELLO (e.g. a legacy JSON message).
+     */
+    public static int parseHello(String line) {
+        if (line == null || !line.startsWith(HELLO_PREFIX)) return -1;
+        String rest = line.substring(HELLO_PREFIX.length()).trim();
+        int end = 0;
+        while (end < rest.length() && Character.isDigit(rest.charAt(end))) end++;
+        if (end == 0) return -1;
+        try {
+            return Integer.parseInt(rest.substring(0, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Framing
+
+    public static void writeFrame(OutputStream out, int type, int flags, byte[] payload) throws IOException {
+        writeFrame(out, VERSION, type, flags, payload);
+    }
+
+    /**
+     * Writes a frame stamped with {@code version}, the one negotiated with
+     * the peer in HELLO.
+     */
+    public static void writeFrame(OutputStream out, int version, int type, int flags, byte[] payload)
+            throws IOException {
+        if (payload.length > MAX_PAYLOAD) throw new FrameTooLargeException(payload.length);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(10);
+        header.write(MAGIC);
+        header.write(version);
+        header.write(type);
+        header.write(flags);
+        writeVarInt(header, payload.length);
+        header.writeTo(out);
+        out.write(payload);
+    }
+
+    /**
+     * Reads one frame, or returns null on a clean end of stream. Frames of
+     * any version up to ours are accepted, as a peer writes the one it
+     * negotiated.
+     */
+    public static Frame readFrame(InputStream in) throws IOException {
+        int magic = in.read();
+        if (magic < 0) return null;
+        if (magic != MAGIC) {
+            throw new IOException("Bad frame magic: " + magic);
+        }
+        int version = readByte(in);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported frame version: " + version);
+        }
+        int type = readByte(in);
+        int flags = readByte(in);
+        int length = readVarInt(in);
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Bad frame length: " + length);
+        }
+        byte[] payload = new byte[length];
+        readFully(in, payload);
+        return new Frame(version, type, flags, payload);
+    }
+
+    // Messages
+
+    public static void writeMessage(OutputStream out, Message message) throws IOException {
+        writeMessage(out, message, null);
+    }
+
+    /**
+     * Writes a message frame, compressing the payload when a compressor is
+     * given and it actually shrinks the payload.
+     */
+    public static void writeMessage(OutputStream out, Message message, PayloadCompressor compressor) throws IOException {
+        writeMessage(out, message, compressor, VERSION);
+    }
+
+    public static void writeMessage(OutputStream out, Message message, PayloadCompressor compressor, int version)
+            throws IOException {
+        int flags = 0;
+        ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+
+        UUID uuid = parseUuid(message.getId());
+        if (uuid != null) {
+            flags |= FLAG_UUID_ID;
+            writeLong(body, uuid.getMostSignificantBits());
+            writeLong(body, uuid.getLeastSignificantBits());
+        } else {
+            writeString(body, message.getId());
+        }
+        if (message.isDelivered()) flags |= FLAG_DELIVERED;
+
+        writeVarLong(body, message.getTimestamp());
+        int kind = kindOf(message.getMessageType());
+        body.write(kind);
+        if (kind == KIND_CUSTOM) writeString(body, message.getMessageType());
+        body.write(clampByte(message.getTtl()));
+        body.write(clampByte(message.getHopCount()));
+        writeString(body, message.getSenderName());
+        writeString(body, message.getSenderPhone());
+        writeString(body, message.getRecipientPhone());
+        writeString(body, message.getContent());
+        if (message.getAlertId() != null) {
+            flags |= FLAG_ALERT_SESSION;
+            writeString(body, message.getAlertId());
+            writeVarInt(body, message.getRevision());
+        }
+
+        byte[] payload = body.toByteArray();
+        if (compressor != null) {
+            byte[] compressed = compressor.compress(payload);
+            if (compressed != null) {
+                flags |= FLAG_COMPRESSED;
+                payload = compressed;
+            }
+        }
+        writeFrame(out, version, TYPE_MESSAGE, flags, payload);
+    }
+
+    /**
+     * The message as one frame. Throws IllegalArgumentException if it is
+     * too large for a frame.
+     */
+    public static byte[] encodeMessage(Message message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(160);
+        try {
+            writeMessage(out, message);
+        } catch (FrameTooLargeException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static Message decodeMessage(Frame frame) throws IOException {
+        return decodeMessage(frame, null);
+    }
+
+    public static Message decodeMessage(Frame frame, PayloadCompressor compressor) throws IOException {
+        if (frame.type != TYPE_MESSAGE) {
+            throw new IOException("Not a message frame: " + frame.type);
+        }
+        byte[] payload = frame.payload;
+        if ((frame.flags & FLAG_COMPRESSED) != 0) {
+            if (compressor == null) throw new IOException("Compressed frame without a compressor");
+            payload = compressor.decompress(payload);
+        }
+        ByteCursor in = new ByteCursor(payload);
+        Message message = new Message();
+
+        if ((frame.flags & FLAG_UUID_ID) != 0) {
+            message.setId(new UUID(in.readLong(), in.readLong()).toString());
+        } else {
+            message.setId(in.readString());
+        }
+        message.setDelivered((frame.flags & FLAG_DELIVERED) != 0);
+        message.setTimestamp(in.readVarLong());
+
+        int kind = in.readByte();
+        message.setMessageType(kind == KIND_CUSTOM ? in.readString() : typeOf(kind));
+        message.setTtl(in.readByte());
+        message.setHopCount(in.readByte());
+        message.setSenderName(in.readString());
+        message.setSenderPhone(in.readString());
+        message.setRecipientPhone(in.readString());
+        message.setContent(in.readString());
+        if ((frame.flags & FLAG_ALERT_SESSION) != 0) {
+            message.setAlertId(in.readString());
+            message.setRevision(in.readVarInt());
+        }
+        return message;
+    }
+
+    // Batched acknowledgements
+
+    /**
+     * ACK batch payload: varint count, then per ID a tag byte (0 = 16-byte UUID,
+     * 1 = string) and the ID itself.
+     */
+    public static byte[] encodeAckBatch(List<String> messageIds) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2 + messageIds.size() * 17);
+        try {
+            writeVarInt(out, messageIds.size());
+            for (String id : messageIds) {
+                UUID uuid = parseUuid(id);
+                if (uuid != null) {
+                    out.write(0);
+                    writeLong(out, uuid.getMostSignificantBits());
+                    writeLong(out, uuid.getLeastSignificantBits());
+                } else {
+                    out.write(1);
+                    writeString(out, id);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static List<String> decodeAckBatch(Frame frame) throws IOException {
+        if (frame.type != TYPE_ACK_BATCH) {
+            throw new IOException("Not an ACK batch frame: " + frame.type);
+        }
+        ByteCursor in = new ByteCursor(frame.payload);
+        int count = in.readVarInt();
+        if (count < 0 || count > frame.payload.length) {
+            throw new IOException("Bad ACK batch size: " + count);
+        }
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.readByte() == 0) {
+                ids.add(new UUID(in.readLong(), in.readLong()).toString());
+            } else {
+                ids.add(in.readString());
+            }
+        }
+        return ids;
+    }
+
+    // Set reconciliation
+
+    public static class SyncSummary {
+        public final int setSize;
+        public final InvertibleBloomLookupTable table;
+
+        public SyncSummary(int setSize, InvertibleBloomLookupTable table) {
+            this.setSize = setSize;
+            this.table = table;
+        }
+    }
+
+    /**
+     * Sync summary payload: varint set size, then the serialized IBLT.
+     */
+    public static byte[] encodeSyncSummary(int setSize, InvertibleBloomLookupTable table) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + table.getCellCount() * 13);
+        try {
+            writeVarInt(out, setSize);
+            out.write(table.toBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static SyncSummary decodeSyncSummary(Frame frame) throws IOException {
+        if (frame.type != TYPE_SYNC_SUMMARY) {
+            throw new IOException("Not a sync summary frame: " + frame.type);
+        }
+        ByteCursor in = new ByteCursor(frame.payload);
+        int setSize = in.readVarInt();
+        return new SyncSummary(setSize, InvertibleBloomLookupTable.read(in));
+    }
+
+    // Heartbeat
+
+    public static class Ping {
+        public final int sequence;
+        public final long timestampMicros;  // sender's monotonic clock, echoed back unchanged
+
+        public Ping(int sequence, long timestampMicros) {
+            this.sequence = sequence;
+            this.timestampMicros = timestampMicros;
+        }
+    }
+
+    /**
+     * Ping/pong payload: varint sequence, 8-byte sender timestamp. A PONG
+     * carries the PING's payload back as-is.
+     */
+    public static byte[] encodePing(int sequence, long timestampMicros) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(13);
+        try {
+            writeVarInt(out, sequence);
+            writeLong(out, timestampMicros);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static Ping decodePing(Frame frame) throws IOException {
+        if (frame.type != TYPE_PING && frame.type != TYPE_PONG) {
+            throw new IOException("Not a ping frame: " + frame.type);
+        }
+        ByteCursor in = new ByteCursor(frame.payload);
+        return new Ping(in.readVarInt(), in.readLong());
+    }
+
+    // Routing
+
+    public static class RouteEntry {
+        public final String destination;  // normalized phone number
+        public final int metric;          // hops; RoutingTable.INFINITY means unreachable
+        public final int sequence;        // destination-issued freshness counter
+
+        public RouteEntry(String destination, int metric, int sequence) {
+            this.destination = destination;
+            this.metric = metric;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Route advert payload: varint entry count, then per entry the
+     * destination string, a metric byte and a varint sequence number.
+     */
+    public static byte[] encodeRouteAdvert(List<RouteEntry> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2 + entries.size() * 18);
+        try {
+            writeVarInt(out, entries.size());
+            for (RouteEntry entry : entries) {
+                writeString(out, entry.destination);
+                out.write(clampByte(entry.metric));
+                writeVarInt(out, entry.sequence);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static List<RouteEntry> decodeRouteAdvert(Frame frame) throws IOException {
+        if (frame.type != TYPE_ROUTE_ADVERT) {
+            throw new IOException("Not a route advert frame: " + frame.type);
+        }
+        ByteCursor in = new ByteCursor(frame.payload);
+        int count = in.readVarInt();
+        if (count < 0 || count > frame.payload.length) {
+            throw new IOException("Bad route count: " + count);
+        }
+        List<RouteEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String destination = in.readString();
+            int metric = in.readByte();
+            int sequence = in.readVarInt();
+            if (destination != null) entries.add(new RouteEntry(destination, metric, sequence));
+        }
+        return entries;
+    }
+
+    // Live location
+
+    /**
+     * A decoded position frame: a full fix, or a delta that still needs the
+     * base fix it was encoded against.
+     */
+    public static class PositionUpdate {
+        public final String senderPhone;
+        public final int sequence;
+        // Sequence of the base fix, or 0 for a keyframe
+        public final int baseSequence;
+        private final String senderName;
+        private final int hopCount;
+        private final long time;
+        private final int latitude;
+        private final int longitude;
+        private final int accuracy;
+
+        PositionUpdate(String senderPhone, String senderName, int sequence, int baseSequence, int hopCount,
+                       long time, int latitude, int longitude, int accuracy) {
+            this.senderPhone = senderPhone;
+            this.senderName = senderName;
+            this.sequence = sequence;
+            this.baseSequence = baseSequence;
+            this.hopCount = hopCount;
+            this.time = time;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.accuracy = accuracy;
+        }
+
+        public boolean isDelta() {
+            return baseSequence != 0;
+        }
+
+        /**
+         * The full fix; {@code base} must be the sender's fix numbered
+         * {@link #baseSequence} and is ignored for keyframes.
+         */
+        public PositionFix resolve(PositionFix base) {
+            if (!isDelta()) {
+                return new PositionFix(senderPhone, senderName, sequence, time, latitude, longitude, accuracy, hopCount);
+            }
+            return new PositionFix(senderPhone, base.getSenderName(), sequence, base.getTimestamp() + time,
+                    base.getLatitudeE7() + latitude, base.getLongitudeE7() + longitude,
+                    base.getAccuracyDm() + accuracy, hopCount);
+        }
+    }
+
+    /**
+     * Position payload. A keyframe ({@code base} null) is: tag 0 | sender phone |
+     * sender name | varint sequence | hops (1) | varint timestamp | zigzag
+     * latitude, longitude (1e-7 degrees) | varint accuracy (decimetres).
+     * A delta is: tag 1 | sender phone | varint sequence | hops (1) | varint
+     * base sequence | zigzag differences from the base in time, latitude,
+     * longitude and accuracy. A walking-pace update is about six bytes plus
+     * the phone number.
+     */
+    public static byte[] encodePosition(PositionFix fix, PositionFix base) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(48);
+        try {
+            out.write(base == null ? POSITION_KEY : POSITION_DELTA);
+            writeString(out, fix.getSenderPhone());
+            if (base == null) {
+                writeString(out, fix.getSenderName());
+                writeVarInt(out, fix.getSequence());
+                out.write(clampByte(fix.getHopCount()));
+                writeVarLong(out, fix.getTimestamp());
+                writeVarInt(out, zigzag(fix.getLatitudeE7()));
+                writeVarInt(out, zigzag(fix.getLongitudeE7()));
+                writeVarInt(out, fix.getAccuracyDm());
+            } else {
+                writeVarInt(out, fix.getSequence());
+                out.write(clampByte(fix.getHopCount()));
+                writeVarInt(out, base.getSequence());
+                writeVarLong(out, zigzag(fix.getTimestamp() - base.getTimestamp()));
+                writeVarInt(out, zigzag(fix.getLatitudeE7() - base.getLatitudeE7()));
+                writeVarInt(out, zigzag(fix.getLongitudeE7() - base.getLongitudeE7()));
+                writeVarInt(out, zigzag(fix.getAccuracyDm() - base.getAccuracyDm()));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static PositionUpdate decodePosition(Frame frame) throws IOException {
+        if (frame.type != TYPE_POSITION) {
+            throw new IOException("Not a position frame: " + frame.type);
+        }
+        ByteCursor in = new ByteCursor(frame.payload);
+        int tag = in.readByte();
+        String phone = in.readString();
+        if (tag == POSITION_KEY) {
+            String name = in.readString();
+            int sequence = in.readVarInt();
+            int hops = in.readByte();
+            long timestamp = in.readVarLong();
+            return new PositionUpdate(phone, name, sequence, 0, hops, timestamp,
+                    unzigzag(in.readVarInt()), unzigzag(in.readVarInt()), in.readVarInt());
+        }
+        if (tag == POSITION_DELTA) {
+            int sequence = in.readVarInt();
+            int hops = in.readByte();
+            int baseSequence = in.readVarInt();
+            if (baseSequence == 0) throw new IOException("Position delta without a base");
+            long dt = unzigzag(in.readVarLong());
+            return new PositionUpdate(phone, null, sequence, baseSequence, hops, dt,
+                    unzigzag(in.readVarInt()), unzigzag(in.readVarInt()), unzigzag(in.readVarInt()));
+        }
+        throw new IOException("Unknown position tag: " + tag);
+    }
+
+    public static class PositionAck {
+        public final String senderPhone;
+        public final int sequence;
+
+        public PositionAck(String senderPhone, int sequence) {
+            this.senderPhone = senderPhone;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Position ACK payload: sender phone, varint sequence. Sequence 0 asks
+     * for a keyframe because the delta's base is unknown here.
+     */
+    public static byte[] encodePositionAck(String senderPhone, int sequence) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(24);
+        try {
+            writeString(out, senderPhone);
+            writeVarInt(out, sequence);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static PositionAck decodePositionAck(Frame frame) throws IOException {
+        if (frame.type != TYPE_POSITION_ACK) {
+            throw new IOException("Not a position ACK frame: " + frame.type);
+        }
+        ByteCursor in = new ByteCursor(frame.payload);
+        return new PositionAck(in.readString(), in.readVarInt());
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int kindOf(String messageType) {
+        if ("text".equals(messageType)) return KIND_TEXT;
+        if ("location".equals(messageType)) return KIND_LOCATION;
+        if ("alert".equals(messageType)) return KIND_ALERT;
+        if ("ack".equals(messageType)) return KIND_ACK;
+        return KIND_CUSTOM;
+    }
+
+    private static String typeOf(int kind) throws IOException {
+        switch (kind) {
+            case KIND_TEXT: return "text";
+            case KIND_LOCATION: return "location";
+            case KIND_ALERT: return "alert";
+            case KIND_ACK: return "ack";
+            default: throw new IOException("Unknown message kind: " + kind);
+        }
+    }
+
+    private static int clampByte(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static UUID parseUuid(String id) {
+        // Only canonical lowercase UUIDs round-trip exactly through UUID.toString()
+        if (id == null || id.length() != 36) return null;
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Primitive encoding helpers
+
+    public static void writeVarInt(OutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    public static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    public static int readVarInt(InputStream in) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte(in);
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static void writeInt(OutputStream out, int value) throws IOException {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            out.write((value >>> shift) & 0xFF);
+        }
+    }
+
+    static void writeLong(OutputStream out, long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift) & 0xFF);
+        }
+    }
+
+    /**
+     * Strings are written as varint(length + 1) followed by UTF-8 bytes, so
+     * that a null field (length 0) survives the round trip like it does in Gson.
+     */
+    static void writeString(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException("Truncated frame");
+        return b;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = in.read(buffer, offset, buffer.length - offset);
+            if (read < 0) throw new EOFException("Truncated frame payload");
+            offset += read;
+        }
+    }
+
+    /**
+     * Reads primitives back out of a frame payload without copying it.
+     */
+    static final class ByteCursor {
+        private final byte[] data;
+        private int position;
+
+        ByteCursor(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() throws IOException {
+            if (position >= data.length) throw new EOFException("Truncated payload");
+            return data[position++] & 0xFF;
+        }
+
+        int readInt() throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        long readLong() throws IOException {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        int readVarInt() throws IOException {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            if (length == 0) return null;
+            length -= 1;
+            if (length < 0 || length > data.length - position) {
+                throw new EOFException("Truncated string");
+            }
+            String value = new String(data, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        int position() {
+            return position;
+        }
+
+        boolean hasRemaining() {
+            return position < data.length;
+        }
+    }
+}
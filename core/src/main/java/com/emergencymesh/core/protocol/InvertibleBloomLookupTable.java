@@ -0,0 +1,191 @@
+package com.emergencymesh.core.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Invertible Bloom lookup table over 64-bit message keys, used for set
+ * reconciliation between two nodes.
+ *
+ * Each side inserts the keys it holds. Subtracting the peer's table from ours
+ * cancels every shared key, leaving only the symmetric difference, which can
+ * be listed by peeling "pure" cells as long as the table has roughly 1.5
+ * cells per differing key. The wire size therefore depends on the size of
+ * the difference, not on how many messages either side stores.
+ */
+public class InvertibleBloomLookupTable {
+    public static final int HASH_COUNT = 3;
+
+    private final int cellCount;
+    private final int[] counts;
+    private final long[] keySums;
+    private final int[] hashSums;
+
+    /**
+     * @param cellCount number of cells; rounded up to a multiple of {@link #HASH_COUNT}
+     */
+    public InvertibleBloomLookupTable(int cellCount) {
+        int rounded = Math.max(HASH_COUNT, ((cellCount + HASH_COUNT - 1) / HASH_COUNT) * HASH_COUNT);
+        this.cellCount = rounded;
+        this.counts = new int[rounded];
+        this.keySums = new long[rounded];
+        this.hashSums = new int[rounded];
+    }
+
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Maps a message ID onto the 64-bit key space used by the table.
+     */
+    public static long keyOf(String messageId) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < messageId.length(); i++) {
+            h ^= messageId.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h = mix(h);
+        // Zero would be indistinguishable from an empty key sum
+        return h == 0 ? 1 : h;
+    }
+
+    public void insert(long key) {
+        update(key, 1);
+    }
+
+    public void remove(long key) {
+        update(key, -1);
+    }
+
+    private void update(long key, int delta) {
+        int check = checkHash(key);
+        int subSize = cellCount / HASH_COUNT;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            // Each hash function owns its own slice, so a key never hits a cell twice
+            int index = i * subSize + (int) ((mix(key + i * 0x632BE59BD9B4E019L) >>> 1) % subSize);
+            counts[index] += delta;
+            keySums[index] ^= key;
+            hashSums[index] ^= check;
+        }
+    }
+
+    /**
+     * Returns this table minus {@code other}. Both must have the same size.
+     */
+    public InvertibleBloomLookupTable subtract(InvertibleBloomLookupTable other) {
+        if (other.cellCount != cellCount) {
+            throw new IllegalArgumentException("Cell counts differ: " + cellCount + " vs " + other.cellCount);
+        }
+        InvertibleBloomLookupTable result = new InvertibleBloomLookupTable(cellCount);
+        for (int i = 0; i < cellCount; i++) {
+            result.counts[i] = counts[i] - other.counts[i];
+            result.keySums[i] = keySums[i] ^ other.keySums[i];
+            result.hashSums[i] = hashSums[i] ^ other.hashSums[i];
+        }
+        return result;
+    }
+
+    /**
+     * Outcome of peeling a difference table.
+     */
+    public static class Difference {
+        public final boolean complete;
+        public final List<Long> localOnly;   // keys only in the minuend (count +1)
+        public final List<Long> remoteOnly;  // keys only in the subtrahend (count -1)
+
+        Difference(boolean complete, List<Long> localOnly, List<Long> remoteOnly) {
+            this.complete = complete;
+            this.localOnly = localOnly;
+            this.remoteOnly = remoteOnly;
+        }
+    }
+
+    /**
+     * Peels a difference table produced by {@link #subtract}. The table is
+     * consumed in the process. {@code complete} is false when the table was
+     * too small for the difference and some keys could not be recovered.
+     */
+    public Difference decode() {
+        List<Long> localOnly = new ArrayList<>();
+        List<Long> remoteOnly = new ArrayList<>();
+
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int i = 0; i < cellCount; i++) {
+                if ((counts[i] == 1 || counts[i] == -1) && hashSums[i] == checkHash(keySums[i])) {
+                    long key = keySums[i];
+                    if (counts[i] == 1) {
+                        localOnly.add(key);
+                        update(key, -1);
+                    } else {
+                        remoteOnly.add(key);
+                        update(key, 1);
+                    }
+                    progress = true;
+                }
+            }
+        }
+
+        boolean complete = true;
+        for (int i = 0; i < cellCount; i++) {
+            if (counts[i] != 0 || keySums[i] != 0 || hashSums[i] != 0) {
+                complete = false;
+                break;
+            }
+        }
+        return new Difference(complete, localOnly, remoteOnly);
+    }
+
+    // Serialization: varint cell count, then per cell zigzag varint count, 8-byte key sum, 4-byte hash sum
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4 + cellCount * 13);
+        try {
+            FrameCodec.writeVarInt(out, cellCount);
+            for (int i = 0; i < cellCount; i++) {
+                FrameCodec.writeVarInt(out, (counts[i] << 1) ^ (counts[i] >> 31));
+                FrameCodec.writeLong(out, keySums[i]);
+                FrameCodec.writeInt(out, hashSums[i]);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    public static InvertibleBloomLookupTable fromBytes(byte[] data) throws IOException {
+        return read(new FrameCodec.ByteCursor(data));
+    }
+
+    static InvertibleBloomLookupTable read(FrameCodec.ByteCursor in) throws IOException {
+        int cells = in.readVarInt();
+        if (cells <= 0 || cells % HASH_COUNT != 0 || cells > 1 << 16) {
+            throw new IOException("Bad IBLT size: " + cells);
+        }
+        InvertibleBloomLookupTable table = new InvertibleBloomLookupTable(cells);
+        for (int i = 0; i < cells; i++) {
+            int zigzag = in.readVarInt();
+            table.counts[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+            table.keySums[i] = in.readLong();
+            table.hashSums[i] = in.readInt();
+        }
+        return table;
+    }
+
+    private static int checkHash(long key) {
+        return (int) mix(key ^ 0x5851F42D4C957F2DL);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,141 @@
+package com.emergencymesh.core.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-link DEFLATE stage for frame payloads, primed with a preset dictionary
+ * of the app's own message templates.
+ *
+ * Alerts and location shares are nearly identical text ("EMERGENCY ALERT",
+ * "Coordinates:", Google Maps URLs), so even a single short message finds
+ * most of its bytes in the dictionary. Payloads below
+ * {@link #MIN_COMPRESS_BYTES}, or that would not shrink, are sent as-is.
+ *
+ * A link compresses on its writer thread and decompresses on its reader
+ * thread; methods are synchronized so {@link #release} can be called from
+ * either side while the other is still running.
+ */
+public class PayloadCompressor {
+    // Advertised in the HELLO line; bump the suffix whenever DICTIONARY changes
+    public static final String CAPABILITY = "deflate-d1";
+
+    public static final int MIN_COMPRESS_BYTES = 64;
+    private static final int MAX_INFLATED_BYTES = 256 * 1024;
+
+    /**
+     * Template text that real traffic repeats. DEFLATE reaches back from the
+     * end of the dictionary, so the most common strings go last.
+     */
+    static final byte[] DICTIONARY = (
+            "I am safe. This is "
+            + "Stuck in disaster area. Need rescue."
+            + "🚨 DISASTER EMERGENCY\n\n"
+            + "🆘 NEED HELP!\n\nFrom: "
+            + "I need help! This is an automatic distress signal.\n\nFrom: "
+            + "🚨 AUTOMATIC EMERGENCY ALERT\n\n"
+            + "Google Maps:\nhttps://maps.google.com/?q="
+            + "🚨 EMERGENCY LOCATION\n\n"
+            + "📍 AUTOMATIC LOCATION SHARE\n\n"
+            + "Accuracy: m\n\nhttps://maps.google.com/?q="
+            + "\nPhone: \n\nCoordinates: "
+            + "🚨 EMERGENCY ALERT 🚨\n\nI need immediate help!\n\nFrom: "
+            + "\nPhone: BROADCASTAUTO"
+    ).getBytes(FrameCodec.UTF_8);
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] buffer = new byte[4096];
+
+    // Metrics
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long skipped = 0;
+    private boolean released = false;
+
+    /**
+     * Returns the compressed payload (varint original length + raw DEFLATE
+     * data), or null if the payload is too small or does not shrink.
+     */
+    public synchronized byte[] compress(byte[] payload) {
+        if (released || payload.length < MIN_COMPRESS_BYTES) {
+            skipped++;
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length);
+        try {
+            FrameCodec.writeVarInt(out, payload.length);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(payload);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+            if (out.size() >= payload.length) {
+                skipped++;
+                return null;
+            }
+        }
+
+        bytesIn += payload.length;
+        bytesOut += out.size();
+        return out.toByteArray();
+    }
+
+    public synchronized byte[] decompress(byte[] compressed) throws IOException {
+        if (released) throw new IOException("Compressor released");
+        FrameCodec.ByteCursor cursor = new FrameCodec.ByteCursor(compressed);
+        int length = cursor.readVarInt();
+        if (length < 0 || length > MAX_INFLATED_BYTES) {
+            throw new IOException("Bad inflated length: " + length);
+        }
+        int offset = cursor.position();
+
+        byte[] result = new byte[length];
+        inflater.reset();
+        // Raw DEFLATE never asks for the dictionary, so it has to be set up front
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(compressed, offset, compressed.length - offset);
+        try {
+            int filled = 0;
+            while (filled < length) {
+                int n = inflater.inflate(result, filled, length - filled);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                filled += n;
+            }
+            if (filled != length) {
+                throw new IOException("Inflated " + filled + " of " + length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed payload", e);
+        }
+        return result;
+    }
+
+    /**
+     * Compressed size as a fraction of the original, over all compressed payloads.
+     */
+    public synchronized double getCompressionRatio() {
+        return bytesIn == 0 ? 1.0 : (double) bytesOut / bytesIn;
+    }
+
+    public synchronized long getSkippedCount() {
+        return skipped;
+    }
+
+    public synchronized void release() {
+        if (released) return;
+        released = true;
+        deflater.end();
+        inflater.end();
+    }
+}
@@ -0,0 +1,457 @@
+package com.emergencymesh.core.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.util.MeshLog;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Incoming and outgoing messages kept as two JSON lists in a
+ * {@link KeyValueStore}, with a seen-ID filter in front for deduplication.
+ */
+public class JsonMessageStore implements MessageRepository {
+    private static final String TAG = "MessageStorage";
+    public static final String KEY_OUTGOING_MESSAGES = "outgoing_messages";
+    public static final String KEY_INCOMING_MESSAGES = "incoming_messages";
+
+    private final KeyValueStore store;
+    private final Gson gson = new Gson();
+    private final SeenMessageFilter seenFilter;
+
+    public JsonMessageStore(KeyValueStore store, SeenMessageFilter seenFilter) {
+        this.store = store;
+        this.seenFilter = seenFilter;
+    }
+
+    @Override
+    public void storeOutgoingMessage(Message message) {
+        if (message == null) {
+            MeshLog.w(TAG, "Attempted to store null outgoing message");
+            return;
+        }
+
+        try {
+            List<Message> messages = getOutgoingMessages();
+            // A new revision of our alert replaces the previous one
+            if (message.getAlertId() != null) replaceOlderRevision(messages, message);
+            messages.add(message);
+
+            String json = gson.toJson(messages);
+            store.putString(KEY_OUTGOING_MESSAGES, json);
+
+            // Our own message may be flooded back to us by a neighbour
+            seenFilter.add(message.getId());
+
+            MeshLog.d(TAG, "Stored outgoing message: " + message.getMessageType());
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error storing outgoing message", e);
+        }
+    }
+
+    /**
+     * Stores a received message unless it has been seen before or is an
+     * older revision of an alert already stored.
+     * Returns true if the message was new and stored.
+     */
+    @Override
+    public boolean storeIncomingMessage(Message message) {
+        if (message == null) {
+            MeshLog.w(TAG, "Attempted to store null incoming message");
+            return false;
+        }
+
+        try {
+            // Check for duplicates (based on message ID). The filter settles most
+            // lookups; only a Bloom-only hit needs the stored lists to confirm.
+            SeenMessageFilter.Verdict verdict = seenFilter.check(message.getId());
+            if (verdict == SeenMessageFilter.Verdict.DUPLICATE
+                    || (verdict == SeenMessageFilter.Verdict.MAYBE && containsMessage(message.getId()))) {
+                MeshLog.d(TAG, "Duplicate message ignored: " + message.getId());
+                return false;
+            }
+
+            List<Message> messages = getIncomingMessages();
+            // Only the latest revision of each alert is kept
+            if (message.getAlertId() != null && !replaceOlderRevision(messages, message)) {
+                seenFilter.add(message.getId());
+                MeshLog.d(TAG, "Stale alert revision ignored: " + message.getId());
+                return false;
+            }
+            messages.add(message);
+
+            String json = gson.toJson(messages);
+            store.putString(KEY_INCOMING_MESSAGES, json);
+
+            seenFilter.add(message.getId());
+
+            MeshLog.d(TAG, "Stored incoming message from: " + message.getSenderName());
+            return true;
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error storing incoming message", e);
+            return false;
+        }
+    }
+
+    /**
+     * Removes revisions of {@code message}'s alert that it supersedes.
+     * Returns false, leaving the list alone, if a newer or equal one is already there.
+     */
+    private static boolean replaceOlderRevision(List<Message> messages, Message message) {
+        for (int i = 0; i < messages.size(); i++) {
+            Message stored = messages.get(i);
+            if (!message.getAlertId().equals(stored.getAlertId())) continue;
+            if (!message.supersedes(stored)) return false;
+            messages.remove(i);
+            return true;
+        }
+        return true;
+    }
+
+    private boolean containsMessage(String messageId) {
+        if (messageId == null) return false;
+        for (Message message : getIncomingMessages()) {
+            if (messageId.equals(message.getId())) return true;
+        }
+        for (Message message : getOutgoingMessages()) {
+            if (messageId.equals(message.getId())) return true;
+        }
+        return false;
+    }
+
+    public List<Message> getOutgoingMessages() {
+        try {
+            String json = store.getString(KEY_OUTGOING_MESSAGES, "");
+            if (json.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            Type type = new TypeToken<List<Message>>(){}.getType();
+            List<Message> messages = gson.fromJson(json, type);
+            return messages != null ? messages : new ArrayList<>();
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error getting outgoing messages", e);
+            return new ArrayList<>();
+        }
+    }
+
+    public List<Message> getIncomingMessages() {
+        try {
+            String json = store.getString(KEY_INCOMING_MESSAGES, "");
+            if (json.isEmpty()) {
+                return new ArrayList<>();
+            }
+
+            Type type = new TypeToken<List<Message>>(){}.getType();
+            List<Message> messages = gson.fromJson(json, type);
+            return messages != null ? messages : new ArrayList<>();
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error getting incoming messages", e);
+            return new ArrayList<>();
+        }
+    }
+
+    public List<Message> getAllMessages() {
+        try {
+            List<Message> allMessages = new ArrayList<>();
+            allMessages.addAll(getOutgoingMessages());
+            allMessages.addAll(getIncomingMessages());
+
+            // Sort by timestamp (newest first)
+            Collections.sort(allMessages, new Comparator<Message>() {
+                @Override
+                public int compare(Message m1, Message m2) {
+                    return Long.compare(m2.getTimestamp(), m1.getTimestamp());
+                }
+            });
+
+            return allMessages;
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error getting all messages", e);
+            return new ArrayList<>();
+        }
+    }
+
+    public List<Message> getMessagesByType(String messageType) {
+        try {
+            List<Message> allMessages = getAllMessages();
+            List<Message> filteredMessages = new ArrayList<>();
+
+            for (Message message : allMessages) {
+                if (messageType.equals(message.getMessageType())) {
+                    filteredMessages.add(message);
+                }
+            }
+
+            return filteredMessages;
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error filtering messages by type", e);
+            return new ArrayList<>();
+        }
+    }
+
+    public List<Message> getMessagesBySender(String senderPhone) {
+        try {
+            List<Message> filteredMessages = new ArrayList<>();
+            for (Message message : getAllMessages()) {
+                if (senderPhone.equals(message.getSenderPhone())) {
+                    filteredMessages.add(message);
+                }
+            }
+            return filteredMessages;
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error filtering messages by sender", e);
+            return new ArrayList<>();
+        }
+    }
+
+    public List<Message> getRecentMessages(int count) {
+        try {
+            List<Message> allMessages = getAllMessages();
+            if (allMessages.size() <= count) {
+                return allMessages;
+            }
+            return allMessages.subList(0, count);
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error getting recent messages", e);
+            return new ArrayList<>();
+        }
+    }
+
+    public List<Message> getOlderMessages(Message last, int count) {
+        try {
+            List<Message> allMessages = getAllMessages();
+            int start = 0;
+            if (last != null) {
+                while (start < allMessages.size() && allMessages.get(start).getTimestamp() > last.getTimestamp()) start++;
+                // Skip the ties up to and including the last message shown
+                for (int i = start; i < allMessages.size() && allMessages.get(i).getTimestamp() == last.getTimestamp(); i++) {
+                    if (allMessages.get(i).getId().equals(last.getId())) {
+                        start = i + 1;
+                        break;
+                    }
+                }
+            }
+            int end = Math.min(allMessages.size(), start + Math.max(0, count));
+            return new ArrayList<>(allMessages.subList(Math.min(start, end), end));
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error getting older messages", e);
+            return new ArrayList<>();
+        }
+    }
+
+    public void markMessageAsDelivered(String messageId) {
+        if (messageId == null) {
+            MeshLog.w(TAG, "Attempted to mark null message ID as delivered");
+            return;
+        }
+
+        markMessagesAsDelivered(Collections.singletonList(messageId));
+    }
+
+    /**
+     * Marks a whole ACK batch as delivered with a single read-modify-write.
+     * Returns the number of outgoing messages that changed state.
+     */
+    public int markMessagesAsDelivered(Collection<String> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            Set<String> pending = new HashSet<>(messageIds);
+            List<Message> messages = getOutgoingMessages();
+            int updated = 0;
+
+            for (Message message : messages) {
+                if (message.getId() != null && pending.remove(message.getId())) {
+                    if (!message.isDelivered()) {
+                        message.setDelivered(true);
+                        updated++;
+                    }
+                    if (pending.isEmpty()) break;
+                }
+            }
+
+            if (updated > 0) {
+                String json = gson.toJson(messages);
+                store.putString(KEY_OUTGOING_MESSAGES, json);
+                MeshLog.d(TAG, "Marked " + updated + " message(s) as delivered");
+            }
+            if (!pending.isEmpty()) {
+                // Relayed messages are ACKed too but are not in our outgoing list
+                MeshLog.d(TAG, pending.size() + " ACKed message(s) not in outgoing list");
+            }
+            return updated;
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error marking messages as delivered", e);
+            return 0;
+        }
+    }
+
+    public int getUnreadMessageCount() {
+        try {
+            // For simplicity, we'll consider all incoming messages as "unread"
+            // You could add a separate "read" flag to the Message model if needed
+            return getIncomingMessages().size();
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error getting unread message count", e);
+            return 0;
+        }
+    }
+
+    public int getTotalMessageCount() {
+        try {
+            return getAllMessages().size();
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error getting total message count", e);
+            return 0;
+        }
+    }
+
+    public void clearAllMessages() {
+        try {
+            store.putString(KEY_OUTGOING_MESSAGES, "");
+            store.putString(KEY_INCOMING_MESSAGES, "");
+            MeshLog.d(TAG, "All messages cleared");
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error clearing messages", e);
+        }
+    }
+
+    public void clearOutgoingMessages() {
+        try {
+            store.putString(KEY_OUTGOING_MESSAGES, "");
+            MeshLog.d(TAG, "Outgoing messages cleared");
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error clearing outgoing messages", e);
+        }
+    }
+
+    public void clearIncomingMessages() {
+        try {
+            store.putString(KEY_INCOMING_MESSAGES, "");
+            MeshLog.d(TAG, "Incoming messages cleared");
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error clearing incoming messages", e);
+        }
+    }
+
+    public boolean hasMessages() {
+        try {
+            return getTotalMessageCount() > 0;
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error checking if has messages", e);
+            return false;
+        }
+    }
+
+    public Message getMessageById(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+
+        try {
+            List<Message> allMessages = getAllMessages();
+            for (Message message : allMessages) {
+                if (messageId.equals(message.getId())) {
+                    return message;
+                }
+            }
+            return null;
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error getting message by ID", e);
+            return null;
+        }
+    }
+
+    public void deleteMessage(String messageId) {
+        if (messageId == null) {
+            MeshLog.w(TAG, "Attempted to delete null message ID");
+            return;
+        }
+
+        try {
+            // Check and remove from outgoing messages
+            List<Message> outgoingMessages = getOutgoingMessages();
+            boolean removedFromOutgoing = outgoingMessages.removeIf(msg -> messageId.equals(msg.getId()));
+
+            if (removedFromOutgoing) {
+                String json = gson.toJson(outgoingMessages);
+                store.putString(KEY_OUTGOING_MESSAGES, json);
+                MeshLog.d(TAG, "Deleted outgoing message: " + messageId);
+                return;
+            }
+
+            // Check and remove from incoming messages
+            List<Message> incomingMessages = getIncomingMessages();
+            boolean removedFromIncoming = incomingMessages.removeIf(msg -> messageId.equals(msg.getId()));
+
+            if (removedFromIncoming) {
+                String json = gson.toJson(incomingMessages);
+                store.putString(KEY_INCOMING_MESSAGES, json);
+                MeshLog.d(TAG, "Deleted incoming message: " + messageId);
+            } else {
+                MeshLog.w(TAG, "Message not found for deletion: " + messageId);
+            }
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error deleting message", e);
+        }
+    }
+
+    /**
+     * Removes every message in {@code messageIds} with one read-modify-write
+     * per list. Returns how many were found.
+     */
+    public int deleteMessages(Collection<String> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            Set<String> pending = new HashSet<>(messageIds);
+            int deleted = removeAll(KEY_OUTGOING_MESSAGES, getOutgoingMessages(), pending);
+            if (!pending.isEmpty()) {
+                deleted += removeAll(KEY_INCOMING_MESSAGES, getIncomingMessages(), pending);
+            }
+            MeshLog.d(TAG, "Deleted " + deleted + " message(s)");
+            return deleted;
+        } catch (Exception e) {
+            MeshLog.e(TAG, "Error deleting messages", e);
+            return 0;
+        }
+    }
+
+    private int removeAll(String key, List<Message> messages, Set<String> pending) {
+        int removed = 0;
+        Iterator<Message> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            Message message = iterator.next();
+            if (message.getId() != null && pending.remove(message.getId())) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            store.putString(key, gson.toJson(messages));
+        }
+        return removed;
+    }
+
+    public StorageUsage getStorageUsage(long expiredBefore) {
+        return RetentionEngine.measure(getOutgoingMessages(), getIncomingMessages(), expiredBefore);
+    }
+
+    public List<Message> getEvictionCandidates(long expiredBefore, int limit) {
+        return RetentionEngine.selectCandidates(getOutgoingMessages(), getIncomingMessages(), expiredBefore, limit);
+    }
+}
\ No newline at end of file
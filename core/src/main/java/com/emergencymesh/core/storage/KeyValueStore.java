@@ -0,0 +1,12 @@
+package com.emergencymesh.core.storage;
+
+/**
+ * String key-value persistence, the part of SharedPreferences the message
+ * store needs. Writes may reach disk asynchronously but must be visible to
+ * the next read straight away.
+ */
+public interface KeyValueStore {
+    String getString(String key, String defaultValue);
+
+    void putString(String key, String value);
+}
@@ -0,0 +1,442 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.util.MeshLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Messages held in memory and made durable by a {@link MessageLog}.
+ *
+ * Opening streams the log once to rebuild the two lists. After that every
+ * write is an O(1) append of one small record, and the log is compacted
+ * once dead records outnumber live messages. Reads are served from a
+ * {@link MessageIndex} kept up to date with every write, so nothing is
+ * sorted or filtered per call.
+ */
+public class LogMessageStore implements MessageRepository {
+    private static final String TAG = "LogMessageStore";
+
+    // Never compact for fewer dead records than this, however small the store
+    static final int MIN_COMPACTION_GARBAGE = 256;
+
+    private final MessageLog log;
+    private final SeenMessageFilter seenFilter;
+    private final LinkedHashMap<String, Message> outgoing = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Message> incoming = new LinkedHashMap<>();
+    private final MessageIndex index = new MessageIndex();
+    // Stored revision's message ID per alert session
+    private final Map<String, String> alertRevisions = new HashMap<>();
+
+    public LogMessageStore(File file, SeenMessageFilter seenFilter) {
+        this.log = new MessageLog(file);
+        this.seenFilter = seenFilter;
+
+        long started = System.nanoTime();
+        try {
+            log.open(new Replay());
+        } catch (IOException e) {
+            // Unreadable from the first byte; keep it for inspection and start over
+            MeshLog.e(TAG, "Message log unreadable, starting a new one", e);
+            outgoing.clear();
+            incoming.clear();
+            index.clear();
+            alertRevisions.clear();
+            File aside = new File(file.getPath() + ".corrupt");
+            if (!file.renameTo(aside)) MeshLog.w(TAG, "Could not move aside " + file);
+            try {
+                log.open(new Replay());
+            } catch (IOException retry) {
+                MeshLog.e(TAG, "Cannot open message log", retry);
+            }
+        }
+        MeshLog.d(TAG, "Loaded " + outgoing.size() + " outgoing and " + incoming.size() + " incoming messages from "
+                + log.getRecordCount() + " records in " + (System.nanoTime() - started) / 1000000 + " ms");
+    }
+
+    private class Replay implements MessageLog.Visitor {
+        @Override
+        public void onPut(Message message, boolean isOutgoing) {
+            put(message, isOutgoing);
+        }
+
+        @Override
+        public void onDelivered(String messageId) {
+            Message message = outgoing.get(messageId);
+            if (message != null) message.setDelivered(true);
+        }
+
+        @Override
+        public void onDelete(String messageId) {
+            remove(messageId);
+        }
+
+        @Override
+        public void onClear(boolean isOutgoing) {
+            clear(isOutgoing);
+        }
+    }
+
+    /**
+     * Copies every message from {@code source}, e.g. the old SharedPreferences
+     * store on first start, as one batch of appends.
+     */
+    public synchronized int importFrom(MessageRepository source) {
+        int imported = 0;
+        try {
+            log.beginBatch();
+            for (Message message : source.getOutgoingMessages()) {
+                if (importOne(message, true)) imported++;
+            }
+            for (Message message : source.getIncomingMessages()) {
+                if (importOne(message, false)) imported++;
+            }
+            log.flush();
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error importing messages", e);
+        }
+        MeshLog.d(TAG, "Imported " + imported + " messages");
+        return imported;
+    }
+
+    private boolean importOne(Message message, boolean isOutgoing) throws IOException {
+        if (message.getId() == null || contains(message.getId())) return false;
+        try {
+            log.appendPut(message, isOutgoing);
+        } catch (MessageLog.RecordTooLargeException e) {
+            MeshLog.w(TAG, "Not importing " + message.getId() + ": " + e.getMessage());
+            return false;
+        }
+        put(message, isOutgoing);
+        return true;
+    }
+
+    @Override
+    public synchronized void storeOutgoingMessage(Message message) {
+        if (message == null) {
+            MeshLog.w(TAG, "Attempted to store null outgoing message");
+            return;
+        }
+
+        try {
+            // A new revision of our alert replaces the previous one
+            if (message.getAlertId() != null) removeSupersededRevision(message);
+            // On disk first: a message the log refuses is not kept at all
+            log.appendPut(message, true);
+            put(message, true);
+
+            // Our own message may be flooded back to us by a neighbour
+            seenFilter.add(message.getId());
+
+            MeshLog.d(TAG, "Stored outgoing message: " + message.getMessageType());
+            maybeCompact();
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error storing outgoing message", e);
+        }
+    }
+
+    @Override
+    public synchronized boolean storeIncomingMessage(Message message) {
+        if (message == null) {
+            MeshLog.w(TAG, "Attempted to store null incoming message");
+            return false;
+        }
+
+        try {
+            // Stored messages are all in memory; the filter also remembers deleted ones
+            if (contains(message.getId())
+                    || seenFilter.check(message.getId()) == SeenMessageFilter.Verdict.DUPLICATE) {
+                MeshLog.d(TAG, "Duplicate message ignored: " + message.getId());
+                return false;
+            }
+
+            // Only the latest revision of each alert is kept
+            if (message.getAlertId() != null && !removeSupersededRevision(message)) {
+                seenFilter.add(message.getId());
+                MeshLog.d(TAG, "Stale alert revision ignored: " + message.getId());
+                return false;
+            }
+
+            log.appendPut(message, false);
+            put(message, false);
+            seenFilter.add(message.getId());
+
+            MeshLog.d(TAG, "Stored incoming message from: " + message.getSenderName());
+            maybeCompact();
+            return true;
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error storing incoming message", e);
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the stored revision of {@code message}'s alert if the new one
+     * supersedes it. Returns false if the stored one is as new or newer.
+     */
+    private boolean removeSupersededRevision(Message message) throws IOException {
+        String storedId = alertRevisions.get(message.getAlertId());
+        if (storedId == null) return true;
+        Message stored = index.get(storedId);
+        if (stored == null) return true;
+        if (!message.supersedes(stored)) return false;
+        remove(storedId);
+        log.appendDelete(storedId);
+        return true;
+    }
+
+    @Override
+    public synchronized List<Message> getOutgoingMessages() {
+        return new ArrayList<>(outgoing.values());
+    }
+
+    @Override
+    public synchronized List<Message> getIncomingMessages() {
+        return new ArrayList<>(incoming.values());
+    }
+
+    @Override
+    public synchronized List<Message> getAllMessages() {
+        return index.newest(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized List<Message> getMessagesByType(String messageType) {
+        return index.byType(messageType);
+    }
+
+    @Override
+    public synchronized List<Message> getMessagesBySender(String senderPhone) {
+        return index.bySender(senderPhone);
+    }
+
+    @Override
+    public synchronized List<Message> getRecentMessages(int count) {
+        return index.newest(count);
+    }
+
+    @Override
+    public synchronized List<Message> getOlderMessages(Message last, int count) {
+        return index.olderThan(last, count);
+    }
+
+    @Override
+    public void markMessageAsDelivered(String messageId) {
+        if (messageId == null) {
+            MeshLog.w(TAG, "Attempted to mark null message ID as delivered");
+            return;
+        }
+        markMessagesAsDelivered(Collections.singletonList(messageId));
+    }
+
+    @Override
+    public synchronized int markMessagesAsDelivered(Collection<String> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) return 0;
+
+        int updated = 0;
+        try {
+            log.beginBatch();
+            for (String messageId : messageIds) {
+                Message message = messageId != null ? outgoing.get(messageId) : null;
+                // Relayed messages are ACKed too but are not in our outgoing list
+                if (message == null || message.isDelivered()) continue;
+                // Replaced rather than changed, as readers may still hold the old copy
+                Message delivered = message.copy();
+                delivered.setDelivered(true);
+                outgoing.put(messageId, delivered);
+                index.add(delivered);
+                log.appendDelivered(messageId);
+                updated++;
+            }
+            log.flush();
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error marking messages as delivered", e);
+        }
+        if (updated > 0) {
+            MeshLog.d(TAG, "Marked " + updated + " message(s) as delivered");
+            maybeCompact();
+        }
+        return updated;
+    }
+
+    @Override
+    public synchronized int getUnreadMessageCount() {
+        // As before, every incoming message counts as unread
+        return incoming.size();
+    }
+
+    @Override
+    public synchronized int getTotalMessageCount() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized boolean hasMessages() {
+        return index.size() > 0;
+    }
+
+    @Override
+    public synchronized Message getMessageById(String messageId) {
+        return messageId != null ? index.get(messageId) : null;
+    }
+
+    @Override
+    public synchronized void deleteMessage(String messageId) {
+        if (messageId == null) {
+            MeshLog.w(TAG, "Attempted to delete null message ID");
+            return;
+        }
+        if (remove(messageId) == null) {
+            MeshLog.w(TAG, "Message not found for deletion: " + messageId);
+            return;
+        }
+        try {
+            log.appendDelete(messageId);
+            MeshLog.d(TAG, "Deleted message: " + messageId);
+            maybeCompact();
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error deleting message", e);
+        }
+    }
+
+    @Override
+    public synchronized int deleteMessages(Collection<String> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) return 0;
+
+        int deleted = 0;
+        try {
+            log.beginBatch();
+            for (String messageId : messageIds) {
+                if (messageId == null || remove(messageId) == null) continue;
+                log.appendDelete(messageId);
+                deleted++;
+            }
+            log.flush();
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error deleting messages", e);
+        }
+        if (deleted > 0) {
+            MeshLog.d(TAG, "Deleted " + deleted + " message(s)");
+            maybeCompact();
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized StorageUsage getStorageUsage(long expiredBefore) {
+        return RetentionEngine.measure(outgoing.values(), incoming.values(), expiredBefore);
+    }
+
+    @Override
+    public synchronized List<Message> getEvictionCandidates(long expiredBefore, int limit) {
+        return RetentionEngine.selectCandidates(outgoing.values(), incoming.values(), expiredBefore, limit);
+    }
+
+    @Override
+    public synchronized void clearAllMessages() {
+        clearOutgoingMessages();
+        clearIncomingMessages();
+    }
+
+    @Override
+    public synchronized void clearOutgoingMessages() {
+        appendClear(true);
+    }
+
+    @Override
+    public synchronized void clearIncomingMessages() {
+        appendClear(false);
+    }
+
+    private void appendClear(boolean isOutgoing) {
+        clear(isOutgoing);
+        try {
+            log.appendClear(isOutgoing);
+            MeshLog.d(TAG, (isOutgoing ? "Outgoing" : "Incoming") + " messages cleared");
+            maybeCompact();
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error clearing messages", e);
+        }
+    }
+
+    /**
+     * Rewrites the log with only the live messages.
+     */
+    public synchronized void compact() {
+        try {
+            log.rewrite(outgoing.values(), incoming.values());
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error compacting message log", e);
+        }
+    }
+
+    public synchronized long getLogRecordCount() {
+        return log.getRecordCount();
+    }
+
+    public long getLogSizeBytes() {
+        return log.getSizeBytes();
+    }
+
+    public synchronized void close() {
+        try {
+            log.close();
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error closing message log", e);
+        }
+    }
+
+    private void maybeCompact() {
+        long live = index.size();
+        long garbage = log.getRecordCount() - live;
+        if (garbage > Math.max(MIN_COMPACTION_GARBAGE, live)) compact();
+    }
+
+    // In-memory state; callers hold the lock
+
+    private void put(Message message, boolean isOutgoing) {
+        // A put for a known ID replaces the old copy wherever it was
+        remove(message.getId());
+        (isOutgoing ? outgoing : incoming).put(message.getId(), message);
+        index.add(message);
+        if (message.getAlertId() != null) alertRevisions.put(message.getAlertId(), message.getId());
+    }
+
+    private Message remove(String messageId) {
+        Message removed = outgoing.remove(messageId);
+        if (removed == null) removed = incoming.remove(messageId);
+        if (removed != null) {
+            index.remove(messageId);
+            forgetRevision(removed);
+        }
+        return removed;
+    }
+
+    private void clear(boolean isOutgoing) {
+        LinkedHashMap<String, Message> cleared = isOutgoing ? outgoing : incoming;
+        for (Message message : cleared.values()) {
+            index.remove(message.getId());
+            forgetRevision(message);
+        }
+        cleared.clear();
+    }
+
+    private void forgetRevision(Message message) {
+        if (message.getAlertId() != null && message.getId().equals(alertRevisions.get(message.getAlertId()))) {
+            alertRevisions.remove(message.getAlertId());
+        }
+    }
+
+    private boolean contains(String messageId) {
+        return index.contains(messageId);
+    }
+}
@@ -0,0 +1,151 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.model.Message;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Resident indexes over a set of stored messages: a hash index by ID, and
+ * newest-first ordered sets over all messages, per message type and per
+ * sender phone.
+ *
+ * Updated incrementally as messages come and go, so a lookup by ID is O(1),
+ * the k newest messages, or the k after a given one, are O(log n + k), and a type or sender query only
+ * touches that bucket. Ordering is keyed on the timestamp a message had
+ * when it was added, so callers changing a stored message later cannot
+ * corrupt the sets. Not thread-safe; the owning store holds the lock.
+ */
+public class MessageIndex {
+
+    private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int byTime = Long.compare(e2.timestamp, e1.timestamp);
+            return byTime != 0 ? byTime : e1.id.compareTo(e2.id);
+        }
+    };
+
+    private static class Entry {
+        final String id;
+        final long timestamp;
+        final String type;
+        final String sender;
+        final Message message;
+
+        Entry(Message message) {
+            this.id = message.getId();
+            this.timestamp = message.getTimestamp();
+            this.type = message.getMessageType();
+            this.sender = message.getSenderPhone();
+            this.message = message;
+        }
+    }
+
+    private final HashMap<String, Entry> byId = new HashMap<>();
+    private final TreeSet<Entry> byTime = new TreeSet<>(NEWEST_FIRST);
+    private final HashMap<String, TreeSet<Entry>> byType = new HashMap<>();
+    private final HashMap<String, TreeSet<Entry>> bySender = new HashMap<>();
+
+    /**
+     * Indexes {@code message}, replacing any message with the same ID.
+     */
+    public void add(Message message) {
+        remove(message.getId());
+        Entry entry = new Entry(message);
+        byId.put(entry.id, entry);
+        byTime.add(entry);
+        if (entry.type != null) bucket(byType, entry.type).add(entry);
+        if (entry.sender != null) bucket(bySender, entry.sender).add(entry);
+    }
+
+    /**
+     * Drops the message with {@code messageId}, returning it, or null if absent.
+     */
+    public Message remove(String messageId) {
+        Entry entry = byId.remove(messageId);
+        if (entry == null) return null;
+        byTime.remove(entry);
+        if (entry.type != null) unbucket(byType, entry.type, entry);
+        if (entry.sender != null) unbucket(bySender, entry.sender, entry);
+        return entry.message;
+    }
+
+    public void clear() {
+        byId.clear();
+        byTime.clear();
+        byType.clear();
+        bySender.clear();
+    }
+
+    public Message get(String messageId) {
+        Entry entry = byId.get(messageId);
+        return entry != null ? entry.message : null;
+    }
+
+    public boolean contains(String messageId) {
+        return byId.containsKey(messageId);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * Up to {@code count} messages, newest first.
+     */
+    public List<Message> newest(int count) {
+        return collect(byTime, count, byTime.size());
+    }
+
+    /**
+     * Up to {@code count} messages that follow {@code last} in newest-first
+     * order, or the newest ones if {@code last} is null.
+     */
+    public List<Message> olderThan(Message last, int count) {
+        if (last == null) return newest(count);
+        Entry from = byId.get(last.getId());
+        if (from == null) from = new Entry(last);
+        return collect(byTime.tailSet(from, false), count, byTime.size());
+    }
+
+    public List<Message> byType(String messageType) {
+        TreeSet<Entry> entries = byType.get(messageType);
+        return entries != null ? collect(entries, Integer.MAX_VALUE, entries.size()) : new ArrayList<Message>();
+    }
+
+    public List<Message> bySender(String senderPhone) {
+        TreeSet<Entry> entries = bySender.get(senderPhone);
+        return entries != null ? collect(entries, Integer.MAX_VALUE, entries.size()) : new ArrayList<Message>();
+    }
+
+    private static List<Message> collect(Iterable<Entry> entries, int count, int available) {
+        List<Message> messages = new ArrayList<>(Math.max(0, Math.min(count, available)));
+        Iterator<Entry> iterator = entries.iterator();
+        while (messages.size() < count && iterator.hasNext()) {
+            messages.add(iterator.next().message);
+        }
+        return messages;
+    }
+
+    private static TreeSet<Entry> bucket(Map<String, TreeSet<Entry>> buckets, String key) {
+        TreeSet<Entry> entries = buckets.get(key);
+        if (entries == null) {
+            entries = new TreeSet<>(NEWEST_FIRST);
+            buckets.put(key, entries);
+        }
+        return entries;
+    }
+
+    private static void unbucket(Map<String, TreeSet<Entry>> buckets, String key, Entry entry) {
+        TreeSet<Entry> entries = buckets.get(key);
+        if (entries == null) return;
+        entries.remove(entry);
+        if (entries.isEmpty()) buckets.remove(key);
+    }
+}
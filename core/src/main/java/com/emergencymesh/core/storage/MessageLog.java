@@ -0,0 +1,358 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.protocol.FrameCodec;
+import com.emergencymesh.core.util.MeshLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of message records.
+ *
+ * A message is stored once, as a binary message frame (see {@link FrameCodec}),
+ * and later changes are small records of their own: delivered, deleted,
+ * direction cleared. Appending is O(1) and never rewrites what is already
+ * on disk. {@link #rewrite} replaces the file with just the live messages
+ * when enough dead records have piled up.
+ *
+ * File layout: "EMLOG" | version (1), then records of
+ *   op (1) | payload length (varint) | payload | CRC-32 of op and payload (4)
+ *
+ * A torn record at the tail, from a crash mid-append, is cut off on open.
+ * An intact record that cannot be applied, e.g. one written by a newer
+ * version, is skipped and the records after it still load. Damage in the
+ * middle of the file ends the replay there; the rest is copied aside to
+ * a ".damaged" file before the log is cut, so it can still be inspected.
+ */
+public class MessageLog {
+    private static final String TAG = "MessageLog";
+
+    private static final byte[] MAGIC = {'E', 'M', 'L', 'O', 'G'};
+    private static final int VERSION = 1;
+    private static final int MAX_RECORD = 512 * 1024;
+    // A put record is a message frame, which no reader accepts past this
+    private static final int MAX_APPEND = FrameCodec.MAX_PAYLOAD;
+
+    // Record types
+    public static final int OP_PUT_OUTGOING = 1;
+    public static final int OP_PUT_INCOMING = 2;
+    public static final int OP_DELIVERED = 3;
+    public static final int OP_DELETE = 4;
+    public static final int OP_CLEAR_OUTGOING = 5;
+    public static final int OP_CLEAR_INCOMING = 6;
+
+    /**
+     * Thrown by an append whose record could never be read back. Nothing is
+     * written and the log stays usable.
+     */
+    public static class RecordTooLargeException extends IOException {
+        RecordTooLargeException(int length) {
+            super("Record of " + length + " bytes exceeds " + MAX_APPEND);
+        }
+    }
+
+    /**
+     * Receives records in file order while the log is opened.
+     */
+    public interface Visitor {
+        void onPut(Message message, boolean outgoing);
+
+        void onDelivered(String messageId);
+
+        void onDelete(String messageId);
+
+        void onClear(boolean outgoing);
+    }
+
+    private final File file;
+    private DataOutputStream out;
+    private long records = 0;
+    private boolean batching = false;
+
+    public MessageLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Streams every record to {@code visitor}, cuts off a torn tail and
+     * leaves the log ready for appends.
+     */
+    public synchronized void open(Visitor visitor) throws IOException {
+        long validLength = 0;
+        long corruptAt = -1;
+        int skipped = 0;
+        records = 0;
+        long fileLength = file.length();
+        if (file.exists() && fileLength > 0) {
+            try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+                 DataInputStream in = new DataInputStream(counter)) {
+                readHeader(in);
+                validLength = counter.count;
+                while (true) {
+                    int op = in.read();
+                    if (op < 0) break;
+                    byte[] payload;
+                    try {
+                        int length = FrameCodec.readVarInt(in);
+                        if (length < 0 || length > MAX_RECORD) throw new IOException("Bad record length " + length);
+                        payload = new byte[length];
+                        in.readFully(payload);
+                        int crc = in.readInt();
+                        if (crc != checksum(op, payload)) throw new IOException("Checksum mismatch");
+                    } catch (EOFException e) {
+                        MeshLog.w(TAG, "Dropping torn record at offset " + validLength);
+                        break;
+                    } catch (IOException e) {
+                        if (counter.count >= fileLength) {
+                            MeshLog.w(TAG, "Dropping torn record at offset " + validLength + ": " + e.getMessage());
+                        } else {
+                            // Records after this cannot be found reliably
+                            MeshLog.e(TAG, "Message log damaged at offset " + validLength + ": " + e.getMessage());
+                            corruptAt = validLength;
+                        }
+                        break;
+                    }
+
+                    long offset = validLength;
+                    validLength = counter.count;
+                    records++;
+                    try {
+                        apply(visitor, op, payload);
+                    } catch (IOException e) {
+                        MeshLog.w(TAG, "Skipping unreadable record at offset " + offset + ": " + e.getMessage());
+                        skipped++;
+                    }
+                }
+            }
+            if (corruptAt >= 0) preserveTail(corruptAt);
+            if (validLength < fileLength) truncate(validLength);
+            if (skipped > 0) MeshLog.w(TAG, "Skipped " + skipped + " unreadable record(s)");
+        }
+
+        boolean fresh = validLength == 0;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, !fresh), 8192));
+        if (fresh) writeHeader(out);
+        out.flush();
+    }
+
+    public void appendPut(Message message, boolean outgoing) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(160);
+        try {
+            FrameCodec.writeMessage(record, message);
+        } catch (FrameCodec.FrameTooLargeException e) {
+            throw new RecordTooLargeException(e.getLength());
+        }
+        append(outgoing ? OP_PUT_OUTGOING : OP_PUT_INCOMING, record.toByteArray());
+    }
+
+    public void appendDelivered(String messageId) throws IOException {
+        append(OP_DELIVERED, messageId.getBytes(FrameCodec.UTF_8));
+    }
+
+    public void appendDelete(String messageId) throws IOException {
+        append(OP_DELETE, messageId.getBytes(FrameCodec.UTF_8));
+    }
+
+    public void appendClear(boolean outgoing) throws IOException {
+        append(outgoing ? OP_CLEAR_OUTGOING : OP_CLEAR_INCOMING, new byte[0]);
+    }
+
+    /**
+     * Pushes buffered records to the OS. Appends flush on their own unless
+     * made inside {@link #beginBatch()}.
+     */
+    public synchronized void flush() throws IOException {
+        batching = false;
+        if (out != null) out.flush();
+    }
+
+    /**
+     * Defers flushing until {@link #flush()}, so a burst of records costs one write.
+     */
+    public synchronized void beginBatch() {
+        batching = true;
+    }
+
+    private synchronized void append(int op, byte[] payload) throws IOException {
+        if (payload.length > MAX_APPEND) throw new RecordTooLargeException(payload.length);
+        if (out == null) throw new IOException("Log not open");
+        writeRecord(out, op, payload);
+        records++;
+        if (!batching) out.flush();
+    }
+
+    /**
+     * Replaces the log with one put record per live message, written to a
+     * side file and renamed over the old one.
+     */
+    public synchronized void rewrite(Iterable<Message> outgoing, Iterable<Message> incoming) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        long written = 0;
+        try (FileOutputStream stream = new FileOutputStream(temp)) {
+            DataOutputStream rewritten = new DataOutputStream(new BufferedOutputStream(stream, 32 * 1024));
+            writeHeader(rewritten);
+            for (Message message : outgoing) {
+                writeRecord(rewritten, OP_PUT_OUTGOING, FrameCodec.encodeMessage(message));
+                written++;
+            }
+            for (Message message : incoming) {
+                writeRecord(rewritten, OP_PUT_INCOMING, FrameCodec.encodeMessage(message));
+                written++;
+            }
+            rewritten.flush();
+            stream.getFD().sync();
+        }
+
+        if (out != null) out.close();
+        out = null;
+        if (!temp.renameTo(file)) {
+            // Keep appending to the old file rather than lose writes
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 8192));
+            throw new IOException("Could not replace " + file);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 8192));
+        MeshLog.d(TAG, "Compacted " + records + " records into " + written);
+        records = written;
+    }
+
+    /**
+     * Records in the file, live or not.
+     */
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    public long getSizeBytes() {
+        return file.length();
+    }
+
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private static void apply(Visitor visitor, int op, byte[] payload) throws IOException {
+        switch (op) {
+            case OP_PUT_OUTGOING:
+            case OP_PUT_INCOMING:
+                FrameCodec.Frame frame = FrameCodec.readFrame(new ByteArrayInputStream(payload));
+                if (frame == null) throw new IOException("Empty put record");
+                visitor.onPut(FrameCodec.decodeMessage(frame), op == OP_PUT_OUTGOING);
+                break;
+            case OP_DELIVERED:
+                visitor.onDelivered(new String(payload, FrameCodec.UTF_8));
+                break;
+            case OP_DELETE:
+                visitor.onDelete(new String(payload, FrameCodec.UTF_8));
+                break;
+            case OP_CLEAR_OUTGOING:
+            case OP_CLEAR_INCOMING:
+                visitor.onClear(op == OP_CLEAR_OUTGOING);
+                break;
+            default:
+                throw new IOException("Unknown record type " + op);
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, int op, byte[] payload) throws IOException {
+        out.write(op);
+        FrameCodec.writeVarInt(out, payload.length);
+        out.write(payload);
+        out.writeInt(checksum(op, payload));
+    }
+
+    private static int checksum(int op, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    private static void readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) throw new IOException("Not a message log");
+        }
+        int version = in.read();
+        if (version != VERSION) throw new IOException("Unsupported message log version " + version);
+    }
+
+    /**
+     * Copies everything from {@code offset} on to a side file before the log is cut there.
+     */
+    private void preserveTail(long offset) {
+        File aside = new File(file.getPath() + ".damaged");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileOutputStream copy = new FileOutputStream(aside)) {
+            raf.seek(offset);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = raf.read(buffer)) > 0) {
+                copy.write(buffer, 0, read);
+            }
+            MeshLog.w(TAG, "Kept " + (file.length() - offset) + " damaged bytes in " + aside);
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Could not keep damaged log tail", e);
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    /**
+     * Tracks how far the reader got, so a bad tail can be cut at a record boundary.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.mesh.MessageStore;
+import com.emergencymesh.core.model.Message;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Everything the app reads and writes about stored messages. Implementations
+ * differ in how messages reach disk; callers should not care which one
+ * they were given.
+ */
+public interface MessageRepository extends MessageStore {
+
+    /**
+     * Both directions, newest first.
+     */
+    List<Message> getAllMessages();
+
+    /**
+     * Messages of one type, newest first.
+     */
+    List<Message> getMessagesByType(String messageType);
+
+    /**
+     * Messages from one sender phone, newest first.
+     */
+    List<Message> getMessagesBySender(String senderPhone);
+
+    /**
+     * The {@code count} newest messages, newest first.
+     */
+    List<Message> getRecentMessages(int count);
+
+    /**
+     * Up to {@code count} messages that follow {@code last} in newest-first
+     * order, or the newest if {@code last} is null. Pages through the inbox
+     * by key, so a page costs the same however deep it is.
+     */
+    List<Message> getOlderMessages(Message last, int count);
+
+    void markMessageAsDelivered(String messageId);
+
+    int getUnreadMessageCount();
+
+    int getTotalMessageCount();
+
+    boolean hasMessages();
+
+    void deleteMessage(String messageId);
+
+    /**
+     * Deletes every message in {@code messageIds} in one write. Returns how
+     * many were found.
+     */
+    int deleteMessages(Collection<String> messageIds);
+
+    void clearAllMessages();
+
+    void clearOutgoingMessages();
+
+    void clearIncomingMessages();
+
+    /**
+     * Count and estimated size of everything stored, and how many messages
+     * are protected from retention or expired: older than {@code expiredBefore}
+     * and not an alert.
+     * Computed by the store without loading the messages.
+     */
+    StorageUsage getStorageUsage(long expiredBefore);
+
+    /**
+     * Up to {@code limit} messages retention may delete, in the order it
+     * should delete them: expired (as counted above) first, then by
+     * tier (chatter, location, alerts), then oldest first. Our own outgoing
+     * messages that are not yet delivered are never included.
+     */
+    List<Message> getEvictionCandidates(long expiredBefore, int limit);
+}
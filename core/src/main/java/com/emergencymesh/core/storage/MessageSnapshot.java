@@ -0,0 +1,416 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.model.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Every stored message as of one moment, never changed after it is built.
+ *
+ * The storage writer publishes one after each batch of writes in a single
+ * volatile store, so readers see either the whole batch or none of it and
+ * never wait for the writer. Reads hand out copies, so a caller changing a
+ * message cannot change the snapshot for anyone else.
+ *
+ * A new snapshot is derived from the previous one through an
+ * {@link Editor} and shares everything the batch did not touch: the ID
+ * map is split into segments and only the touched ones are copied, the
+ * ordered arrays are spliced by binary search rather than re-sorted, and
+ * only the type, sender and alert buckets the batch touched are rebuilt.
+ * Splicing still copies the references of an array it changes, which is
+ * cheap next to hashing or copying the messages themselves.
+ */
+public final class MessageSnapshot {
+
+    private static final int SEGMENTS = 64;
+
+    private static final Entry[] NONE = new Entry[0];
+
+    private static final class Entry {
+        final String id;
+        final long timestamp;
+        final Message message;
+        final boolean outgoing;
+        // Arrival order within its direction; kept when the message is replaced
+        final long seq;
+
+        Entry(Message message, boolean outgoing, long seq) {
+            this.id = message.getId();
+            this.timestamp = message.getTimestamp();
+            this.message = message;
+            this.outgoing = outgoing;
+            this.seq = seq;
+        }
+    }
+
+    private static final Comparator<Entry> NEWEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            int byTime = Long.compare(e2.timestamp, e1.timestamp);
+            return byTime != 0 ? byTime : e1.id.compareTo(e2.id);
+        }
+    };
+
+    private static final Comparator<Entry> ARRIVAL = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            return Long.compare(e1.seq, e2.seq);
+        }
+    };
+
+    private interface Key {
+        String of(Entry entry);
+    }
+
+    private static final Key TYPE = new Key() {
+        @Override
+        public String of(Entry entry) {
+            return entry.message.getMessageType();
+        }
+    };
+
+    private static final Key SENDER = new Key() {
+        @Override
+        public String of(Entry entry) {
+            return entry.message.getSenderPhone();
+        }
+    };
+
+    private static final Key ALERT = new Key() {
+        @Override
+        public String of(Entry entry) {
+            return entry.message.getAlertId();
+        }
+    };
+
+    static final MessageSnapshot EMPTY = of(0, Collections.<Message>emptyList(), Collections.<Message>emptyList());
+
+    private final long version;
+    private final long nextSeq;
+    private final HashMap<String, Entry>[] segments;
+    private final Entry[] newestFirst;
+    private final Entry[] outgoing;
+    private final Entry[] incoming;
+    private final HashMap<String, Entry[]> byType;
+    private final HashMap<String, Entry[]> bySender;
+    private final HashMap<String, Entry[]> byAlert;
+
+    private MessageSnapshot(long version, long nextSeq, HashMap<String, Entry>[] segments, Entry[] newestFirst,
+                            Entry[] outgoing, Entry[] incoming, HashMap<String, Entry[]> byType,
+                            HashMap<String, Entry[]> bySender, HashMap<String, Entry[]> byAlert) {
+        this.version = version;
+        this.nextSeq = nextSeq;
+        this.segments = segments;
+        this.newestFirst = newestFirst;
+        this.outgoing = outgoing;
+        this.incoming = incoming;
+        this.byType = byType;
+        this.bySender = bySender;
+        this.byAlert = byAlert;
+    }
+
+    /**
+     * Builds a snapshot from scratch, each list in the store's order.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static MessageSnapshot of(long version, List<Message> outgoing, List<Message> incoming) {
+        HashMap<String, Entry>[] segments = new HashMap[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new HashMap<>();
+        }
+        long seq = 0;
+        Entry[] out = new Entry[outgoing.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = new Entry(outgoing.get(i), true, seq++);
+        }
+        Entry[] in = new Entry[incoming.size()];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = new Entry(incoming.get(i), false, seq++);
+        }
+
+        Entry[] all = new Entry[out.length + in.length];
+        System.arraycopy(out, 0, all, 0, out.length);
+        System.arraycopy(in, 0, all, out.length, in.length);
+        for (Entry entry : all) {
+            segments[segment(entry.id)].put(entry.id, entry);
+        }
+        Arrays.sort(all, NEWEST_FIRST);
+        List<Entry> entries = Arrays.asList(all);
+        return new MessageSnapshot(version, seq, segments, all, out, in,
+                rebucket(new HashMap<String, Entry[]>(), Collections.<Entry>emptyList(), entries, TYPE),
+                rebucket(new HashMap<String, Entry[]>(), Collections.<Entry>emptyList(), entries, SENDER),
+                rebucket(new HashMap<String, Entry[]>(), Collections.<Entry>emptyList(), entries, ALERT));
+    }
+
+    /**
+     * Starts the next snapshot from this one.
+     */
+    Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Collects the messages a batch stored or removed and derives the next
+     * snapshot from them in one pass. Used by the writer thread only.
+     */
+    final class Editor {
+        // Message now stored under each changed ID, or null if it is gone
+        private final LinkedHashMap<String, Message> changed = new LinkedHashMap<>();
+        private final HashMap<String, Boolean> directions = new HashMap<>();
+
+        /**
+         * Records {@code message} as stored. {@code outgoing} null keeps the
+         * direction it already had.
+         */
+        void put(Message message, Boolean outgoing) {
+            changed.put(message.getId(), message);
+            if (outgoing != null) directions.put(message.getId(), outgoing);
+        }
+
+        void remove(String messageId) {
+            changed.put(messageId, null);
+        }
+
+        @SuppressWarnings("unchecked")
+        MessageSnapshot publish() {
+            List<Entry> removed = new ArrayList<>();
+            List<Entry> added = new ArrayList<>();
+            long seq = nextSeq;
+            for (Map.Entry<String, Message> change : changed.entrySet()) {
+                Entry previous = entry(change.getKey());
+                if (previous != null) removed.add(previous);
+                Message message = change.getValue();
+                if (message == null) continue;
+                Boolean direction = directions.get(change.getKey());
+                boolean isOutgoing = direction != null ? direction : previous != null && previous.outgoing;
+                // A replaced message keeps its place in arrival order
+                long position = previous != null && previous.outgoing == isOutgoing ? previous.seq : seq++;
+                added.add(new Entry(message, isOutgoing, position));
+            }
+
+            HashMap<String, Entry>[] nextSegments = segments.clone();
+            boolean[] copied = new boolean[SEGMENTS];
+            for (Entry entry : removed) {
+                writable(nextSegments, copied, entry.id).remove(entry.id);
+            }
+            for (Entry entry : added) {
+                writable(nextSegments, copied, entry.id).put(entry.id, entry);
+            }
+
+            return new MessageSnapshot(version + 1, seq, nextSegments,
+                    splice(newestFirst, removed, added, NEWEST_FIRST),
+                    splice(outgoing, direction(removed, true), direction(added, true), ARRIVAL),
+                    splice(incoming, direction(removed, false), direction(added, false), ARRIVAL),
+                    rebucket(byType, removed, added, TYPE),
+                    rebucket(bySender, removed, added, SENDER),
+                    rebucket(byAlert, removed, added, ALERT));
+        }
+    }
+
+    /**
+     * Grows by one with every snapshot published.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getOutgoingCount() {
+        return outgoing.length;
+    }
+
+    public int getIncomingCount() {
+        return incoming.length;
+    }
+
+    public int size() {
+        return newestFirst.length;
+    }
+
+    public boolean contains(String messageId) {
+        return entry(messageId) != null;
+    }
+
+    public Message get(String messageId) {
+        Entry entry = entry(messageId);
+        return entry != null ? entry.message.copy() : null;
+    }
+
+    public List<Message> getOutgoing() {
+        return copyOf(outgoing, 0, outgoing.length);
+    }
+
+    public List<Message> getIncoming() {
+        return copyOf(incoming, 0, incoming.length);
+    }
+
+    public List<Message> getAll() {
+        return copyOf(newestFirst, 0, newestFirst.length);
+    }
+
+    public List<Message> getByType(String messageType) {
+        Entry[] entries = byType.get(messageType);
+        return entries != null ? copyOf(entries, 0, entries.length) : new ArrayList<Message>();
+    }
+
+    public List<Message> getBySender(String senderPhone) {
+        Entry[] entries = bySender.get(senderPhone);
+        return entries != null ? copyOf(entries, 0, entries.length) : new ArrayList<Message>();
+    }
+
+    /**
+     * IDs of the stored messages carrying {@code alertId}.
+     */
+    List<String> getAlertMessageIds(String alertId) {
+        Entry[] entries = byAlert.get(alertId);
+        List<String> ids = new ArrayList<>();
+        if (entries != null) {
+            for (Entry entry : entries) ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    /**
+     * Up to {@code count} messages that follow {@code last} newest first,
+     * or the newest if {@code last} is null. Found by binary search.
+     */
+    public List<Message> getOlder(Message last, int count) {
+        int from = 0;
+        if (last != null) {
+            Entry stored = entry(last.getId());
+            int position = Arrays.binarySearch(newestFirst, stored != null ? stored : new Entry(last, false, 0),
+                    NEWEST_FIRST);
+            from = position >= 0 ? position + 1 : -position - 1;
+        }
+        int to = (int) Math.min(newestFirst.length, (long) from + Math.max(0, count));
+        return copyOf(newestFirst, from, to);
+    }
+
+    private Entry entry(String messageId) {
+        return messageId != null ? segments[segment(messageId)].get(messageId) : null;
+    }
+
+    private static int segment(String messageId) {
+        int hash = messageId.hashCode();
+        return (hash ^ (hash >>> 16)) & (SEGMENTS - 1);
+    }
+
+    private static HashMap<String, Entry> writable(HashMap<String, Entry>[] segments, boolean[] copied, String id) {
+        int index = segment(id);
+        if (!copied[index]) {
+            segments[index] = new HashMap<>(segments[index]);
+            copied[index] = true;
+        }
+        return segments[index];
+    }
+
+    private static List<Entry> direction(List<Entry> entries, boolean outgoing) {
+        List<Entry> matching = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.outgoing == outgoing) matching.add(entry);
+        }
+        return matching;
+    }
+
+    /**
+     * {@code base}, in {@code order}, without {@code removed} and with
+     * {@code added}. Returns {@code base} itself when both are empty.
+     */
+    private static Entry[] splice(Entry[] base, List<Entry> removed, List<Entry> added, Comparator<Entry> order) {
+        if (removed.isEmpty() && added.isEmpty()) return base;
+
+        int[] gone = new int[removed.size()];
+        int goneCount = 0;
+        for (Entry entry : removed) {
+            int position = Arrays.binarySearch(base, entry, order);
+            if (position >= 0 && base[position] == entry) gone[goneCount++] = position;
+        }
+        Arrays.sort(gone, 0, goneCount);
+        Entry[] inserted = added.toArray(new Entry[0]);
+        Arrays.sort(inserted, order);
+
+        Entry[] result = new Entry[base.length - goneCount + inserted.length];
+        int from = 0;
+        int out = 0;
+        int next = 0;
+        for (int i = 0; i <= inserted.length; i++) {
+            int to = base.length;
+            if (i < inserted.length) {
+                int position = Arrays.binarySearch(base, inserted[i], order);
+                to = position >= 0 ? position : -position - 1;
+            }
+            // Copy the run up to the insertion point, skipping removed entries
+            while (next < goneCount && gone[next] < to) {
+                System.arraycopy(base, from, result, out, gone[next] - from);
+                out += gone[next] - from;
+                from = gone[next++] + 1;
+            }
+            System.arraycopy(base, from, result, out, to - from);
+            out += to - from;
+            from = to;
+            if (i < inserted.length) result[out++] = inserted[i];
+        }
+        return result;
+    }
+
+    /**
+     * {@code buckets} with only the buckets of {@code removed} and
+     * {@code added} spliced; the others are shared.
+     */
+    private static HashMap<String, Entry[]> rebucket(HashMap<String, Entry[]> buckets, List<Entry> removed,
+                                                     List<Entry> added, Key key) {
+        Map<String, List<Entry>> leaving = group(removed, key);
+        Map<String, List<Entry>> arriving = group(added, key);
+        if (leaving.isEmpty() && arriving.isEmpty()) return buckets;
+
+        Set<String> touched = new HashSet<>(leaving.keySet());
+        touched.addAll(arriving.keySet());
+        HashMap<String, Entry[]> result = new HashMap<>(buckets);
+        for (String bucket : touched) {
+            Entry[] base = buckets.get(bucket);
+            Entry[] spliced = splice(base != null ? base : NONE, orEmpty(leaving.get(bucket)),
+                    orEmpty(arriving.get(bucket)), NEWEST_FIRST);
+            if (spliced.length > 0) {
+                result.put(bucket, spliced);
+            } else {
+                result.remove(bucket);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, List<Entry>> group(List<Entry> entries, Key key) {
+        Map<String, List<Entry>> groups = new HashMap<>();
+        for (Entry entry : entries) {
+            String bucket = key.of(entry);
+            if (bucket == null) continue;
+            List<Entry> group = groups.get(bucket);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(bucket, group);
+            }
+            group.add(entry);
+        }
+        return groups;
+    }
+
+    private static List<Entry> orEmpty(List<Entry> entries) {
+        return entries != null ? entries : Collections.<Entry>emptyList();
+    }
+
+    private static List<Message> copyOf(Entry[] entries, int from, int to) {
+        List<Message> copies = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            copies.add(entries[i].message.copy());
+        }
+        return copies;
+    }
+}
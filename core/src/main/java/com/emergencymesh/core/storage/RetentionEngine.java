@@ -0,0 +1,263 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.util.MeshLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link MessageRepository} within caps on message count, age and
+ * size, so storage stays flat over an incident that lasts for days.
+ *
+ * Runs in the background: each pass deletes at most
+ * {@link Policy#maxEvictionsPerRun} messages, then comes back soon while
+ * the store is still over a cap and after {@link Policy#intervalMs}
+ * once it is within them. A pass never loads the whole store: the
+ * repository measures itself and hands over only the messages it would
+ * evict next (see {@link MessageRepository#getStorageUsage} and
+ * {@link MessageRepository#getEvictionCandidates}), and they are deleted
+ * in one batched write, which the log engine later compacts away.
+ *
+ * Expired messages go first. Past them, messages are evicted by value,
+ * oldest first within each tier: text and other chatter first, then
+ * location reports, then alerts. Alerts never expire: one keeps the
+ * timestamp it was raised with for as long as its session is re-announced,
+ * so its age says nothing about whether it is still live. Our own messages
+ * that no peer has ACKed yet are never evicted, even if that leaves the
+ * store over a cap.
+ */
+public class RetentionEngine {
+    private static final String TAG = "RetentionEngine";
+
+    // Fixed cost per message on disk and in memory, on top of its strings
+    public static final int MESSAGE_OVERHEAD_BYTES = 64;
+
+    private static final int TIER_CHATTER = 0;
+    private static final int TIER_LOCATION = 1;
+    private static final int TIER_ALERT = 2;
+
+    /**
+     * Caps and pacing. A cap of 0 or less is not enforced.
+     */
+    public static class Policy {
+        public int maxMessages = 5000;
+        // Alerts are exempt; they go only under the other caps, and last
+        public long maxAgeMs = TimeUnit.DAYS.toMillis(7);
+        public long maxBytes = 4 * 1024 * 1024;
+
+        // Incremental passes: a bounded amount of work each time
+        public int maxEvictionsPerRun = 200;
+        public long intervalMs = 60000;
+        public long catchUpIntervalMs = 1000;
+    }
+
+    private final MessageRepository repository;
+    private final Policy policy;
+    private ScheduledThreadPoolExecutor scheduler;
+
+    private volatile long runs = 0;
+    private volatile long evicted = 0;
+    private volatile int protectedCount = 0;
+
+    public RetentionEngine(MessageRepository repository, Policy policy) {
+        this.repository = repository;
+        this.policy = policy;
+    }
+
+    /**
+     * Starts background passes on a thread of its own. Does nothing if already running.
+     */
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "storage-retention");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        schedule(policy.catchUpIntervalMs);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    private synchronized void schedule(long delayMs) {
+        if (scheduler == null) return;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                long next = policy.intervalMs;
+                try {
+                    if (runOnce(System.currentTimeMillis()) >= policy.maxEvictionsPerRun) {
+                        next = policy.catchUpIntervalMs;
+                    }
+                } catch (RuntimeException e) {
+                    MeshLog.e(TAG, "Retention pass failed", e);
+                }
+                schedule(next);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One pass: deletes up to {@link Policy#maxEvictionsPerRun} messages
+     * that are expired or, while the store is over a cap, least valuable.
+     * Returns how many were deleted.
+     */
+    public int runOnce(long now) {
+        long cutoff = policy.maxAgeMs > 0 ? now - policy.maxAgeMs : Long.MIN_VALUE;
+        StorageUsage usage = repository.getStorageUsage(cutoff);
+        runs++;
+        protectedCount = usage.protectedCount;
+        int count = usage.count;
+        long bytes = usage.bytes;
+        if (usage.expired == 0 && !overCap(count, bytes)) return 0;
+
+        List<String> doomed = new ArrayList<>();
+        for (Message message : repository.getEvictionCandidates(cutoff, policy.maxEvictionsPerRun)) {
+            // Expired ones come first; past them, only while still over a cap
+            if (!isExpired(message, cutoff) && !overCap(count, bytes)) break;
+            doomed.add(message.getId());
+            count--;
+            bytes -= estimateBytes(message);
+        }
+        int deleted = doomed.isEmpty() ? 0 : repository.deleteMessages(doomed);
+        evicted += deleted;
+
+        if (deleted > 0) {
+            MeshLog.d(TAG, "Evicted " + deleted + " message(s); " + count + " left, ~" + bytes / 1024 + " KB");
+        }
+        if (overCap(count, bytes) && doomed.size() < policy.maxEvictionsPerRun) {
+            MeshLog.w(TAG, "Still over cap with " + usage.protectedCount + " unacknowledged outgoing message(s) kept");
+        }
+        return deleted;
+    }
+
+    private boolean overCap(int count, long bytes) {
+        return (policy.maxMessages > 0 && count > policy.maxMessages)
+                || (policy.maxBytes > 0 && bytes > policy.maxBytes);
+    }
+
+    private static int tier(Message message) {
+        if ("alert".equals(message.getMessageType())) return TIER_ALERT;
+        if ("location".equals(message.getMessageType())) return TIER_LOCATION;
+        return TIER_CHATTER;
+    }
+
+    /**
+     * Older than {@code expiredBefore}, unless it is an alert.
+     */
+    static boolean isExpired(Message message, long expiredBefore) {
+        return message.getTimestamp() < expiredBefore && tier(message) != TIER_ALERT;
+    }
+
+    /**
+     * The order {@link MessageRepository#getEvictionCandidates} returns.
+     */
+    static Comparator<Message> evictionOrder(final long expiredBefore) {
+        return new Comparator<Message>() {
+            @Override
+            public int compare(Message m1, Message m2) {
+                boolean expired1 = isExpired(m1, expiredBefore);
+                boolean expired2 = isExpired(m2, expiredBefore);
+                if (expired1 != expired2) return expired1 ? -1 : 1;
+                int byTier = Integer.compare(tier(m1), tier(m2));
+                if (byTier != 0) return byTier;
+                int byTime = Long.compare(m1.getTimestamp(), m2.getTimestamp());
+                return byTime != 0 ? byTime : m1.getId().compareTo(m2.getId());
+            }
+        };
+    }
+
+    /**
+     * {@link MessageRepository#getStorageUsage} for a store that holds its
+     * messages in memory: one pass, nothing copied.
+     */
+    static StorageUsage measure(Collection<Message> outgoing, Collection<Message> incoming, long expiredBefore) {
+        long bytes = 0;
+        int protectedCount = 0;
+        int expired = 0;
+        for (Message message : outgoing) {
+            bytes += estimateBytes(message);
+            if (!message.isDelivered()) {
+                protectedCount++;
+            } else if (isExpired(message, expiredBefore)) {
+                expired++;
+            }
+        }
+        for (Message message : incoming) {
+            bytes += estimateBytes(message);
+            if (isExpired(message, expiredBefore)) expired++;
+        }
+        return new StorageUsage(outgoing.size() + incoming.size(), bytes, protectedCount, expired);
+    }
+
+    /**
+     * {@link MessageRepository#getEvictionCandidates} for a store that holds
+     * its messages in memory. Only the best {@code limit} are kept while
+     * scanning, so the store is never copied or sorted as a whole.
+     */
+    static List<Message> selectCandidates(Collection<Message> outgoing, Collection<Message> incoming,
+                                          long expiredBefore, int limit) {
+        if (limit <= 0) return new ArrayList<>();
+        Comparator<Message> order = evictionOrder(expiredBefore);
+        // Head is the candidate to give up first when a better one turns up
+        PriorityQueue<Message> kept = new PriorityQueue<>(limit + 1, Collections.reverseOrder(order));
+        for (Message message : outgoing) {
+            if (message.isDelivered()) keep(kept, message, limit);
+        }
+        for (Message message : incoming) {
+            keep(kept, message, limit);
+        }
+        List<Message> candidates = new ArrayList<>(kept);
+        Collections.sort(candidates, order);
+        return candidates;
+    }
+
+    private static void keep(PriorityQueue<Message> kept, Message message, int limit) {
+        kept.add(message);
+        if (kept.size() > limit) kept.poll();
+    }
+
+    /**
+     * Rough stored size: the strings at one byte a character, plus fixed fields.
+     */
+    public static long estimateBytes(Message message) {
+        return MESSAGE_OVERHEAD_BYTES + length(message.getId()) + length(message.getSenderName())
+                + length(message.getSenderPhone()) + length(message.getRecipientPhone())
+                + length(message.getContent()) + length(message.getMessageType()) + length(message.getAlertId());
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    public long getRunCount() {
+        return runs;
+    }
+
+    public long getEvictedCount() {
+        return evicted;
+    }
+
+    /**
+     * Unacknowledged outgoing messages seen in the last pass, which retention never touches.
+     */
+    public int getProtectedCount() {
+        return protectedCount;
+    }
+}
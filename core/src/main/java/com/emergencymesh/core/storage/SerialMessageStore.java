@@ -0,0 +1,601 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.util.MeshLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts one writer thread in front of a {@link MessageRepository}.
+ *
+ * Every change is queued and applied by the writer in the order it was
+ * submitted, so the underlying store is only ever written from one thread.
+ * The writer drains whatever has queued up as one batch and then, if the
+ * batch changed anything, publishes a new {@link MessageSnapshot}. Readers
+ * use the latest snapshot: they never take a lock, never wait for a write
+ * in progress, and never see half a batch. Each operation records the IDs
+ * it may have changed; only those are read back from the store and patched
+ * into the previous snapshot, so the cost of a batch follows its size
+ * rather than the store's. Clearing a direction rebuilds from scratch.
+ *
+ * Writes that return an answer (storing an incoming message, marking a
+ * batch delivered) wait until the writer has applied them and published
+ * the result, so the caller reads its own write. The others return as
+ * soon as they are queued; {@link #flush()} waits for everything queued
+ * so far. Messages are copied on the way in, so a caller changing one
+ * afterwards does not change what gets stored.
+ *
+ * With snapshots off, reads go straight to the underlying store; for a
+ * store that serves concurrent readers itself and is too big to hold in
+ * memory.
+ */
+public class SerialMessageStore implements MessageRepository {
+    private static final String TAG = "SerialMessageStore";
+
+    // Most operations drained into one batch, and so one snapshot
+    private static final int MAX_BATCH = 256;
+
+    private final MessageRepository store;
+    private final boolean snapshotReads;
+    private final LinkedBlockingQueue<Op> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile MessageSnapshot snapshot = MessageSnapshot.EMPTY;
+    // Guards closed, so nothing can be queued behind the writer's stop
+    private final Object submitLock = new Object();
+    private volatile boolean closed = false;
+
+    // Written by the writer thread only; read by getStats()
+    private volatile long applied = 0;
+    private volatile long failed = 0;
+    private volatile long batches = 0;
+    private volatile long snapshotsPublished = 0;
+    private volatile long rebuilds = 0;
+    private volatile long queueWaitNanos = 0;
+    private volatile long applyNanos = 0;
+    private volatile long snapshotNanos = 0;
+    private volatile int largestBatch = 0;
+    private volatile int highWatermark = 0;
+
+    /**
+     * @param store         the store to write through; from now on only the writer writes to it
+     * @param snapshotReads serve reads from in-memory snapshots rather than from {@code store}
+     */
+    public SerialMessageStore(MessageRepository store, boolean snapshotReads) {
+        this.store = store;
+        this.snapshotReads = snapshotReads;
+        if (snapshotReads) rebuild();
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "storage-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * One queued change, applied on the writer thread.
+     */
+    private abstract static class Op {
+        final long queuedAt = System.nanoTime();
+        final CountDownLatch done = new CountDownLatch(1);
+        Object result;
+        // Released without being applied, because the writer stopped
+        volatile boolean abandoned = false;
+
+        abstract Object apply(MessageRepository store);
+
+        /**
+         * Notes in {@code changes} what {@code result} says may have changed.
+         */
+        void record(Changes changes, Object result) {
+            changes.reload = true;
+        }
+    }
+
+    /**
+     * What one batch may have changed, read back from the store when the
+     * batch is published.
+     */
+    private static class Changes {
+        // Direction of each changed ID if the operation knows it, else null
+        final LinkedHashMap<String, Boolean> ids = new LinkedHashMap<>();
+        final Set<String> alerts = new HashSet<>();
+        boolean reload = false;
+
+        void stored(Message message, boolean outgoing) {
+            ids.put(message.getId(), outgoing);
+            if (message.getAlertId() != null) alerts.add(message.getAlertId());
+        }
+
+        void touched(String messageId) {
+            if (!ids.containsKey(messageId)) ids.put(messageId, null);
+        }
+
+        boolean isEmpty() {
+            return !reload && ids.isEmpty();
+        }
+    }
+
+    /**
+     * Queued by {@link #close()} behind everything else; the writer stops on it.
+     */
+    private final Op stop = new Op() {
+        @Override
+        Object apply(MessageRepository store) {
+            return null;
+        }
+
+        @Override
+        void record(Changes changes, Object result) {
+        }
+    };
+
+    private void writeLoop() {
+        List<Op> batch = new ArrayList<>(MAX_BATCH);
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            stopping = batch.remove(stop);
+            int depth = batch.size() + queue.size();
+            if (depth > highWatermark) highWatermark = depth;
+            if (!batch.isEmpty()) applyBatch(batch);
+            batch.clear();
+        }
+
+        // Whatever is still queued will never be applied; release its callers
+        List<Op> abandoned = new ArrayList<>();
+        synchronized (submitLock) {
+            closed = true;
+            queue.drainTo(abandoned);
+        }
+        for (Op op : abandoned) {
+            op.abandoned = true;
+            op.done.countDown();
+        }
+        if (!stopping) MeshLog.w(TAG, "Storage writer interrupted, " + abandoned.size() + " write(s) dropped");
+        MeshLog.d(TAG, "Storage writer stopped: " + getStats());
+    }
+
+    private void applyBatch(List<Op> batch) {
+        long started = System.nanoTime();
+        Changes changes = new Changes();
+        long waited = 0;
+        for (Op op : batch) {
+            waited += started - op.queuedAt;
+            try {
+                op.result = op.apply(store);
+                op.record(changes, op.result);
+            } catch (RuntimeException e) {
+                failed++;
+                // Whatever it got through before failing is unknown
+                changes.reload = true;
+                MeshLog.e(TAG, "Storage write failed", e);
+            }
+        }
+        long appliedAt = System.nanoTime();
+        if (!changes.isEmpty() && snapshotReads) {
+            if (changes.reload) {
+                rebuild();
+            } else {
+                publish(changes);
+            }
+            snapshotNanos += System.nanoTime() - appliedAt;
+        }
+
+        applied += batch.size();
+        batches++;
+        queueWaitNanos += waited;
+        applyNanos += appliedAt - started;
+        if (batch.size() > largestBatch) largestBatch = batch.size();
+        // Waiting callers are released only once their write is visible to readers
+        for (Op op : batch) {
+            op.done.countDown();
+        }
+    }
+
+    private void rebuild() {
+        snapshot = MessageSnapshot.of(snapshot.getVersion() + 1, store.getOutgoingMessages(),
+                store.getIncomingMessages());
+        snapshotsPublished++;
+        rebuilds++;
+    }
+
+    private void publish(Changes changes) {
+        MessageSnapshot previous = snapshot;
+        // Storing an alert revision may have replaced the one stored before it
+        for (String alertId : changes.alerts) {
+            for (String messageId : previous.getAlertMessageIds(alertId)) {
+                changes.touched(messageId);
+            }
+        }
+        MessageSnapshot.Editor editor = previous.edit();
+        for (Map.Entry<String, Boolean> change : changes.ids.entrySet()) {
+            Message stored = store.getMessageById(change.getKey());
+            if (stored != null) {
+                editor.put(stored, change.getValue());
+            } else {
+                editor.remove(change.getKey());
+            }
+        }
+        snapshot = editor.publish();
+        snapshotsPublished++;
+    }
+
+    private void submit(Op op) {
+        synchronized (submitLock) {
+            if (closed) throw new IllegalStateException("Message store closed");
+            queue.add(op);
+        }
+    }
+
+    private Object await(Op op) {
+        submit(op);
+        try {
+            op.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (op.abandoned) throw new IllegalStateException("Message store closed");
+        return op.result;
+    }
+
+    /**
+     * Waits until everything queued before this call has been applied.
+     */
+    public void flush() {
+        await(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                return null;
+            }
+
+            @Override
+            void record(Changes changes, Object result) {
+            }
+        });
+    }
+
+    /**
+     * Applies what is queued, then stops the writer. Later writes throw.
+     */
+    public void close() {
+        synchronized (submitLock) {
+            if (closed) return;
+            closed = true;
+            queue.add(stop);
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The snapshot readers currently see; null when reads go to the store.
+     */
+    public MessageSnapshot getSnapshot() {
+        return snapshotReads ? snapshot : null;
+    }
+
+    // Writes
+
+    @Override
+    public void storeOutgoingMessage(Message message) {
+        if (message == null) {
+            MeshLog.w(TAG, "Attempted to store null outgoing message");
+            return;
+        }
+        final Message copy = message.copy();
+        submit(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                store.storeOutgoingMessage(copy);
+                return null;
+            }
+
+            @Override
+            void record(Changes changes, Object result) {
+                changes.stored(copy, true);
+            }
+        });
+    }
+
+    @Override
+    public boolean storeIncomingMessage(Message message) {
+        if (message == null) {
+            MeshLog.w(TAG, "Attempted to store null incoming message");
+            return false;
+        }
+        // A copy flooded back by several neighbours need not queue behind real writes
+        if (snapshotReads && snapshot.contains(message.getId())) return false;
+
+        final Message copy = message.copy();
+        Object stored = await(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                return store.storeIncomingMessage(copy);
+            }
+
+            @Override
+            void record(Changes changes, Object result) {
+                if (Boolean.TRUE.equals(result)) changes.stored(copy, false);
+            }
+        });
+        return Boolean.TRUE.equals(stored);
+    }
+
+    @Override
+    public void markMessageAsDelivered(String messageId) {
+        if (messageId == null) {
+            MeshLog.w(TAG, "Attempted to mark null message ID as delivered");
+            return;
+        }
+        final String id = messageId;
+        submit(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                store.markMessageAsDelivered(id);
+                return null;
+            }
+
+            @Override
+            void record(Changes changes, Object result) {
+                changes.touched(id);
+            }
+        });
+    }
+
+    @Override
+    public int markMessagesAsDelivered(Collection<String> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) return 0;
+        final List<String> ids = new ArrayList<>(messageIds);
+        Object updated = await(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                return store.markMessagesAsDelivered(ids);
+            }
+
+            @Override
+            void record(Changes changes, Object result) {
+                if (!(result instanceof Integer) || (Integer) result == 0) return;
+                for (String id : ids) {
+                    changes.touched(id);
+                }
+            }
+        });
+        return updated instanceof Integer ? (Integer) updated : 0;
+    }
+
+    @Override
+    public void deleteMessage(String messageId) {
+        if (messageId == null) {
+            MeshLog.w(TAG, "Attempted to delete null message ID");
+            return;
+        }
+        final String id = messageId;
+        submit(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                store.deleteMessage(id);
+                return null;
+            }
+
+            @Override
+            void record(Changes changes, Object result) {
+                changes.touched(id);
+            }
+        });
+    }
+
+    @Override
+    public int deleteMessages(Collection<String> messageIds) {
+        if (messageIds == null || messageIds.isEmpty()) return 0;
+        final List<String> ids = new ArrayList<>(messageIds);
+        Object deleted = await(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                return store.deleteMessages(ids);
+            }
+
+            @Override
+            void record(Changes changes, Object result) {
+                if (!(result instanceof Integer) || (Integer) result == 0) return;
+                for (String id : ids) {
+                    changes.touched(id);
+                }
+            }
+        });
+        return deleted instanceof Integer ? (Integer) deleted : 0;
+    }
+
+    @Override
+    public void clearAllMessages() {
+        submit(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                store.clearAllMessages();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void clearOutgoingMessages() {
+        submit(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                store.clearOutgoingMessages();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void clearIncomingMessages() {
+        submit(new Op() {
+            @Override
+            Object apply(MessageRepository store) {
+                store.clearIncomingMessages();
+                return null;
+            }
+        });
+    }
+
+    // Reads
+
+    @Override
+    public List<Message> getOutgoingMessages() {
+        return snapshotReads ? snapshot.getOutgoing() : store.getOutgoingMessages();
+    }
+
+    @Override
+    public List<Message> getIncomingMessages() {
+        return snapshotReads ? snapshot.getIncoming() : store.getIncomingMessages();
+    }
+
+    @Override
+    public List<Message> getAllMessages() {
+        return snapshotReads ? snapshot.getAll() : store.getAllMessages();
+    }
+
+    @Override
+    public List<Message> getMessagesByType(String messageType) {
+        return snapshotReads ? snapshot.getByType(messageType) : store.getMessagesByType(messageType);
+    }
+
+    @Override
+    public List<Message> getMessagesBySender(String senderPhone) {
+        return snapshotReads ? snapshot.getBySender(senderPhone) : store.getMessagesBySender(senderPhone);
+    }
+
+    @Override
+    public List<Message> getRecentMessages(int count) {
+        return snapshotReads ? snapshot.getOlder(null, count) : store.getRecentMessages(count);
+    }
+
+    @Override
+    public List<Message> getOlderMessages(Message last, int count) {
+        return snapshotReads ? snapshot.getOlder(last, count) : store.getOlderMessages(last, count);
+    }
+
+    @Override
+    public int getUnreadMessageCount() {
+        // As before, every incoming message counts as unread
+        return snapshotReads ? snapshot.getIncomingCount() : store.getUnreadMessageCount();
+    }
+
+    @Override
+    public int getTotalMessageCount() {
+        return snapshotReads ? snapshot.size() : store.getTotalMessageCount();
+    }
+
+    @Override
+    public boolean hasMessages() {
+        return snapshotReads ? snapshot.size() > 0 : store.hasMessages();
+    }
+
+    @Override
+    public Message getMessageById(String messageId) {
+        if (messageId == null) return null;
+        return snapshotReads ? snapshot.get(messageId) : store.getMessageById(messageId);
+    }
+
+    // Retention reads go to the store itself, which answers them without
+    // copying every message; a pass is rare and the engines serve
+    // concurrent readers
+
+    @Override
+    public StorageUsage getStorageUsage(long expiredBefore) {
+        return store.getStorageUsage(expiredBefore);
+    }
+
+    @Override
+    public List<Message> getEvictionCandidates(long expiredBefore, int limit) {
+        return store.getEvictionCandidates(expiredBefore, limit);
+    }
+
+    public Stats getStats() {
+        int depth = queue.size();
+        return new Stats(depth, highWatermark, applied + depth, applied, failed, batches, largestBatch,
+                snapshotsPublished, rebuilds, queueWaitNanos, applyNanos, snapshotNanos);
+    }
+
+    public static class Stats {
+        public final int depth;
+        public final int highWatermark;
+        public final long submitted;
+        public final long applied;
+        public final long failed;
+        public final long batches;
+        public final int largestBatch;
+        public final long snapshots;
+        // Snapshots built from scratch rather than patched
+        public final long rebuilds;
+        public final long queueWaitNanos;
+        public final long applyNanos;
+        public final long snapshotNanos;
+
+        Stats(int depth, int highWatermark, long submitted, long applied, long failed, long batches,
+              int largestBatch, long snapshots, long rebuilds, long queueWaitNanos, long applyNanos,
+              long snapshotNanos) {
+            this.depth = depth;
+            this.highWatermark = highWatermark;
+            this.submitted = submitted;
+            this.applied = applied;
+            this.failed = failed;
+            this.batches = batches;
+            this.largestBatch = largestBatch;
+            this.snapshots = snapshots;
+            this.rebuilds = rebuilds;
+            this.queueWaitNanos = queueWaitNanos;
+            this.applyNanos = applyNanos;
+            this.snapshotNanos = snapshotNanos;
+        }
+
+        /**
+         * Average time a write spent queued before the writer picked it up.
+         */
+        public double getMeanQueueWaitMs() {
+            return applied > 0 ? queueWaitNanos / 1e6 / applied : 0;
+        }
+
+        /**
+         * Writes applied per second of writer time, snapshots included.
+         */
+        public double getWritesPerSecond() {
+            long busy = applyNanos + snapshotNanos;
+            return busy > 0 ? applied * 1e9 / busy : 0;
+        }
+
+        public double getMeanBatchSize() {
+            return batches > 0 ? (double) applied / batches : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "depth=%d (max %d) writes=%d/%d (failed %d) batches=%d (mean %.1f, max %d) snapshots=%d"
+                            + " (rebuilt %d) wait=%.2fms rate=%.0f/s",
+                    depth, highWatermark, applied, submitted, failed, batches, getMeanBatchSize(), largestBatch,
+                    snapshots, rebuilds, getMeanQueueWaitMs(), getWritesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.emergencymesh.core.storage;
+
+import java.util.Locale;
+
+/**
+ * What a store holds, as {@link RetentionEngine} measures it. Counted by
+ * the store itself, without loading its messages.
+ */
+public class StorageUsage {
+    public final int count;
+    // Estimated as by RetentionEngine.estimateBytes
+    public final long bytes;
+    // Our own outgoing messages no peer has ACKed yet
+    public final int protectedCount;
+    // Older than the cutoff asked for, alerts and protected ones excluded
+    public final int expired;
+
+    public StorageUsage(int count, long bytes, int protectedCount, int expired) {
+        this.count = count;
+        this.bytes = bytes;
+        this.protectedCount = protectedCount;
+        this.expired = expired;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "messages=%d (~%d KB) protected=%d expired=%d",
+                count, bytes / 1024, protectedCount, expired);
+    }
+}
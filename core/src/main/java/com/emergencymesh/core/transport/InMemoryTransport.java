@@ -0,0 +1,235 @@
+package com.emergencymesh.core.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transport between nodes in the same process, over bounded in-memory pipes.
+ *
+ * Nodes that share a {@link Network} can reach each other by the address
+ * they were created with. Links behave like a socket with a fixed-size
+ * kernel buffer: a writer blocks while the peer's pipe is full, and closing
+ * either end gives the other end-of-stream. No threads are created here;
+ * {@link #connect} hands the far end to its node on the dialing thread.
+ */
+public class InMemoryTransport implements MeshTransport {
+    public static final int DEFAULT_PIPE_CAPACITY = 64 * 1024;
+
+    /**
+     * Address space shared by the transports that can reach each other.
+     */
+    public static class Network {
+        private final ConcurrentHashMap<String, InMemoryTransport> listening = new ConcurrentHashMap<>();
+        private final int pipeCapacity;
+
+        public Network() {
+            this(DEFAULT_PIPE_CAPACITY);
+        }
+
+        public Network(int pipeCapacity) {
+            if (pipeCapacity <= 0) throw new IllegalArgumentException("pipeCapacity must be positive");
+            this.pipeCapacity = pipeCapacity;
+        }
+    }
+
+    private final Network network;
+    private final String address;
+    private volatile LinkHandler handler;
+
+    public InMemoryTransport(Network network, String address) {
+        this.network = network;
+        this.address = address;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public void listen(LinkHandler handler) throws IOException {
+        InMemoryTransport existing = network.listening.putIfAbsent(address, this);
+        if (existing != null && existing != this) {
+            throw new IOException("Address in use: " + address);
+        }
+        this.handler = handler;
+    }
+
+    @Override
+    public void stopListening() {
+        handler = null;
+        network.listening.remove(address, this);
+    }
+
+    @Override
+    public boolean isListening() {
+        return handler != null;
+    }
+
+    @Override
+    public MeshLink connect(String remoteAddress) throws IOException {
+        InMemoryTransport remote = network.listening.get(remoteAddress);
+        LinkHandler remoteHandler = remote != null ? remote.handler : null;
+        if (remoteHandler == null) {
+            throw new IOException("Connection refused: " + remoteAddress);
+        }
+
+        Pipe toRemote = new Pipe(network.pipeCapacity);
+        Pipe toLocal = new Pipe(network.pipeCapacity);
+        Link local = new Link(remoteAddress, toLocal, toRemote);
+        remoteHandler.onLinkOpened(new Link(address, toRemote, toLocal));
+        return local;
+    }
+
+    private static final class Link implements MeshLink {
+        private final String address;
+        private final Pipe in;
+        private final Pipe out;
+
+        Link(String address, Pipe in, Pipe out) {
+            this.address = address;
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public String getName() {
+            return address;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in.input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out.output;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return !in.isClosed() && !out.isClosed();
+        }
+
+        @Override
+        public void close() {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Single-producer, single-consumer ring buffer with blocking ends.
+     */
+    private static final class Pipe {
+        private final byte[] buffer;
+        private int head = 0;
+        private int count = 0;
+        private boolean closed = false;
+
+        final InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return Pipe.this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                return Pipe.this.available();
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                Pipe.this.write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        Pipe(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (count == 0) {
+                if (closed) return -1;
+                await();
+            }
+            int n = Math.min(len, Math.min(count, buffer.length - head));
+            System.arraycopy(buffer, head, b, off, n);
+            head = (head + n) % buffer.length;
+            count -= n;
+            notifyAll();
+            return n;
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (closed) throw new IOException("Pipe closed");
+                if (count == buffer.length) {
+                    await();
+                    continue;
+                }
+                int tail = (head + count) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                System.arraycopy(b, off, buffer, tail, n);
+                count += n;
+                off += n;
+                len -= n;
+                notifyAll();
+            }
+        }
+
+        synchronized int available() {
+            return count;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            }
+        }
+    }
+}
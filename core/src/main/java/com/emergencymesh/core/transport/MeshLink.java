@@ -0,0 +1,33 @@
+package com.emergencymesh.core.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * One open, bidirectional byte stream to a neighbouring node.
+ *
+ * The mesh keys its connections by {@link #getAddress()}, so a transport
+ * should report the same address for a peer however the link was opened.
+ */
+public interface MeshLink {
+
+    String getAddress();
+
+    /**
+     * Human-readable peer name for the UI; may be the address.
+     */
+    String getName();
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    boolean isConnected();
+
+    /**
+     * Closes both directions. Blocked reads on either end return end-of-stream
+     * or fail; closing twice is harmless.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,36 @@
+package com.emergencymesh.core.transport;
+
+import java.io.IOException;
+
+/**
+ * A way of reaching neighbouring nodes: Bluetooth RFCOMM on a phone, or an
+ * in-process pipe or loopback TCP socket when running several nodes in one
+ * JVM for tests and benchmarks.
+ *
+ * The mesh only sees {@link MeshLink}s; framing, relaying and everything
+ * above it is the same whichever transport produced them.
+ */
+public interface MeshTransport {
+
+    interface LinkHandler {
+        /**
+         * Called once per inbound link, on the transport's accept thread or,
+         * for in-process transports, on the dialing thread.
+         */
+        void onLinkOpened(MeshLink link);
+    }
+
+    /**
+     * Starts accepting inbound links. Returns once the transport is reachable.
+     */
+    void listen(LinkHandler handler) throws IOException;
+
+    void stopListening();
+
+    boolean isListening();
+
+    /**
+     * Opens a link to the node at {@code address}, blocking until it is up.
+     */
+    MeshLink connect(String address) throws IOException;
+}
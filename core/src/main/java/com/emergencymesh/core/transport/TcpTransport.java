@@ -0,0 +1,156 @@
+package com.emergencymesh.core.transport;
+
+import com.emergencymesh.core.util.MeshLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Transport over TCP, bound to the loopback interface by default.
+ *
+ * Addresses are "host:port". Inbound links are addressed by the dialer's
+ * ephemeral source port, so two nodes that dial each other end up with
+ * two links rather than one; tests that need a single link per pair
+ * should only dial in one direction.
+ */
+public class TcpTransport implements MeshTransport {
+    private static final String TAG = "TcpTransport";
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    private final InetAddress bindAddress;
+    private final int port;
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * Loopback only, on an ephemeral port; see {@link #getAddress()}.
+     */
+    public TcpTransport() {
+        this(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    public TcpTransport(InetAddress bindAddress, int port) {
+        this.bindAddress = bindAddress;
+        this.port = port;
+    }
+
+    /**
+     * The "host:port" other nodes dial, or null when not listening.
+     */
+    public String getAddress() {
+        ServerSocket server = serverSocket;
+        return server != null ? addressOf(server.getInetAddress(), server.getLocalPort()) : null;
+    }
+
+    @Override
+    public synchronized void listen(final LinkHandler handler) throws IOException {
+        if (serverSocket != null) return;
+        final ServerSocket server = new ServerSocket(port, 50, bindAddress);
+        serverSocket = server;
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        socket.setTcpNoDelay(true);
+                        handler.onLinkOpened(new TcpLink(socket,
+                                addressOf(socket.getInetAddress(), socket.getPort())));
+                    } catch (IOException e) {
+                        if (!server.isClosed()) MeshLog.e(TAG, "Accept error", e);
+                        break;
+                    }
+                }
+            }
+        }, "mesh-tcp-accept-" + server.getLocalPort());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    @Override
+    public synchronized void stopListening() {
+        if (serverSocket == null) return;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            MeshLog.e(TAG, "Error closing server", e);
+        }
+        serverSocket = null;
+    }
+
+    @Override
+    public boolean isListening() {
+        return serverSocket != null;
+    }
+
+    @Override
+    public MeshLink connect(String address) throws IOException {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) throw new IOException("Bad address: " + address);
+        int remotePort;
+        try {
+            remotePort = Integer.parseInt(address.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad address: " + address);
+        }
+
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(address.substring(0, colon), remotePort), CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new TcpLink(socket, address);
+    }
+
+    private static String addressOf(InetAddress host, int port) {
+        return host.getHostAddress() + ":" + port;
+    }
+
+    private static final class TcpLink implements MeshLink {
+        private final Socket socket;
+        private final String address;
+
+        TcpLink(Socket socket, String address) {
+            this.socket = socket;
+            this.address = address;
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public String getName() {
+            return address;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return socket.getOutputStream();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return socket.isConnected() && !socket.isClosed();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.emergencymesh.core.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Logging facade for the platform-independent mesh code.
+ *
+ * The core module cannot depend on {@code android.util.Log}, so it logs
+ * through here and the app installs a {@link Sink} that forwards to logcat.
+ * Without one, warnings and errors go to stderr and debug output is dropped,
+ * which keeps large in-process simulations quiet.
+ */
+public final class MeshLog {
+
+    // Same values as android.util.Log priorities, so a sink can pass them through
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public interface Sink {
+        void log(int priority, String tag, String message, Throwable error);
+    }
+
+    public static final Sink STDERR = new Sink() {
+        @Override
+        public void log(int priority, String tag, String message, Throwable error) {
+            if (priority < WARN) return;
+            StringBuilder line = new StringBuilder(priority == ERROR ? "E/" : "W/")
+                    .append(tag).append(": ").append(message);
+            if (error != null) {
+                StringWriter trace = new StringWriter();
+                error.printStackTrace(new PrintWriter(trace));
+                line.append('\n').append(trace);
+            }
+            System.err.println(line);
+        }
+    };
+
+    private static volatile Sink sink = STDERR;
+
+    private MeshLog() {}
+
+    public static void setSink(Sink newSink) {
+        sink = newSink != null ? newSink : STDERR;
+    }
+
+    public static void d(String tag, String message) {
+        sink.log(DEBUG, tag, message, null);
+    }
+
+    public static void i(String tag, String message) {
+        sink.log(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message) {
+        sink.log(WARN, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable error) {
+        sink.log(WARN, tag, message, error);
+    }
+
+    public static void e(String tag, String message) {
+        sink.log(ERROR, tag, message, null);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        sink.log(ERROR, tag, message, error);
+    }
+}
@@ -0,0 +1,212 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+import com.emergencymesh.core.transport.InMemoryTransport;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * ACKs to a binary peer go out in batches, on a size threshold or the flush
+ * timer, and each batch is marked delivered in one store call.
+ */
+public class AckBatcherTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final List<MeshNode> nodes = new ArrayList<>();
+
+    private static class Sink implements AckBatcher.Sink {
+        final List<List<String>> batches = new ArrayList<>();
+
+        @Override
+        public void sendBatch(List<String> messageIds) {
+            batches.add(new ArrayList<>(messageIds));
+        }
+    }
+
+    /**
+     * Records every markMessagesAsDelivered call and how many IDs it carried.
+     */
+    private static class CountingStore extends InMemoryMessageStore {
+        final List<Integer> deliveredCalls = new CopyOnWriteArrayList<>();
+
+        @Override
+        public synchronized int markMessagesAsDelivered(Collection<String> messageIds) {
+            deliveredCalls.add(messageIds.size());
+            return super.markMessagesAsDelivered(messageIds);
+        }
+    }
+
+    private static class Recorder implements MeshNode.Listener {
+        final CountDownLatch connected = new CountDownLatch(1);
+        volatile CountDownLatch delivered = new CountDownLatch(0);
+
+        @Override
+        public void onPeerConnected(String address, String name) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onPeerDisconnected(String address) {
+        }
+
+        @Override
+        public void onMessageReceived(Message message, String fromAddress) {
+        }
+
+        @Override
+        public void onMessageDelivered(String messageId, String peerAddress) {
+            delivered.countDown();
+        }
+
+        @Override
+        public void onMessageFailed(String messageId, String error) {
+        }
+
+        @Override
+        public void onPositionUpdated(PositionFix fix, String fromAddress) {
+        }
+    }
+
+    @After
+    public void shutDown() {
+        for (MeshNode node : nodes) {
+            node.shutdown();
+        }
+    }
+
+    @Test
+    public void sizeThreshold_sendsAFullBatchAtOnce() {
+        Sink sink = new Sink();
+        AckBatcher batcher = new AckBatcher(3, sink);
+
+        assertTrue(batcher.add("a"));
+        assertFalse(batcher.add("b"));
+        assertTrue(sink.batches.isEmpty());
+        assertFalse(batcher.add("c"));
+
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), sink.batches);
+        assertEquals(0, batcher.getPendingCount());
+        // The next ID starts a new batch, so the caller schedules another flush
+        assertTrue(batcher.add("d"));
+    }
+
+    @Test
+    public void flush_sendsWhatIsPendingOnce() {
+        Sink sink = new Sink();
+        AckBatcher batcher = new AckBatcher(32, sink);
+        batcher.add("a");
+        batcher.add("b");
+
+        batcher.flush();
+        batcher.flush();
+
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b")), sink.batches);
+        assertEquals(0, batcher.getPendingCount());
+    }
+
+    private MeshNode newNode(final String phone, MessageStore store, MeshNode.Listener listener) {
+        MeshNode.Identity identity = new MeshNode.Identity() {
+            @Override
+            public String getName() {
+                return phone;
+            }
+
+            @Override
+            public String getPhone() {
+                return phone;
+            }
+        };
+        SeenMessageFilter seen = new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+        MeshNode.Config config = new MeshNode.Config();
+        config.outboundQueueCapacity = 256;
+        config.inboundLimits = new RateLimiter.Limits().scaled(1000);
+        config.outboundLimits = new RateLimiter.Limits().scaled(1000);
+        MeshNode node = new MeshNode(config, identity, store, seen, null, listener);
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Links a sender to a receiver and waits for HELLOs to cross, so ACKs are batched frames.
+     */
+    private MeshNode linkedSender(CountingStore store, Recorder recorder) throws Exception {
+        InMemoryTransport.Network network = new InMemoryTransport.Network();
+        newNode("2000", new InMemoryMessageStore(), new Recorder()).listen(new InMemoryTransport(network, "b"));
+        MeshNode sender = newNode("1000", store, recorder);
+        InMemoryTransport transport = new InMemoryTransport(network, "a");
+        sender.listen(transport);
+        assertTrue(sender.connect(transport, "b"));
+        assertTrue("link did not come up", recorder.connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        return sender;
+    }
+
+    private static Message send(MeshNode node, MessageStore store, int i) {
+        Message message = new Message(UUID.randomUUID().toString(), "sender", "1000", "BROADCAST",
+                "status " + i, "text");
+        store.storeOutgoingMessage(message);
+        node.broadcastMessage(message);
+        return message;
+    }
+
+    @Test
+    public void lonelyAck_isFlushedByTheTimer() throws Exception {
+        CountingStore store = new CountingStore();
+        Recorder recorder = new Recorder();
+        MeshNode sender = linkedSender(store, recorder);
+
+        recorder.delivered = new CountDownLatch(1);
+        long sentAt = System.currentTimeMillis();
+        Message message = send(sender, store, 0);
+        assertTrue("ACK never came", recorder.delivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // Far short of a full batch, so only the flush timer can have sent it
+        assertTrue(System.currentTimeMillis() - sentAt >= 90);
+        assertEquals(Collections.singletonList(1), store.deliveredCalls);
+        assertTrue(store.getMessageById(message.getId()).isDelivered());
+    }
+
+    @Test
+    public void burstOfAcks_arrivesInBatchesMarkedInOneCallEach() throws Exception {
+        CountingStore store = new CountingStore();
+        Recorder recorder = new Recorder();
+        MeshNode sender = linkedSender(store, recorder);
+
+        int messages = 100;
+        recorder.delivered = new CountDownLatch(messages);
+        List<Message> sent = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            sent.add(send(sender, store, i));
+        }
+        assertTrue("not every message was ACKed", recorder.delivered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        int total = 0;
+        int largest = 0;
+        for (int size : store.deliveredCalls) {
+            total += size;
+            largest = Math.max(largest, size);
+        }
+        assertEquals(messages, total);
+        assertTrue("ACKs were not batched: " + store.deliveredCalls, store.deliveredCalls.size() < messages);
+        assertTrue(largest > 1);
+        assertTrue(largest <= 32);
+        for (Message message : sent) {
+            assertTrue(store.getMessageById(message.getId()).isDelivered());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+import com.emergencymesh.core.storage.KeyValueStore;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Alert sessions: stable IDs across revisions and restarts, and only the
+ * latest revision kept by stores and relays.
+ */
+public class AlertBeaconTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private final InMemoryMessageStore store = new InMemoryMessageStore();
+    private final MapStore state = new MapStore();
+    private volatile String content = "help";
+    private MeshNode node;
+
+    private static class MapStore implements KeyValueStore {
+        final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public synchronized String getString(String key, String defaultValue) {
+            String value = values.get(key);
+            return value != null ? value : defaultValue;
+        }
+
+        @Override
+        public synchronized void putString(String key, String value) {
+            values.put(key, value);
+        }
+    }
+
+    private static final MeshNode.Identity IDENTITY = new MeshNode.Identity() {
+        @Override
+        public String getName() {
+            return "victim";
+        }
+
+        @Override
+        public String getPhone() {
+            return "1001";
+        }
+    };
+
+    private static final MeshNode.Listener NO_LISTENER = new MeshNode.Listener() {
+        @Override
+        public void onPeerConnected(String address, String name) {
+        }
+
+        @Override
+        public void onPeerDisconnected(String address) {
+        }
+
+        @Override
+        public void onMessageReceived(Message message, String fromAddress) {
+        }
+
+        @Override
+        public void onMessageDelivered(String messageId, String peerAddress) {
+        }
+
+        @Override
+        public void onMessageFailed(String messageId, String error) {
+        }
+
+        @Override
+        public void onPositionUpdated(PositionFix fix, String fromAddress) {
+        }
+    };
+
+    @After
+    public void shutDown() {
+        if (node != null) node.shutdown();
+    }
+
+    private AlertBeacon newBeacon() {
+        if (node == null) {
+            SeenMessageFilter seen = new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                    SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+            node = new MeshNode(new MeshNode.Config(), IDENTITY, store, seen, null, NO_LISTENER);
+        }
+        return new AlertBeacon(node, store, state, IDENTITY, new AlertBeacon.ContentSource() {
+            @Override
+            public String getContent() {
+                return content;
+            }
+        }, 20, 80);
+    }
+
+    private static Message revision(String alertId, int revision, String text) {
+        Message message = new Message(AlertBeacon.revisionId(alertId, revision), "victim", "1001", "AUTO", text, "alert");
+        message.setAlertId(alertId);
+        message.setRevision(revision);
+        return message;
+    }
+
+    @Test
+    public void contentChange_publishesNewRevisionUnderSameId() throws Exception {
+        AlertBeacon beacon = newBeacon();
+        beacon.start();
+        String alertId = beacon.getAlertId();
+        assertEquals(1, beacon.getRevision());
+        assertEquals(1, store.getOutgoingMessages().size());
+
+        content = "help, leg broken";
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (beacon.getRevision() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+
+        assertEquals(alertId, beacon.getAlertId());
+        assertEquals(2, beacon.getRevision());
+        assertEquals(1, store.getOutgoingMessages().size());
+        assertEquals("help, leg broken", store.getOutgoingMessages().get(0).getContent());
+        // The outbox only keeps the latest revision too
+        assertEquals(1, node.getPendingOutgoingCount());
+
+        // Unchanged content backs off instead of publishing
+        Thread.sleep(200);
+        assertEquals(2, beacon.getRevision());
+        assertEquals(80, beacon.getIntervalMs());
+    }
+
+    @Test
+    public void session_survivesRestartAndStopClearsIt() {
+        AlertBeacon first = newBeacon();
+        first.start();
+        String alertId = first.getAlertId();
+        first.pause();
+
+        AlertBeacon resumed = newBeacon();
+        assertTrue(resumed.isActive());
+        resumed.start();
+        assertEquals(alertId, resumed.getAlertId());
+        assertEquals(1, resumed.getRevision());
+
+        resumed.stop("resolved");
+        assertFalse(resumed.isActive());
+        Message last = store.getOutgoingMessages().get(0);
+        assertEquals(2, last.getRevision());
+        assertEquals("resolved", last.getContent());
+        assertFalse(newBeacon().isActive());
+    }
+
+    @Test
+    public void relays_keepOnlyLatestRevision() {
+        InMemoryMessageStore relayStore = new InMemoryMessageStore();
+        MessageHandler handler = new MessageHandler(relayStore, new RoutingTable("2002", 60000));
+        String alertId = "alert-1";
+
+        MessageHandler.Decision first = handler.onMessage(revision(alertId, 2, "second"), 0);
+        assertTrue(first.isNew);
+        assertNotNull(first.forward);
+        assertEquals(alertId, first.forward.getAlertId());
+
+        // An older revision arriving late is neither stored nor relayed
+        MessageHandler.Decision stale = handler.onMessage(revision(alertId, 1, "first"), 0);
+        assertFalse(stale.isNew);
+        assertNull(stale.forward);
+
+        assertTrue(handler.onMessage(revision(alertId, 3, "third"), 0).isNew);
+        assertEquals(1, relayStore.getIncomingMessages().size());
+        assertEquals("third", relayStore.getIncomingMessages().get(0).getContent());
+        assertNull(relayStore.getMessageById(AlertBeacon.revisionId(alertId, 2)));
+    }
+}
@@ -0,0 +1,245 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+import com.emergencymesh.core.transport.InMemoryTransport;
+import com.emergencymesh.core.transport.MeshLink;
+import com.emergencymesh.core.transport.MeshTransport;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fan-out of one broadcast to every peer: each peer is accepted, failed or
+ * timed out on its own deadline, and the failure callback fires only once
+ * no peer took the message.
+ */
+public class BroadcastResultTest {
+
+    private static final long DEADLINE_MS = 300;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    // Small pipes, so one large message fills a link that is not being read
+    private final InMemoryTransport.Network network = new InMemoryTransport.Network(1024);
+    private final List<MeshNode> nodes = new ArrayList<>();
+    private final List<MeshLink> stalledLinks = new CopyOnWriteArrayList<>();
+
+    private static class Recorder implements MeshNode.Listener {
+        final CountDownLatch connected;
+        final List<String> failures = new CopyOnWriteArrayList<>();
+        final CountDownLatch failed = new CountDownLatch(1);
+        volatile long failedAt = 0;
+
+        Recorder(int expectedLinks) {
+            connected = new CountDownLatch(expectedLinks);
+        }
+
+        @Override
+        public void onPeerConnected(String address, String name) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onPeerDisconnected(String address) {
+        }
+
+        @Override
+        public void onMessageReceived(Message message, String fromAddress) {
+        }
+
+        @Override
+        public void onMessageDelivered(String messageId, String peerAddress) {
+        }
+
+        @Override
+        public void onMessageFailed(String messageId, String error) {
+            failedAt = System.currentTimeMillis();
+            failures.add(messageId + ": " + error);
+            failed.countDown();
+        }
+
+        @Override
+        public void onPositionUpdated(PositionFix fix, String fromAddress) {
+        }
+    }
+
+    @After
+    public void shutDown() throws IOException {
+        for (MeshNode node : nodes) {
+            node.shutdown();
+        }
+        for (MeshLink link : stalledLinks) {
+            link.close();
+        }
+    }
+
+    private MeshNode newNode(final String phone, Recorder recorder) {
+        MeshNode.Identity identity = new MeshNode.Identity() {
+            @Override
+            public String getName() {
+                return phone;
+            }
+
+            @Override
+            public String getPhone() {
+                return phone;
+            }
+        };
+        SeenMessageFilter seen = new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+        MeshNode node = new MeshNode(new MeshNode.Config(), identity, new InMemoryMessageStore(), seen, null,
+                recorder != null ? recorder : new Recorder(0));
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * A peer that accepts the link and never reads from it.
+     */
+    private void stalledPeer(String address) throws IOException {
+        new InMemoryTransport(network, address).listen(new MeshTransport.LinkHandler() {
+            @Override
+            public void onLinkOpened(MeshLink link) {
+                stalledLinks.add(link);
+            }
+        });
+    }
+
+    private MeshNode sender(Recorder recorder, String... peers) throws Exception {
+        MeshNode node = newNode("1000", recorder);
+        InMemoryTransport transport = new InMemoryTransport(network, "sender");
+        node.listen(transport);
+        for (String peer : peers) {
+            assertTrue(node.connect(transport, peer));
+        }
+        assertTrue("links did not come up", recorder.connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return node;
+    }
+
+    private static Message largeMessage() {
+        char[] content = new char[8 * 1024];
+        Arrays.fill(content, 'x');
+        return new Message(UUID.randomUUID().toString(), "sender", "1000", "BROADCAST", new String(content), "text");
+    }
+
+    @Test
+    public void stalledPeer_timesOutAtItsDeadlineWhileOthersAccept() throws Exception {
+        newNode("2000", null).listen(new InMemoryTransport(network, "healthy"));
+        stalledPeer("stalled");
+        Recorder recorder = new Recorder(2);
+        MeshNode node = sender(recorder, "healthy", "stalled");
+
+        long sentAt = System.currentTimeMillis();
+        BroadcastResult result = node.broadcastMessage(largeMessage(), DEADLINE_MS);
+        assertTrue(result.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long elapsed = System.currentTimeMillis() - sentAt;
+
+        assertEquals(Collections.singletonList("healthy"), result.getAcceptedPeers());
+        assertEquals(Collections.singletonMap("stalled", BroadcastResult.REASON_TIMEOUT), result.getFailedPeers());
+        assertTrue("completed before the deadline: " + elapsed, elapsed >= DEADLINE_MS - 20);
+        // One peer took it, so this is not a failure
+        Thread.sleep(DEADLINE_MS);
+        assertEquals(Collections.<String>emptyList(), recorder.failures);
+    }
+
+    @Test
+    public void everyPeerStalled_failsOnceAfterTheDeadline() throws Exception {
+        stalledPeer("stalled-1");
+        stalledPeer("stalled-2");
+        Recorder recorder = new Recorder(2);
+        MeshNode node = sender(recorder, "stalled-1", "stalled-2");
+
+        Message message = largeMessage();
+        long sentAt = System.currentTimeMillis();
+        BroadcastResult result = node.broadcastMessage(message, DEADLINE_MS);
+        assertFalse(result.isDone());
+        assertTrue(result.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertFalse(result.isAcceptedByAny());
+        assertEquals(2, result.getFailedPeers().size());
+        for (String reason : result.getFailedPeers().values()) {
+            assertEquals(BroadcastResult.REASON_TIMEOUT, reason);
+        }
+        // Listeners run just after the result completes
+        assertTrue(recorder.failed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(message.getId() + ": Timed out"), recorder.failures);
+        assertTrue(recorder.failedAt - sentAt >= DEADLINE_MS - 20);
+    }
+
+    @Test
+    public void noPeers_failsAtOnce() {
+        Recorder recorder = new Recorder(0);
+        MeshNode node = newNode("1000", recorder);
+        Message message = largeMessage();
+
+        BroadcastResult result = node.broadcastMessage(message, DEADLINE_MS);
+
+        assertTrue(result.isDone());
+        assertFalse(result.isAcceptedByAny());
+        assertEquals(Collections.singletonList(message.getId() + ": No connections"), recorder.failures);
+    }
+
+    @Test
+    public void result_splitsAcceptedFromFailedAndCompletesWhenNoneArePending() {
+        BroadcastResult result = new BroadcastResult("m");
+        final List<BroadcastResult> completions = new ArrayList<>();
+        result.addListener(new BroadcastResult.Listener() {
+            @Override
+            public void onComplete(BroadcastResult r) {
+                completions.add(r);
+            }
+        });
+        result.addPeer("a");
+        result.addPeer("b");
+        result.addPeer("c");
+        result.seal();
+
+        result.peerAccepted("a");
+        result.peerFailed("b", BroadcastResult.REASON_RATE_LIMITED);
+        assertFalse(result.isDone());
+        assertTrue(completions.isEmpty());
+
+        result.expire();
+        assertTrue(result.isDone());
+        assertEquals(1, completions.size());
+        assertEquals(Collections.singletonList("a"), result.getAcceptedPeers());
+        Map<String, String> failed = result.getFailedPeers();
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<>(failed.keySet()));
+        assertEquals(BroadcastResult.REASON_RATE_LIMITED, failed.get("b"));
+        assertEquals(BroadcastResult.REASON_TIMEOUT, failed.get("c"));
+
+        // Late outcomes change nothing once complete
+        result.peerAccepted("c");
+        result.expire();
+        assertEquals(1, completions.size());
+        assertEquals(Collections.singletonList("a"), result.getAcceptedPeers());
+    }
+
+    @Test
+    public void result_completesEarlyOnceEveryPeerHasAnswered() {
+        BroadcastResult result = new BroadcastResult("m");
+        result.addPeer("a");
+        result.addPeer("b");
+        result.peerFailed("a", "Write failed");
+        // Not sealed yet: more peers may still be added
+        result.peerFailed("b", "Write failed");
+        assertFalse(result.isDone());
+
+        result.seal();
+        assertTrue(result.isDone());
+        assertFalse(result.isAcceptedByAny());
+        assertEquals(2, result.getFailedPeers().size());
+    }
+}
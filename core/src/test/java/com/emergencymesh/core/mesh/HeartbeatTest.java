@@ -0,0 +1,94 @@
+package com.emergencymesh.core.mesh;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HeartbeatTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private static Heartbeat heartbeat() {
+        return new Heartbeat(1000, 8000, 3);
+    }
+
+    @Test
+    public void rtt_followsRfc6298Smoothing() {
+        Heartbeat heartbeat = heartbeat();
+
+        // First sample: srtt = r, rttvar = r / 2
+        heartbeat.onPong(0, 100000);
+        assertEquals(100.0, heartbeat.getStats().srttMs, EPSILON);
+        assertEquals(50.0, heartbeat.getStats().jitterMs, EPSILON);
+
+        // Then rttvar moves a quarter of the way to |r - srtt| (old srtt), srtt an eighth towards r
+        heartbeat.onPong(1000000, 1180000);
+        assertEquals(57.5, heartbeat.getStats().jitterMs, EPSILON);
+        assertEquals(110.0, heartbeat.getStats().srttMs, EPSILON);
+
+        heartbeat.onPong(2000000, 2110000);
+        assertEquals(57.5 * 3 / 4, heartbeat.getStats().jitterMs, EPSILON);
+        assertEquals(110.0, heartbeat.getStats().srttMs, EPSILON);
+        assertEquals(3, heartbeat.getStats().pongs);
+    }
+
+    @Test
+    public void rtt_ignoresAClockThatWentBackwards() {
+        Heartbeat heartbeat = heartbeat();
+        heartbeat.onPong(0, 40000);
+        heartbeat.onPong(500000, 400000);
+
+        assertEquals(40.0, heartbeat.getStats().srttMs, EPSILON);
+        assertEquals(2, heartbeat.getStats().pongs);
+    }
+
+    @Test
+    public void silentPeer_isEvictedAfterMaxMisses() {
+        Heartbeat heartbeat = heartbeat();
+        assertEquals(Heartbeat.Action.PING, heartbeat.onTimer());
+        assertEquals(Heartbeat.Action.PING, heartbeat.onTimer());
+        assertEquals(Heartbeat.Action.PING, heartbeat.onTimer());
+        assertEquals(2, heartbeat.getStats().missed);
+        assertEquals(Heartbeat.Action.EVICT, heartbeat.onTimer());
+    }
+
+    @Test
+    public void anythingReceived_resetsTheMisses() {
+        Heartbeat heartbeat = heartbeat();
+        heartbeat.onTimer();
+        heartbeat.onTimer();
+        heartbeat.onTimer();
+        heartbeat.onReceived();
+
+        assertEquals(Heartbeat.Action.PING, heartbeat.onTimer());
+        assertEquals(0, heartbeat.getStats().missed);
+        // A pong counts as hearing from the peer too
+        heartbeat.onTimer();
+        heartbeat.onPong(0, 1000);
+        assertEquals(Heartbeat.Action.PING, heartbeat.onTimer());
+        assertEquals(0, heartbeat.getStats().missed);
+    }
+
+    @Test
+    public void idleLink_backsOffUntilTrafficOrAMiss() {
+        Heartbeat heartbeat = heartbeat();
+        long[] expected = {2000, 4000, 8000, 8000};
+        for (long interval : expected) {
+            heartbeat.onReceived();
+            heartbeat.onTimer();
+            assertEquals(interval, heartbeat.getIntervalMs());
+        }
+
+        heartbeat.onTraffic();
+        assertEquals(1000, heartbeat.getIntervalMs());
+
+        heartbeat.onReceived();
+        heartbeat.onTimer();
+        heartbeat.onReceived();
+        heartbeat.onTimer();
+        assertEquals(2000, heartbeat.getIntervalMs());
+        // Nothing heard: a miss drops straight back to the fastest probe
+        heartbeat.onTimer();
+        assertEquals(1000, heartbeat.getIntervalMs());
+    }
+}
@@ -0,0 +1,266 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * The node's three pools: named daemon threads, bounded io and dial
+ * concurrency with the overflow counted, and a shutdown that stops them all.
+ */
+public class MeshExecutorsTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private MeshExecutors executors;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (executors != null) executors.shutdown();
+    }
+
+    /**
+     * Records its thread, then blocks until the test releases it.
+     */
+    private Runnable blocker(final List<Thread> threads, final CountDownLatch started) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread());
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void eachPool_runsOnNamedDaemonThreads() throws Exception {
+        executors = new MeshExecutors(4, 2, 2);
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(3);
+
+        executors.runIo(blocker(threads, started));
+        assertTrue(executors.dial(blocker(threads, started)));
+        executors.execute(blocker(threads, started));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        List<String> names = new ArrayList<>();
+        for (Thread thread : threads) {
+            assertTrue(thread.isDaemon());
+            names.add(thread.getName().replaceAll("-\\d+$", ""));
+        }
+        assertTrue(names.contains("mesh-io"));
+        assertTrue(names.contains("mesh-dial"));
+        assertTrue(names.contains("mesh-timer"));
+    }
+
+    @Test
+    public void dials_runAFewAtATimeAndRefuseOverflow() throws Exception {
+        executors = new MeshExecutors(4, 2, 3);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger mostAtOnce = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(5);
+        Runnable attempt = new Runnable() {
+            @Override
+            public void run() {
+                int now = running.incrementAndGet();
+                while (true) {
+                    int most = mostAtOnce.get();
+                    if (now <= most || mostAtOnce.compareAndSet(most, now)) break;
+                }
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                finished.countDown();
+            }
+        };
+
+        // Two dialing, three waiting, and the sixth is turned away
+        for (int i = 0; i < 5; i++) {
+            assertTrue(executors.dial(attempt));
+        }
+        assertFalse(executors.dial(attempt));
+        waitFor(new Condition() {
+            @Override
+            public boolean holds() {
+                // The pool counts a thread active before our task has started
+                return executors.getStats().dialsActive == 2 && running.get() == 2;
+            }
+        });
+
+        MeshExecutors.Stats stats = executors.getStats();
+        assertEquals(2, stats.dialsActive);
+        assertEquals(3, stats.dialsQueued);
+        assertEquals(1, stats.dialsRejected);
+
+        release.countDown();
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, mostAtOnce.get());
+        assertEquals(0, executors.getStats().dialsQueued);
+    }
+
+    @Test
+    public void ioLoops_areCappedAndCounted() throws Exception {
+        executors = new MeshExecutors(3, 1, 1);
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            executors.runIo(blocker(threads, started));
+        }
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        try {
+            executors.runIo(blocker(threads, new CountDownLatch(1)));
+            fail("io pool took a fourth loop");
+        } catch (RejectedExecutionException expected) {
+            // The pool is full
+        }
+
+        MeshExecutors.Stats stats = executors.getStats();
+        assertEquals(3, stats.ioThreads);
+        assertEquals(3, stats.ioActive);
+        assertEquals(3, stats.ioLargest);
+        assertEquals(3, stats.ioMax);
+        assertEquals(1, stats.ioRejected);
+    }
+
+    @Test
+    public void timers_surviveAFailingTaskAndReportTheirQueue() throws Exception {
+        executors = new MeshExecutors(2, 1, 1);
+        final CountDownLatch ran = new CountDownLatch(1);
+        executors.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("boom");
+            }
+        });
+        executors.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, 10);
+        executors.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, TimeUnit.HOURS.toMillis(1));
+
+        assertTrue("timer thread died with the failing task", ran.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        waitFor(new Condition() {
+            @Override
+            public boolean holds() {
+                return executors.getStats().timersCompleted >= 2;
+            }
+        });
+        assertEquals(1, executors.getStats().timersPending);
+    }
+
+    @Test
+    public void shutdown_stopsEveryPoolAndRefusesNewWork() throws Exception {
+        executors = new MeshExecutors(4, 1, 1);
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(3);
+        executors.runIo(blocker(threads, started));
+        executors.runIo(blocker(threads, started));
+        assertTrue(executors.dial(blocker(threads, started)));
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        executors.shutdown();
+
+        assertTrue(executors.isShutdown());
+        // Blocked loops are interrupted rather than left running
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            assertFalse(thread.getName() + " still running", thread.isAlive());
+        }
+        assertNull(executors.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 0));
+        assertFalse(executors.dial(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }));
+    }
+
+    @Test
+    public void node_sizesItsIoPoolForFourLoopsPerConnection() {
+        MeshNode.Config config = new MeshNode.Config();
+        config.maxConnections = 3;
+        MeshNode node = new MeshNode(config, new MeshNode.Identity() {
+            @Override
+            public String getName() {
+                return "a";
+            }
+
+            @Override
+            public String getPhone() {
+                return "1000";
+            }
+        }, new InMemoryMessageStore(), new SeenMessageFilter(1000, 0.01, 100, null), null, new MeshNode.Listener() {
+            @Override
+            public void onPeerConnected(String address, String name) {
+            }
+
+            @Override
+            public void onPeerDisconnected(String address) {
+            }
+
+            @Override
+            public void onMessageReceived(Message message, String fromAddress) {
+            }
+
+            @Override
+            public void onMessageDelivered(String messageId, String peerAddress) {
+            }
+
+            @Override
+            public void onMessageFailed(String messageId, String error) {
+            }
+
+            @Override
+            public void onPositionUpdated(PositionFix fix, String fromAddress) {
+            }
+        });
+        try {
+            assertEquals(12, node.getExecutorStats().ioMax);
+        } finally {
+            node.shutdown();
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!condition.holds() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue("condition never held", condition.holds());
+    }
+}
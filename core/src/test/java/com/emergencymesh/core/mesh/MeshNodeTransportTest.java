@@ -0,0 +1,332 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+import com.emergencymesh.core.transport.InMemoryTransport;
+import com.emergencymesh.core.transport.TcpTransport;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs several MeshNodes in one JVM over the in-memory and loopback TCP
+ * transports: delivery, ACKs and multi-hop relay end to end. Throughput
+ * and latency are left to the benchmarks module and the simulator.
+ */
+public class MeshNodeTransportTest {
+
+    private static final int MESSAGES = 500;
+    private static final long TIMEOUT_SECONDS = 20;
+
+    private final List<TestNode> nodes = new ArrayList<>();
+
+    private static class TestNode implements MeshNode.Listener {
+        final String phone;
+        final InMemoryMessageStore store = new InMemoryMessageStore();
+        final MeshNode node;
+        final Set<String> delivered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final ConcurrentHashMap<String, Message> received = new ConcurrentHashMap<>();
+        volatile CountDownLatch receivedLatch = new CountDownLatch(0);
+        volatile CountDownLatch deliveredLatch = new CountDownLatch(0);
+        final CountDownLatch connected;
+
+        TestNode(final String name, final String phone, int expectedLinks, MeshNode.Config config) {
+            this.phone = phone;
+            this.connected = new CountDownLatch(expectedLinks);
+            MeshNode.Identity identity = new MeshNode.Identity() {
+                @Override
+                public String getName() {
+                    return name;
+                }
+
+                @Override
+                public String getPhone() {
+                    return phone;
+                }
+            };
+            SeenMessageFilter seen = new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                    SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+            this.node = new MeshNode(config, identity, store, seen, null, this);
+        }
+
+        Message send(String content, String recipientPhone) {
+            Message message = new Message(UUID.randomUUID().toString(), "sender", phone,
+                    recipientPhone, content, "text");
+            store.storeOutgoingMessage(message);
+            node.broadcastMessage(message);
+            return message;
+        }
+
+        @Override
+        public void onPeerConnected(String address, String name) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onPeerDisconnected(String address) {
+        }
+
+        @Override
+        public void onMessageReceived(Message message, String fromAddress) {
+            received.put(message.getId(), message);
+            receivedLatch.countDown();
+        }
+
+        @Override
+        public void onMessageDelivered(String messageId, String peerAddress) {
+            if (delivered.add(messageId)) {
+                deliveredLatch.countDown();
+            }
+        }
+
+        @Override
+        public void onMessageFailed(String messageId, String error) {
+        }
+
+        @Override
+        public void onPositionUpdated(PositionFix fix, String fromAddress) {
+        }
+    }
+
+    @After
+    public void shutDown() {
+        for (TestNode testNode : nodes) {
+            testNode.node.shutdown();
+        }
+    }
+
+    /**
+     * Room for a whole burst and no rate limits, so the tests measure the link
+     * rather than drops.
+     */
+    private static MeshNode.Config burstConfig() {
+        MeshNode.Config config = new MeshNode.Config();
+        config.outboundQueueCapacity = MESSAGES * 2;
+        config.inboundLimits = new RateLimiter.Limits().scaled(1000);
+        config.outboundLimits = new RateLimiter.Limits().scaled(1000);
+        return config;
+    }
+
+    private TestNode newNode(String name, String phone, int expectedLinks) {
+        return newNode(name, phone, expectedLinks, burstConfig());
+    }
+
+    private TestNode newNode(String name, String phone, int expectedLinks, MeshNode.Config config) {
+        TestNode testNode = new TestNode(name, phone, expectedLinks, config);
+        nodes.add(testNode);
+        return testNode;
+    }
+
+    private void awaitLinks(TestNode... testNodes) throws InterruptedException {
+        for (TestNode testNode : testNodes) {
+            assertTrue("links did not come up", testNode.connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void inMemory_pairDeliversAndAcks() throws Exception {
+        InMemoryTransport.Network network = new InMemoryTransport.Network();
+        TestNode a = newNode("a", "1001", 1);
+        TestNode b = newNode("b", "1002", 1);
+        InMemoryTransport transportA = new InMemoryTransport(network, "a");
+        InMemoryTransport transportB = new InMemoryTransport(network, "b");
+        a.node.listen(transportA);
+        b.node.listen(transportB);
+
+        assertTrue(a.node.connect(transportA, "b"));
+        awaitLinks(a, b);
+        assertEquals(Collections.singletonList("b"), a.node.getConnectedPeers());
+        assertEquals(Collections.singletonList("a"), b.node.getConnectedPeers());
+
+        sendBurst(a, b);
+    }
+
+    @Test
+    public void tcp_pairDeliversAndAcks() throws Exception {
+        TestNode a = newNode("a", "1001", 1);
+        TestNode b = newNode("b", "1002", 1);
+        TcpTransport transportA = new TcpTransport();
+        TcpTransport transportB = new TcpTransport();
+        a.node.listen(transportA);
+        b.node.listen(transportB);
+        try {
+            assertTrue(a.node.connect(transportA, transportB.getAddress()));
+            awaitLinks(a, b);
+
+            sendBurst(a, b);
+        } finally {
+            transportA.stopListening();
+            transportB.stopListening();
+        }
+    }
+
+    @Test
+    public void inMemory_chainRelaysAcrossHops() throws Exception {
+        InMemoryTransport.Network network = new InMemoryTransport.Network();
+        int length = 5;
+        List<TestNode> chain = new ArrayList<>();
+        List<InMemoryTransport> transports = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            int links = (i == 0 || i == length - 1) ? 1 : 2;
+            TestNode testNode = newNode("n" + i, "200" + i, links);
+            InMemoryTransport transport = new InMemoryTransport(network, "n" + i);
+            testNode.node.listen(transport);
+            chain.add(testNode);
+            transports.add(transport);
+        }
+        for (int i = 0; i < length - 1; i++) {
+            assertTrue(chain.get(i).node.connect(transports.get(i), "n" + (i + 1)));
+        }
+        awaitLinks(chain.toArray(new TestNode[0]));
+
+        TestNode first = chain.get(0);
+        TestNode last = chain.get(length - 1);
+        last.receivedLatch = new CountDownLatch(1);
+        Message message = first.send("hello from the far end", "BROADCAST");
+
+        assertTrue("message did not cross the chain", last.receivedLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Message arrived = last.received.get(message.getId());
+        assertEquals(length - 2, arrived.getHopCount());
+        assertEquals(Message.DEFAULT_TTL - (length - 2), arrived.getTtl());
+
+        // Routes spread along the chain, so an addressed reply follows next hops back
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (last.node.getRouteCount() < length - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(length - 1, last.node.getRouteCount());
+        first.receivedLatch = new CountDownLatch(1);
+        Message reply = last.send("reply", first.phone);
+        assertTrue("reply did not arrive", first.receivedLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(length - 2, first.received.get(reply.getId()).getHopCount());
+    }
+
+    @Test
+    public void inMemory_liveLocationStreamsAcrossHopsAboveThresholds() throws Exception {
+        InMemoryTransport.Network network = new InMemoryTransport.Network();
+        TestNode a = newNode("a", "3000", 1);
+        TestNode b = newNode("b", "3001", 2);
+        TestNode c = newNode("c", "3002", 1);
+        InMemoryTransport transportA = new InMemoryTransport(network, "a");
+        InMemoryTransport transportB = new InMemoryTransport(network, "b");
+        InMemoryTransport transportC = new InMemoryTransport(network, "c");
+        a.node.listen(transportA);
+        b.node.listen(transportB);
+        c.node.listen(transportC);
+        assertTrue(a.node.connect(transportA, "b"));
+        assertTrue(b.node.connect(transportB, "c"));
+        awaitLinks(a, b, c);
+
+        long t0 = 1700000000000L;
+        assertTrue(a.node.publishPosition(12.971600, 77.594600, 8f, t0));
+        awaitPosition(c, a.phone, 1);
+        assertEquals(1, c.node.getPositions().get(a.phone).getHopCount());
+
+        // A couple of metres of GPS jitter is not worth sending
+        assertFalse(a.node.publishPosition(12.971610, 77.594610, 9f, t0 + 5000));
+        // Walking 50 m is, and goes out as a delta against the ACKed fix
+        assertTrue(a.node.publishPosition(12.972050, 77.594600, 8f, t0 + 40000));
+        awaitPosition(c, a.phone, 2);
+        PositionFix moved = c.node.getPositions().get(a.phone);
+        assertEquals(12.972050, moved.getLatitude(), 1e-7);
+        assertEquals("a", moved.getSenderName());
+        // Standing still still reports in after the silence limit
+        assertTrue(a.node.publishPosition(12.972050, 77.594600, 8f, t0 + 40000 + 60000));
+        awaitPosition(c, a.phone, 3);
+    }
+
+    private void awaitPosition(TestNode testNode, String senderPhone, int sequence) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (System.currentTimeMillis() < deadline) {
+            PositionFix fix = testNode.node.getPositions().get(senderPhone);
+            if (fix != null && fix.getSequence() >= sequence) return;
+            Thread.sleep(10);
+        }
+        fail("position " + sequence + " from " + senderPhone + " did not arrive");
+    }
+
+    @Test
+    public void inMemory_floodingPeerIsShedButAlertsPass() throws Exception {
+        InMemoryTransport.Network network = new InMemoryTransport.Network();
+        TestNode flooder = newNode("a", "1001", 1);
+        MeshNode.Config limited = new MeshNode.Config();
+        TestNode victim = newNode("b", "1002", 1, limited);
+        InMemoryTransport transportA = new InMemoryTransport(network, "a");
+        flooder.node.listen(transportA);
+        victim.node.listen(new InMemoryTransport(network, "b"));
+        assertTrue(flooder.node.connect(transportA, "b"));
+        awaitLinks(flooder, victim);
+        Thread.sleep(200);
+
+        int texts = 400;
+        int alerts = 10;
+        List<String> alertIds = new ArrayList<>();
+        victim.receivedLatch = new CountDownLatch(alerts);
+        for (int i = 0; i < texts; i++) {
+            flooder.node.sendToPeer("b", new Message(UUID.randomUUID().toString(), "a", "1001",
+                    "BROADCAST", "spam " + i, "text"));
+        }
+        for (int i = 0; i < alerts; i++) {
+            Message alert = new Message(UUID.randomUUID().toString(), "a", "1001", "BROADCAST", "SOS " + i, "alert");
+            alertIds.add(alert.getId());
+            flooder.node.sendToPeer("b", alert);
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!victim.received.keySet().containsAll(alertIds) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue("alerts were shed", victim.received.keySet().containsAll(alertIds));
+
+        RateLimiter.Stats stats = victim.node.getInboundRateStats().get("a");
+        assertTrue(stats.getShed(OutboundFrame.Lane.TEXT) > 0);
+        assertEquals(0, stats.getShed(OutboundFrame.Lane.ALERT));
+        assertEquals(stats.getTotalShed(), victim.node.getInboundShedCount());
+        assertTrue(victim.received.size() < texts + alerts);
+    }
+
+    @Test
+    public void inMemory_refusesUnknownAddress() throws Exception {
+        InMemoryTransport transport = new InMemoryTransport(new InMemoryTransport.Network(), "a");
+        try {
+            transport.connect("nobody");
+            fail("expected connection refused");
+        } catch (java.io.IOException expected) {
+            assertTrue(expected.getMessage().contains("nobody"));
+        }
+    }
+
+    /**
+     * Sends a burst from {@code sender} to {@code receiver} and checks that
+     * every message arrives and is ACKed back.
+     */
+    private void sendBurst(TestNode sender, TestNode receiver) throws Exception {
+        // Let HELLOs cross so the burst uses binary frames
+        Thread.sleep(200);
+
+        receiver.receivedLatch = new CountDownLatch(MESSAGES);
+        sender.deliveredLatch = new CountDownLatch(MESSAGES);
+        List<String> ids = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            ids.add(sender.send("status update " + i + " from the field team", "BROADCAST").getId());
+        }
+        assertTrue("not all messages arrived", receiver.receivedLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue("not all messages were ACKed", sender.deliveredLatch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertTrue(receiver.received.keySet().containsAll(ids));
+        assertEquals(0, sender.node.getPendingOutgoingCount());
+        for (String id : ids) {
+            assertTrue(sender.store.getMessageById(id).isDelivered());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    private static OutboundFrame frame(String type, String content, List<String> failures) {
+        Message message = new Message(content, "Ravi", "+911234567890", "BROADCAST", content, type);
+        return new OutboundFrame(message, 0, failures == null ? null : new Recorder(failures));
+    }
+
+    private static OutboundFrame frame(String type, String content) {
+        return frame(type, content, null);
+    }
+
+    private static String next(OutboundQueue queue) throws InterruptedException {
+        return queue.take().getMessage().getContent();
+    }
+
+    private static class Recorder implements OutboundFrame.Callback {
+        private final List<String> failures;
+
+        Recorder(List<String> failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public void onWritten(OutboundFrame frame) {
+        }
+
+        @Override
+        public void onFailed(OutboundFrame frame, String reason) {
+            failures.add(frame.getMessage().getContent() + ": " + reason);
+        }
+    }
+
+    @Test
+    public void reject_refusesOnceFull() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.REJECT);
+        assertEquals(OutboundQueue.OfferResult.QUEUED, queue.offer(frame("text", "t1")));
+        assertEquals(OutboundQueue.OfferResult.QUEUED, queue.offer(frame("text", "t2")));
+
+        // Even an alert is refused: REJECT never evicts
+        assertEquals(OutboundQueue.OfferResult.REJECTED, queue.offer(frame("alert", "a1")));
+
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.getStats().highWatermark);
+        assertEquals(1, queue.getStats().rejected);
+    }
+
+    @Test
+    public void disconnect_reportsOverflow() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT);
+        assertEquals(OutboundQueue.OfferResult.QUEUED, queue.offer(frame("text", "t1")));
+        assertEquals(OutboundQueue.OfferResult.OVERFLOW, queue.offer(frame("text", "t2")));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void dropOldest_evictsOldestOfTheSameLane() throws Exception {
+        List<String> failures = new ArrayList<>();
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(frame("text", "t1", failures));
+        queue.offer(frame("text", "t2", failures));
+
+        assertEquals(OutboundQueue.OfferResult.QUEUED_DROPPED_OLDEST, queue.offer(frame("text", "t3", failures)));
+
+        assertEquals(2, queue.size());
+        assertEquals("t2", next(queue));
+        assertEquals("t3", next(queue));
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0).startsWith("t1: Dropped"));
+        assertEquals(1, queue.getStats().dropped);
+    }
+
+    @Test
+    public void close_discardsQueuedFramesAndWakesTheWriter() throws Exception {
+        List<String> failures = new ArrayList<>();
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(frame("text", "t1", failures));
+        queue.offer(frame("alert", "a1", failures));
+
+        queue.close();
+
+        assertNull(queue.take());
+        assertEquals(0, queue.size());
+        assertEquals(2, failures.size());
+        assertEquals(OutboundQueue.OfferResult.REJECTED, queue.offer(frame("text", "t2")));
+    }
+
+    @Test
+    public void capacity_mustBePositive() {
+        try {
+            new OutboundQueue(0, OutboundQueue.OverflowPolicy.REJECT);
+            fail("zero capacity accepted");
+        } catch (IllegalArgumentException expected) {
+            // A queue must hold at least one frame
+        }
+    }
+
+    @Test
+    public void alerts_areWrittenAheadOfEverythingQueued() throws Exception {
+        OutboundQueue queue = new OutboundQueue(16, OutboundQueue.OverflowPolicy.REJECT);
+        queue.offer(frame("location", "l1"));
+        queue.offer(frame("text", "t1"));
+        queue.offer(frame("ack", "c1"));
+        queue.offer(frame("alert", "a1"));
+        queue.offer(frame("alert", "a2"));
+
+        assertEquals("a1", next(queue));
+        assertEquals("a2", next(queue));
+        queue.offer(frame("alert", "a3"));
+        assertEquals("a3", next(queue));
+    }
+
+    @Test
+    public void backlog_isSharedFourTwoOne() throws Exception {
+        // Aging far out of reach, so only the weights decide
+        OutboundQueue queue = new OutboundQueue(300, OutboundQueue.OverflowPolicy.REJECT, 60000);
+        for (int i = 0; i < 70; i++) {
+            queue.offer(frame("location", "location"));
+            queue.offer(frame("text", "text"));
+            queue.offer(frame("ack", "ack"));
+        }
+
+        int location = 0;
+        int text = 0;
+        int control = 0;
+        for (int i = 0; i < 70; i++) {
+            String content = next(queue);
+            if (content.equals("location")) location++;
+            else if (content.equals("text")) text++;
+            else control++;
+        }
+
+        assertEquals(40, location);
+        assertEquals(20, text);
+        assertEquals(10, control);
+        assertEquals(0, queue.getStats().aged);
+    }
+
+    @Test
+    public void agedFrame_jumpsTheWeighting() throws Exception {
+        // Zero wait: every head is past the limit, so the oldest goes first
+        OutboundQueue aging = new OutboundQueue(16, OutboundQueue.OverflowPolicy.REJECT, 0);
+        OutboundQueue weighted = new OutboundQueue(16, OutboundQueue.OverflowPolicy.REJECT, 60000);
+        for (OutboundQueue queue : new OutboundQueue[] {aging, weighted}) {
+            queue.offer(frame("ack", "c1"));
+            for (int i = 0; i < 4; i++) queue.offer(frame("location", "l" + i));
+        }
+
+        assertEquals("c1", next(aging));
+        assertEquals(1, aging.getStats().aged);
+        // Within the limit the ACK waits its turn behind location
+        assertEquals("l0", next(weighted));
+        assertEquals(0, weighted.getStats().aged);
+        assertEquals(2000, OutboundQueue.DEFAULT_MAX_WAIT_MS);
+    }
+
+    @Test
+    public void dropOldest_neverEvictsAHigherLane() throws Exception {
+        List<String> failures = new ArrayList<>();
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(frame("alert", "a1", failures));
+        queue.offer(frame("location", "l1", failures));
+
+        // Text may not displace location or an alert
+        assertEquals(OutboundQueue.OfferResult.REJECTED, queue.offer(frame("text", "t1", failures)));
+        // An alert displaces the lowest lane first
+        assertEquals(OutboundQueue.OfferResult.QUEUED_DROPPED_OLDEST, queue.offer(frame("alert", "a2", failures)));
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0).startsWith("l1"));
+
+        // Now only alerts are queued: nothing below them can get in
+        assertEquals(OutboundQueue.OfferResult.REJECTED, queue.offer(frame("location", "l2", failures)));
+        assertEquals("a1", next(queue));
+        assertEquals("a2", next(queue));
+    }
+}
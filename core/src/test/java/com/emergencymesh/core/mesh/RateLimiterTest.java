@@ -0,0 +1,83 @@
+package com.emergencymesh.core.mesh;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private static RateLimiter.Limits limits() {
+        RateLimiter.Limits limits = new RateLimiter.Limits();
+        limits.total = new RateLimiter.Budget(10, 20);
+        limits.alert = new RateLimiter.Budget(5, 10);
+        limits.location = new RateLimiter.Budget(5, 10);
+        limits.text = new RateLimiter.Budget(10, 20);
+        limits.control = new RateLimiter.Budget(10, 20);
+        return limits;
+    }
+
+    @Test
+    public void laneBudget_burstThenRefill() {
+        RateLimiter limiter = new RateLimiter(limits(), 0);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire(OutboundFrame.Lane.ALERT, 0));
+        }
+        assertFalse(limiter.tryAcquire(OutboundFrame.Lane.ALERT, 0));
+
+        // 5 per second: one token back after 200 ms
+        assertTrue(limiter.tryAcquire(OutboundFrame.Lane.ALERT, SECOND / 5));
+        assertFalse(limiter.tryAcquire(OutboundFrame.Lane.ALERT, SECOND / 5));
+
+        RateLimiter.Stats stats = limiter.getStats();
+        assertEquals(11, stats.getAdmitted(OutboundFrame.Lane.ALERT));
+        assertEquals(2, stats.getShed(OutboundFrame.Lane.ALERT));
+    }
+
+    @Test
+    public void overload_shedsTextFirstWhileAlertsPass() {
+        RateLimiter limiter = new RateLimiter(limits(), 0);
+        int text = 0;
+        while (limiter.tryAcquire(OutboundFrame.Lane.TEXT, 0)) text++;
+        // Text leaves half of the shared bucket
+        assertEquals(10, text);
+
+        int location = 0;
+        while (limiter.tryAcquire(OutboundFrame.Lane.LOCATION, 0)) location++;
+        // Location may take it down to a quarter
+        assertEquals(5, location);
+
+        int control = 0;
+        while (limiter.tryAcquire(OutboundFrame.Lane.CONTROL, 0)) control++;
+        assertEquals(3, control);
+
+        // Alerts drain the rest and are then limited by their own budget only
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire(OutboundFrame.Lane.ALERT, 0));
+        }
+        assertFalse(limiter.tryAcquire(OutboundFrame.Lane.ALERT, 0));
+        // One refusal per lane, each ending its loop
+        assertEquals(4, limiter.getStats().getTotalShed());
+        assertEquals(1, limiter.getStats().getShed(OutboundFrame.Lane.ALERT));
+    }
+
+    @Test
+    public void deferrable_isNotCountedAsShed() {
+        RateLimiter limiter = new RateLimiter(limits(), 0);
+        while (limiter.tryAcquireDeferrable(OutboundFrame.Lane.TEXT, 0)) {
+            // drain
+        }
+        RateLimiter.Stats stats = limiter.getStats();
+        assertEquals(0, stats.getTotalShed());
+        assertEquals(1, stats.deferred);
+    }
+
+    @Test
+    public void scaled_multipliesEveryBudget() {
+        RateLimiter.Limits scaled = limits().scaled(0.5);
+        assertEquals(5, scaled.total.perSecond, 0.0);
+        assertEquals(10, scaled.total.burst);
+        assertEquals(5, scaled.alert.burst);
+    }
+}
@@ -0,0 +1,102 @@
+package com.emergencymesh.core.mesh;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RetransmissionManagerTest {
+
+    private static final long ACK_TIMEOUT = 1000;
+    private static final long MAX_BACKOFF = 8000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("retransmissions", ".json");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private RetransmissionManager manager(File stateFile, int maxAttempts) {
+        return new RetransmissionManager(stateFile, ACK_TIMEOUT, MAX_BACKOFF, maxAttempts, new Random(7));
+    }
+
+    @Test
+    public void backoff_doublesWithEqualJitterUpToTheCap() {
+        RetransmissionManager manager = manager(null, 10);
+        long[] ceilings = {1000, 2000, 4000, 8000, 8000, 8000};
+        for (int attempt = 1; attempt <= ceilings.length; attempt++) {
+            long ceiling = ceilings[attempt - 1];
+            for (int i = 0; i < 200; i++) {
+                long delay = manager.backoff(attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            }
+        }
+        // A huge attempt count must not overflow past the cap
+        long delay = manager.backoff(64);
+        assertTrue(delay >= MAX_BACKOFF / 2 && delay <= MAX_BACKOFF);
+    }
+
+    @Test
+    public void unanswered_retriesUntilMaxAttemptsThenGivesUp() {
+        RetransmissionManager manager = manager(null, 3);
+        long now = 0;
+        manager.onSent("m1", now);
+
+        int retries = 0;
+        RetransmissionManager.Due due;
+        do {
+            now = manager.nextDeadline();
+            due = manager.poll(now);
+            retries += due.retry.size();
+        } while (due.gaveUp.isEmpty());
+
+        // Three writes in all: the first plus two retries
+        assertEquals(2, retries);
+        assertEquals(Collections.singletonList("m1"), due.gaveUp);
+        assertEquals(0, manager.size());
+        assertEquals(-1, manager.nextDeadline());
+    }
+
+    @Test
+    public void poll_leavesEntriesThatAreNotDueYet() {
+        RetransmissionManager manager = manager(null, 3);
+        manager.onSent("m1", 0);
+
+        RetransmissionManager.Due due = manager.poll(ACK_TIMEOUT / 2 - 1);
+        assertTrue(due.retry.isEmpty());
+        assertTrue(due.gaveUp.isEmpty());
+
+        manager.onAcked(Collections.singletonList("m1"));
+        assertEquals(0, manager.size());
+    }
+
+    @Test
+    public void inFlightState_survivesReload() {
+        RetransmissionManager manager = manager(file, 3);
+        manager.onSent("m1", 0);
+        manager.onSent("m2", 0);
+        manager.poll(manager.nextDeadline());
+        long deadline = manager.nextDeadline();
+
+        RetransmissionManager reloaded = manager(file, 3);
+        assertEquals(2, reloaded.size());
+        assertEquals(deadline, reloaded.nextDeadline());
+
+        reloaded.onAcked(Collections.singletonList("m1"));
+        assertEquals(1, manager(file, 3).size());
+    }
+}
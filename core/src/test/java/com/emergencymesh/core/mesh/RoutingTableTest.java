@@ -0,0 +1,119 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.protocol.FrameCodec;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RoutingTableTest {
+
+    private static final long TIMEOUT = 30000;
+    private static final String DEST = "919800000001";
+
+    private static List<FrameCodec.RouteEntry> advert(String destination, int metric, int sequence) {
+        return Collections.singletonList(new FrameCodec.RouteEntry(destination, metric, sequence));
+    }
+
+    private static FrameCodec.RouteEntry entryFor(List<FrameCodec.RouteEntry> advert, String destination) {
+        for (FrameCodec.RouteEntry entry : advert) {
+            if (entry.destination.equals(destination)) return entry;
+        }
+        return null;
+    }
+
+    @Test
+    public void sameSequence_prefersTheShorterPath() {
+        RoutingTable table = new RoutingTable("919800000000", TIMEOUT);
+        assertTrue(table.onAdvert("A", advert(DEST, 2, 4), 0));
+        assertEquals("A", table.nextHop(DEST, 0));
+
+        assertTrue(table.onAdvert("B", advert(DEST, 0, 4), 0));
+        assertEquals("B", table.nextHop(DEST, 0));
+
+        // An equal or longer path with the same sequence changes nothing
+        assertFalse(table.onAdvert("A", advert(DEST, 0, 4), 0));
+        assertFalse(table.onAdvert("A", advert(DEST, 3, 4), 0));
+        assertEquals("B", table.nextHop(DEST, 0));
+    }
+
+    @Test
+    public void newerSequence_winsUnlessItCameTheLongWay() {
+        RoutingTable table = new RoutingTable("919800000000", TIMEOUT);
+        table.onAdvert("B", advert(DEST, 0, 4), 0);
+
+        // Newer, but over a longer path than the live route: wait for the next hop
+        table.onAdvert("A", advert(DEST, 2, 6), 0);
+        assertEquals("B", table.nextHop(DEST, 0));
+
+        // Newer over an equally short path is taken
+        table.onAdvert("A", advert(DEST, 0, 8), 0);
+        assertEquals("A", table.nextHop(DEST, 0));
+
+        // An older sequence never wins, however short
+        table.onAdvert("B", advert(DEST, 0, 6), 0);
+        assertEquals("A", table.nextHop(DEST, 0));
+        assertEquals(8, entryFor(table.buildAdvert("C"), DEST).sequence);
+    }
+
+    @Test
+    public void linkDown_poisonsWithAnOddSequenceUntilTheDestinationSpeaksAgain() {
+        RoutingTable table = new RoutingTable("919800000000", TIMEOUT);
+        table.onAdvert("B", advert(DEST, 0, 4), 0);
+
+        assertTrue(table.onLinkDown("B"));
+        assertNull(table.nextHop(DEST, 0));
+        FrameCodec.RouteEntry poisoned = entryFor(table.buildAdvert("C"), DEST);
+        assertEquals(RoutingTable.INFINITY, poisoned.metric);
+        assertEquals(5, poisoned.sequence);
+
+        // A stale copy of the old round cannot resurrect it
+        table.onAdvert("A", advert(DEST, 1, 4), 0);
+        assertNull(table.nextHop(DEST, 0));
+        // The destination's next round can
+        table.onAdvert("A", advert(DEST, 1, 6), 0);
+        assertEquals("A", table.nextHop(DEST, 0));
+    }
+
+    @Test
+    public void unrefreshedRoute_expiresThenIsForgotten() {
+        RoutingTable table = new RoutingTable("919800000000", TIMEOUT);
+        table.onAdvert("B", advert(DEST, 0, 4), 0);
+
+        assertEquals("B", table.nextHop(DEST, TIMEOUT - 1));
+        assertNull(table.nextHop(DEST, TIMEOUT));
+
+        // Refreshed by the next hop, it lives on
+        table.onAdvert("B", advert(DEST, 0, 4), TIMEOUT / 2);
+        assertFalse(table.expire(TIMEOUT));
+        assertEquals(1, table.size());
+
+        assertTrue(table.expire(TIMEOUT / 2 + TIMEOUT));
+        assertEquals(0, table.size());
+        assertNotNull(entryFor(table.buildAdvert("C"), DEST));
+        // Advertised as unreachable for one more timeout, then dropped
+        assertFalse(table.expire(TIMEOUT / 2 + 2 * TIMEOUT));
+        assertNull(entryFor(table.buildAdvert("C"), DEST));
+    }
+
+    @Test
+    public void advert_carriesSelfAndPoisonsReverseRoutes() {
+        RoutingTable table = new RoutingTable("+91 98000-00000", TIMEOUT);
+        table.onAdvert("B", advert(DEST, 1, 4), 0);
+        table.nextRound();
+
+        List<FrameCodec.RouteEntry> toB = table.buildAdvert("B");
+        FrameCodec.RouteEntry self = entryFor(toB, "919800000000");
+        assertEquals(0, self.metric);
+        assertEquals(2, self.sequence);
+        assertEquals(RoutingTable.INFINITY, entryFor(toB, DEST).metric);
+        assertEquals(2, entryFor(table.buildAdvert("C"), DEST).metric);
+
+        // Our own number is never learned as a route
+        table.onAdvert("B", advert("919800000000", 0, 100), 0);
+        assertTrue(table.isSelf("+91 9800000000"));
+        assertNull(table.nextHop("919800000000", 0));
+    }
+}
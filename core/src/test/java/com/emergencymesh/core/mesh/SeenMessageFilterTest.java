@@ -0,0 +1,107 @@
+package com.emergencymesh.core.mesh;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verdicts, generation rotation and persistence of the seen-message filter.
+ */
+public class SeenMessageFilterTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("seen", ".bin");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private static int countNew(SeenMessageFilter filter, String prefix, int count) {
+        int fresh = 0;
+        for (int i = 0; i < count; i++) {
+            if (filter.check(prefix + i) == SeenMessageFilter.Verdict.NEW) fresh++;
+        }
+        return fresh;
+    }
+
+    @Test
+    public void verdicts_newThenDuplicateThenMaybe() {
+        SeenMessageFilter filter = new SeenMessageFilter(1000, 0.01, 2, null);
+        assertEquals(SeenMessageFilter.Verdict.NEW, filter.check("a"));
+
+        filter.add("a");
+        assertEquals(SeenMessageFilter.Verdict.DUPLICATE, filter.check("a"));
+
+        // Pushed out of the exact cache, "a" is only a Bloom hit
+        filter.add("b");
+        filter.add("c");
+        assertEquals(SeenMessageFilter.Verdict.MAYBE, filter.check("a"));
+        assertEquals(SeenMessageFilter.Verdict.DUPLICATE, filter.check("c"));
+        assertEquals(SeenMessageFilter.Verdict.NEW, filter.check(null));
+    }
+
+    @Test
+    public void rotation_keepsOneGenerationBackThenForgets() {
+        SeenMessageFilter filter = new SeenMessageFilter(100, 0.001, 1, null);
+        for (int i = 0; i < 100; i++) filter.add("old-" + i);
+
+        // The second generation pushes the first into the previous slot
+        for (int i = 0; i < 100; i++) filter.add("mid-" + i);
+        assertEquals(0, countNew(filter, "old-", 100));
+
+        // The third drops it; only the odd false positive remains
+        for (int i = 0; i < 100; i++) filter.add("new-" + i);
+        assertTrue(countNew(filter, "old-", 100) >= 95);
+        assertEquals(0, countNew(filter, "mid-", 100));
+        assertEquals(0, countNew(filter, "new-", 100));
+    }
+
+    @Test
+    public void flush_roundTripsThroughTheStateFile() {
+        SeenMessageFilter filter = new SeenMessageFilter(1000, 0.01, 10, file);
+        for (int i = 0; i < 50; i++) filter.add("id-" + i);
+        filter.flush();
+
+        SeenMessageFilter reloaded = new SeenMessageFilter(1000, 0.01, 10, file);
+        // The exact cache comes back for the most recent IDs, the bits for the rest
+        assertEquals(SeenMessageFilter.Verdict.DUPLICATE, reloaded.check("id-49"));
+        assertEquals(SeenMessageFilter.Verdict.MAYBE, reloaded.check("id-0"));
+        assertEquals(0, countNew(reloaded, "id-", 50));
+    }
+
+    @Test
+    public void changedSizing_startsEmpty() {
+        SeenMessageFilter filter = new SeenMessageFilter(1000, 0.01, 10, file);
+        filter.add("id-1");
+        filter.flush();
+
+        SeenMessageFilter resized = new SeenMessageFilter(2000, 0.01, 10, file);
+        assertEquals(SeenMessageFilter.Verdict.NEW, resized.check("id-1"));
+    }
+
+    @Test
+    public void add_leavesTheWriteToTheBackground() throws Exception {
+        SeenMessageFilter filter = new SeenMessageFilter(1000, 0.01, 10, file);
+        for (int i = 0; i < 100; i++) filter.add("id-" + i);
+        assertFalse("add() wrote on the caller's thread", file.exists());
+
+        long deadline = System.currentTimeMillis() + SeenMessageFilter.SAVE_DELAY_MS + 5000;
+        while (!file.exists() && System.currentTimeMillis() < deadline) Thread.sleep(50);
+        assertTrue(file.exists());
+
+        SeenMessageFilter reloaded = new SeenMessageFilter(1000, 0.01, 10, file);
+        assertEquals(SeenMessageFilter.Verdict.DUPLICATE, reloaded.check("id-99"));
+    }
+}
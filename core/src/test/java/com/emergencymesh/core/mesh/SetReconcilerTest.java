@@ -0,0 +1,116 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.protocol.FrameCodec;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SetReconcilerTest {
+
+    private static List<Message> messages(String prefix, int count) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message(prefix + i, "Ravi", "+911234567890", "BROADCAST", "m" + i, "text"));
+        }
+        return messages;
+    }
+
+    private static List<Message> union(List<Message> a, List<Message> b) {
+        List<Message> all = new ArrayList<>(a);
+        all.addAll(b);
+        return all;
+    }
+
+    // Through the wire format, as the peer would receive it
+    private static FrameCodec.SyncSummary summary(SetReconciler peer, int cells) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameCodec.writeFrame(out, FrameCodec.TYPE_SYNC_SUMMARY, 0, peer.buildSummary(cells));
+        return FrameCodec.decodeSyncSummary(FrameCodec.readFrame(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    private static Set<String> ids(List<Message> messages) {
+        Set<String> ids = new HashSet<>();
+        for (Message message : messages) ids.add(message.getId());
+        return ids;
+    }
+
+    @Test
+    public void smallDifference_pushesWhatThePeerLacks() throws Exception {
+        List<Message> shared = messages("shared-", 300);
+        List<Message> oursOnly = messages("ours-", 5);
+        SetReconciler ours = new SetReconciler(union(shared, oursOnly));
+        SetReconciler theirs = new SetReconciler(union(shared, messages("theirs-", 3)));
+
+        SetReconciler.Outcome outcome = ours.onSummary(summary(theirs, SetReconciler.INITIAL_CELLS));
+
+        assertFalse(outcome.gaveUp);
+        assertEquals(0, outcome.retryCells);
+        assertEquals(ids(oursOnly), ids(outcome.toPush));
+        assertEquals(5, outcome.peerMissing);
+        assertEquals(3, outcome.localMissing);
+    }
+
+    @Test
+    public void undersizedSummary_asksForALargerOne() throws Exception {
+        List<Message> shared = messages("shared-", 100);
+        SetReconciler ours = new SetReconciler(union(shared, messages("ours-", 60)));
+        SetReconciler theirs = new SetReconciler(union(shared, messages("theirs-", 60)));
+        ours.buildSummary(SetReconciler.INITIAL_CELLS);
+
+        SetReconciler.Outcome outcome = ours.onSummary(summary(theirs, SetReconciler.INITIAL_CELLS));
+
+        assertFalse(outcome.gaveUp);
+        assertTrue(outcome.toPush.isEmpty());
+        assertEquals(SetReconciler.nextSize(SetReconciler.INITIAL_CELLS, 0), outcome.retryCells);
+
+        // Escalating, as both sides do, until the difference peels
+        int cells = outcome.retryCells;
+        while (outcome.retryCells > 0) {
+            cells = outcome.retryCells;
+            ours.buildSummary(cells);
+            outcome = ours.onSummary(summary(theirs, cells));
+        }
+        assertFalse(outcome.gaveUp);
+        assertEquals(60, outcome.toPush.size());
+        assertTrue(cells <= 4 * 120);
+
+        // A size already decoded is ignored, e.g. the peer's duplicate retry
+        assertTrue(ours.onSummary(summary(theirs, cells)).toPush.isEmpty());
+    }
+
+    @Test
+    public void nextSize_doublesAndCoversTheSizeGap() {
+        assertEquals(48, SetReconciler.nextSize(24, 0));
+        assertEquals(96, SetReconciler.nextSize(48, 10));
+        // 1000 missing messages need ~1500 cells: 24 doubles straight to 1536
+        assertEquals(1536, SetReconciler.nextSize(24, 1000));
+        assertTrue(SetReconciler.nextSize(SetReconciler.MAX_CELLS, 0) > SetReconciler.MAX_CELLS);
+    }
+
+    @Test
+    public void tooLargeADifference_givesUpAtMaxCells() throws Exception {
+        SetReconciler ours = new SetReconciler(messages("ours-", 5000));
+        SetReconciler theirs = new SetReconciler(new ArrayList<Message>());
+
+        SetReconciler.Outcome outcome = ours.onSummary(summary(theirs, SetReconciler.MAX_CELLS));
+
+        assertTrue(outcome.gaveUp);
+        assertEquals(0, outcome.retryCells);
+        assertTrue(outcome.toPush.isEmpty());
+    }
+
+    @Test
+    public void acks_areLeftOutOfTheSet() {
+        List<Message> messages = messages("m-", 3);
+        messages.get(0).setMessageType("ack");
+        assertEquals(2, new SetReconciler(messages).getLocalSetSize());
+    }
+}
@@ -0,0 +1,252 @@
+package com.emergencymesh.core.mesh;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+import com.emergencymesh.core.transport.InMemoryTransport;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Our unACKed messages are kept until a peer ACKs them and drained to each
+ * newly connected peer by priority, at a pace that leaves room for live
+ * traffic.
+ */
+public class StoreAndForwardTest {
+
+    private static final long TIMEOUT_SECONDS = 20;
+
+    private final List<MeshNode> nodes = new ArrayList<>();
+
+    private static Message message(String id, String type, long timestamp) {
+        Message message = new Message(id, "sender", "1000", "BROADCAST", "content " + id, type);
+        message.setTimestamp(timestamp);
+        return message;
+    }
+
+    private static Message alertRevision(String alertId, int revision) {
+        Message message = message(alertId + "#" + revision, "alert", 1000 + revision);
+        message.setAlertId(alertId);
+        message.setRevision(revision);
+        return message;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void snapshot_drainsAlertsThenLocationThenTextOldestFirst() {
+        StoreAndForward outbox = new StoreAndForward();
+        outbox.add(message("text-new", "text", 300));
+        outbox.add(message("location-new", "location", 200));
+        outbox.add(message("alert", "alert", 500));
+        outbox.add(message("text-old", "text", 100));
+        outbox.add(message("location-old", "location", 50));
+
+        assertEquals(Arrays.asList("alert", "location-old", "location-new", "text-old", "text-new"),
+                ids(outbox.snapshot()));
+    }
+
+    @Test
+    public void ack_removesFromTheBacklog() {
+        StoreAndForward outbox = new StoreAndForward();
+        outbox.add(message("a", "text", 1));
+        outbox.add(message("b", "text", 2));
+        outbox.add(message("c", "text", 3));
+
+        assertEquals(2, outbox.remove(Arrays.asList("a", "c", "unknown")));
+
+        assertFalse(outbox.isPending("a"));
+        assertTrue(outbox.isPending("b"));
+        assertEquals(Collections.singletonList("b"), ids(outbox.snapshot()));
+        assertEquals(1, outbox.size());
+    }
+
+    @Test
+    public void load_skipsDeliveredAndAcks() {
+        Message delivered = message("delivered", "text", 1);
+        delivered.setDelivered(true);
+        StoreAndForward outbox = new StoreAndForward();
+
+        outbox.load(Arrays.asList(delivered, message("ack", "ack", 2), message("pending", "text", 3)));
+
+        assertEquals(Collections.singletonList("pending"), ids(outbox.snapshot()));
+        assertFalse(outbox.add(message("pending", "text", 3)));
+    }
+
+    @Test
+    public void newerAlertRevision_replacesOlderOnes() {
+        StoreAndForward outbox = new StoreAndForward();
+        outbox.add(alertRevision("sos", 0));
+        outbox.add(alertRevision("sos", 1));
+        outbox.add(alertRevision("other", 0));
+
+        Message latest = alertRevision("sos", 2);
+        assertEquals(Arrays.asList("sos#0", "sos#1"), sortedCopy(outbox.removeSuperseded(latest)));
+        outbox.add(latest);
+
+        assertEquals(Arrays.asList("other#0", "sos#2"), ids(outbox.snapshot()));
+        // An older revision arriving late replaces nothing
+        assertTrue(outbox.removeSuperseded(alertRevision("sos", 1)).isEmpty());
+    }
+
+    private static List<String> sortedCopy(List<String> ids) {
+        List<String> sorted = new ArrayList<>(ids);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    // Draining to a peer
+
+    private static class Recorder implements MeshNode.Listener {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final List<Long> receivedAt = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onPeerConnected(String address, String name) {
+            connected.countDown();
+        }
+
+        @Override
+        public void onPeerDisconnected(String address) {
+        }
+
+        @Override
+        public void onMessageReceived(Message message, String fromAddress) {
+            receivedAt.add(System.currentTimeMillis());
+            received.add(message.getId());
+        }
+
+        @Override
+        public void onMessageDelivered(String messageId, String peerAddress) {
+        }
+
+        @Override
+        public void onMessageFailed(String messageId, String error) {
+        }
+
+        @Override
+        public void onPositionUpdated(PositionFix fix, String fromAddress) {
+        }
+    }
+
+    @After
+    public void shutDown() {
+        for (MeshNode node : nodes) {
+            node.shutdown();
+        }
+    }
+
+    private MeshNode newNode(final String phone, Recorder recorder) {
+        MeshNode.Identity identity = new MeshNode.Identity() {
+            @Override
+            public String getName() {
+                return phone;
+            }
+
+            @Override
+            public String getPhone() {
+                return phone;
+            }
+        };
+        SeenMessageFilter seen = new SeenMessageFilter(SeenMessageFilter.DEFAULT_GENERATION_CAPACITY,
+                SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE, SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE, null);
+        // No rate limits, so only the drain's own pacing is measured
+        MeshNode.Config config = new MeshNode.Config();
+        config.inboundLimits = new RateLimiter.Limits().scaled(1000);
+        config.outboundLimits = new RateLimiter.Limits().scaled(1000);
+        MeshNode node = new MeshNode(config, identity, new InMemoryMessageStore(), seen, null, recorder);
+        nodes.add(node);
+        return node;
+    }
+
+    private static List<String> lane(List<String> ids, String prefix) {
+        List<String> lane = new ArrayList<>();
+        for (String id : ids) {
+            if (id.startsWith(prefix)) lane.add(id);
+        }
+        return lane;
+    }
+
+    @Test
+    public void backlog_drainsInOrderAtAPaceThatLeavesRoomForLiveTraffic() throws Exception {
+        InMemoryTransport.Network network = new InMemoryTransport.Network();
+        Recorder senderEvents = new Recorder();
+        Recorder receiverEvents = new Recorder();
+        MeshNode sender = newNode("1000", senderEvents);
+        newNode("2000", receiverEvents).listen(new InMemoryTransport(network, "b"));
+
+        // Queued while alone; kept out of the store so set sync cannot push them instead
+        int texts = 40;
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < texts; i++) {
+            sender.queueForDelivery(message("text-" + i, "text", 1000 + i));
+        }
+        sender.queueForDelivery(message("location-1", "location", 900));
+        sender.queueForDelivery(message("location-0", "location", 800));
+        sender.queueForDelivery(alertRevision("sos", 0));
+        sender.queueForDelivery(alertRevision("sos", 1));
+        expected.add("sos#1");
+        expected.add("location-0");
+        expected.add("location-1");
+        for (int i = 0; i < texts; i++) {
+            expected.add("text-" + i);
+        }
+        assertEquals(expected.size(), sender.getPendingOutgoingCount());
+
+        InMemoryTransport transport = new InMemoryTransport(network, "a");
+        sender.listen(transport);
+        long connectedAt = System.currentTimeMillis();
+        assertTrue(sender.connect(transport, "b"));
+        assertTrue("link did not come up", senderEvents.connected.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // Live traffic sent while the backlog drains overtakes it
+        Thread.sleep(300);
+        Message live = message("live", "text", 5000);
+        long liveSentAt = System.currentTimeMillis();
+        sender.broadcastMessage(live);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        while (!receiverEvents.received.contains("live") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        int liveIndex = receiverEvents.received.indexOf("live");
+        assertTrue("live message never arrived", liveIndex >= 0);
+        assertTrue(receiverEvents.receivedAt.get(liveIndex) - liveSentAt < 1000);
+        assertTrue("live message waited for the backlog: arrived after " + liveIndex,
+                liveIndex < expected.size() / 2);
+
+        while (sender.getPendingOutgoingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        // Every backlog message is ACKed and let go
+        assertEquals(0, sender.getPendingOutgoingCount());
+
+        List<String> backlog = new ArrayList<>(receiverEvents.received);
+        backlog.remove("live");
+        assertEquals(expected.size(), backlog.size());
+        // The alert is written first; location and text then share the link by
+        // lane weight, each lane oldest first, locations within the first tick
+        assertEquals("sos#1", backlog.get(0));
+        assertEquals(Arrays.asList("location-0", "location-1"), lane(backlog, "location-"));
+        assertEquals(expected.subList(3, expected.size()), lane(backlog, "text-"));
+        assertTrue(backlog.indexOf("location-1") < 4);
+        // Four messages a tick, a tick every 250 ms
+        long drained = receiverEvents.receivedAt.get(receiverEvents.receivedAt.size() - 1) - connectedAt;
+        assertTrue("backlog was not paced: " + drained + " ms", drained >= (expected.size() / 4 - 2) * 250L);
+    }
+}
@@ -0,0 +1,214 @@
+package com.emergencymesh.core.protocol;
+
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.model.PositionFix;
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip checks for the binary frame format, plus a size comparison
+ * against the legacy Gson line format.
+ */
+public class FrameCodecTest {
+
+    private Message sampleAlert() {
+        Message message = new Message(
+                UUID.randomUUID().toString(),
+                "Asha Verma",
+                "+919876543210",
+                "BROADCAST",
+                "🚨 EMERGENCY ALERT 🚨\n\nI need immediate help!\n\nFrom: Asha Verma\nPhone: +919876543210",
+                "alert"
+        );
+        message.setTimestamp(1700000000000L);
+        return message;
+    }
+
+    @Test
+    public void message_roundTrips() throws Exception {
+        Message original = sampleAlert().forwardCopy();
+        original.setDelivered(true);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(FrameCodec.encodeMessage(original));
+        Message decoded = FrameCodec.decodeMessage(FrameCodec.readFrame(in));
+
+        assertEquals(original.getId(), decoded.getId());
+        assertEquals(original.getSenderName(), decoded.getSenderName());
+        assertEquals(original.getSenderPhone(), decoded.getSenderPhone());
+        assertEquals(original.getRecipientPhone(), decoded.getRecipientPhone());
+        assertEquals(original.getContent(), decoded.getContent());
+        assertEquals(original.getTimestamp(), decoded.getTimestamp());
+        assertEquals(original.getMessageType(), decoded.getMessageType());
+        assertEquals(Message.DEFAULT_TTL - 1, decoded.getTtl());
+        assertEquals(1, decoded.getHopCount());
+        assertTrue(decoded.isDelivered());
+        assertNull(FrameCodec.readFrame(in));
+    }
+
+    @Test
+    public void alertRevision_roundTrips() throws Exception {
+        Message original = sampleAlert();
+        original.setAlertId(UUID.randomUUID().toString());
+        original.setRevision(7);
+
+        FrameCodec.Frame frame = FrameCodec.readFrame(new ByteArrayInputStream(FrameCodec.encodeMessage(original)));
+        assertTrue((frame.flags & FrameCodec.FLAG_ALERT_SESSION) != 0);
+        Message decoded = FrameCodec.decodeMessage(frame);
+        assertEquals(original.getAlertId(), decoded.getAlertId());
+        assertEquals(7, decoded.getRevision());
+        assertEquals(original.getContent(), decoded.getContent());
+
+        Message plain = FrameCodec.decodeMessage(FrameCodec.readFrame(
+                new ByteArrayInputStream(FrameCodec.encodeMessage(sampleAlert()))));
+        assertNull(plain.getAlertId());
+        assertEquals(0, plain.getRevision());
+    }
+
+    @Test
+    public void positionDelta_roundTripsAndStaysSmall() throws Exception {
+        PositionFix base = PositionFix.of("+919876543210", "Asha Verma", 41, 1700000000000L,
+                12.9716, 77.5946, 12.5f);
+        PositionFix next = PositionFix.of("+919876543210", "Asha Verma", 42, 1700000005000L,
+                12.97172, 77.59455, 9f).relayed();
+
+        byte[] keyframe = FrameCodec.encodePosition(base, null);
+        byte[] delta = FrameCodec.encodePosition(next, base);
+        assertTrue("delta " + delta.length + " vs keyframe " + keyframe.length, delta.length < keyframe.length - 12);
+
+        FrameCodec.PositionUpdate key = FrameCodec.decodePosition(
+                new FrameCodec.Frame(FrameCodec.VERSION, FrameCodec.TYPE_POSITION, 0, keyframe));
+        assertFalse(key.isDelta());
+        PositionFix decodedBase = key.resolve(null);
+        assertEquals(base.getLatitudeE7(), decodedBase.getLatitudeE7());
+        assertEquals(base.getAccuracyDm(), decodedBase.getAccuracyDm());
+
+        FrameCodec.PositionUpdate update = FrameCodec.decodePosition(
+                new FrameCodec.Frame(FrameCodec.VERSION, FrameCodec.TYPE_POSITION, 0, delta));
+        assertTrue(update.isDelta());
+        assertEquals(41, update.baseSequence);
+        PositionFix decoded = update.resolve(decodedBase);
+        assertEquals(42, decoded.getSequence());
+        assertEquals(next.getTimestamp(), decoded.getTimestamp());
+        assertEquals(next.getLatitudeE7(), decoded.getLatitudeE7());
+        assertEquals(next.getLongitudeE7(), decoded.getLongitudeE7());
+        assertEquals(90, decoded.getAccuracyDm());
+        assertEquals(1, decoded.getHopCount());
+        assertEquals("Asha Verma", decoded.getSenderName());
+    }
+
+    @Test
+    public void nonUuidIdsAndNullFields_roundTrip() throws Exception {
+        Message original = new Message("legacy-42", "Ravi", null, "", "hi", "status");
+
+        Message decoded = FrameCodec.decodeMessage(
+                FrameCodec.readFrame(new ByteArrayInputStream(FrameCodec.encodeMessage(original))));
+
+        assertEquals("legacy-42", decoded.getId());
+        assertNull(decoded.getSenderPhone());
+        assertEquals("", decoded.getRecipientPhone());
+        assertEquals("status", decoded.getMessageType());
+    }
+
+    @Test
+    public void ackBatch_roundTrips() throws Exception {
+        List<String> ids = Arrays.asList(UUID.randomUUID().toString(), "legacy-7", UUID.randomUUID().toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameCodec.writeFrame(out, FrameCodec.TYPE_ACK_BATCH, 0, FrameCodec.encodeAckBatch(ids));
+        FrameCodec.Frame frame = FrameCodec.readFrame(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(ids, FrameCodec.decodeAckBatch(frame));
+    }
+
+    @Test
+    public void hello_isParsed() {
+        assertEquals(FrameCodec.VERSION, FrameCodec.parseHello(FrameCodec.buildHello()));
+        assertEquals(-1, FrameCodec.parseHello("{\"id\":\"x\"}"));
+        assertEquals(-1, FrameCodec.parseHello("PING"));
+    }
+
+    @Test
+    public void binaryFrame_isSmallerThanJson() throws Exception {
+        Message message = sampleAlert();
+
+        int jsonBytes = (new Gson().toJson(message) + "\n").getBytes(FrameCodec.UTF_8).length;
+        int binaryBytes = FrameCodec.encodeMessage(message).length;
+
+        // Round-trip timings live in the benchmarks module (MessageJsonBenchmark)
+        assertTrue("binary frame should be smaller than JSON", binaryBytes < jsonBytes);
+    }
+
+    @Test
+    public void unknownVersion_isRejected() throws Exception {
+        byte[] frame = FrameCodec.encodeMessage(sampleAlert());
+        frame[1] = (byte) (FrameCodec.VERSION + 1);
+
+        try {
+            FrameCodec.readFrame(new ByteArrayInputStream(frame));
+            fail("frame from a newer version was decoded");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("version"));
+        }
+    }
+
+    @Test
+    public void oversizePayload_isRefusedBeforeAnythingIsWritten() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            FrameCodec.writeFrame(out, FrameCodec.TYPE_MESSAGE, 0, new byte[FrameCodec.MAX_PAYLOAD + 1]);
+            fail("oversize frame was written");
+        } catch (FrameCodec.FrameTooLargeException expected) {
+            assertEquals(FrameCodec.MAX_PAYLOAD + 1, expected.getLength());
+        }
+        assertEquals(0, out.size());
+
+        // The largest payload a reader accepts still goes out
+        FrameCodec.writeFrame(out, FrameCodec.TYPE_MESSAGE, 0, new byte[FrameCodec.MAX_PAYLOAD]);
+        assertEquals(FrameCodec.MAX_PAYLOAD,
+                FrameCodec.readFrame(new ByteArrayInputStream(out.toByteArray())).payload.length);
+    }
+
+    @Test
+    public void oversizeMessage_cannotBeEncoded() {
+        char[] content = new char[FrameCodec.MAX_PAYLOAD + 1];
+        Arrays.fill(content, 'x');
+        Message message = new Message(UUID.randomUUID().toString(), "sender", "1000", "BROADCAST",
+                new String(content), "text");
+
+        try {
+            FrameCodec.encodeMessage(message);
+            fail("oversize message was encoded");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getCause() instanceof FrameCodec.FrameTooLargeException);
+        }
+    }
+
+    @Test
+    public void frame_carriesTheNegotiatedVersion() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameCodec.writeMessage(out, sampleAlert(), null, 1);
+        byte[] bytes = out.toByteArray();
+
+        assertEquals(1, bytes[1]);
+        assertEquals(1, FrameCodec.readFrame(new ByteArrayInputStream(bytes)).version);
+
+        // Version 0 was never spoken, so it is as unknown as a newer one
+        bytes[1] = 0;
+        try {
+            FrameCodec.readFrame(new ByteArrayInputStream(bytes));
+            fail("frame of version 0 was decoded");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("version"));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.emergencymesh.core.protocol;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class InvertibleBloomLookupTableTest {
+
+    private static InvertibleBloomLookupTable table(int cells, List<Long> keys) {
+        InvertibleBloomLookupTable table = new InvertibleBloomLookupTable(cells);
+        for (Long key : keys) table.insert(key);
+        return table;
+    }
+
+    private static List<Long> keys(String prefix, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) keys.add(InvertibleBloomLookupTable.keyOf(prefix + i));
+        return keys;
+    }
+
+    @Test
+    public void subtractAndDecode_recoverTheSymmetricDifference() {
+        List<Long> shared = keys("shared-", 500);
+        List<Long> oursOnly = keys("ours-", 6);
+        List<Long> theirsOnly = keys("theirs-", 4);
+        List<Long> ours = new ArrayList<>(shared);
+        ours.addAll(oursOnly);
+        List<Long> theirs = new ArrayList<>(shared);
+        theirs.addAll(theirsOnly);
+
+        InvertibleBloomLookupTable.Difference diff = table(30, ours).subtract(table(30, theirs)).decode();
+
+        assertTrue(diff.complete);
+        assertEquals(new HashSet<>(oursOnly), new HashSet<>(diff.localOnly));
+        assertEquals(new HashSet<>(theirsOnly), new HashSet<>(diff.remoteOnly));
+    }
+
+    @Test
+    public void decode_reportsIncompleteWhenUndersized() {
+        InvertibleBloomLookupTable.Difference diff =
+                table(12, keys("ours-", 200)).subtract(table(12, keys("theirs-", 200))).decode();
+
+        assertFalse(diff.complete);
+        assertTrue(diff.localOnly.size() + diff.remoteOnly.size() < 400);
+    }
+
+    @Test
+    public void subtract_rejectsMismatchedSizes() {
+        try {
+            new InvertibleBloomLookupTable(24).subtract(new InvertibleBloomLookupTable(48));
+            fail("tables of different sizes subtracted");
+        } catch (IllegalArgumentException expected) {
+            // Cells only line up between tables of the same size
+        }
+    }
+
+    @Test
+    public void bytes_roundTrip() throws Exception {
+        List<Long> ours = keys("ours-", 40);
+        InvertibleBloomLookupTable original = table(48, ours);
+        original.remove(ours.get(0));
+        original.remove(InvertibleBloomLookupTable.keyOf("never-inserted"));
+
+        InvertibleBloomLookupTable copy = InvertibleBloomLookupTable.fromBytes(original.toBytes());
+
+        assertEquals(48, copy.getCellCount());
+        // Identical tables cancel exactly
+        InvertibleBloomLookupTable.Difference diff = copy.subtract(original).decode();
+        assertTrue(diff.complete);
+        assertTrue(diff.localOnly.isEmpty());
+        assertTrue(diff.remoteOnly.isEmpty());
+    }
+
+    @Test
+    public void fromBytes_rejectsBadSize() {
+        byte[] bytes = new InvertibleBloomLookupTable(24).toBytes();
+        bytes[0] = 25;
+        try {
+            InvertibleBloomLookupTable.fromBytes(bytes);
+            fail("table of 25 cells accepted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("size"));
+        }
+    }
+
+    @Test
+    public void keyOf_isStableAndNeverZero() {
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < 10000; i++) {
+            long key = InvertibleBloomLookupTable.keyOf("id-" + i);
+            assertTrue(key != 0);
+            seen.add(key);
+        }
+        assertEquals(10000, seen.size());
+        assertEquals(InvertibleBloomLookupTable.keyOf("abc"), InvertibleBloomLookupTable.keyOf("abc"));
+    }
+}
@@ -0,0 +1,104 @@
+package com.emergencymesh.core.protocol;
+
+import com.emergencymesh.core.model.Message;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip checks for dictionary compression, plus the size it saves on
+ * the app's own message templates.
+ */
+public class PayloadCompressorTest {
+
+    private Message message(String content, String type) {
+        Message message = new Message(UUID.randomUUID().toString(), "Asha Verma",
+                "+919876543210", "BROADCAST", content, type);
+        message.setTimestamp(1700000000000L);
+        return message;
+    }
+
+    private Message[] templates() {
+        return new Message[] {
+                message("🚨 EMERGENCY ALERT 🚨\n\nI need immediate help!\n\nFrom: Asha Verma\nPhone: +919876543210", "alert"),
+                message("🚨 AUTOMATIC EMERGENCY ALERT\n\nI need help! This is an automatic distress signal.\n\n"
+                        + "From: Asha Verma\nPhone: +919876543210", "alert"),
+                message("📍 AUTOMATIC LOCATION SHARE\n\nFrom: Asha Verma\nPhone: +919876543210\n\n"
+                        + "Coordinates: 28.613939, 77.209023\nAccuracy: 12m\n\n"
+                        + "https://maps.google.com/?q=28.613939,77.209023", "location"),
+                message("🚨 EMERGENCY LOCATION\n\nFrom: Asha Verma\nPhone: +919876543210\n\n"
+                        + "Coordinates: 28.613939, 77.209023\n\n"
+                        + "Google Maps:\nhttps://maps.google.com/?q=28.613939,77.209023", "location"),
+        };
+    }
+
+    private Message roundTrip(Message message, PayloadCompressor compressor) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        FrameCodec.writeMessage(out, message, compressor);
+        FrameCodec.Frame frame = FrameCodec.readFrame(new ByteArrayInputStream(out.toByteArray()));
+        return FrameCodec.decodeMessage(frame, compressor);
+    }
+
+    @Test
+    public void templates_roundTripCompressed() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor();
+        for (Message original : templates()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            FrameCodec.writeMessage(out, original, compressor);
+            FrameCodec.Frame frame = FrameCodec.readFrame(new ByteArrayInputStream(out.toByteArray()));
+            assertTrue((frame.flags & FrameCodec.FLAG_COMPRESSED) != 0);
+
+            Message decoded = FrameCodec.decodeMessage(frame, compressor);
+            assertEquals(original.getId(), decoded.getId());
+            assertEquals(original.getContent(), decoded.getContent());
+            assertEquals(original.getMessageType(), decoded.getMessageType());
+        }
+        compressor.release();
+    }
+
+    @Test
+    public void smallPayloads_areSentAsIs() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor();
+        Message ack = new Message("a", null, null, "", "ACK:x", "ack");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameCodec.writeMessage(out, ack, compressor);
+        FrameCodec.Frame frame = FrameCodec.readFrame(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(0, frame.flags & FrameCodec.FLAG_COMPRESSED);
+        assertEquals(1, compressor.getSkippedCount());
+        assertEquals("ACK:x", FrameCodec.decodeMessage(frame, compressor).getContent());
+        compressor.release();
+    }
+
+    @Test
+    public void hello_advertisesCapability() {
+        String hello = FrameCodec.buildHello(PayloadCompressor.CAPABILITY);
+        assertEquals(FrameCodec.VERSION, FrameCodec.parseHello(hello));
+        assertTrue(FrameCodec.parseCapabilities(hello).contains(PayloadCompressor.CAPABILITY));
+        assertTrue(FrameCodec.parseCapabilities(FrameCodec.buildHello()).isEmpty());
+    }
+
+    @Test
+    public void compression_shrinksTheTemplates() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor();
+        Message[] messages = templates();
+
+        int plainBytes = 0;
+        int compressedBytes = 0;
+        for (Message message : messages) {
+            plainBytes += FrameCodec.encodeMessage(message).length;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            FrameCodec.writeMessage(out, message, compressor);
+            compressedBytes += out.size();
+        }
+        compressor.release();
+
+        // Encode and decode timings live in the benchmarks module (MessageJsonBenchmark)
+        assertTrue("compressed frames should be smaller", compressedBytes < plainBytes);
+    }
+}
@@ -0,0 +1,223 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.protocol.FrameCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * Log-backed store: state survives reopening, a torn tail is cut off, an
+ * unreadable record costs only itself, and compaction keeps the log
+ * proportional to what is live.
+ */
+public class LogMessageStoreTest {
+
+    private File file;
+    private LogMessageStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("messages", ".log");
+        assertTrue(file.delete());
+        store = open();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+        new File(file.getPath() + ".damaged").delete();
+    }
+
+    private LogMessageStore open() {
+        return new LogMessageStore(file, new SeenMessageFilter(1000, 0.01, 100, null));
+    }
+
+    private LogMessageStore reopen() {
+        store.close();
+        store = open();
+        return store;
+    }
+
+    private static Message message(String content, long timestamp) {
+        Message message = new Message(UUID.randomUUID().toString(), "Ravi", "+911234567890",
+                "BROADCAST", content, "text");
+        message.setTimestamp(timestamp);
+        return message;
+    }
+
+    @Test
+    public void writes_surviveReopen() {
+        Message sent = message("sent", 1000);
+        Message other = message("other", 1500);
+        Message received = message("received", 2000);
+        Message deleted = message("deleted", 3000);
+        store.storeOutgoingMessage(sent);
+        store.storeOutgoingMessage(other);
+        assertTrue(store.storeIncomingMessage(received));
+        assertTrue(store.storeIncomingMessage(deleted));
+        assertFalse(store.storeIncomingMessage(received));
+        assertEquals(1, store.markMessagesAsDelivered(Arrays.asList(sent.getId(), received.getId())));
+        store.deleteMessage(deleted.getId());
+
+        LogMessageStore reopened = reopen();
+        assertEquals(3, reopened.getTotalMessageCount());
+        assertTrue(reopened.getMessageById(sent.getId()).isDelivered());
+        assertFalse(reopened.getMessageById(other.getId()).isDelivered());
+        assertEquals("received", reopened.getMessageById(received.getId()).getContent());
+        assertNull(reopened.getMessageById(deleted.getId()));
+        List<Message> recent = reopened.getRecentMessages(2);
+        assertEquals(received.getId(), recent.get(0).getId());
+        assertEquals(other.getId(), recent.get(1).getId());
+
+        reopened.clearOutgoingMessages();
+        assertEquals(1, reopen().getTotalMessageCount());
+    }
+
+    @Test
+    public void tornTail_isCutOffAndAppendsContinue() throws IOException {
+        Message kept = message("kept", 1000);
+        store.storeOutgoingMessage(kept);
+        store.close();
+
+        // A crash halfway through the next record
+        byte[] record = new byte[]{MessageLog.OP_PUT_INCOMING, 100, 1, 2, 3};
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(record);
+        }
+        long tornLength = file.length();
+
+        store = open();
+        assertEquals(1, store.getTotalMessageCount());
+        assertTrue(file.length() < tornLength);
+
+        Message after = message("after", 2000);
+        assertTrue(store.storeIncomingMessage(after));
+        assertEquals(2, reopen().getTotalMessageCount());
+    }
+
+    /**
+     * A record as MessageLog writes it, with a valid checksum.
+     */
+    private static byte[] record(int op, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(op);
+        FrameCodec.writeVarInt(out, payload.length);
+        out.write(payload);
+        CRC32 crc = new CRC32();
+        crc.update(op);
+        crc.update(payload, 0, payload.length);
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void unreadableRecord_isSkippedAndLaterRecordsLoad() throws IOException {
+        Message before = message("before", 1000);
+        store.storeOutgoingMessage(before);
+        store.close();
+
+        // Intact on disk but not a message frame, e.g. from a newer version
+        Message after = message("after", 2000);
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(record(MessageLog.OP_PUT_INCOMING, new byte[]{1, 2, 3, 4}));
+            out.write(record(99, new byte[0]));
+            out.write(record(MessageLog.OP_PUT_INCOMING, FrameCodec.encodeMessage(after)));
+        }
+        long length = file.length();
+
+        store = open();
+        assertEquals(2, store.getTotalMessageCount());
+        assertEquals("after", store.getMessageById(after.getId()).getContent());
+        assertEquals(length, file.length());
+    }
+
+    @Test
+    public void damageMidFile_isKeptAside() throws IOException {
+        store.storeOutgoingMessage(message("kept", 1000));
+        store.close();
+
+        byte[] damaged = record(MessageLog.OP_PUT_INCOMING, FrameCodec.encodeMessage(message("lost", 2000)));
+        damaged[damaged.length - 1] ^= 0x55;
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(damaged);
+            out.write(record(MessageLog.OP_DELETE, "x".getBytes(FrameCodec.UTF_8)));
+        }
+
+        store = open();
+        assertEquals(1, store.getTotalMessageCount());
+        File aside = new File(file.getPath() + ".damaged");
+        assertTrue(aside.exists());
+        assertTrue(aside.length() > damaged.length);
+    }
+
+    @Test
+    public void oversizeMessage_isRefusedBeforeReachingDisk() {
+        StringBuilder content = new StringBuilder();
+        while (content.length() <= FrameCodec.MAX_PAYLOAD) content.append("0123456789abcdef");
+        Message huge = message(content.toString(), 1000);
+        Message normal = message("normal", 2000);
+
+        assertFalse(store.storeIncomingMessage(huge));
+        assertTrue(store.storeIncomingMessage(normal));
+        assertNull(store.getMessageById(huge.getId()));
+
+        LogMessageStore reopened = reopen();
+        assertEquals(1, reopened.getTotalMessageCount());
+        assertNotNull(reopened.getMessageById(normal.getId()));
+    }
+
+    @Test
+    public void compaction_dropsDeadRecords() {
+        Message keep = message("keep", 1);
+        store.storeOutgoingMessage(keep);
+        for (int i = 0; i < 1000; i++) {
+            Message message = message("churn " + i, 10 + i);
+            store.storeIncomingMessage(message);
+            store.deleteMessage(message.getId());
+        }
+
+        assertTrue("log has " + store.getLogRecordCount() + " records",
+                store.getLogRecordCount() <= 2L * LogMessageStore.MIN_COMPACTION_GARBAGE);
+        assertEquals(1, store.getTotalMessageCount());
+        assertEquals(1, reopen().getTotalMessageCount());
+        assertEquals("keep", store.getMessageById(keep.getId()).getContent());
+    }
+
+    @Test
+    public void alertRevisions_replaceEachOtherOnDisk() {
+        Message first = message("help", 1000);
+        first.setMessageType("alert");
+        first.setAlertId("alert-1");
+        first.setRevision(1);
+        Message second = message("help, leg broken", 2000);
+        second.setMessageType("alert");
+        second.setAlertId("alert-1");
+        second.setRevision(2);
+
+        assertTrue(store.storeIncomingMessage(second));
+        assertFalse(store.storeIncomingMessage(first));
+
+        LogMessageStore reopened = reopen();
+        assertEquals(1, reopened.getIncomingMessages().size());
+        Message stored = reopened.getIncomingMessages().get(0);
+        assertEquals("alert-1", stored.getAlertId());
+        assertEquals(2, stored.getRevision());
+    }
+}
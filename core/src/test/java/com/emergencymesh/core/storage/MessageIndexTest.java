@@ -0,0 +1,87 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.model.Message;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageIndexTest {
+
+    private static Message message(String id, long timestamp, String type, String phone) {
+        Message message = new Message(id, "Ravi", phone, "BROADCAST", "content " + id, type);
+        message.setTimestamp(timestamp);
+        return message;
+    }
+
+    @Test
+    public void queries_areNewestFirstAndFollowUpdates() {
+        MessageIndex index = new MessageIndex();
+        index.add(message("a", 100, "text", "+1"));
+        index.add(message("b", 300, "alert", "+2"));
+        index.add(message("c", 200, "text", "+2"));
+        index.add(message("d", 200, "text", "+1"));
+
+        assertEquals(4, index.size());
+        assertEquals("b", index.newest(1).get(0).getId());
+        assertIds(index.newest(3), "b", "c", "d");
+        assertIds(index.byType("text"), "c", "d", "a");
+        assertIds(index.bySender("+2"), "b", "c");
+        assertTrue(index.byType("location").isEmpty());
+
+        // Same ID again replaces the old entry in every index
+        index.add(message("c", 50, "alert", "+1"));
+        assertEquals(4, index.size());
+        assertIds(index.byType("alert"), "b", "c");
+        assertIds(index.bySender("+2"), "b");
+        assertIds(index.newest(10), "b", "d", "a", "c");
+
+        assertEquals("b", index.remove("b").getId());
+        assertNull(index.remove("b"));
+        assertFalse(index.contains("b"));
+        assertIds(index.bySender("+2"));
+        assertIds(index.newest(10), "d", "a", "c");
+    }
+
+    @Test
+    public void olderThan_pagesByKeyThroughTies() {
+        MessageIndex index = new MessageIndex();
+        index.add(message("a", 300, "text", "+1"));
+        index.add(message("b", 200, "text", "+1"));
+        index.add(message("c", 200, "text", "+1"));
+        index.add(message("d", 100, "text", "+1"));
+
+        List<Message> first = index.olderThan(null, 2);
+        assertIds(first, "a", "b");
+        List<Message> second = index.olderThan(first.get(1), 2);
+        assertIds(second, "c", "d");
+        assertIds(index.olderThan(second.get(1), 2));
+
+        // A page still continues after a message deleted since it was shown
+        index.remove("b");
+        assertIds(index.olderThan(first.get(1), 2), "c", "d");
+    }
+
+    @Test
+    public void changingAStoredMessage_doesNotBreakRemoval() {
+        MessageIndex index = new MessageIndex();
+        Message message = message("a", 100, "text", "+1");
+        index.add(message);
+        index.add(message("b", 200, "text", "+1"));
+
+        message.setTimestamp(500);
+        message.setMessageType("alert");
+        assertSame(message, index.get("a"));
+        assertNotNull(index.remove("a"));
+        assertIds(index.newest(10), "b");
+        assertIds(index.byType("text"), "b");
+    }
+
+    private static void assertIds(List<Message> messages, String... ids) {
+        assertEquals(ids.length, messages.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], messages.get(i).getId());
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Retention keeps the store within its caps, evicts the least valuable
+ * messages first, and never touches our own unacknowledged messages.
+ */
+public class RetentionEngineTest {
+
+    private static final long HOUR = 3600 * 1000L;
+    private static final long NOW = 1000 * HOUR;
+
+    private File file;
+    private LogMessageStore store;
+    private PassThrough repository;
+    private RetentionEngine.Policy policy;
+    private RetentionEngine retention;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("retention", ".log");
+        assertTrue(file.delete());
+        store = new LogMessageStore(file, new SeenMessageFilter(100000, 0.01, 1000, null));
+        policy = new RetentionEngine.Policy();
+        policy.maxMessages = 10;
+        policy.maxAgeMs = 0;
+        policy.maxBytes = 0;
+        repository = new PassThrough(store);
+        retention = new RetentionEngine(repository, policy);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    private static Message message(String type, long timestamp) {
+        Message message = new Message(UUID.randomUUID().toString(), "Ravi", "+911234567890",
+                "BROADCAST", "content", type);
+        message.setTimestamp(timestamp);
+        if ("alert".equals(type)) message.setAlertId(message.getId());
+        return message;
+    }
+
+    private Message incoming(String type, long timestamp) {
+        Message message = message(type, timestamp);
+        assertTrue(store.storeIncomingMessage(message));
+        return message;
+    }
+
+    @Test
+    public void countCap_evictsChatterBeforeLocationAndAlerts() {
+        Message alert = incoming("alert", NOW - 10 * HOUR);
+        Message location = incoming("location", NOW - 9 * HOUR);
+        for (int i = 0; i < 12; i++) incoming("text", NOW - i * HOUR);
+
+        assertEquals(4, retention.runOnce(NOW));
+
+        assertEquals(10, store.getTotalMessageCount());
+        assertNotNull(store.getMessageById(alert.getId()));
+        assertNotNull(store.getMessageById(location.getId()));
+        // The four oldest texts went first
+        assertEquals(8, store.getMessagesByType("text").size());
+        for (Message text : store.getMessagesByType("text")) {
+            assertTrue(text.getTimestamp() > NOW - 8 * HOUR);
+        }
+        assertEquals(0, retention.runOnce(NOW));
+    }
+
+    @Test
+    public void unacknowledgedOutgoing_isNeverEvicted() {
+        policy.maxMessages = 2;
+        Message acked = message("text", NOW - 3 * HOUR);
+        Message pending = message("text", NOW - 2 * HOUR);
+        store.storeOutgoingMessage(acked);
+        store.storeOutgoingMessage(pending);
+        store.markMessagesAsDelivered(Collections.singletonList(acked.getId()));
+        incoming("alert", NOW - HOUR);
+        incoming("alert", NOW);
+
+        assertEquals(2, retention.runOnce(NOW));
+
+        assertNull(store.getMessageById(acked.getId()));
+        assertNotNull(store.getMessageById(pending.getId()));
+        assertEquals(1, retention.getProtectedCount());
+        assertEquals(2, store.getTotalMessageCount());
+    }
+
+    @Test
+    public void ageCap_dropsExpiredChatterAndLocationButNotAlerts() {
+        policy.maxMessages = 0;
+        policy.maxAgeMs = 24 * HOUR;
+        Message oldAlert = incoming("alert", NOW - 48 * HOUR);
+        Message oldLocation = incoming("location", NOW - 30 * HOUR);
+        Message oldText = incoming("text", NOW - 25 * HOUR);
+        Message fresh = incoming("text", NOW - HOUR);
+
+        assertEquals(2, retention.runOnce(NOW));
+
+        assertNotNull(store.getMessageById(oldAlert.getId()));
+        assertNull(store.getMessageById(oldLocation.getId()));
+        assertNull(store.getMessageById(oldText.getId()));
+        assertNotNull(store.getMessageById(fresh.getId()));
+        assertEquals(0, retention.runOnce(NOW));
+    }
+
+    @Test
+    public void oldActiveAlert_outlivesFreshText() {
+        // Still being re-announced, but with the timestamp it was raised with
+        policy.maxMessages = 3;
+        policy.maxAgeMs = 24 * HOUR;
+        Message alert = incoming("alert", NOW - 72 * HOUR);
+        Message expiredText = incoming("text", NOW - 30 * HOUR);
+        for (int i = 0; i < 3; i++) incoming("text", NOW - i * HOUR);
+
+        assertEquals(2, retention.runOnce(NOW));
+
+        assertNotNull(store.getMessageById(alert.getId()));
+        assertNull(store.getMessageById(expiredText.getId()));
+        assertEquals(2, store.getMessagesByType("text").size());
+        assertEquals(0, store.getStorageUsage(NOW - policy.maxAgeMs).expired);
+    }
+
+    @Test
+    public void bytesCap_evictsUntilUnder() {
+        policy.maxMessages = 0;
+        long each = RetentionEngine.estimateBytes(message("text", NOW));
+        policy.maxBytes = each * 5;
+        for (int i = 0; i < 8; i++) incoming("text", NOW - i * HOUR);
+
+        assertEquals(3, retention.runOnce(NOW));
+        assertEquals(5, store.getTotalMessageCount());
+    }
+
+    @Test
+    public void eachPass_isBoundedAndLaterPassesCatchUp() {
+        policy.maxEvictionsPerRun = 3;
+        for (int i = 0; i < 17; i++) incoming("text", NOW - i * HOUR);
+
+        assertEquals(3, retention.runOnce(NOW));
+        assertEquals(3, retention.runOnce(NOW));
+        assertEquals(1, retention.runOnce(NOW));
+        assertEquals(0, retention.runOnce(NOW));
+        assertEquals(10, store.getTotalMessageCount());
+        assertEquals(7, retention.getEvictedCount());
+    }
+
+    @Test
+    public void eachPass_readsOnlyWhatItEvictsAndDeletesInOneWrite() {
+        policy.maxMessages = 100;
+        policy.maxEvictionsPerRun = 50;
+        for (int i = 0; i < 400; i++) incoming("text", NOW - i * 60000L);
+
+        // PassThrough fails the test on any read of the whole store
+        assertEquals(50, retention.runOnce(NOW));
+        assertEquals(50, repository.largestCandidateList);
+        assertEquals(1, repository.deleteCalls);
+
+        while (retention.runOnce(NOW) > 0) {
+            assertTrue(repository.largestCandidateList <= policy.maxEvictionsPerRun);
+        }
+        assertEquals(100, store.getTotalMessageCount());
+        assertEquals(6, repository.deleteCalls);
+    }
+
+    @Test
+    public void longIncident_keepsCountAndLogBounded() {
+        policy.maxMessages = 500;
+        policy.maxEvictionsPerRun = 1000;
+        long largestLog = 0;
+        for (int minute = 0; minute < 5000; minute++) {
+            long now = NOW + minute * 60000L;
+            incoming(minute % 10 == 0 ? "location" : "text", now);
+            if (minute % 100 == 99) {
+                retention.runOnce(now);
+                assertTrue(store.getTotalMessageCount() <= policy.maxMessages);
+                if (minute >= 1000) largestLog = Math.max(largestLog, store.getLogRecordCount());
+            }
+        }
+        // Deletes are compacted away, so the log tracks what is kept, not what arrived
+        assertTrue("log grew to " + largestLog + " records", largestLog < 4 * policy.maxMessages);
+    }
+
+    /**
+     * Forwards to the store, but fails on any call that would load every
+     * message, and records what retention asked for.
+     */
+    private static class PassThrough implements MessageRepository {
+        private final MessageRepository store;
+        int largestCandidateList = 0;
+        int deleteCalls = 0;
+
+        PassThrough(MessageRepository store) {
+            this.store = store;
+        }
+
+        @Override
+        public List<Message> getAllMessages() {
+            throw new AssertionError("retention loaded every message");
+        }
+
+        @Override
+        public List<Message> getOutgoingMessages() {
+            throw new AssertionError("retention loaded every outgoing message");
+        }
+
+        @Override
+        public List<Message> getIncomingMessages() {
+            throw new AssertionError("retention loaded every incoming message");
+        }
+
+        @Override
+        public StorageUsage getStorageUsage(long expiredBefore) {
+            return store.getStorageUsage(expiredBefore);
+        }
+
+        @Override
+        public List<Message> getEvictionCandidates(long expiredBefore, int limit) {
+            List<Message> candidates = store.getEvictionCandidates(expiredBefore, limit);
+            largestCandidateList = Math.max(largestCandidateList, candidates.size());
+            return candidates;
+        }
+
+        @Override
+        public int deleteMessages(Collection<String> messageIds) {
+            deleteCalls++;
+            return store.deleteMessages(messageIds);
+        }
+
+        @Override
+        public void deleteMessage(String messageId) {
+            throw new AssertionError("retention deleted one message at a time");
+        }
+
+        @Override
+        public void storeOutgoingMessage(Message message) {
+            store.storeOutgoingMessage(message);
+        }
+
+        @Override
+        public boolean storeIncomingMessage(Message message) {
+            return store.storeIncomingMessage(message);
+        }
+
+        @Override
+        public int markMessagesAsDelivered(Collection<String> messageIds) {
+            return store.markMessagesAsDelivered(messageIds);
+        }
+
+        @Override
+        public List<Message> getMessagesByType(String messageType) {
+            return store.getMessagesByType(messageType);
+        }
+
+        @Override
+        public List<Message> getMessagesBySender(String senderPhone) {
+            return store.getMessagesBySender(senderPhone);
+        }
+
+        @Override
+        public List<Message> getRecentMessages(int count) {
+            return store.getRecentMessages(count);
+        }
+
+        @Override
+        public List<Message> getOlderMessages(Message last, int count) {
+            return store.getOlderMessages(last, count);
+        }
+
+        @Override
+        public void markMessageAsDelivered(String messageId) {
+            store.markMessageAsDelivered(messageId);
+        }
+
+        @Override
+        public int getUnreadMessageCount() {
+            return store.getUnreadMessageCount();
+        }
+
+        @Override
+        public int getTotalMessageCount() {
+            return store.getTotalMessageCount();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return store.hasMessages();
+        }
+
+        @Override
+        public Message getMessageById(String messageId) {
+            return store.getMessageById(messageId);
+        }
+
+        @Override
+        public void clearAllMessages() {
+            store.clearAllMessages();
+        }
+
+        @Override
+        public void clearOutgoingMessages() {
+            store.clearOutgoingMessages();
+        }
+
+        @Override
+        public void clearIncomingMessages() {
+            store.clearIncomingMessages();
+        }
+    }
+}
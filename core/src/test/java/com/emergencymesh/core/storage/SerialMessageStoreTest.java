@@ -0,0 +1,264 @@
+package com.emergencymesh.core.storage;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Many threads writing through one writer: nothing is lost, and readers
+ * running alongside only ever see whole batches.
+ */
+public class SerialMessageStoreTest {
+
+    private File file;
+    private LogMessageStore log;
+    private SerialMessageStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("messages", ".log");
+        assertTrue(file.delete());
+        log = new LogMessageStore(file, new SeenMessageFilter(100000, 0.01, 1000, null));
+        store = new SerialMessageStore(log, true);
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+        log.close();
+        file.delete();
+    }
+
+    private static Message message(String id, long timestamp) {
+        Message message = new Message(id, "Ravi", "+911234567890", "BROADCAST", "content " + id, "text");
+        message.setTimestamp(timestamp);
+        return message;
+    }
+
+    @Test
+    public void concurrentWriters_loseNothing() throws Exception {
+        final int threads = 8;
+        final int perThread = 300;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            Message message = message(thread + "-" + i, 1000 + i);
+                            if (thread % 2 == 0) {
+                                assertTrue(store.storeIncomingMessage(message));
+                                assertFalse(store.storeIncomingMessage(message));
+                            } else {
+                                store.storeOutgoingMessage(message);
+                                store.markMessageAsDelivered(message.getId());
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        start.countDown();
+        for (Thread writer : writers) writer.join();
+        store.flush();
+
+        if (failure.get() != null) throw new AssertionError(failure.get());
+        assertEquals(threads * perThread, store.getTotalMessageCount());
+        assertEquals(threads / 2 * perThread, store.getUnreadMessageCount());
+        for (Message message : store.getOutgoingMessages()) {
+            assertTrue(message.getId(), message.isDelivered());
+        }
+
+        SerialMessageStore.Stats stats = store.getStats();
+        assertEquals(0, stats.failed);
+        assertEquals(0, stats.depth);
+        assertTrue(stats.toString(), stats.batches <= stats.applied);
+        assertTrue(stats.toString(), stats.snapshots <= stats.batches + 1);
+    }
+
+    @Test
+    public void readers_neverSeeHalfAnAlertUpdate() throws Exception {
+        Message first = message("alert-r1", 1000);
+        first.setAlertId("alert");
+        first.setRevision(1);
+        first.setMessageType("alert");
+        assertTrue(store.storeIncomingMessage(first));
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> torn = new AtomicReference<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running.get()) {
+                    // Each revision replaces the previous one in a single write
+                    List<Message> alerts = store.getMessagesByType("alert");
+                    MessageSnapshot snapshot = store.getSnapshot();
+                    if (alerts.size() != 1) torn.set(alerts.size() + " revisions visible");
+                    if (snapshot.getIncomingCount() != snapshot.size()) torn.set("counts disagree");
+                }
+            }
+        });
+        reader.start();
+        for (int revision = 2; revision <= 300; revision++) {
+            Message next = message("alert-r" + revision, 1000 + revision);
+            next.setAlertId("alert");
+            next.setRevision(revision);
+            next.setMessageType("alert");
+            assertTrue(store.storeIncomingMessage(next));
+        }
+        running.set(false);
+        reader.join();
+
+        assertNull(torn.get(), torn.get());
+        assertEquals(Collections.singletonList("alert-r300"), ids(store.getAllMessages()));
+    }
+
+    @Test
+    public void close_neverStrandsAWaitingWriter() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicBoolean anyStored = new AtomicBoolean();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; ; i++) {
+                            store.storeIncomingMessage(message(thread + "-" + i, i));
+                            anyStored.set(true);
+                        }
+                    } catch (IllegalStateException closed) {
+                        // Expected once close() has run
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        while (!anyStored.get()) Thread.sleep(1);
+        Thread.sleep(20);
+        store.close();
+
+        for (Thread writer : writers) {
+            writer.join(5000);
+            assertFalse("writer still waiting after close", writer.isAlive());
+        }
+        assertNull(failure.get());
+        try {
+            store.storeIncomingMessage(message("late", 1));
+            fail("store accepted a write after close");
+        } catch (IllegalStateException expected) {
+            // Closed for good
+        }
+    }
+
+    @Test
+    public void storedMessages_areCopies() {
+        Message message = message("a", 1000);
+        store.storeOutgoingMessage(message);
+        message.setContent("changed by caller");
+        store.flush();
+
+        Message stored = store.getMessageById("a");
+        assertEquals("content a", stored.getContent());
+        stored.setContent("changed by reader");
+        assertEquals("content a", store.getMessageById("a").getContent());
+    }
+
+    @Test
+    public void patchedSnapshots_matchTheStore() {
+        Random random = new Random(42);
+        List<String> stored = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int op = random.nextInt(10);
+            String id = "m" + i;
+            if (op < 5) {
+                Message message = message(id, random.nextInt(500));
+                message.setSenderPhone("+91" + random.nextInt(20));
+                message.setMessageType(random.nextBoolean() ? "text" : "location");
+                assertTrue(store.storeIncomingMessage(message));
+                stored.add(id);
+            } else if (op < 7) {
+                Message message = message(id, random.nextInt(500));
+                // Some of our own alert revisions, each replacing the last
+                if (op == 6) {
+                    message.setAlertId("own-alert");
+                    message.setRevision(i);
+                    message.setMessageType("alert");
+                }
+                store.storeOutgoingMessage(message);
+                stored.add(id);
+            } else if (op == 7 && !stored.isEmpty()) {
+                store.markMessageAsDelivered(stored.get(random.nextInt(stored.size())));
+            } else if (op == 8 && !stored.isEmpty()) {
+                store.deleteMessage(stored.remove(random.nextInt(stored.size())));
+            } else if (stored.size() > 1) {
+                List<String> batch = new ArrayList<>();
+                batch.add(stored.remove(random.nextInt(stored.size())));
+                batch.add(stored.remove(random.nextInt(stored.size())));
+                store.deleteMessages(batch);
+            }
+        }
+        store.flush();
+
+        assertEquals(ids(log.getAllMessages()), ids(store.getAllMessages()));
+        assertEquals(ids(log.getOutgoingMessages()), ids(store.getOutgoingMessages()));
+        assertEquals(ids(log.getIncomingMessages()), ids(store.getIncomingMessages()));
+        for (String type : new String[] {"text", "location", "alert"}) {
+            assertEquals(ids(log.getMessagesByType(type)), ids(store.getMessagesByType(type)));
+        }
+        for (int sender = 0; sender < 20; sender++) {
+            assertEquals(ids(log.getMessagesBySender("+91" + sender)), ids(store.getMessagesBySender("+91" + sender)));
+        }
+        assertEquals(1, store.getMessagesByType("alert").size());
+        for (Message message : log.getOutgoingMessages()) {
+            assertEquals(message.isDelivered(), store.getMessageById(message.getId()).isDelivered());
+        }
+        Message last = null;
+        List<Message> page;
+        while (!(page = store.getOlderMessages(last, 50)).isEmpty()) {
+            assertEquals(ids(log.getOlderMessages(last, 50)), ids(page));
+            last = page.get(page.size() - 1);
+        }
+        // Only the snapshot the store opened with was built from scratch
+        assertEquals(1, store.getStats().rebuilds);
+
+        store.clearOutgoingMessages();
+        store.flush();
+        assertEquals(0, store.getSnapshot().getOutgoingCount());
+        assertEquals(ids(log.getAllMessages()), ids(store.getAllMessages()));
+        assertEquals(2, store.getStats().rebuilds);
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) ids.add(message.getId());
+        return ids;
+    }
+}
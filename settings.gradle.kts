@@ -21,3 +21,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "EmergencyMeshApp"
 include(":app")
+include(":core")
+include(":simulator")
+include(":benchmarks")
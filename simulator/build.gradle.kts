@@ -0,0 +1,18 @@
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+application {
+    mainClass.set("com.emergencymesh.simulator.SimulatorMain")
+}
+
+dependencies {
+    implementation(project(":core"))
+
+    testImplementation("junit:junit:4.13.2")
+}
@@ -0,0 +1,44 @@
+package com.emergencymesh.simulator;
+
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+
+/**
+ * Link, traffic and protocol parameters for one simulation run. Times are
+ * in simulated milliseconds.
+ */
+public class SimConfig {
+    public long seed = 1;
+    public long durationMs = 180000;
+
+    // Links: RFCOMM manages roughly 150 kB/s in practice
+    public int bandwidthBytesPerSec = 150 * 1024;
+    public long latencyMs = 20;
+    public double lossRate = 0;
+    // Churn: each link alternates exponentially distributed up and down
+    // periods with these means; 0 keeps every link up for the whole run
+    public long meanLinkUpMs = 0;
+    public long meanLinkDownMs = 10000;
+
+    // Traffic: messages from random nodes, spread over the window, starting
+    // once routes have had time to converge
+    public int messages = 100;
+    public long trafficStartMs = 60000;
+    public long trafficWindowMs = 60000;
+    // Share of messages addressed to one random phone; the rest are broadcasts
+    public double addressedFraction = 0.5;
+    public String messageType = "text";
+    public int contentBytes = 120;
+
+    // Relay and dedup
+    public int ttl = Message.DEFAULT_TTL;
+    public int seenFilterCapacity = SeenMessageFilter.DEFAULT_GENERATION_CAPACITY;
+    public double seenFilterFalsePositiveRate = SeenMessageFilter.DEFAULT_FALSE_POSITIVE_RATE;
+    public int seenFilterExactCacheSize = SeenMessageFilter.DEFAULT_EXACT_CACHE_SIZE;
+
+    // Routing and link-up sync
+    public boolean routing = true;
+    public long routeAdvertIntervalMs = 30000;
+    public long triggeredAdvertDelayMs = 1000;
+    public boolean syncOnLinkUp = true;
+}
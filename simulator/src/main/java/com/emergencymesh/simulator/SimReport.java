@@ -0,0 +1,117 @@
+package com.emergencymesh.simulator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Outcome of one simulation run. Ratios are in [0, 1]; latencies are
+ * simulated milliseconds from origination to first arrival.
+ */
+public class SimReport {
+    public final String topology;
+    public final int nodes;
+    public final double averageDegree;
+
+    public final int broadcasts;
+    public final int addressed;
+    // Share of (broadcast, other node) pairs that received the broadcast
+    public final double broadcastReach;
+    public final double addressedDelivery;
+
+    public final double latencyP50Ms;
+    public final double latencyP90Ms;
+    public final double latencyP99Ms;
+    public final double latencyMaxMs;
+
+    public final long messageTransmissions;
+    public final long syncTransmissions;
+    public final long ackTransmissions;
+    public final long controlTransmissions;
+    public final long bytesSent;
+    public final long lostFrames;
+    public final long duplicates;
+    public final double transmissionsPerDelivery;
+
+    public final long seenFilterConfirmations;
+    public final long seenFilterFalsePositives;
+
+    public final long simulatedMs;
+    public final double wallMs;
+    public final long events;
+
+    SimReport(Topology topology, SimConfig config, Simulation simulation,
+              long seenFilterConfirmations, long seenFilterFalsePositives, long wallNanos) {
+        this.topology = topology.getName();
+        this.nodes = topology.getNodeCount();
+        this.averageDegree = topology.getAverageDegree();
+
+        this.broadcasts = simulation.broadcasts;
+        this.addressed = simulation.addressed;
+        long broadcastTargets = (long) broadcasts * (nodes - 1);
+        this.broadcastReach = broadcastTargets > 0 ? (double) simulation.broadcastReceptions / broadcastTargets : 0;
+        this.addressedDelivery = addressed > 0 ? (double) simulation.addressedDelivered / addressed : 0;
+
+        long[] latencies = toSortedArray(simulation.latenciesMicros);
+        this.latencyP50Ms = percentile(latencies, 50);
+        this.latencyP90Ms = percentile(latencies, 90);
+        this.latencyP99Ms = percentile(latencies, 99);
+        this.latencyMaxMs = latencies.length > 0 ? latencies[latencies.length - 1] / 1000.0 : 0;
+
+        this.messageTransmissions = simulation.messageTransmissions;
+        this.syncTransmissions = simulation.syncTransmissions;
+        this.ackTransmissions = simulation.ackTransmissions;
+        this.controlTransmissions = simulation.controlTransmissions;
+        this.bytesSent = simulation.bytesSent;
+        this.lostFrames = simulation.lost;
+        this.duplicates = simulation.duplicates;
+        long deliveries = simulation.broadcastReceptions + simulation.addressedDelivered;
+        this.transmissionsPerDelivery = deliveries > 0
+                ? (double) (messageTransmissions + syncTransmissions) / deliveries : 0;
+
+        this.seenFilterConfirmations = seenFilterConfirmations;
+        this.seenFilterFalsePositives = seenFilterFalsePositives;
+
+        this.simulatedMs = config.durationMs;
+        this.wallMs = wallNanos / 1e6;
+        this.events = simulation.eventsProcessed;
+    }
+
+    public double getSpeedup() {
+        return wallMs > 0 ? simulatedMs / wallMs : 0;
+    }
+
+    private static long[] toSortedArray(List<Long> values) {
+        long[] array = new long[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static double percentile(long[] sortedMicros, int percent) {
+        if (sortedMicros.length == 0) return 0;
+        int index = Math.min(sortedMicros.length - 1, sortedMicros.length * percent / 100);
+        return sortedMicros[index] / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "topology        %s, %d nodes, average degree %.1f%n"
+                        + "delivery        broadcast reach %.1f%% of %d, addressed %.1f%% of %d%n"
+                        + "latency         p50 %.0f ms, p90 %.0f ms, p99 %.0f ms, max %.0f ms%n"
+                        + "transmissions   %d messages, %d sync pushes, %d ACK batches, %d control%n"
+                        + "                %.1f per delivery, %d duplicates, %d frames lost, %.1f MB sent%n"
+                        + "seen filter     %d confirmations, %d false positives%n"
+                        + "run             %d simulated ms in %.0f ms wall (%.0fx), %d events",
+                topology, nodes, averageDegree,
+                broadcastReach * 100, broadcasts, addressedDelivery * 100, addressed,
+                latencyP50Ms, latencyP90Ms, latencyP99Ms, latencyMaxMs,
+                messageTransmissions, syncTransmissions, ackTransmissions, controlTransmissions,
+                transmissionsPerDelivery, duplicates, lostFrames, bytesSent / (1024.0 * 1024.0),
+                seenFilterConfirmations, seenFilterFalsePositives,
+                simulatedMs, wallMs, getSpeedup(), events);
+    }
+}
@@ -0,0 +1,81 @@
+package com.emergencymesh.simulator;
+
+import com.emergencymesh.core.mesh.MessageStore;
+import com.emergencymesh.core.mesh.SeenMessageFilter;
+import com.emergencymesh.core.model.Message;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-node store that dedups the way MessageStorage does: the seen-ID
+ * filter settles most lookups and a Bloom-only hit is confirmed against
+ * the stored messages. Confirmations stand in for the storage scans they
+ * cost on a phone.
+ */
+class SimStore implements MessageStore {
+    private final SeenMessageFilter seenFilter;
+    private final Map<String, Message> messages = new HashMap<>();
+    private final List<Message> outgoing = new ArrayList<>();
+    private final List<Message> incoming = new ArrayList<>();
+    long confirmations = 0;
+    long falsePositives = 0;
+
+    SimStore(SimConfig config) {
+        this.seenFilter = new SeenMessageFilter(config.seenFilterCapacity,
+                config.seenFilterFalsePositiveRate, config.seenFilterExactCacheSize, null);
+    }
+
+    @Override
+    public void storeOutgoingMessage(Message message) {
+        messages.put(message.getId(), message);
+        outgoing.add(message);
+        seenFilter.add(message.getId());
+    }
+
+    boolean contains(String messageId) {
+        return messages.containsKey(messageId);
+    }
+
+    Collection<Message> all() {
+        return messages.values();
+    }
+
+    @Override
+    public boolean storeIncomingMessage(Message message) {
+        SeenMessageFilter.Verdict verdict = seenFilter.check(message.getId());
+        if (verdict == SeenMessageFilter.Verdict.DUPLICATE) return false;
+        if (verdict == SeenMessageFilter.Verdict.MAYBE) {
+            confirmations++;
+            if (messages.containsKey(message.getId())) return false;
+            falsePositives++;
+        }
+        messages.put(message.getId(), message);
+        incoming.add(message);
+        seenFilter.add(message.getId());
+        return true;
+    }
+
+    @Override
+    public int markMessagesAsDelivered(Collection<String> messageIds) {
+        return 0;
+    }
+
+    @Override
+    public List<Message> getOutgoingMessages() {
+        return outgoing;
+    }
+
+    @Override
+    public List<Message> getIncomingMessages() {
+        return incoming;
+    }
+
+    @Override
+    public Message getMessageById(String messageId) {
+        return messages.get(messageId);
+    }
+}
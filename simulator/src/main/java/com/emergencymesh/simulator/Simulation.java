@@ -0,0 +1,438 @@
+package com.emergencymesh.simulator;
+
+import com.emergencymesh.core.mesh.MessageHandler;
+import com.emergencymesh.core.mesh.RoutingTable;
+import com.emergencymesh.core.model.Message;
+import com.emergencymesh.core.protocol.FrameCodec;
+import com.emergencymesh.core.protocol.InvertibleBloomLookupTable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Discrete-event simulation of a whole mesh in one thread.
+ *
+ * Every node runs the real {@link MessageHandler} (storage dedup through a
+ * {@link com.emergencymesh.core.mesh.SeenMessageFilter}, TTL, relay
+ * decisions) and a real {@link RoutingTable} fed by route adverts. What
+ * MeshNode does with threads and sockets is modelled instead: each link
+ * direction is a FIFO with a fixed bandwidth and latency that may lose
+ * frames, ACKs are batched per link, and a link coming up triggers route
+ * adverts and a sync that pushes exactly the messages the peer lacks (what
+ * the IBLT reconciliation finds when it decodes).
+ *
+ * Time only advances from event to event, so a run covering minutes of
+ * mesh activity takes a fraction of that in wall-clock time.
+ */
+public class Simulation {
+
+    // Same batching as MeshNode
+    private static final long ACK_FLUSH_DELAY_MS = 100;
+    private static final int ACK_BATCH_MAX = 32;
+
+    private static final String FILLER = "Need water and first aid at the north gate, two injured, one unconscious. ";
+
+    private final Topology topology;
+    private final SimConfig config;
+    private final Random random;
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final Node[] nodes;
+    private final List<Link> links = new ArrayList<>();
+    private final Map<String, Tracked> tracked = new HashMap<>();
+    private final int[] ackFrameBytes = new int[ACK_BATCH_MAX + 1];
+    private final int summaryFrameBytes;
+    private final String content;
+    private long now = 0; // simulated microseconds
+    private long nextSequence = 0;
+
+    // Results, read by SimReport
+    long messageTransmissions = 0;
+    long syncTransmissions = 0;
+    long ackTransmissions = 0;
+    long controlTransmissions = 0;
+    long bytesSent = 0;
+    long lost = 0;
+    long duplicates = 0;
+    long eventsProcessed = 0;
+    int broadcasts = 0;
+    int addressed = 0;
+    long broadcastReceptions = 0;
+    int addressedDelivered = 0;
+    final List<Long> latenciesMicros = new ArrayList<>();
+
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) return time < other.time ? -1 : 1;
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final class Node {
+        final String address;
+        final String phone;
+        final SimStore store;
+        final RoutingTable routing;
+        final MessageHandler handler;
+        final List<Link> links = new ArrayList<>();
+        final Map<String, Link> linkTo = new HashMap<>();
+        boolean triggeredAdvertPending = false;
+
+        Node(int index) {
+            this.address = "node-" + index;
+            this.phone = String.valueOf(5550000 + index);
+            this.store = new SimStore(config);
+            this.routing = new RoutingTable(phone, config.routeAdvertIntervalMs * 3);
+            this.handler = new MessageHandler(store, routing);
+        }
+    }
+
+    private static final class Direction {
+        long busyUntil = 0;
+        int pendingAcks = 0;
+    }
+
+    private static final class Link {
+        final Node a;
+        final Node b;
+        final Direction fromA = new Direction();
+        final Direction fromB = new Direction();
+        boolean up = false;
+        int epoch = 0;
+
+        Link(Node a, Node b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        Node other(Node node) {
+            return node == a ? b : a;
+        }
+
+        Direction from(Node node) {
+            return node == a ? fromA : fromB;
+        }
+    }
+
+    private static final class Tracked {
+        final long createdAt;
+        final Node destination; // null for broadcasts
+        final int frameBytes;
+
+        Tracked(long createdAt, Node destination, int frameBytes) {
+            this.createdAt = createdAt;
+            this.destination = destination;
+            this.frameBytes = frameBytes;
+        }
+    }
+
+    public Simulation(Topology topology, SimConfig config) {
+        this.topology = topology;
+        this.config = config;
+        this.random = new Random(config.seed);
+
+        nodes = new Node[topology.getNodeCount()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node(i);
+        }
+        for (int[] edge : topology.getEdges()) {
+            Link link = new Link(nodes[edge[0]], nodes[edge[1]]);
+            links.add(link);
+            link.a.links.add(link);
+            link.a.linkTo.put(link.b.address, link);
+            link.b.links.add(link);
+            link.b.linkTo.put(link.a.address, link);
+        }
+
+        List<String> ids = new ArrayList<>();
+        for (int count = 0; count <= ACK_BATCH_MAX; count++) {
+            ackFrameBytes[count] = frameBytes(FrameCodec.encodeAckBatch(ids));
+            ids.add(UUID.randomUUID().toString());
+        }
+        summaryFrameBytes = frameBytes(FrameCodec.encodeSyncSummary(0,
+                new InvertibleBloomLookupTable(24)));
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < config.contentBytes) text.append(FILLER);
+        content = text.substring(0, config.contentBytes);
+    }
+
+    public SimReport run() {
+        long wallStart = System.nanoTime();
+        long end = config.durationMs * 1000;
+
+        for (Link link : links) {
+            linkUp(link);
+        }
+        if (config.routing) {
+            for (final Node node : nodes) {
+                // Random phase, as phones start at different times
+                schedule((long) (random.nextDouble() * config.routeAdvertIntervalMs * 1000),
+                        () -> periodicAdvert(node));
+            }
+        }
+        for (int i = 0; i < config.messages; i++) {
+            long at = (config.trafficStartMs + (long) (random.nextDouble() * config.trafficWindowMs)) * 1000;
+            schedule(at, this::originate);
+        }
+
+        while (!events.isEmpty() && events.peek().time <= end) {
+            Event event = events.poll();
+            now = event.time;
+            event.action.run();
+            eventsProcessed++;
+        }
+        now = end;
+
+        long confirmations = 0;
+        long falsePositives = 0;
+        for (Node node : nodes) {
+            confirmations += node.store.confirmations;
+            falsePositives += node.store.falsePositives;
+        }
+        return new SimReport(topology, config, this, confirmations, falsePositives, System.nanoTime() - wallStart);
+    }
+
+    private void schedule(long at, Runnable action) {
+        events.add(new Event(at, nextSequence++, action));
+    }
+
+    private long nowMillis() {
+        return now / 1000;
+    }
+
+    // Traffic
+
+    private void originate() {
+        if (nodes.length < 2) return;
+        Node source = nodes[random.nextInt(nodes.length)];
+        Node destination = null;
+        if (random.nextDouble() < config.addressedFraction) {
+            do {
+                destination = nodes[random.nextInt(nodes.length)];
+            } while (destination == source);
+        }
+
+        Message message = new Message(new UUID(random.nextLong(), random.nextLong()).toString(),
+                source.address, source.phone, destination != null ? destination.phone : "BROADCAST",
+                content, config.messageType);
+        message.setTimestamp(nowMillis());
+        message.setTtl(config.ttl);
+
+        source.store.storeOutgoingMessage(message);
+        tracked.put(message.getId(), new Tracked(now, destination, FrameCodec.encodeMessage(message).length));
+        if (destination != null) addressed++; else broadcasts++;
+
+        relay(source, message, source.routing.nextHop(message.getRecipientPhone(), nowMillis()), null, false);
+    }
+
+    /**
+     * Same target choice as MeshNode: the next hop when there is a live route,
+     * otherwise every neighbour but the one it came from.
+     */
+    private void relay(Node node, Message message, String nextHop, String excludeAddress, boolean sync) {
+        if (nextHop != null && !nextHop.equals(excludeAddress)) {
+            Link link = node.linkTo.get(nextHop);
+            if (link != null && link.up) {
+                transmitMessage(node, link, message, sync);
+                return;
+            }
+        }
+        for (Link link : node.links) {
+            if (!link.up || link.other(node).address.equals(excludeAddress)) continue;
+            transmitMessage(node, link, message, sync);
+        }
+    }
+
+    private void transmitMessage(final Node from, final Link link, final Message message, boolean sync) {
+        if (sync) syncTransmissions++; else messageTransmissions++;
+        final Node to = link.other(from);
+        transmit(from, link, tracked.get(message.getId()).frameBytes, () -> receive(to, message, from, link));
+    }
+
+    private void receive(Node node, Message message, Node from, Link link) {
+        MessageHandler.Decision decision = node.handler.onMessage(message, nowMillis());
+        // Every copy is ACKed, new or not, so the sender stops waiting
+        queueAck(node, link);
+        if (!decision.isNew) {
+            duplicates++;
+            return;
+        }
+
+        Tracked info = tracked.get(message.getId());
+        if (info.destination == null) {
+            broadcastReceptions++;
+            latenciesMicros.add(now - info.createdAt);
+        } else if (info.destination == node) {
+            addressedDelivered++;
+            latenciesMicros.add(now - info.createdAt);
+        }
+
+        if (decision.forward != null) {
+            relay(node, decision.forward, decision.nextHop, from.address, false);
+        }
+    }
+
+    // Links
+
+    /**
+     * Queues {@code bytes} behind whatever the sender already has on this
+     * link, then delivers after the link latency unless the frame is lost or
+     * the link drops first.
+     */
+    private void transmit(Node from, final Link link, int bytes, final Runnable onArrival) {
+        if (!link.up) return;
+        bytesSent += bytes;
+        Direction direction = link.from(from);
+        long start = Math.max(now, direction.busyUntil);
+        long done = start + bytes * 1000000L / config.bandwidthBytesPerSec;
+        direction.busyUntil = done;
+
+        if (config.lossRate > 0 && random.nextDouble() < config.lossRate) {
+            lost++;
+            return;
+        }
+        if (onArrival == null) return;
+
+        final int epoch = link.epoch;
+        schedule(done + config.latencyMs * 1000, () -> {
+            if (link.up && link.epoch == epoch) {
+                onArrival.run();
+            } else {
+                lost++;
+            }
+        });
+    }
+
+    private void queueAck(final Node node, final Link link) {
+        Direction direction = link.from(node);
+        direction.pendingAcks++;
+        if (direction.pendingAcks >= ACK_BATCH_MAX) {
+            flushAcks(node, link);
+        } else if (direction.pendingAcks == 1) {
+            schedule(now + ACK_FLUSH_DELAY_MS * 1000, () -> flushAcks(node, link));
+        }
+    }
+
+    private void flushAcks(Node node, Link link) {
+        Direction direction = link.from(node);
+        int count = direction.pendingAcks;
+        if (count == 0) return;
+        direction.pendingAcks = 0;
+        ackTransmissions++;
+        transmit(node, link, ackFrameBytes[count], null);
+    }
+
+    private void linkUp(final Link link) {
+        link.up = true;
+        if (config.routing) {
+            advertise(link.a, link);
+            advertise(link.b, link);
+        }
+        if (config.syncOnLinkUp) {
+            sync(link.a, link);
+            sync(link.b, link);
+        }
+        if (config.meanLinkUpMs > 0) {
+            schedule(now + exponential(config.meanLinkUpMs), () -> linkDown(link));
+        }
+    }
+
+    private void linkDown(final Link link) {
+        link.up = false;
+        link.epoch++;
+        link.fromA.pendingAcks = 0;
+        link.fromB.pendingAcks = 0;
+        link.fromA.busyUntil = now;
+        link.fromB.busyUntil = now;
+        if (config.routing) {
+            if (link.a.routing.onLinkDown(link.b.address)) triggerAdvert(link.a);
+            if (link.b.routing.onLinkDown(link.a.address)) triggerAdvert(link.b);
+        }
+        schedule(now + exponential(config.meanLinkDownMs), () -> linkUp(link));
+    }
+
+    private long exponential(long meanMs) {
+        return (long) (-meanMs * 1000 * Math.log(1 - random.nextDouble()));
+    }
+
+    // Sync: node's summary reaches the peer, which pushes what node lacks
+
+    private void sync(final Node node, final Link link) {
+        controlTransmissions++;
+        final Node peer = link.other(node);
+        transmit(node, link, summaryFrameBytes, () -> {
+            for (Message message : new ArrayList<>(peer.store.all())) {
+                if (node.store.contains(message.getId())) continue;
+                Message copy = message.forwardCopy();
+                // A stored message always travels at least one more hop
+                if (copy.getTtl() < 1) copy.setTtl(1);
+                if (link.up) transmitMessage(peer, link, copy, true);
+            }
+        });
+    }
+
+    // Routing adverts
+
+    private void periodicAdvert(final Node node) {
+        node.routing.expire(nowMillis());
+        node.routing.nextRound();
+        advertise(node);
+        schedule(now + config.routeAdvertIntervalMs * 1000, () -> periodicAdvert(node));
+    }
+
+    private void triggerAdvert(final Node node) {
+        if (node.triggeredAdvertPending) return;
+        node.triggeredAdvertPending = true;
+        schedule(now + config.triggeredAdvertDelayMs * 1000, () -> {
+            node.triggeredAdvertPending = false;
+            advertise(node);
+        });
+    }
+
+    private void advertise(Node node) {
+        for (Link link : node.links) {
+            if (link.up) advertise(node, link);
+        }
+    }
+
+    private void advertise(final Node node, Link link) {
+        final Node peer = link.other(node);
+        final List<FrameCodec.RouteEntry> entries = node.routing.buildAdvert(peer.address);
+        controlTransmissions++;
+        transmit(node, link, frameBytes(FrameCodec.encodeRouteAdvert(entries)), () -> {
+            if (peer.routing.onAdvert(node.address, entries, nowMillis())) triggerAdvert(peer);
+        });
+    }
+
+    private static int frameBytes(byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length + 8);
+        try {
+            FrameCodec.writeFrame(out, FrameCodec.TYPE_ACK_BATCH, 0, payload);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.size();
+    }
+
+    int getNodeCount() {
+        return nodes.length;
+    }
+}
@@ -0,0 +1,99 @@
+package com.emergencymesh.simulator;
+
+import java.util.Random;
+
+/**
+ * Command-line entry point:
+ *
+ * <pre>
+ *   ./gradlew :simulator:run --args="--nodes 1000 --degree 8 --loss 0.05 --churn-up 60000"
+ * </pre>
+ */
+public class SimulatorMain {
+
+    private static final String USAGE = "Options:\n"
+            + "  --topology rgg|grid|chain   layout (default rgg)\n"
+            + "  --nodes N                   node count (default 1000)\n"
+            + "  --degree D                  average neighbours for rgg (default 8)\n"
+            + "  --radius R                  rgg radius in the unit square (overrides --degree)\n"
+            + "  --bandwidth BYTES_PER_SEC   per link direction\n"
+            + "  --latency MS                per hop\n"
+            + "  --loss RATE                 frame loss probability, 0..1\n"
+            + "  --churn-up MS               mean link up time; 0 disables churn\n"
+            + "  --churn-down MS             mean link down time\n"
+            + "  --messages N                messages to originate\n"
+            + "  --addressed RATE            share of addressed messages, 0..1\n"
+            + "  --ttl N                     initial TTL\n"
+            + "  --duration MS               simulated time\n"
+            + "  --seed N                    random seed\n"
+            + "  --seen-capacity N           seen-ID filter generation capacity\n"
+            + "  --seen-fp RATE              seen-ID filter false positive rate\n"
+            + "  --no-routing                flood everything, no route adverts\n"
+            + "  --no-sync                   no store sync when links come up\n";
+
+    public static void main(String[] args) {
+        SimConfig config = new SimConfig();
+        String layout = "rgg";
+        int nodes = 1000;
+        double degree = 8;
+        double radius = 0;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "--topology": layout = args[++i]; break;
+                    case "--nodes": nodes = Integer.parseInt(args[++i]); break;
+                    case "--degree": degree = Double.parseDouble(args[++i]); break;
+                    case "--radius": radius = Double.parseDouble(args[++i]); break;
+                    case "--bandwidth": config.bandwidthBytesPerSec = Integer.parseInt(args[++i]); break;
+                    case "--latency": config.latencyMs = Long.parseLong(args[++i]); break;
+                    case "--loss": config.lossRate = Double.parseDouble(args[++i]); break;
+                    case "--churn-up": config.meanLinkUpMs = Long.parseLong(args[++i]); break;
+                    case "--churn-down": config.meanLinkDownMs = Long.parseLong(args[++i]); break;
+                    case "--messages": config.messages = Integer.parseInt(args[++i]); break;
+                    case "--addressed": config.addressedFraction = Double.parseDouble(args[++i]); break;
+                    case "--ttl": config.ttl = Integer.parseInt(args[++i]); break;
+                    case "--duration": config.durationMs = Long.parseLong(args[++i]); break;
+                    case "--seed": config.seed = Long.parseLong(args[++i]); break;
+                    case "--seen-capacity": config.seenFilterCapacity = Integer.parseInt(args[++i]); break;
+                    case "--seen-fp": config.seenFilterFalsePositiveRate = Double.parseDouble(args[++i]); break;
+                    case "--no-routing": config.routing = false; break;
+                    case "--no-sync": config.syncOnLinkUp = false; break;
+                    case "--help":
+                        System.out.print(USAGE);
+                        return;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : "Missing option value");
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        Topology topology;
+        switch (layout) {
+            case "chain":
+                topology = Topology.chain(nodes);
+                break;
+            case "grid":
+                int side = (int) Math.ceil(Math.sqrt(nodes));
+                topology = Topology.grid(side, side);
+                break;
+            case "rgg":
+                if (radius <= 0) radius = Topology.radiusForDegree(nodes, degree);
+                topology = Topology.randomGeometric(nodes, radius, new Random(config.seed));
+                break;
+            default:
+                System.err.println("Unknown topology " + layout);
+                System.err.print(USAGE);
+                System.exit(2);
+                return;
+        }
+
+        System.out.println(new Simulation(topology, config).run());
+    }
+}
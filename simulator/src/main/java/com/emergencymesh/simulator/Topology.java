@@ -0,0 +1,119 @@
+package com.emergencymesh.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Which nodes are within radio range of each other: an undirected graph
+ * over node indexes 0..n-1.
+ */
+public final class Topology {
+    private final String name;
+    private final int nodeCount;
+    private final List<int[]> edges;
+
+    private Topology(String name, int nodeCount, List<int[]> edges) {
+        this.name = name;
+        this.nodeCount = nodeCount;
+        this.edges = Collections.unmodifiableList(edges);
+    }
+
+    /**
+     * Nodes in a line, each linked to the next: worst case for hop count.
+     */
+    public static Topology chain(int nodeCount) {
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i + 1 < nodeCount; i++) {
+            edges.add(new int[] {i, i + 1});
+        }
+        return new Topology("chain(" + nodeCount + ")", nodeCount, edges);
+    }
+
+    /**
+     * A width x height lattice with 4-neighbour links, like phones spread
+     * evenly over a floor.
+     */
+    public static Topology grid(int width, int height) {
+        List<int[]> edges = new ArrayList<>();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int node = y * width + x;
+                if (x + 1 < width) edges.add(new int[] {node, node + 1});
+                if (y + 1 < height) edges.add(new int[] {node, node + width});
+            }
+        }
+        return new Topology("grid(" + width + "x" + height + ")", width * height, edges);
+    }
+
+    /**
+     * Nodes dropped uniformly in a unit square, linked when closer than
+     * {@code radius}: the usual model of a crowd with a fixed radio range.
+     */
+    public static Topology randomGeometric(int nodeCount, double radius, Random random) {
+        double[] xs = new double[nodeCount];
+        double[] ys = new double[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            xs[i] = random.nextDouble();
+            ys[i] = random.nextDouble();
+        }
+
+        // Bucket into radius-sized cells so only neighbouring cells are compared
+        int cells = Math.max(1, (int) (1 / radius));
+        List<List<Integer>> buckets = new ArrayList<>(cells * cells);
+        for (int i = 0; i < cells * cells; i++) buckets.add(new ArrayList<Integer>());
+        for (int i = 0; i < nodeCount; i++) {
+            buckets.get(cell(ys[i], cells) * cells + cell(xs[i], cells)).add(i);
+        }
+
+        double r2 = radius * radius;
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            int cx = cell(xs[i], cells);
+            int cy = cell(ys[i], cells);
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int nx = cx + dx;
+                    int ny = cy + dy;
+                    if (nx < 0 || ny < 0 || nx >= cells || ny >= cells) continue;
+                    for (int j : buckets.get(ny * cells + nx)) {
+                        if (j <= i) continue;
+                        double ddx = xs[i] - xs[j];
+                        double ddy = ys[i] - ys[j];
+                        if (ddx * ddx + ddy * ddy <= r2) edges.add(new int[] {i, j});
+                    }
+                }
+            }
+        }
+        return new Topology(String.format(Locale.US, "rgg(%d, r=%.4f)", nodeCount, radius), nodeCount, edges);
+    }
+
+    /**
+     * Radius that gives roughly {@code degree} neighbours per node on average.
+     */
+    public static double radiusForDegree(int nodeCount, double degree) {
+        return Math.sqrt(degree / (Math.PI * nodeCount));
+    }
+
+    private static int cell(double coordinate, int cells) {
+        return Math.min(cells - 1, (int) (coordinate * cells));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public List<int[]> getEdges() {
+        return edges;
+    }
+
+    public double getAverageDegree() {
+        return nodeCount == 0 ? 0 : 2.0 * edges.size() / nodeCount;
+    }
+}
@@ -0,0 +1,91 @@
+package com.emergencymesh.simulator;
+
+import com.emergencymesh.core.model.Message;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SimulationTest {
+
+    @Test
+    public void chain_deliversEverythingWithinTtl() {
+        SimConfig config = new SimConfig();
+        config.messages = 40;
+        SimReport report = new Simulation(Topology.chain(Message.DEFAULT_TTL), config).run();
+
+        assertEquals(1.0, report.broadcastReach, 0.0);
+        assertEquals(1.0, report.addressedDelivery, 0.0);
+        assertEquals(0, report.lostFrames);
+    }
+
+    @Test
+    public void chain_ttlBoundsReach() {
+        SimConfig config = new SimConfig();
+        config.messages = 40;
+        config.addressedFraction = 0;
+        config.ttl = 2;
+        SimReport report = new Simulation(Topology.chain(30), config).run();
+
+        // At most two hops each way out of 29 other nodes
+        assertTrue(report.broadcastReach > 0);
+        assertTrue(report.broadcastReach <= 4.0 / 29);
+    }
+
+    @Test
+    public void grid_routesAddressedMessagesOnShortPaths() {
+        SimConfig config = new SimConfig();
+        config.addressedFraction = 1;
+        config.ttl = 20;
+        SimReport report = new Simulation(Topology.grid(8, 8), config).run();
+
+        assertEquals(1.0, report.addressedDelivery, 0.0);
+        // A routed message costs one transmission per hop, far below flooding
+        assertTrue(report.transmissionsPerDelivery < 15);
+    }
+
+    @Test
+    public void syncRepairsLossAndChurn() {
+        SimConfig config = new SimConfig();
+        config.ttl = 20;
+        config.lossRate = 0.1;
+        config.meanLinkUpMs = 20000;
+        config.meanLinkDownMs = 5000;
+        config.durationMs = 300000;
+        SimReport report = new Simulation(Topology.grid(6, 6), config).run();
+
+        assertTrue(report.lostFrames > 0);
+        assertTrue(report.syncTransmissions > 0);
+        assertTrue(report.broadcastReach > 0.95);
+    }
+
+    @Test
+    public void thousandNodes_simulateTheWholeRun() {
+        SimConfig config = new SimConfig();
+        config.routing = false;
+        int nodes = 1000;
+        Topology topology = Topology.randomGeometric(nodes, Topology.radiusForDegree(nodes, 8), new Random(7));
+        SimReport report = new Simulation(topology, config).run();
+
+        // Simulated-time properties only; wall-clock speed is reported by SimulatorMain
+        assertEquals(nodes, report.nodes);
+        assertEquals(config.durationMs, report.simulatedMs);
+        assertTrue(report.averageDegree > 4 && report.averageDegree < 12);
+        assertTrue(report.events > nodes);
+        assertTrue(report.broadcastReach > 0);
+        assertTrue(report.latencyMaxMs <= config.durationMs);
+    }
+
+    @Test
+    public void sameSeed_sameResult() {
+        SimConfig config = new SimConfig();
+        config.lossRate = 0.05;
+        SimReport first = new Simulation(Topology.grid(5, 5), config).run();
+        SimReport second = new Simulation(Topology.grid(5, 5), config).run();
+
+        assertEquals(first.messageTransmissions, second.messageTransmissions);
+        assertEquals(first.lostFrames, second.lostFrames);
+        assertEquals(first.latencyP99Ms, second.latencyP99Ms, 0.0);
+    }
+}